@@ -454,6 +454,11 @@ public class TApplication implements Runnable {
      */
     private List<TWindow> windows;
 
+    /**
+     * Maps screen cells to the widget a mouse event would hit.
+     */
+    private TWidgetMap widgetMap;
+
     /**
      * Timers that are being ticked.
      */
@@ -566,6 +571,7 @@ public class TApplication implements Runnable {
         fillEventQueue  = new ArrayList<TInputEvent>();
         drainEventQueue = new ArrayList<TInputEvent>();
         windows         = new LinkedList<TWindow>();
+        widgetMap       = new TWidgetMap();
         menus           = new LinkedList<TMenu>();
         subMenus        = new LinkedList<TMenu>();
         timers          = new LinkedList<TTimer>();
@@ -701,6 +707,38 @@ public class TApplication implements Runnable {
         repaint = false;
     }
 
+    /**
+     * Tell the application that a widget has moved, resized, changed Z
+     * order, or been added or removed.  The mouse hit-test map will be
+     * rebuilt before the next mouse event is dispatched.  Note package
+     * private access.
+     */
+    void invalidateWidgetMap() {
+        // widgetMap is null while the backend and windows are being set up.
+        if (widgetMap != null) {
+            widgetMap.invalidate();
+        }
+    }
+
+    /**
+     * Find the deepest widget that a mouse event at this screen position
+     * would be dispatched to.  Note package private access.
+     *
+     * @param x absolute screen column
+     * @param y absolute screen row
+     * @return the widget, or null if the position is on the desktop
+     * background
+     */
+    TWidget getWidgetAt(final int x, final int y) {
+        if (widgetMap.isDirty()) {
+            synchronized (windows) {
+                widgetMap.rebuild(windows, getScreen().getWidth(),
+                    getScreen().getHeight());
+            }
+        }
+        return widgetMap.getWidgetAt(x, y);
+    }
+
     /**
      * Run this application until it exits.
      */
@@ -830,6 +868,7 @@ public class TApplication implements Runnable {
                 getScreen().setDimensions(resize.getWidth(),
                     resize.getHeight());
                 desktopBottom = getScreen().getHeight() - 1;
+                widgetMap.invalidate();
                 mouseX = 0;
                 mouseY = 0;
                 oldMouseX = 0;
@@ -1088,6 +1127,7 @@ public class TApplication implements Runnable {
             window.onUnfocus();
             Collections.sort(windows);
             windows.remove(0);
+            widgetMap.invalidate();
             TWindow activeWindow = null;
             for (TWindow w: windows) {
                 if (w.getZ() > z) {
@@ -1195,6 +1235,7 @@ public class TApplication implements Runnable {
                 w.setZ(w.getZ() + 1);
             }
             windows.add(window);
+            widgetMap.invalidate();
             window.setZ(0);
             window.setActive(true);
             window.onFocus();
@@ -1330,25 +1371,27 @@ public class TApplication implements Runnable {
                 return;
             }
 
-            for (TWindow window: windows) {
+            // The widget map knows which window is on top at every cell.
+            TWidget widget = getWidgetAt(mouse.getAbsoluteX(),
+                mouse.getAbsoluteY());
+            if (widget != null) {
+                TWindow window = widget.getWindow();
                 assert (!window.isModal());
-                if (window.mouseWouldHit(mouse)) {
-                    if (window == windows.get(0)) {
-                        // Clicked on the same window, nothing to do
-                        return;
-                    }
-
-                    // We will be switching to another window
-                    assert (windows.get(0).isActive());
-                    assert (!window.isActive());
-                    windows.get(0).onUnfocus();
-                    windows.get(0).setActive(false);
-                    windows.get(0).setZ(window.getZ());
-                    window.setZ(0);
-                    window.setActive(true);
-                    window.onFocus();
+                if (window == windows.get(0)) {
+                    // Clicked on the same window, nothing to do
                     return;
                 }
+
+                // We will be switching to another window
+                assert (windows.get(0).isActive());
+                assert (!window.isActive());
+                windows.get(0).onUnfocus();
+                windows.get(0).setActive(false);
+                windows.get(0).setZ(window.getZ());
+                window.setZ(0);
+                window.setActive(true);
+                window.onFocus();
+                return;
             }
         }
 
@@ -35,14 +35,93 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * TDirectoryList shows the files within a directory.
+ * TDirectoryList shows the files within a directory.  The directory is
+ * read on a background thread and the list fills in as it is read.
  */
 public final class TDirectoryList extends TList {
 
+    /**
+     * The files of one directory, added to by a TDirectoryLoader thread.
+     */
+    private final class FilesProvider extends TListProvider
+        implements TDirectoryLoader.Listener {
+
+        /**
+         * Files in the directory, guarded by this.
+         */
+        private List<TDirectoryLoader.Entry> files =
+            new ArrayList<TDirectoryLoader.Entry>();
+
+        /**
+         * Get the number of files read so far.
+         *
+         * @return the number of files
+         */
+        @Override
+        public synchronized int size() {
+            return files.size();
+        }
+
+        /**
+         * Get the line to draw for one file.
+         *
+         * @param index index into files
+         * @return the line to draw
+         */
+        @Override
+        public String get(final int index) {
+            return renderFile(getFile(index));
+        }
+
+        /**
+         * Get one file.
+         *
+         * @param index index into files
+         * @return the file entry
+         */
+        public synchronized TDirectoryLoader.Entry getFile(final int index) {
+            return files.get(index);
+        }
+
+        /**
+         * Keep the plain files of a batch.
+         *
+         * @param entries the entries read since the last call
+         */
+        public void entriesLoaded(final List<TDirectoryLoader.Entry> entries) {
+            synchronized (this) {
+                for (TDirectoryLoader.Entry entry: entries) {
+                    if (entry.getName().startsWith(".")) {
+                        continue;
+                    }
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+                    files.add(entry);
+                }
+            }
+            // Changed rather than appended: a directory listing should stay
+            // at the top while it fills in, not follow the bottom.
+            fireRowsChanged();
+        }
+
+        /**
+         * Nothing more to do when the directory is done.
+         */
+        public void loadFinished() {
+            // NOP
+        }
+    }
+
     /**
      * Files in the directory.
      */
-    private List<File> files;
+    private FilesProvider files;
+
+    /**
+     * The load of the directory, if it may still be running.
+     */
+    private TDirectoryLoader.Request request;
 
     /**
      * Root path containing files to display.
@@ -57,24 +136,13 @@ public final class TDirectoryList extends TList {
     public void setPath(final String path) {
         this.path = new File(path);
 
-        List<String> newStrings = new ArrayList<String>();
-        files.clear();
-
-        // Build a list of files in this directory
-        File [] newFiles = this.path.listFiles();
-        if (newFiles != null) {
-            for (int i = 0; i < newFiles.length; i++) {
-                if (newFiles[i].getName().startsWith(".")) {
-                    continue;
-                }
-                if (newFiles[i].isDirectory()) {
-                    continue;
-                }
-                files.add(newFiles[i]);
-                newStrings.add(renderFile(files.size() - 1));
-            }
+        if (request != null) {
+            request.cancel();
         }
-        setList(newStrings);
+        files = new FilesProvider();
+        setProvider(files);
+        request = TDirectoryLoader.getInstance().load(this.path.toPath(),
+            files);
     }
 
     /**
@@ -83,23 +151,22 @@ public final class TDirectoryList extends TList {
      * @return the path
      */
     public File getPath() {
-        path = files.get(getSelectedIndex());
+        path = files.getFile(getSelectedIndex()).getFile();
         return path;
     }
 
     /**
      * Format one of the entries for drawing on the screen.
      *
-     * @param index index into files
+     * @param file the file entry
      * @return the line to draw
      */
-    private String renderFile(final int index) {
-        File file = files.get(index);
+    private String renderFile(final TDirectoryLoader.Entry file) {
         String name = file.getName();
         if (name.length() > 20) {
             name = name.substring(0, 17) + "...";
         }
-        return String.format("%-20s %5dk", name, (file.length() / 1024));
+        return String.format("%-20s %5dk", name, (file.getSize() / 1024));
     }
 
     /**
@@ -133,7 +200,6 @@ public final class TDirectoryList extends TList {
         final int y, final int width, final int height, final TAction action) {
 
         super(parent, null, x, y, width, height, action);
-        files = new ArrayList<File>();
         setPath(path);
     }
 
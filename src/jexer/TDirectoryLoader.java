@@ -0,0 +1,489 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TDirectoryLoader reads directories for TDirectoryList and
+ * TDirectoryTreeItem.
+ *
+ * <p>
+ * Each load runs on its own background thread, reads the directory with a
+ * DirectoryStream, and hands the entries to a Listener in batches so that
+ * a large or slow directory fills in while it is read.  Completed listings
+ * are kept in a cache with their BasicFileAttributes, so loading a known
+ * directory again calls the Listener immediately on the caller's thread.
+ * A WatchService thread drops a cached listing as soon as anything in that
+ * directory changes.  Directories that cannot be watched are never cached.
+ */
+final class TDirectoryLoader {
+
+    /**
+     * One entry of a directory listing.
+     */
+    static final class Entry {
+
+        /**
+         * The path to this entry.
+         */
+        private final Path path;
+
+        /**
+         * The attributes read when the directory was listed.
+         */
+        private final BasicFileAttributes attributes;
+
+        /**
+         * If true, this is a directory that can be listed.
+         */
+        private final boolean listable;
+
+        /**
+         * Package private constructor.
+         *
+         * @param path the path to this entry
+         * @param attributes the entry's attributes
+         * @param listable if true, this is a directory that can be listed
+         */
+        Entry(final Path path, final BasicFileAttributes attributes,
+            final boolean listable) {
+
+            this.path = path;
+            this.attributes = attributes;
+            this.listable = listable;
+        }
+
+        /**
+         * Get the File for this entry.
+         *
+         * @return the File
+         */
+        public File getFile() {
+            return path.toFile();
+        }
+
+        /**
+         * Get the file name of this entry, without the directory.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return path.getFileName().toString();
+        }
+
+        /**
+         * See if this entry is a directory.
+         *
+         * @return true if this is a directory, or a link to one
+         */
+        public boolean isDirectory() {
+            return attributes.isDirectory();
+        }
+
+        /**
+         * See if this entry is a directory that can be listed.
+         *
+         * @return true if this is a readable directory
+         */
+        public boolean isListable() {
+            return listable;
+        }
+
+        /**
+         * Get the size of this entry.
+         *
+         * @return the size in bytes
+         */
+        public long getSize() {
+            return attributes.size();
+        }
+    }
+
+    /**
+     * Receives the entries of one load.  Calls are made on the loading
+     * thread, or on the caller's thread if the listing was cached.
+     */
+    interface Listener {
+
+        /**
+         * Called with each batch of entries, in directory order.
+         *
+         * @param entries the entries read since the last call
+         */
+        void entriesLoaded(List<Entry> entries);
+
+        /**
+         * Called once after the last batch.
+         */
+        void loadFinished();
+    }
+
+    /**
+     * A load in progress.
+     */
+    static final class Request {
+
+        /**
+         * If true, stop reading and discard the listing.
+         */
+        private volatile boolean cancelled = false;
+
+        /**
+         * Stop this load.  The listener may still receive one batch that was
+         * already being delivered.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * Number of entries handed to a Listener at a time.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Number of directory listings kept in the cache.
+     */
+    private static final int CACHE_SIZE = 64;
+
+    /**
+     * The shared loader.
+     */
+    private static TDirectoryLoader instance = null;
+
+    /**
+     * Get the shared loader.
+     *
+     * @return the loader
+     */
+    static synchronized TDirectoryLoader getInstance() {
+        if (instance == null) {
+            instance = new TDirectoryLoader();
+        }
+        return instance;
+    }
+
+    /**
+     * Completed listings, least recently used first.  Guarded by this.
+     */
+    private Map<Path, List<Entry>> cache;
+
+    /**
+     * A number for each watched directory that is unique to the time it
+     * was registered.  A directory stops being watched when it changes, so
+     * a load only caches its listing if the number did not move while it
+     * read.  Guarded by this.
+     */
+    private Map<Path, Integer> versions = new HashMap<Path, Integer>();
+
+    /**
+     * The last number handed out in versions.  Guarded by this.
+     */
+    private int lastVersion = 0;
+
+    /**
+     * The number of loads in progress for each directory.  A directory is
+     * only unwatched when no load still needs its version.  Guarded by
+     * this.
+     */
+    private Map<Path, Integer> loading = new HashMap<Path, Integer>();
+
+    /**
+     * The watch key for each watched directory.  Guarded by this.
+     */
+    private Map<Path, WatchKey> watchKeys = new HashMap<Path, WatchKey>();
+
+    /**
+     * Watches cached directories, or null if watching is not supported.
+     */
+    private WatchService watchService = null;
+
+    /**
+     * Private constructor, use getInstance().
+     */
+    @SuppressWarnings("serial")
+    private TDirectoryLoader() {
+        cache = new LinkedHashMap<Path, List<Entry>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                final Map.Entry<Path, List<Entry>> eldest) {
+
+                if (size() > CACHE_SIZE) {
+                    if (!loading.containsKey(eldest.getKey())) {
+                        unwatch(eldest.getKey());
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            // No watching, so no caching either.
+            return;
+        } catch (UnsupportedOperationException e) {
+            return;
+        }
+
+        Thread watcher = new Thread(new Runnable() {
+            public void run() {
+                watchLoop();
+            }
+        }, "TDirectoryLoader.watch");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Load a directory.  If its listing is cached, the listener is called
+     * before this returns.
+     *
+     * @param directory the directory to list.  It is made absolute and
+     * normalized, so that every spelling of a directory shares one cache
+     * entry and one watch.
+     * @param listener receives the entries
+     * @return the request, which can be used to cancel the load
+     */
+    Request load(final Path directory, final Listener listener) {
+        final Path dir = directory.toAbsolutePath().normalize();
+        final Request request = new Request();
+
+        List<Entry> cached;
+        synchronized (this) {
+            cached = cache.get(dir);
+        }
+        if (cached != null) {
+            listener.entriesLoaded(cached);
+            listener.loadFinished();
+            return request;
+        }
+
+        Thread loader = new Thread(new Runnable() {
+            public void run() {
+                read(dir, request, listener);
+            }
+        }, "TDirectoryLoader");
+        loader.setDaemon(true);
+        loader.start();
+        return request;
+    }
+
+    /**
+     * Read a directory, the body of a loading thread.
+     *
+     * @param dir the directory to list
+     * @param request the request, checked for cancellation
+     * @param listener receives the entries
+     */
+    private void read(final Path dir, final Request request,
+        final Listener listener) {
+
+        synchronized (this) {
+            Integer count = loading.get(dir);
+            loading.put(dir, (count == null ? 1 : count + 1));
+        }
+
+        // Watch before reading, so that a change made while the directory
+        // is read keeps the listing out of the cache.
+        Integer version = watch(dir);
+
+        List<Entry> entries = new ArrayList<Entry>();
+        List<Entry> batch = new ArrayList<Entry>();
+        DirectoryStream<Path> stream = null;
+        try {
+            stream = Files.newDirectoryStream(dir);
+            for (Path path: stream) {
+                if (request.cancelled) {
+                    break;
+                }
+                Entry entry = readEntry(path);
+                if (entry == null) {
+                    continue;
+                }
+                entries.add(entry);
+                batch.add(entry);
+                if (batch.size() == BATCH_SIZE) {
+                    listener.entriesLoaded(batch);
+                    batch = new ArrayList<Entry>();
+                }
+            }
+        } catch (IOException e) {
+            // Unreadable directory: show what was read, if anything.
+        } catch (DirectoryIteratorException e) {
+            // Same as above, but thrown from the middle of the listing.
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // Nothing to do here.
+                }
+            }
+        }
+
+        synchronized (this) {
+            int count = loading.get(dir) - 1;
+            if (count == 0) {
+                loading.remove(dir);
+            } else {
+                loading.put(dir, count);
+            }
+            if (!request.cancelled
+                && (version != null)
+                && version.equals(versions.get(dir))
+            ) {
+                cache.put(dir, Collections.unmodifiableList(entries));
+            } else if ((count == 0) && !cache.containsKey(dir)) {
+                // Another load of this directory may still cache it, so
+                // only the last one stops watching it.
+                unwatch(dir);
+            }
+        }
+
+        if (!request.cancelled) {
+            if (batch.size() > 0) {
+                listener.entriesLoaded(batch);
+            }
+            listener.loadFinished();
+        }
+    }
+
+    /**
+     * Read the attributes of one directory entry.
+     *
+     * @param path the entry
+     * @return the entry, or null if it vanished or cannot be read
+     */
+    private Entry readEntry(final Path path) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path,
+                BasicFileAttributes.class);
+        } catch (IOException e) {
+            // A dangling link: describe the link itself.
+            try {
+                attributes = Files.readAttributes(path,
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e2) {
+                return null;
+            }
+        }
+        boolean listable = attributes.isDirectory() && Files.isReadable(path);
+        return new Entry(path, attributes, listable);
+    }
+
+    /**
+     * Start watching a directory.
+     *
+     * @param dir the directory
+     * @return the directory's current version, or null if it cannot be
+     * watched
+     */
+    private synchronized Integer watch(final Path dir) {
+        if (watchService == null) {
+            return null;
+        }
+        if (!watchKeys.containsKey(dir)) {
+            try {
+                watchKeys.put(dir, dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY));
+            } catch (IOException e) {
+                return null;
+            } catch (UnsupportedOperationException e) {
+                return null;
+            }
+            lastVersion++;
+            versions.put(dir, lastVersion);
+        }
+        return versions.get(dir);
+    }
+
+    /**
+     * Stop watching a directory.  Must be called with this locked.
+     *
+     * @param dir the directory
+     */
+    private void unwatch(final Path dir) {
+        WatchKey key = watchKeys.remove(dir);
+        if (key != null) {
+            key.cancel();
+        }
+        versions.remove(dir);
+    }
+
+    /**
+     * The body of the watch thread: drop the cached listing of every
+     * directory that reports a change.
+     */
+    private void watchLoop() {
+        for (;;) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            Path dir = (Path) key.watchable();
+            key.pollEvents();
+            synchronized (this) {
+                // The next load registers the directory again.
+                if (watchKeys.get(dir) == key) {
+                    cache.remove(dir);
+                    unwatch(dir);
+                }
+            }
+        }
+    }
+
+}
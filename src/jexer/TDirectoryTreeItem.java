@@ -32,12 +32,15 @@ package jexer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.LinkedList;
 
 /**
  * TDirectoryTreeItem is a single item in a disk directory tree view.
+ * Subdirectories are read on a background thread when the item is
+ * expanded, and are added as they arrive.
  */
 public class TDirectoryTreeItem extends TTreeItem {
 
@@ -55,6 +58,70 @@ public class TDirectoryTreeItem extends TTreeItem {
         return file;
     }
 
+    /**
+     * Collects the subdirectories of one load of this directory.
+     */
+    private final class SubdirectoryListener
+        implements TDirectoryLoader.Listener {
+
+        /**
+         * Keep the subdirectories of a batch and ask the view for an
+         * update.
+         *
+         * @param entries the entries read since the last call
+         */
+        public void entriesLoaded(final List<TDirectoryLoader.Entry> entries) {
+            synchronized (pending) {
+                if (listener != this) {
+                    return;
+                }
+                for (TDirectoryLoader.Entry entry: entries) {
+                    if (entry.getName().startsWith(".")) {
+                        // Hide dot-files
+                        continue;
+                    }
+                    if (!entry.isDirectory()) {
+                        continue;
+                    }
+                    pending.add(entry);
+                }
+            }
+            getTreeView().postUpdate(TDirectoryTreeItem.this);
+        }
+
+        /**
+         * Nothing more to do when the directory is done.
+         */
+        public void loadFinished() {
+            // NOP
+        }
+    }
+
+    /**
+     * The load of this directory, if it may still be running.
+     */
+    private TDirectoryLoader.Request request = null;
+
+    /**
+     * The listener of the current load.  Batches from any other listener
+     * are from a cancelled load.  Guarded by pending.
+     */
+    private TDirectoryLoader.Listener listener = null;
+
+    /**
+     * Subdirectories read but not yet added as children.  Guarded by
+     * itself.
+     */
+    private List<TDirectoryLoader.Entry> pending =
+        new ArrayList<TDirectoryLoader.Entry>();
+
+    /**
+     * A child added before the directory was read, on the way to the path
+     * opened by the constructor.  The loaded entry with the same name is
+     * skipped.
+     */
+    private TDirectoryTreeItem pathChild = null;
+
     /**
      * Called when this item is expanded or collapsed.  this.expanded will be
      * true if this item was just expanded from a mouse click or keypress.
@@ -67,6 +134,15 @@ public class TDirectoryTreeItem extends TTreeItem {
             return;
         }
         getChildren().clear();
+        pathChild = null;
+        if (request != null) {
+            request.cancel();
+            request = null;
+        }
+        synchronized (pending) {
+            listener = null;
+            pending.clear();
+        }
 
         // Make sure we can read it before trying to.
         if (file.canRead()) {
@@ -82,30 +158,47 @@ public class TDirectoryTreeItem extends TTreeItem {
             return;
         }
 
-        for (File f: file.listFiles()) {
-            // System.err.printf("   -> file %s %s\n", file, file.getName());
+        TDirectoryLoader.Listener newListener = new SubdirectoryListener();
+        synchronized (pending) {
+            listener = newListener;
+        }
+        request = TDirectoryLoader.getInstance().load(file.toPath(),
+            newListener);
 
-            if (f.getName().startsWith(".")) {
-                // Hide dot-files
-                continue;
-            }
-            if (!f.isDirectory()) {
-                continue;
-            }
+        getTreeView().reflow();
+    }
 
-            try {
+    /**
+     * Add the subdirectories that were read since the last update.
+     */
+    @Override
+    final void applyUpdate() {
+        List<TDirectoryTreeItem> items = new ArrayList<TDirectoryTreeItem>();
+        synchronized (pending) {
+            for (TDirectoryLoader.Entry entry: pending) {
+                if ((pathChild != null)
+                    && entry.getName().equals(pathChild.getText())
+                ) {
+                    continue;
+                }
                 TDirectoryTreeItem item = new TDirectoryTreeItem(getTreeView(),
-                    f.getCanonicalPath(), false, false);
-
+                    entry.getFile(), entry.isListable());
                 item.level = this.level + 1;
-                getChildren().add(item);
-            } catch (IOException e) {
-                continue;
+                item.parentItem = this;
+                items.add(item);
             }
+            pending.clear();
+        }
+        if (items.size() == 0) {
+            return;
         }
-        Collections.sort(getChildren());
 
-        getTreeView().reflow();
+        // Sorting the batch first leaves two sorted runs, which the full
+        // sort merges in linear time.
+        Collections.sort(items);
+        getChildren().addAll(items);
+        Collections.sort(getChildren());
+        getTreeView().updateRows(this);
     }
 
     /**
@@ -124,6 +217,22 @@ public class TDirectoryTreeItem extends TTreeItem {
         throw new IllegalArgumentException("Do not call addChild(), use onExpand() instead");
     }
 
+    /**
+     * Private constructor for a subdirectory that has already been read.
+     *
+     * @param view root TTreeView
+     * @param file the subdirectory
+     * @param listable if true, the subdirectory can be read
+     */
+    private TDirectoryTreeItem(final TTreeView view, final File file,
+        final boolean listable) {
+
+        super(view, file.getName(), false);
+        this.file = file;
+        setSelectable(listable);
+        setExpandable(true);
+    }
+
     /**
      * Public constructor.
      *
@@ -197,19 +306,23 @@ public class TDirectoryTreeItem extends TTreeItem {
         onExpand();
 
         if (openParents) {
+            // Add each directory on the way down to the path right away,
+            // rather than waiting for its parent to be read.
             TDirectoryTreeItem childFile = this;
             Collections.reverse(parentFiles);
             for (String p: parentFiles) {
-                for (TWidget widget: childFile.getChildren()) {
-                    TDirectoryTreeItem child = (TDirectoryTreeItem) widget;
-                    if (child.getText().equals(p)) {
-                        childFile = child;
-                        childFile.setExpanded(true);
-                        childFile.onExpand();
-                        break;
-                    }
-                }
+                File dir = new File(childFile.file, p);
+                TDirectoryTreeItem child = new TDirectoryTreeItem(getTreeView(),
+                    dir, dir.canRead());
+                child.setExpanded(true);
+                child.onExpand();
+                child.level = childFile.level + 1;
+                child.parentItem = childFile;
+                childFile.getChildren().add(child);
+                childFile.pathChild = child;
+                childFile = child;
             }
+            getTreeView().updateRows(this);
             unselect();
             getTreeView().setSelected(childFile);
             setExpanded(oldExpanded);
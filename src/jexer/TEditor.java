@@ -0,0 +1,588 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import java.io.File;
+import java.io.IOException;
+
+import jexer.bits.CellAttributes;
+import jexer.event.TKeypressEvent;
+import jexer.event.TMouseEvent;
+import static jexer.TKeypress.*;
+
+/**
+ * TEditor implements a multi-line text editor.  The text is kept in a
+ * piece table (see TEditorDocument), so files are memory-mapped rather
+ * than read, edits and line lookups take O(log n), and every edit can be
+ * undone (Ctrl-Z) and redone (Ctrl-Y).  Only the lines in view are ever
+ * decoded.
+ */
+public class TEditor extends TWidget {
+
+    /**
+     * Number of columns between tab stops.
+     */
+    private static final int TAB_SIZE = 8;
+
+    /**
+     * The text being edited.
+     */
+    private TEditorDocument document;
+
+    /**
+     * Vertical scrollbar.
+     */
+    private TVScroller vScroller;
+
+    /**
+     * Horizontal scrollbar.
+     */
+    private THScroller hScroller;
+
+    /**
+     * Widest line seen so far.  Lines that have never been drawn are not
+     * counted.
+     */
+    private int maxLineWidth = 0;
+
+    /**
+     * Line the cursor is on.
+     */
+    private int cursorLine = 0;
+
+    /**
+     * Character index of the cursor on its line.
+     */
+    private int cursorColumn = 0;
+
+    /**
+     * Screen column the cursor tries to stay in when moving up and down,
+     * or -1 to use the current column.
+     */
+    private int preferredColumn = -1;
+
+    /**
+     * If true, new characters are inserted at the cursor.
+     */
+    private boolean insertMode = true;
+
+    /**
+     * Public constructor.
+     *
+     * @param parent parent widget
+     * @param x column relative to parent
+     * @param y row relative to parent
+     * @param width width of text area
+     * @param height height of text area
+     */
+    public TEditor(final TWidget parent, final int x, final int y,
+        final int width, final int height) {
+
+        this(parent, "", x, y, width, height);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param parent parent widget
+     * @param text initial text
+     * @param x column relative to parent
+     * @param y row relative to parent
+     * @param width width of text area
+     * @param height height of text area
+     */
+    public TEditor(final TWidget parent, final String text, final int x,
+        final int y, final int width, final int height) {
+
+        // Set parent and window
+        super(parent, x, y, width, height);
+
+        setCursorVisible(true);
+        document = TEditorDocument.fromString(text);
+        reflow();
+    }
+
+    /**
+     * Replace the text with the contents of a file.  The file is mapped
+     * into memory, so even very large files open immediately.
+     *
+     * @param file the file to edit
+     * @throws IOException if the file cannot be mapped
+     */
+    public void loadFile(final File file) throws IOException {
+        document = TEditorDocument.fromFile(file);
+        cursorLine = 0;
+        cursorColumn = 0;
+        preferredColumn = -1;
+        maxLineWidth = 0;
+        vScroller.toTop();
+        hScroller.setValue(0);
+        reflow();
+    }
+
+    /**
+     * Write the text to a file.
+     *
+     * @param file the file to write
+     * @throws IOException if a java.io operation throws
+     */
+    public void saveFile(final File file) throws IOException {
+        document.save(file);
+    }
+
+    /**
+     * Get the text.
+     *
+     * @return the whole text
+     */
+    public String getText() {
+        return document.getText();
+    }
+
+    /**
+     * See if the text changed since it was created, loaded, or saved.
+     *
+     * @return true if the text was changed
+     */
+    public boolean isModified() {
+        return document.isModified();
+    }
+
+    /**
+     * Resize text and scrollbars for a new width/height.
+     */
+    public void reflow() {
+        if (vScroller == null) {
+            vScroller = new TVScroller(this, getWidth() - 1, 0,
+                getHeight() - 1);
+            vScroller.setTopValue(0);
+            vScroller.setValue(0);
+        } else {
+            vScroller.setX(getWidth() - 1);
+            vScroller.setHeight(getHeight() - 1);
+        }
+        vScroller.setBigChange(getHeight() - 1);
+
+        if (hScroller == null) {
+            hScroller = new THScroller(this, 0, getHeight() - 1,
+                getWidth() - 1);
+            hScroller.setLeftValue(0);
+            hScroller.setValue(0);
+        } else {
+            hScroller.setY(getHeight() - 1);
+            hScroller.setWidth(getWidth() - 1);
+        }
+        hScroller.setBigChange(getWidth() - 1);
+
+        computeBounds();
+    }
+
+    /**
+     * Recompute the bounds for the scrollbars.
+     */
+    private void computeBounds() {
+        vScroller.setBottomValue(document.getLineCount() - getHeight() + 1);
+        if (vScroller.getBottomValue() < 0) {
+            vScroller.setBottomValue(0);
+        }
+        if (vScroller.getValue() > vScroller.getBottomValue()) {
+            vScroller.setValue(vScroller.getBottomValue());
+        }
+
+        hScroller.setRightValue(maxLineWidth - getWidth() + 2);
+        if (hScroller.getRightValue() < 0) {
+            hScroller.setRightValue(0);
+        }
+        if (hScroller.getValue() > hScroller.getRightValue()) {
+            hScroller.setValue(hScroller.getRightValue());
+        }
+    }
+
+    /**
+     * Get the screen column of a character, counting tabs.
+     *
+     * @param text the start of a line
+     * @param column index of the character in text, may be text.length()
+     * @return the screen column
+     */
+    private static int getScreenColumn(final String text, final int column) {
+        int x = 0;
+        for (int i = 0; (i < column) && (i < text.length()); i++) {
+            if (text.charAt(i) == '\t') {
+                x = (x / TAB_SIZE + 1) * TAB_SIZE;
+            } else {
+                x++;
+            }
+        }
+        return x;
+    }
+
+    /**
+     * Get the character of a line that covers a screen column.
+     *
+     * @param line the line number
+     * @param x the screen column
+     * @return the character index, at most the line length
+     */
+    private int getColumnAt(final int line, final int x) {
+        // Tabs only make a line wider, so x + 1 characters is enough.
+        String text = document.getLineText(line, x + 1);
+        int screenX = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int nextX = screenX + 1;
+            if (text.charAt(i) == '\t') {
+                nextX = (screenX / TAB_SIZE + 1) * TAB_SIZE;
+            }
+            if (nextX > x) {
+                return i;
+            }
+            screenX = nextX;
+        }
+        return text.length();
+    }
+
+    /**
+     * Get the cursor's screen column.
+     *
+     * @return the column, not counting the horizontal scroll
+     */
+    private int getCursorScreenColumn() {
+        return getScreenColumn(document.getLineText(cursorLine, cursorColumn),
+            cursorColumn);
+    }
+
+    /**
+     * Get the offset of the cursor in the document.
+     *
+     * @return the offset
+     */
+    private long getCursorOffset() {
+        return document.getOffset(cursorLine, cursorColumn);
+    }
+
+    /**
+     * Move the cursor to an offset in the document.
+     *
+     * @param offset the offset
+     */
+    private void setCursorOffset(final long offset) {
+        cursorLine = document.getLine(offset);
+        cursorColumn = document.getColumn(offset);
+    }
+
+    /**
+     * Move the cursor to another line, staying as close as possible to the
+     * screen column it was in before it started moving up or down.
+     *
+     * @param line the new line
+     */
+    private void moveToLine(final int line) {
+        if (preferredColumn < 0) {
+            preferredColumn = getCursorScreenColumn();
+        }
+        cursorLine = line;
+        cursorColumn = getColumnAt(line, preferredColumn);
+    }
+
+    /**
+     * Scroll so that the cursor is in view.
+     */
+    private void scrollToCursor() {
+        computeBounds();
+        int rows = getHeight() - 1;
+        if (cursorLine < vScroller.getValue()) {
+            vScroller.setValue(cursorLine);
+        } else if (cursorLine >= vScroller.getValue() + rows) {
+            vScroller.setValue(cursorLine - rows + 1);
+        }
+
+        int columns = getWidth() - 1;
+        int x = getCursorScreenColumn();
+        if (x >= maxLineWidth) {
+            maxLineWidth = x + 1;
+            computeBounds();
+        }
+        if (x < hScroller.getValue()) {
+            hScroller.setValue(x);
+        } else if (x >= hScroller.getValue() + columns) {
+            hScroller.setValue(x - columns + 1);
+        }
+    }
+
+    /**
+     * Draw the lines in view.
+     */
+    @Override
+    public void draw() {
+        CellAttributes color = getTheme().getColor("teditor");
+
+        int top = vScroller.getValue();
+        int left = hScroller.getValue();
+        int columns = getWidth() - 1;
+        int rows = getHeight() - 1;
+        int lineCount = document.getLineCount();
+
+        for (int row = 0; row < rows; row++) {
+            getScreen().hLineXY(0, row, columns, ' ', color);
+            int line = top + row;
+            if (line >= lineCount) {
+                continue;
+            }
+
+            // Tabs only make a line wider, so left + columns characters
+            // are enough to fill the row.
+            String text = document.getLineText(line, left + columns);
+            int x = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char ch = text.charAt(i);
+                if (ch == '\t') {
+                    x = (x / TAB_SIZE + 1) * TAB_SIZE;
+                    continue;
+                }
+                if ((x >= left) && (x < left + columns)) {
+                    if ((ch < 0x20) || (ch == 0x7F)) {
+                        ch = '?';
+                    }
+                    getScreen().putCharXY(x - left, row, ch, color);
+                }
+                x++;
+            }
+            if ((text.length() == left + columns) && (x <= left + columns)) {
+                // Cut short, there is more to the line than we decoded
+                x = left + columns + 1;
+            }
+            if (x > maxLineWidth) {
+                maxLineWidth = x;
+            }
+        }
+        computeBounds();
+
+        // Fix the cursor, it will be rendered by TApplication.drawAll().
+        int cursorX = getCursorScreenColumn() - left;
+        int cursorY = cursorLine - top;
+        if ((cursorX >= 0) && (cursorX < columns)
+            && (cursorY >= 0) && (cursorY < rows)
+        ) {
+            setCursorVisible(true);
+            setCursorX(cursorX);
+            setCursorY(cursorY);
+        } else {
+            setCursorVisible(false);
+        }
+    }
+
+    /**
+     * Handle mouse press events.
+     *
+     * @param mouse mouse button press event
+     */
+    @Override
+    public void onMouseDown(final TMouseEvent mouse) {
+        if (mouse.isMouseWheelUp()) {
+            vScroller.decrement();
+            return;
+        }
+        if (mouse.isMouseWheelDown()) {
+            vScroller.increment();
+            return;
+        }
+
+        if ((mouse.isMouse1())
+            && (mouse.getX() < getWidth() - 1)
+            && (mouse.getY() < getHeight() - 1)
+        ) {
+            // Move cursor
+            cursorLine = Math.min(vScroller.getValue() + mouse.getY(),
+                document.getLineCount() - 1);
+            cursorColumn = getColumnAt(cursorLine,
+                hScroller.getValue() + mouse.getX());
+            preferredColumn = -1;
+            return;
+        }
+
+        // Pass to children
+        super.onMouseDown(mouse);
+    }
+
+    /**
+     * Replace part of the text and put the cursor after the new text.
+     *
+     * @param start offset of the first byte to replace
+     * @param end offset after the last byte to replace
+     * @param text the new text
+     * @param typing if true, this is a typed character that may join the
+     * previous typed characters in one undo step
+     */
+    private void replace(final long start, final long end, final String text,
+        final boolean typing) {
+
+        document.replace(start, end, text, typing);
+        setCursorOffset(start);
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                cursorLine++;
+                cursorColumn = 0;
+            } else {
+                cursorColumn++;
+            }
+        }
+    }
+
+    /**
+     * Get the line separator used by the text.
+     *
+     * @return "\r\n" if the first line ends that way, otherwise "\n"
+     */
+    private String getNewline() {
+        if ((document.getLineCount() > 1)
+            && (document.getLineEnd(0) < document.getLineStart(1) - 1)
+        ) {
+            return "\r\n";
+        }
+        return "\n";
+    }
+
+    /**
+     * Handle keystrokes.
+     *
+     * @param keypress keystroke event
+     */
+    @Override
+    public void onKeypress(final TKeypressEvent keypress) {
+        int lineCount = document.getLineCount();
+        int rows = getHeight() - 1;
+        boolean vertical = false;
+
+        if (keypress.equals(kbLeft)) {
+            if (cursorColumn > 0) {
+                cursorColumn--;
+            } else if (cursorLine > 0) {
+                cursorLine--;
+                cursorColumn = document.getLineLength(cursorLine);
+            }
+        } else if (keypress.equals(kbRight)) {
+            if (cursorColumn < document.getLineLength(cursorLine)) {
+                cursorColumn++;
+            } else if (cursorLine < lineCount - 1) {
+                cursorLine++;
+                cursorColumn = 0;
+            }
+        } else if (keypress.equals(kbUp)) {
+            moveToLine(Math.max(cursorLine - 1, 0));
+            vertical = true;
+        } else if (keypress.equals(kbDown)) {
+            moveToLine(Math.min(cursorLine + 1, lineCount - 1));
+            vertical = true;
+        } else if (keypress.equals(kbPgUp)) {
+            moveToLine(Math.max(cursorLine - rows, 0));
+            vertical = true;
+        } else if (keypress.equals(kbPgDn)) {
+            moveToLine(Math.min(cursorLine + rows, lineCount - 1));
+            vertical = true;
+        } else if (keypress.equals(kbHome)) {
+            cursorColumn = 0;
+        } else if (keypress.equals(kbEnd)) {
+            cursorColumn = document.getLineLength(cursorLine);
+        } else if (keypress.equals(kbCtrlHome)) {
+            cursorLine = 0;
+            cursorColumn = 0;
+        } else if (keypress.equals(kbCtrlEnd)) {
+            cursorLine = lineCount - 1;
+            cursorColumn = document.getLineLength(cursorLine);
+        } else if (keypress.equals(kbIns)) {
+            insertMode = !insertMode;
+        } else if (keypress.equals(kbCtrlZ)) {
+            long offset = document.undo(getCursorOffset());
+            if (offset >= 0) {
+                setCursorOffset(offset);
+            }
+        } else if (keypress.equals(kbCtrlY)) {
+            long offset = document.redo(getCursorOffset());
+            if (offset >= 0) {
+                setCursorOffset(offset);
+            }
+        } else if (keypress.equals(kbEnter)) {
+            long offset = getCursorOffset();
+            replace(offset, offset, getNewline(), false);
+        } else if (keypress.equals(kbTab)) {
+            long offset = getCursorOffset();
+            replace(offset, offset, "\t", true);
+        } else if (keypress.equals(kbBackspace)
+            || keypress.equals(kbBackspaceDel)
+        ) {
+            if (cursorColumn > 0) {
+                replace(document.getOffset(cursorLine, cursorColumn - 1),
+                    getCursorOffset(), "", false);
+            } else if (cursorLine > 0) {
+                replace(document.getLineEnd(cursorLine - 1),
+                    document.getLineStart(cursorLine), "", false);
+            }
+        } else if (keypress.equals(kbDel)) {
+            if (cursorColumn < document.getLineLength(cursorLine)) {
+                replace(getCursorOffset(),
+                    document.getOffset(cursorLine, cursorColumn + 1), "",
+                    false);
+            } else if (cursorLine < lineCount - 1) {
+                replace(document.getLineEnd(cursorLine),
+                    document.getLineStart(cursorLine + 1), "", false);
+            }
+        } else if (!keypress.getKey().isFnKey()
+            && !keypress.getKey().isAlt()
+            && !keypress.getKey().isCtrl()
+        ) {
+            // Plain old keystroke, process it
+            char ch = keypress.getKey().getChar();
+            if (Character.isSurrogate(ch)) {
+                ch = '?';
+            }
+            long offset = getCursorOffset();
+            if (!insertMode
+                && (cursorColumn < document.getLineLength(cursorLine))
+            ) {
+                replace(offset,
+                    document.getOffset(cursorLine, cursorColumn + 1),
+                    String.valueOf(ch), false);
+            } else {
+                replace(offset, offset, String.valueOf(ch), true);
+            }
+        } else {
+            // Pass other keys (tab etc.) on
+            super.onKeypress(keypress);
+            return;
+        }
+
+        if (!vertical) {
+            preferredColumn = -1;
+        }
+        scrollToCursor();
+    }
+
+}
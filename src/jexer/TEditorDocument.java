@@ -0,0 +1,962 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import jexer.bits.UTF8;
+
+/**
+ * TEditorDocument is the text of a TEditor, stored as UTF-8 bytes in a
+ * piece table.
+ *
+ * <p>
+ * The original text is never copied: it is either the bytes of a String or
+ * a read-only memory map of a file.  Everything typed is appended to a
+ * second "added" buffer.  The document is a sequence of pieces, each a
+ * range of one of the two buffers, kept in a treap ordered by position.
+ * Every treap node knows the number of bytes and newlines below it, and
+ * each buffer keeps the positions of its newlines, so finding the start of
+ * a line or the line of an offset takes O(log n).
+ *
+ * <p>
+ * Treap nodes are never changed once built.  An edit builds O(log n) new
+ * nodes and a new root, and shares the rest.  Undo and redo are stacks of
+ * old roots.
+ */
+final class TEditorDocument {
+
+    /**
+     * A growable array of ascending ints, used for newline positions.
+     */
+    private static final class Offsets {
+
+        /**
+         * The values.
+         */
+        private int [] data = new int[1024];
+
+        /**
+         * Number of values in use.
+         */
+        private int size = 0;
+
+        /**
+         * Append a value, which must be larger than the others.
+         *
+         * @param value the value
+         */
+        public void add(final int value) {
+            if (size == data.length) {
+                int [] newData = new int[data.length * 2];
+                System.arraycopy(data, 0, newData, 0, size);
+                data = newData;
+            }
+            data[size] = value;
+            size++;
+        }
+
+        /**
+         * Get one value.
+         *
+         * @param index index of the value
+         * @return the value
+         */
+        public int get(final int index) {
+            return data[index];
+        }
+
+        /**
+         * Get the number of values.
+         *
+         * @return the number of values
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Find the first value that is not less than a key.
+         *
+         * @param key the value to look for
+         * @return index of the first value &gt;= key, or size() if there is
+         * none
+         */
+        public int lowerBound(final int key) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (data[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * A treap node: one piece of a buffer, plus totals for its subtree.
+     */
+    private static final class Piece {
+
+        /**
+         * If true, the piece is in the added buffer, otherwise the original.
+         */
+        final boolean added;
+
+        /**
+         * Index of the first byte in the buffer.
+         */
+        final int start;
+
+        /**
+         * Number of bytes.
+         */
+        final int length;
+
+        /**
+         * Number of newlines in this piece.
+         */
+        final int newlines;
+
+        /**
+         * Treap heap priority.
+         */
+        final int priority;
+
+        /**
+         * Pieces before this one.
+         */
+        final Piece left;
+
+        /**
+         * Pieces after this one.
+         */
+        final Piece right;
+
+        /**
+         * Number of bytes in this subtree.
+         */
+        final long bytes;
+
+        /**
+         * Number of newlines in this subtree.
+         */
+        final long lines;
+
+        /**
+         * Package private constructor.
+         *
+         * @param added if true, this is a piece of the added buffer
+         * @param start index of the first byte in the buffer
+         * @param length number of bytes
+         * @param newlines number of newlines in the piece
+         * @param priority treap priority
+         * @param left pieces before this one
+         * @param right pieces after this one
+         */
+        Piece(final boolean added, final int start, final int length,
+            final int newlines, final int priority, final Piece left,
+            final Piece right) {
+
+            this.added = added;
+            this.start = start;
+            this.length = length;
+            this.newlines = newlines;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            bytes = length + bytes(left) + bytes(right);
+            lines = newlines + lines(left) + lines(right);
+        }
+
+        /**
+         * Copy this piece with different children.
+         *
+         * @param left pieces before this one
+         * @param right pieces after this one
+         * @return the new node
+         */
+        Piece with(final Piece left, final Piece right) {
+            return new Piece(added, start, length, newlines, priority, left,
+                right);
+        }
+    }
+
+    /**
+     * An undo or redo step.
+     */
+    private static final class Snapshot {
+
+        /**
+         * The document to go back to.
+         */
+        final Piece root;
+
+        /**
+         * Where the cursor goes.
+         */
+        final long cursor;
+
+        /**
+         * Package private constructor.
+         *
+         * @param root the document to go back to
+         * @param cursor where the cursor goes
+         */
+        Snapshot(final Piece root, final long cursor) {
+            this.root = root;
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * The character set of the document.
+     */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * The text the document was created with.
+     */
+    private ByteBuffer original;
+
+    /**
+     * Positions of the newlines in original.
+     */
+    private Offsets originalNewlines = new Offsets();
+
+    /**
+     * Everything that was ever inserted.
+     */
+    private byte [] added = new byte[4096];
+
+    /**
+     * Number of bytes in use in added.
+     */
+    private int addedLength = 0;
+
+    /**
+     * Positions of the newlines in added.
+     */
+    private Offsets addedNewlines = new Offsets();
+
+    /**
+     * The current document.
+     */
+    private Piece root = null;
+
+    /**
+     * The document as it was last loaded or saved.
+     */
+    private Piece savedRoot = null;
+
+    /**
+     * Undo steps, most recent last.
+     */
+    private List<Snapshot> undo = new ArrayList<Snapshot>();
+
+    /**
+     * Redo steps, most recent last.
+     */
+    private List<Snapshot> redo = new ArrayList<Snapshot>();
+
+    /**
+     * The offset just after the last typed character, if typing more
+     * characters there continues the same undo step, or -1.
+     */
+    private long typingEnd = -1;
+
+    /**
+     * Source of treap priorities.
+     */
+    private Random random = new Random();
+
+    /**
+     * Private constructor, use fromString() or fromFile().
+     *
+     * @param original the original text
+     */
+    private TEditorDocument(final ByteBuffer original) {
+        this.original = original;
+        int n = original.limit();
+        for (int i = 0; i < n; i++) {
+            if (original.get(i) == '\n') {
+                originalNewlines.add(i);
+            }
+        }
+        if (n > 0) {
+            root = newPiece(false, 0, n);
+        }
+        savedRoot = root;
+    }
+
+    /**
+     * Create a document holding a string.
+     *
+     * @param text the text
+     * @return the new document
+     */
+    static TEditorDocument fromString(final String text) {
+        return new TEditorDocument(ByteBuffer.wrap(text.getBytes(CHARSET)));
+    }
+
+    /**
+     * Create a document over a file.  The file is mapped into memory, not
+     * read.
+     *
+     * @param file the file, which must be less than 2GB
+     * @return the new document
+     * @throws IOException if the file cannot be mapped
+     */
+    static TEditorDocument fromFile(final File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to edit");
+            }
+            return new TEditorDocument(channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Get the number of bytes in a subtree.
+     *
+     * @param piece the subtree, may be null
+     * @return the number of bytes
+     */
+    private static long bytes(final Piece piece) {
+        return (piece == null ? 0 : piece.bytes);
+    }
+
+    /**
+     * Get the number of newlines in a subtree.
+     *
+     * @param piece the subtree, may be null
+     * @return the number of newlines
+     */
+    private static long lines(final Piece piece) {
+        return (piece == null ? 0 : piece.lines);
+    }
+
+    /**
+     * Get the newline positions of one of the buffers.
+     *
+     * @param isAdded if true, the added buffer, otherwise the original
+     * @return the newline positions
+     */
+    private Offsets newlinesOf(final boolean isAdded) {
+        return (isAdded ? addedNewlines : originalNewlines);
+    }
+
+    /**
+     * Make a new single piece.
+     *
+     * @param isAdded if true, a piece of the added buffer
+     * @param start index of the first byte in the buffer
+     * @param length number of bytes
+     * @return the new piece
+     */
+    private Piece newPiece(final boolean isAdded, final int start,
+        final int length) {
+
+        Offsets newlines = newlinesOf(isAdded);
+        int count = newlines.lowerBound(start + length)
+            - newlines.lowerBound(start);
+        return new Piece(isAdded, start, length, count, random.nextInt(),
+            null, null);
+    }
+
+    /**
+     * Join two treaps.
+     *
+     * @param a the pieces that come first
+     * @param b the pieces that come after
+     * @return the joined treap
+     */
+    private Piece merge(final Piece a, final Piece b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            return a.with(a.left, merge(a.right, b));
+        }
+        return b.with(merge(a, b.left), b.right);
+    }
+
+    /**
+     * Split a treap in two at a byte offset, cutting a piece in two if
+     * needed.
+     *
+     * @param piece the treap
+     * @param offset number of bytes that go into the first part
+     * @return the two parts
+     */
+    private Piece [] split(final Piece piece, final long offset) {
+        if (piece == null) {
+            return new Piece[] { null, null };
+        }
+        long leftBytes = bytes(piece.left);
+        if (offset <= leftBytes) {
+            Piece [] parts = split(piece.left, offset);
+            return new Piece[] { parts[0], piece.with(parts[1], piece.right) };
+        }
+        if (offset >= leftBytes + piece.length) {
+            Piece [] parts = split(piece.right,
+                offset - leftBytes - piece.length);
+            return new Piece[] { piece.with(piece.left, parts[0]), parts[1] };
+        }
+        int cut = (int) (offset - leftBytes);
+        Piece head = newPiece(piece.added, piece.start, cut);
+        Piece tail = newPiece(piece.added, piece.start + cut,
+            piece.length - cut);
+        return new Piece[] {
+            merge(piece.left, head),
+            merge(tail, piece.right)
+        };
+    }
+
+    /**
+     * Get the number of bytes in the document.
+     *
+     * @return the length
+     */
+    public long length() {
+        return bytes(root);
+    }
+
+    /**
+     * Get the number of lines.  A document that ends with a newline has an
+     * empty last line.
+     *
+     * @return the number of lines, at least 1
+     */
+    public int getLineCount() {
+        return (int) Math.min(lines(root) + 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the offset of a newline.
+     *
+     * @param n which newline, 1 for the first
+     * @return the offset of the newline
+     */
+    private long getNewline(final long n) {
+        long k = n;
+        long base = 0;
+        Piece piece = root;
+        while (piece != null) {
+            long leftLines = lines(piece.left);
+            if (k <= leftLines) {
+                piece = piece.left;
+                continue;
+            }
+            k -= leftLines;
+            base += bytes(piece.left);
+            if (k <= piece.newlines) {
+                Offsets newlines = newlinesOf(piece.added);
+                int i = newlines.lowerBound(piece.start) + (int) k - 1;
+                return base + (newlines.get(i) - piece.start);
+            }
+            k -= piece.newlines;
+            base += piece.length;
+            piece = piece.right;
+        }
+        throw new IndexOutOfBoundsException("newline " + n);
+    }
+
+    /**
+     * Get the offset of the start of a line.
+     *
+     * @param line the line number, 0 to getLineCount() - 1
+     * @return the offset of the line's first byte
+     */
+    public long getLineStart(final int line) {
+        if (line == 0) {
+            return 0;
+        }
+        return getNewline(line) + 1;
+    }
+
+    /**
+     * Get the offset of the end of a line's text.  This is the line's
+     * newline, or the carriage return of a CRLF pair, or the end of the
+     * document.
+     *
+     * @param line the line number, 0 to getLineCount() - 1
+     * @return the offset just after the line's last character
+     */
+    public long getLineEnd(final int line) {
+        long end;
+        if (line + 1 < getLineCount()) {
+            end = getNewline(line + 1);
+        } else {
+            end = length();
+        }
+        if ((end > getLineStart(line)) && (byteAt(end - 1) == '\r')) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Get the line containing an offset.
+     *
+     * @param offset the offset, 0 to length()
+     * @return the line number
+     */
+    public int getLine(final long offset) {
+        long count = 0;
+        long base = 0;
+        Piece piece = root;
+        while (piece != null) {
+            long leftBytes = bytes(piece.left);
+            if (offset < base + leftBytes) {
+                piece = piece.left;
+                continue;
+            }
+            count += lines(piece.left);
+            long pieceStart = base + leftBytes;
+            if (offset < pieceStart + piece.length) {
+                Offsets newlines = newlinesOf(piece.added);
+                int at = piece.start + (int) (offset - pieceStart);
+                count += newlines.lowerBound(at)
+                    - newlines.lowerBound(piece.start);
+                break;
+            }
+            count += piece.newlines;
+            base = pieceStart + piece.length;
+            piece = piece.right;
+        }
+        return (int) count;
+    }
+
+    /**
+     * Get one byte.
+     *
+     * @param offset the offset, 0 to length() - 1
+     * @return the byte
+     */
+    public byte byteAt(final long offset) {
+        byte [] one = new byte[1];
+        read(offset, one, 1);
+        return one[0];
+    }
+
+    /**
+     * Copy bytes out of the document.
+     *
+     * @param offset the offset of the first byte
+     * @param dest where to put the bytes
+     * @param n number of bytes to copy, which must all be in the document
+     */
+    public void read(final long offset, final byte [] dest, final int n) {
+        read(root, 0, offset, offset + n, dest);
+    }
+
+    /**
+     * Copy the bytes of a subtree that fall in a range.
+     *
+     * @param piece the subtree
+     * @param base offset of the subtree's first byte
+     * @param start offset of the first byte to copy
+     * @param end offset after the last byte to copy
+     * @param dest where to put the bytes, dest[0] is offset start
+     */
+    private void read(final Piece piece, final long base, final long start,
+        final long end, final byte [] dest) {
+
+        if ((piece == null) || (end <= base) || (start >= base + piece.bytes)) {
+            return;
+        }
+        read(piece.left, base, start, end, dest);
+
+        long pieceStart = base + bytes(piece.left);
+        long from = Math.max(start, pieceStart);
+        long to = Math.min(end, pieceStart + piece.length);
+        if (from < to) {
+            int bufferStart = piece.start + (int) (from - pieceStart);
+            int n = (int) (to - from);
+            int destStart = (int) (from - start);
+            if (piece.added) {
+                System.arraycopy(added, bufferStart, dest, destStart, n);
+            } else {
+                ByteBuffer buffer = original.duplicate();
+                buffer.position(bufferStart);
+                buffer.get(dest, destStart, n);
+            }
+        }
+
+        read(piece.right, pieceStart + piece.length, start, end, dest);
+    }
+
+    /**
+     * Get the text of part of a line.
+     *
+     * @param line the line number
+     * @param maxChars the most characters to return
+     * @return up to maxChars characters from the start of the line
+     */
+    public String getLineText(final int line, final int maxChars) {
+        long start = getLineStart(line);
+        long end = getLineEnd(line);
+        // No character is longer than four bytes.
+        int n = (int) Math.min(end - start, (long) maxChars * 4);
+        byte [] bytes = new byte[n];
+        read(start, bytes, n);
+
+        StringBuilder sb = new StringBuilder(Math.min(n, maxChars));
+        for (int i = 0; (i < n) && (sb.length() < maxChars);) {
+            int length = UTF8.charLength(bytes, i, n);
+            sb.append(UTF8.decodeChar(bytes, i, length));
+            i += length;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the number of characters on a line.
+     *
+     * @param line the line number
+     * @return the number of characters
+     */
+    public int getLineLength(final int line) {
+        long start = getLineStart(line);
+        return (int) Math.min(countChars(start, getLineEnd(line),
+                Integer.MAX_VALUE)[0], Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the offset of a character on a line.
+     *
+     * @param line the line number
+     * @param column the character's index on the line.  Columns past the
+     * end of the line are the end of the line.
+     * @return the offset of the character
+     */
+    public long getOffset(final int line, final int column) {
+        long start = getLineStart(line);
+        return start + countChars(start, getLineEnd(line), column)[1];
+    }
+
+    /**
+     * Get the character index of an offset on its line.
+     *
+     * @param offset the offset
+     * @return the character's index on its line
+     */
+    public int getColumn(final long offset) {
+        long start = getLineStart(getLine(offset));
+        return (int) countChars(start, offset, Integer.MAX_VALUE)[0];
+    }
+
+    /**
+     * Count characters in a range, reading it a block at a time.
+     *
+     * @param start offset of the first byte
+     * @param end offset after the last byte
+     * @param maxChars stop after this many characters
+     * @return the number of characters, and the number of bytes they used
+     */
+    private long [] countChars(final long start, final long end,
+        final long maxChars) {
+
+        byte [] block = new byte[4096];
+        long chars = 0;
+        long offset = start;
+        while ((offset < end) && (chars < maxChars)) {
+            int n = (int) Math.min(end - offset, block.length);
+            read(offset, block, n);
+            int i = 0;
+            while ((i < n) && (chars < maxChars)) {
+                int length = UTF8.charLength(block, i, n);
+                if ((i + length > n) && (offset + n < end)) {
+                    // Character split across blocks, re-read from here
+                    break;
+                }
+                i += length;
+                chars++;
+            }
+            offset += i;
+        }
+        return new long [] { chars, Math.min(offset, end) - start };
+    }
+
+    /**
+     * Append bytes to the added buffer.
+     *
+     * @param bytes the bytes
+     * @return the index of the first byte in the added buffer
+     */
+    private int appendAdded(final byte [] bytes) {
+        if (addedLength + bytes.length > added.length) {
+            byte [] newAdded = new byte[Math.max(added.length * 2,
+                    addedLength + bytes.length)];
+            System.arraycopy(added, 0, newAdded, 0, addedLength);
+            added = newAdded;
+        }
+        int start = addedLength;
+        for (int i = 0; i < bytes.length; i++) {
+            added[addedLength] = bytes[i];
+            if (bytes[i] == '\n') {
+                addedNewlines.add(addedLength);
+            }
+            addedLength++;
+        }
+        return start;
+    }
+
+    /**
+     * Replace a range of the document with new text.  This is the one edit
+     * operation: an insert replaces an empty range, and a delete inserts
+     * an empty string.
+     *
+     * @param start offset of the first byte to replace
+     * @param end offset after the last byte to replace
+     * @param text the new text
+     * @param typing if true, this is a typed character that may join the
+     * previous typed characters in one undo step
+     */
+    public void replace(final long start, final long end, final String text,
+        final boolean typing) {
+
+        if (!typing || (start != end) || (start != typingEnd)) {
+            undo.add(new Snapshot(root, start));
+        }
+        redo.clear();
+
+        byte [] bytes = text.getBytes(CHARSET);
+        Piece [] head = split(root, start);
+        Piece [] tail = split(head[1], end - start);
+        Piece middle = null;
+        if (bytes.length > 0) {
+            middle = newPiece(true, appendAdded(bytes), bytes.length);
+        }
+        root = merge(merge(head[0], middle), tail[1]);
+
+        typingEnd = (typing ? start + bytes.length : -1);
+    }
+
+    /**
+     * Undo the last edit.
+     *
+     * @param cursor the cursor offset, restored by a redo
+     * @return the offset to put the cursor at, or -1 if there is nothing to
+     * undo
+     */
+    public long undo(final long cursor) {
+        typingEnd = -1;
+        if (undo.size() == 0) {
+            return -1;
+        }
+        Snapshot snapshot = undo.remove(undo.size() - 1);
+        redo.add(new Snapshot(root, cursor));
+        root = snapshot.root;
+        return snapshot.cursor;
+    }
+
+    /**
+     * Redo the last undone edit.
+     *
+     * @param cursor the cursor offset, restored by an undo
+     * @return the offset to put the cursor at, or -1 if there is nothing to
+     * redo
+     */
+    public long redo(final long cursor) {
+        typingEnd = -1;
+        if (redo.size() == 0) {
+            return -1;
+        }
+        Snapshot snapshot = redo.remove(redo.size() - 1);
+        undo.add(new Snapshot(root, cursor));
+        root = snapshot.root;
+        return snapshot.cursor;
+    }
+
+    /**
+     * See if the document changed since it was loaded or saved.
+     *
+     * @return true if the document was changed
+     */
+    public boolean isModified() {
+        return (root != savedRoot);
+    }
+
+    /**
+     * Get the whole document as a String.
+     *
+     * @return the text
+     */
+    public String getText() {
+        byte [] bytes = new byte[(int) length()];
+        read(0, bytes, bytes.length);
+        return new String(bytes, CHARSET);
+    }
+
+    /**
+     * Save the document.  It is written to a temporary file that then
+     * replaces the target, so a document mapped from the target stays
+     * valid.  If the target is a symbolic link, the file it points to is
+     * replaced and the link is kept.  The new file gets the old one's
+     * permissions and, where allowed, its owner and group.
+     *
+     * @param file the file to write
+     * @throws IOException if a java.io operation throws
+     */
+    public void save(final File file) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        if (Files.exists(target)) {
+            target = target.toRealPath();
+        }
+        File temp = File.createTempFile("." + target.getFileName() + ".",
+            ".tmp", target.getParent().toFile());
+        boolean saved = false;
+        try {
+            OutputStream output = new FileOutputStream(temp);
+            try {
+                write(root, output, new byte[65536]);
+            } finally {
+                output.close();
+            }
+            if (Files.exists(target)) {
+                copyOwnership(target, temp.toPath());
+            }
+            try {
+                Files.move(temp.toPath(), target,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target,
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+            saved = true;
+        } finally {
+            if (!saved) {
+                temp.delete();
+            }
+        }
+        savedRoot = root;
+    }
+
+    /**
+     * Give a new file the permissions, owner, and group of the file it
+     * will replace.  The owner and group can only be changed by a
+     * privileged user, so failing to change them is not an error.
+     *
+     * @param from the file being replaced
+     * @param to the new file
+     * @throws IOException if the permissions cannot be read or set
+     */
+    private static void copyOwnership(final Path from,
+        final Path to) throws IOException {
+
+        PosixFileAttributeView view = Files.getFileAttributeView(from,
+            PosixFileAttributeView.class);
+        if (view == null) {
+            // Not a POSIX file system, only the read-only flag to carry.
+            if (!Files.isWritable(from)) {
+                to.toFile().setWritable(false);
+            }
+            return;
+        }
+        PosixFileAttributes attributes = view.readAttributes();
+        Files.setPosixFilePermissions(to, attributes.permissions());
+        PosixFileAttributeView toView = Files.getFileAttributeView(to,
+            PosixFileAttributeView.class);
+        try {
+            toView.setGroup(attributes.group());
+        } catch (IOException e) {
+            // Not a member of the group
+        }
+        try {
+            toView.setOwner(attributes.owner());
+        } catch (IOException e) {
+            // Not privileged
+        }
+    }
+
+    /**
+     * Write the pieces of a subtree in order.
+     *
+     * @param piece the subtree
+     * @param output the stream to write to
+     * @param block scratch space for copying out of the original buffer
+     * @throws IOException if a java.io operation throws
+     */
+    private void write(final Piece piece, final OutputStream output,
+        final byte [] block) throws IOException {
+
+        if (piece == null) {
+            return;
+        }
+        write(piece.left, output, block);
+        if (piece.added) {
+            output.write(added, piece.start, piece.length);
+        } else {
+            ByteBuffer buffer = original.duplicate();
+            buffer.position(piece.start);
+            int remaining = piece.length;
+            while (remaining > 0) {
+                int n = Math.min(remaining, block.length);
+                buffer.get(block, 0, n);
+                output.write(block, 0, n);
+                remaining -= n;
+            }
+        }
+        write(piece.right, output, block);
+    }
+
+}
@@ -31,6 +31,7 @@
 package jexer;
 
 import jexer.bits.CellAttributes;
+import jexer.bits.GapBuffer;
 import jexer.bits.GraphicsChars;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMouseEvent;
@@ -42,9 +43,10 @@ import static jexer.TKeypress.*;
 public class TField extends TWidget {
 
     /**
-     * Field text.
+     * Field text.  Keystrokes edit it in place at the cursor.  Subclasses
+     * see it through getText() and setText().
      */
-    protected String text = "";
+    private GapBuffer text = new GapBuffer();
 
     /**
      * Get field text.
@@ -52,7 +54,7 @@ public class TField extends TWidget {
      * @return field text
      */
     public final String getText() {
-        return text;
+        return text.toString();
     }
 
     /**
@@ -61,7 +63,7 @@ public class TField extends TWidget {
      * @param text the new field text
      */
     public final void setText(String text) {
-        this.text = text;
+        this.text.setText(text);
         position = 0;
         windowStart = 0;
     }
@@ -154,7 +156,7 @@ public class TField extends TWidget {
 
         setCursorVisible(true);
         this.fixed = fixed;
-        this.text = text;
+        this.text.setText(text);
         this.enterAction = enterAction;
         this.updateAction = updateAction;
     }
@@ -212,8 +214,10 @@ public class TField extends TWidget {
             end = text.length();
         }
         getScreen().hLineXY(0, 0, getWidth(), GraphicsChars.HATCH, fieldColor);
-        getScreen().putStringXY(0, 0, text.substring(windowStart, end),
-            fieldColor);
+        for (int i = windowStart; i < end; i++) {
+            getScreen().putCharXY(i - windowStart, 0, text.charAt(i),
+                fieldColor);
+        }
 
         // Fix the cursor, it will be rendered by TApplication.drawAll().
         updateCursor();
@@ -321,8 +325,7 @@ public class TField extends TWidget {
 
         if (keypress.equals(kbDel)) {
             if ((text.length() > 0) && (position < text.length())) {
-                text = text.substring(0, position)
-                        + text.substring(position + 1);
+                text.delete(position, position + 1);
             }
             return;
         }
@@ -330,8 +333,7 @@ public class TField extends TWidget {
         if (keypress.equals(kbBackspace) || keypress.equals(kbBackspaceDel)) {
             if (position > 0) {
                 position--;
-                text = text.substring(0, position)
-                        + text.substring(position + 1);
+                text.delete(position, position + 1);
             }
             if (fixed == false) {
                 if ((position == windowStart)
@@ -360,9 +362,7 @@ public class TField extends TWidget {
                 // Overwrite or insert a character
                 if (insertMode == false) {
                     // Replace character
-                    text = text.substring(0, position)
-                            + keypress.getKey().getChar()
-                            + text.substring(position + 1);
+                    text.setCharAt(position, keypress.getKey().getChar());
                     position++;
                 } else {
                     // Insert character
@@ -376,17 +376,13 @@ public class TField extends TWidget {
                     // Buffer is full, do nothing
                 } else if ((fixed == true) && (insertMode == false)) {
                     // Overwrite the last character, maybe move position
-                    text = text.substring(0, position)
-                            + keypress.getKey().getChar()
-                            + text.substring(position + 1);
+                    text.setCharAt(position, keypress.getKey().getChar());
                     if (position < getWidth() - 1) {
                         position++;
                     }
                 } else if ((fixed == false) && (insertMode == false)) {
                     // Overwrite the last character, definitely move position
-                    text = text.substring(0, position)
-                            + keypress.getKey().getChar()
-                            + text.substring(position + 1);
+                    text.setCharAt(position, keypress.getKey().getChar());
                     position++;
                 } else {
                     if (position == text.length()) {
@@ -418,7 +414,7 @@ public class TField extends TWidget {
      */
     protected void appendChar(final char ch) {
         // Append the LAST character
-        text += ch;
+        text.append(ch);
         position++;
 
         assert (position == text.length());
@@ -434,13 +430,44 @@ public class TField extends TWidget {
         }
     }
 
+    /**
+     * Insert a string at the cursor and leave the cursor after it, for
+     * example to paste text.  The string goes into the field in one edit,
+     * rather than one character at a time.  A fixed field only takes as
+     * much of the string as fits.
+     *
+     * @param str the string to insert
+     */
+    public void insertText(final String str) {
+        CharSequence insert = str;
+        if (fixed) {
+            int room = getWidth() - text.length();
+            if (room <= 0) {
+                return;
+            }
+            if (insert.length() > room) {
+                insert = str.substring(0, room);
+            }
+        }
+        text.insert(position, insert);
+        position += insert.length();
+
+        if (fixed) {
+            if (position == getWidth()) {
+                position--;
+            }
+        } else if ((position - windowStart) >= getWidth()) {
+            windowStart = position - getWidth() + 1;
+        }
+    }
+
     /**
      * Insert char somewhere in the middle of the field.
      *
      * @param ch char to append
      */
     protected void insertChar(final char ch) {
-        text = text.substring(0, position) + ch + text.substring(position);
+        text.insert(position, ch);
         position++;
         if ((position - windowStart) == getWidth()) {
             assert (!fixed);
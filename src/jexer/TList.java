@@ -39,14 +39,117 @@ import jexer.event.TMouseEvent;
 import static jexer.TKeypress.*;
 
 /**
- * TList shows a list of strings, and lets the user select one.
+ * TList shows a list of strings, and lets the user select one.  The
+ * strings can either be copied in with setList(), or supplied on demand by
+ * a TListProvider.
  */
 public class TList extends TWidget {
 
     /**
-     * The list of strings to display.
+     * TListProvider over a private copy of a list of strings.  This is used
+     * by the setList() and constructor interface.
      */
-    private List<String> strings;
+    private static final class StringsProvider extends TListProvider {
+
+        /**
+         * The list of strings to display.
+         */
+        private List<String> strings = new ArrayList<String>();
+
+        /**
+         * Width of the longest string, or -1 if not computed yet.
+         */
+        private int maxWidth = -1;
+
+        /**
+         * Public constructor.
+         *
+         * @param strings list of strings to copy, may be null
+         */
+        public StringsProvider(final List<String> strings) {
+            if (strings != null) {
+                this.strings.addAll(strings);
+            }
+        }
+
+        /**
+         * Get the number of rows.
+         *
+         * @return the number of strings
+         */
+        @Override
+        public int size() {
+            return strings.size();
+        }
+
+        /**
+         * Get the text for one row.
+         *
+         * @param index row index
+         * @return the string
+         */
+        @Override
+        public String get(final int index) {
+            return strings.get(index);
+        }
+
+        /**
+         * Get the width of the widest row.  The strings are all in memory
+         * already, so this scans them once.
+         *
+         * @return the longest string length
+         */
+        @Override
+        public int getMaxWidth() {
+            if (maxWidth < 0) {
+                maxWidth = 0;
+                for (String line: strings) {
+                    if (line.length() > maxWidth) {
+                        maxWidth = line.length();
+                    }
+                }
+            }
+            return maxWidth;
+        }
+    }
+
+    /**
+     * The rows to display.
+     */
+    private TListProvider provider;
+
+    /**
+     * The rows being displayed: either provider, or filter when a filter
+     * string is set.
+     */
+    private TListProvider view;
+
+    /**
+     * The type-to-filter view of provider, created on first use.
+     */
+    private TListFilter filter = null;
+
+    /**
+     * The current filter text.
+     */
+    private String filterText = "";
+
+    /**
+     * If true, printable keystrokes edit the filter text.
+     */
+    private boolean typeToFilter = false;
+
+    /**
+     * Set when the provider reports new rows at the end.  Checked by the UI
+     * thread in syncRows().
+     */
+    private volatile boolean rowsAppended = false;
+
+    /**
+     * Set when the provider reports arbitrary changes.  Checked by the UI
+     * thread in syncRows().
+     */
+    private volatile boolean rowsChanged = false;
 
     /**
      * Selected string.
@@ -54,21 +157,31 @@ public class TList extends TWidget {
     private int selectedString = -1;
 
     /**
-     * Get the selection index.
+     * Get the selection index.  When the list is filtered this is still the
+     * index into the full (unfiltered) list.
      *
      * @return -1 if nothing is selected, otherwise the index into the list
      */
     public final int getSelectedIndex() {
+        if (view == filter) {
+            return filter.getSourceIndex(selectedString);
+        }
         return selectedString;
     }
 
     /**
      * Set the selected string index.
      *
-     * @param index -1 to unselect, otherwise the index into the list
+     * @param index -1 to unselect, otherwise the index into the full
+     * (unfiltered) list.  If the list is filtered and that string is not
+     * shown, nothing is selected.
      */
     public final void setSelectedIndex(final int index) {
-        selectedString = index;
+        if ((view == filter) && (index >= 0)) {
+            selectedString = filter.getFilteredIndex(index);
+        } else {
+            selectedString = index;
+        }
     }
 
     /**
@@ -77,8 +190,8 @@ public class TList extends TWidget {
      * @return the selected string, or null of nothing is selected yet
      */
     public final String getSelected() {
-        if ((selectedString >= 0) && (selectedString <= strings.size() - 1)) {
-            return strings.get(selectedString);
+        if ((selectedString >= 0) && (selectedString <= view.size() - 1)) {
+            return view.get(selectedString);
         }
         return null;
     }
@@ -89,11 +202,177 @@ public class TList extends TWidget {
      * @param list new list of strings
      */
     public final void setList(final List<String> list) {
-        strings.clear();
-        strings.addAll(list);
+        setProvider(new StringsProvider(list));
+    }
+
+    /**
+     * Get the provider of the rows being displayed.
+     *
+     * @return the provider
+     */
+    public final TListProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Display rows from a provider instead of a list of strings.  Only the
+     * visible rows are requested from the provider.
+     *
+     * @param provider the new row provider
+     */
+    public final void setProvider(final TListProvider provider) {
+        if (this.provider != null) {
+            this.provider.setList(null);
+        }
+        if (filter != null) {
+            filter.setQuery("");
+            filter.setList(null);
+            filter = null;
+        }
+        filterText = "";
+        this.provider = provider;
+        view = provider;
+        rowsAppended = false;
+        rowsChanged = false;
+        provider.setList(this);
         reflow();
     }
 
+    /**
+     * Get the filter text.
+     *
+     * @return the text that shown strings must contain, or an empty string
+     * if the list is not filtered
+     */
+    public final String getFilter() {
+        return filterText;
+    }
+
+    /**
+     * Show only the strings that contain some text, ignoring case.  The
+     * search runs on a background thread and matches appear as they are
+     * found.  Each extra character narrows the previous result, and a
+     * newer filter cancels an older search that is still running.
+     *
+     * @param text the text to look for, or an empty string to show
+     * everything
+     */
+    public final void setFilter(final String text) {
+        if (text.equals(filterText)) {
+            return;
+        }
+        filterText = text;
+        if (text.length() == 0) {
+            if (filter != null) {
+                filter.setQuery("");
+            }
+            view = provider;
+        } else {
+            if (filter == null) {
+                filter = new TListFilter(provider);
+                filter.setList(this);
+            }
+            filter.setQuery(text);
+            view = filter;
+        }
+        rowsAppended = false;
+        rowsChanged = false;
+        reflow();
+    }
+
+    /**
+     * Set whether typing edits the filter.  When enabled, printable keys
+     * are added to the filter text, Backspace removes the last character,
+     * and Escape clears it.
+     *
+     * @param typeToFilter if true, keystrokes edit the filter text
+     */
+    public final void setTypeToFilter(final boolean typeToFilter) {
+        this.typeToFilter = typeToFilter;
+    }
+
+    /**
+     * Called by a provider (on any thread) when rows were appended.  Note
+     * package private access.
+     *
+     * @param from the provider that changed
+     */
+    void onRowsAppended(final TListProvider from) {
+        if ((from == provider) && (filter != null)) {
+            filter.sourceAppended();
+        }
+        if (from == view) {
+            rowsAppended = true;
+        }
+    }
+
+    /**
+     * Called by a provider (on any thread) when rows changed.  Note
+     * package private access.
+     *
+     * @param from the provider that changed
+     */
+    void onRowsChanged(final TListProvider from) {
+        if ((from == provider) && (filter != null)) {
+            filter.sourceChanged();
+        }
+        if (from == view) {
+            rowsChanged = true;
+        }
+    }
+
+    /**
+     * Apply any change notifications from the provider: rescale the
+     * scrollbars, keep the selection in range, and follow appended rows if
+     * the view was already at the bottom.
+     */
+    private void syncRows() {
+        if (rowsChanged) {
+            rowsChanged = false;
+            rowsAppended = false;
+            maxLineWidth = Math.max(view.getMaxWidth(), 0);
+            if (selectedString > view.size() - 1) {
+                selectedString = view.size() - 1;
+            }
+            updateScrollerRanges();
+        } else if (rowsAppended) {
+            rowsAppended = false;
+            // Follow new rows at the bottom, but leave filter results that
+            // are still streaming in at the top.
+            boolean following = (view != filter)
+                && (vScroller.getValue() >= vScroller.getBottomValue());
+            int maxWidth = view.getMaxWidth();
+            if (maxWidth > maxLineWidth) {
+                maxLineWidth = maxWidth;
+            }
+            updateScrollerRanges();
+            if (following) {
+                vScroller.toBottom();
+            }
+        }
+    }
+
+    /**
+     * Set the scrollbar bottom and right values from the number of rows and
+     * maxLineWidth, keeping the current scroll position where possible.
+     */
+    private void updateScrollerRanges() {
+        vScroller.setBottomValue(view.size() - getHeight() + 1);
+        if (vScroller.getBottomValue() < 0) {
+            vScroller.setBottomValue(0);
+        }
+        if (vScroller.getValue() > vScroller.getBottomValue()) {
+            vScroller.setValue(vScroller.getBottomValue());
+        }
+        hScroller.setRightValue(maxLineWidth - getWidth() + 1);
+        if (hScroller.getRightValue() < 0) {
+            hScroller.setRightValue(0);
+        }
+        if (hScroller.getValue() > hScroller.getRightValue()) {
+            hScroller.setValue(hScroller.getRightValue());
+        }
+    }
+
     /**
      * Vertical scrollbar.
      */
@@ -142,7 +421,7 @@ public class TList extends TWidget {
      */
     public void dispatchEnter() {
         assert (selectedString >= 0);
-        assert (selectedString < strings.size());
+        assert (selectedString < view.size());
         if (enterAction != null) {
             enterAction.DO();
         }
@@ -153,7 +432,7 @@ public class TList extends TWidget {
      */
     public void dispatchMove() {
         assert (selectedString >= 0);
-        assert (selectedString < strings.size());
+        assert (selectedString < view.size());
         if (moveAction != null) {
             moveAction.DO();
         }
@@ -164,16 +443,10 @@ public class TList extends TWidget {
      */
     public void reflow() {
 
-        // Reset the lines
+        // Reset the lines.  If the provider does not know its widest row,
+        // draw() will widen maxLineWidth as rows are seen.
         selectedString = -1;
-        maxLineWidth = 0;
-
-        for (int i = 0; i < strings.size(); i++) {
-            String line = strings.get(i);
-            if (line.length() > maxLineWidth) {
-                maxLineWidth = line.length();
-            }
-        }
+        maxLineWidth = Math.max(view.getMaxWidth(), 0);
 
         // Start at the top
         if (vScroller == null) {
@@ -183,7 +456,7 @@ public class TList extends TWidget {
             vScroller.setX(getWidth() - 1);
             vScroller.setHeight(getHeight() - 1);
         }
-        vScroller.setBottomValue(strings.size() - getHeight() + 1);
+        vScroller.setBottomValue(view.size() - getHeight() + 1);
         vScroller.setTopValue(0);
         vScroller.setValue(0);
         if (vScroller.getBottomValue() < 0) {
@@ -242,11 +515,7 @@ public class TList extends TWidget {
 
         super(parent, x, y, width, height);
         this.enterAction = enterAction;
-        this.strings = new ArrayList<String>();
-        if (strings != null) {
-            this.strings.addAll(strings);
-        }
-        reflow();
+        setProvider(new StringsProvider(strings));
     }
 
     /**
@@ -270,11 +539,7 @@ public class TList extends TWidget {
         super(parent, x, y, width, height);
         this.enterAction = enterAction;
         this.moveAction = moveAction;
-        this.strings = new ArrayList<String>();
-        if (strings != null) {
-            this.strings.addAll(strings);
-        }
-        reflow();
+        setProvider(new StringsProvider(strings));
     }
 
     /**
@@ -282,26 +547,31 @@ public class TList extends TWidget {
      */
     @Override
     public void draw() {
+        syncRows();
+
         CellAttributes color = null;
         int begin = vScroller.getValue();
         int topY = 0;
-        for (int i = begin; i < strings.size(); i++) {
-            String line = strings.get(i);
-            if (hScroller.getValue() < line.length()) {
-                line = line.substring(hScroller.getValue());
-            } else {
-                line = "";
+        int rows = view.size();
+        for (int i = begin; i < rows; i++) {
+            String line = view.get(i);
+            if (line.length() > maxLineWidth) {
+                // Learn the width from the rows that are actually seen.
+                maxLineWidth = line.length();
+                updateScrollerRanges();
             }
             if (i == selectedString) {
                 color = getTheme().getColor("tlist.selected");
             } else if (isAbsoluteActive()) {
-                color = getTheme().getColor("tlist");
+                color = view.getAttributes(i);
+                if (color == null) {
+                    color = getTheme().getColor("tlist");
+                }
             } else {
                 color = getTheme().getColor("tlist.inactive");
             }
-            String formatString = "%-" + Integer.toString(getWidth() - 1) + "s";
-            getScreen().putStringXY(0, topY, String.format(formatString, line),
-                    color);
+            getScreen().putPaddedStringXY(0, topY, line, hScroller.getValue(),
+                getWidth() - 1, color);
             topY++;
             if (topY >= getHeight() - 1) {
                 break;
@@ -327,6 +597,8 @@ public class TList extends TWidget {
      */
     @Override
     public void onMouseDown(final TMouseEvent mouse) {
+        syncRows();
+
         if (mouse.isMouseWheelUp()) {
             vScroller.decrement();
             return;
@@ -338,7 +610,7 @@ public class TList extends TWidget {
 
         if ((mouse.getX() < getWidth() - 1)
             && (mouse.getY() < getHeight() - 1)) {
-            if (vScroller.getValue() + mouse.getY() < strings.size()) {
+            if (vScroller.getValue() + mouse.getY() < view.size()) {
                 selectedString = vScroller.getValue() + mouse.getY();
             }
             dispatchEnter();
@@ -356,12 +628,36 @@ public class TList extends TWidget {
      */
     @Override
     public void onKeypress(final TKeypressEvent keypress) {
+        syncRows();
+
+        if (typeToFilter) {
+            if (!keypress.getKey().isFnKey()
+                && !keypress.getKey().isAlt()
+                && !keypress.getKey().isCtrl()
+                && (keypress.getKey().getChar() >= 0x20)
+            ) {
+                setFilter(filterText + keypress.getKey().getChar());
+                return;
+            }
+            if ((keypress.equals(kbBackspace)
+                    || keypress.equals(kbBackspaceDel))
+                && (filterText.length() > 0)
+            ) {
+                setFilter(filterText.substring(0, filterText.length() - 1));
+                return;
+            }
+            if (keypress.equals(kbEsc) && (filterText.length() > 0)) {
+                setFilter("");
+                return;
+            }
+        }
+
         if (keypress.equals(kbLeft)) {
             hScroller.decrement();
         } else if (keypress.equals(kbRight)) {
             hScroller.increment();
         } else if (keypress.equals(kbUp)) {
-            if (strings.size() > 0) {
+            if (view.size() > 0) {
                 if (selectedString >= 0) {
                     if (selectedString > 0) {
                         if (selectedString - vScroller.getValue() == 0) {
@@ -370,16 +666,16 @@ public class TList extends TWidget {
                         selectedString--;
                     }
                 } else {
-                    selectedString = strings.size() - 1;
+                    selectedString = view.size() - 1;
                 }
             }
             if (selectedString >= 0) {
                 dispatchMove();
             }
         } else if (keypress.equals(kbDown)) {
-            if (strings.size() > 0) {
+            if (view.size() > 0) {
                 if (selectedString >= 0) {
-                    if (selectedString < strings.size() - 1) {
+                    if (selectedString < view.size() - 1) {
                         selectedString++;
                         if (selectedString - vScroller.getValue() == getHeight() - 1) {
                             vScroller.increment();
@@ -407,8 +703,8 @@ public class TList extends TWidget {
             vScroller.bigIncrement();
             if (selectedString >= 0) {
                 selectedString += getHeight() - 1;
-                if (selectedString > strings.size() - 1) {
-                    selectedString = strings.size() - 1;
+                if (selectedString > view.size() - 1) {
+                    selectedString = view.size() - 1;
                 }
             }
             if (selectedString >= 0) {
@@ -416,7 +712,7 @@ public class TList extends TWidget {
             }
         } else if (keypress.equals(kbHome)) {
             vScroller.toTop();
-            if (strings.size() > 0) {
+            if (view.size() > 0) {
                 selectedString = 0;
             }
             if (selectedString >= 0) {
@@ -424,8 +720,8 @@ public class TList extends TWidget {
             }
         } else if (keypress.equals(kbEnd)) {
             vScroller.toBottom();
-            if (strings.size() > 0) {
-                selectedString = strings.size() - 1;
+            if (view.size() > 0) {
+                selectedString = view.size() - 1;
             }
             if (selectedString >= 0) {
                 dispatchMove();
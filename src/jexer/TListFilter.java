@@ -0,0 +1,589 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import jexer.bits.CellAttributes;
+
+/**
+ * TListFilter is the case-insensitive "type to filter" view of a TList.
+ * It is itself a TListProvider whose rows are the source rows that contain
+ * the query string.
+ *
+ * <p>
+ * All of the work happens on a background thread that exits when it runs
+ * out of things to do:
+ * <ul>
+ * <li>A trigram index of the source rows is built in idle time.  Queries
+ * of three or more characters only look at the rows in the shortest
+ * posting list of their trigrams.</li>
+ * <li>When the new query contains the previous completed query (the usual
+ * case of typing one more character), only the previous matches are
+ * re-checked.</li>
+ * <li>Every query change bumps a generation counter, and a search that
+ * sees a newer generation abandons its work.</li>
+ * <li>Matches are published in batches and announced with
+ * fireRowsAppended(), so the list fills in while the search runs.</li>
+ * </ul>
+ */
+final class TListFilter extends TListProvider {
+
+    /**
+     * A growable array of ints, used for posting lists and matches.
+     */
+    private static final class IntList {
+
+        /**
+         * The values.
+         */
+        private int [] data = new int[16];
+
+        /**
+         * Number of values in use.
+         */
+        private int size = 0;
+
+        /**
+         * Append a value.
+         *
+         * @param value the value
+         */
+        public void add(final int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        /**
+         * Get the last value.
+         *
+         * @return the last value, or -1 if empty
+         */
+        public int last() {
+            return (size == 0 ? -1 : data[size - 1]);
+        }
+
+        /**
+         * Copy the values out.
+         *
+         * @return a new array with size entries
+         */
+        public int [] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    /**
+     * Number of matches to collect before publishing them to the list.
+     */
+    private static final int PUBLISH_BATCH = 256;
+
+    /**
+     * Number of rows to index before checking for other work.
+     */
+    private static final int INDEX_BATCH = 4096;
+
+    /**
+     * The unfiltered rows.
+     */
+    private final TListProvider source;
+
+    /**
+     * The current query, in lower case.  Guarded by this.
+     */
+    private String query = "";
+
+    /**
+     * Bumped on every query or source change.  Searches compare against
+     * this to see if they are stale.
+     */
+    private volatile int generation = 0;
+
+    /**
+     * If true, the current query has not been searched yet.  Guarded by
+     * this.
+     */
+    private boolean searchPending = false;
+
+    /**
+     * Source row numbers that match the current query, in ascending order.
+     * Guarded by this.
+     */
+    private IntList matches = new IntList();
+
+    /**
+     * Source rows below this number have been checked against the current
+     * query.  Guarded by this.
+     */
+    private int scannedRows = 0;
+
+    /**
+     * The query that matches holds the complete result for (up to
+     * scannedRows), or null if the last search was abandoned.  Guarded by
+     * this.
+     */
+    private String completedQuery = null;
+
+    /**
+     * If true, the source changed and the index must be thrown away.
+     * Guarded by this.
+     */
+    private boolean indexReset = false;
+
+    /**
+     * Trigram to ascending list of source rows containing it.  Only used by
+     * the worker thread.
+     */
+    private Map<Long, IntList> trigrams = new HashMap<Long, IntList>();
+
+    /**
+     * Source rows below this number are in the trigram index.  Only used by
+     * the worker thread.
+     */
+    private int indexedRows = 0;
+
+    /**
+     * The worker thread, or null if it is not running.  Guarded by this.
+     */
+    private Thread worker = null;
+
+    /**
+     * Package private constructor.
+     *
+     * @param source the unfiltered rows
+     */
+    TListFilter(final TListProvider source) {
+        this.source = source;
+        schedule();
+    }
+
+    /**
+     * Get the number of matching rows found so far.
+     *
+     * @return the number of rows
+     */
+    @Override
+    public synchronized int size() {
+        return matches.size;
+    }
+
+    /**
+     * Get the text of one matching row.
+     *
+     * @param index row index
+     * @return the source row text, or an empty string if index is no
+     * longer valid because a new search has started
+     */
+    @Override
+    public String get(final int index) {
+        int row = getSourceIndex(index);
+        if (row < 0) {
+            return "";
+        }
+        return source.get(row);
+    }
+
+    /**
+     * Get the colors of one matching row.
+     *
+     * @param index row index
+     * @return the source row attributes
+     */
+    @Override
+    public CellAttributes getAttributes(final int index) {
+        int row = getSourceIndex(index);
+        if (row < 0) {
+            return null;
+        }
+        return source.getAttributes(row);
+    }
+
+    /**
+     * Get the width of the widest row.  The widest source row is an upper
+     * bound.
+     *
+     * @return the source's maximum width, or -1
+     */
+    @Override
+    public int getMaxWidth() {
+        return source.getMaxWidth();
+    }
+
+    /**
+     * Map a filtered row to its source row.
+     *
+     * @param index filtered row index
+     * @return source row index, or -1 if index is out of range
+     */
+    public synchronized int getSourceIndex(final int index) {
+        if ((index < 0) || (index >= matches.size)) {
+            return -1;
+        }
+        return matches.data[index];
+    }
+
+    /**
+     * Map a source row to its filtered row.
+     *
+     * @param row source row index
+     * @return filtered row index, or -1 if that row is not (yet) a match
+     */
+    public synchronized int getFilteredIndex(final int row) {
+        int i = Arrays.binarySearch(matches.data, 0, matches.size, row);
+        return (i < 0 ? -1 : i);
+    }
+
+    /**
+     * Change the query.  Matching starts over on the background thread.
+     *
+     * @param text the new text to look for, or an empty string to stop
+     * filtering
+     */
+    public void setQuery(final String text) {
+        String newQuery = toLowerCase(text);
+        synchronized (this) {
+            if (newQuery.equals(query)) {
+                return;
+            }
+            query = newQuery;
+            generation++;
+            searchPending = (query.length() > 0);
+            if (!searchPending) {
+                matches = new IntList();
+                scannedRows = 0;
+                completedQuery = null;
+            }
+            schedule();
+        }
+    }
+
+    /**
+     * Called when rows were added to the end of the source.
+     */
+    public void sourceAppended() {
+        synchronized (this) {
+            schedule();
+        }
+    }
+
+    /**
+     * Called when the source rows may have changed arbitrarily.
+     */
+    public void sourceChanged() {
+        synchronized (this) {
+            generation++;
+            indexReset = true;
+            completedQuery = null;
+            searchPending = (query.length() > 0);
+            schedule();
+        }
+    }
+
+    /**
+     * Start the worker thread if it is not already running.  Must be called
+     * with this locked.
+     */
+    private void schedule() {
+        if (worker == null) {
+            worker = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "TListFilter");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * The worker loop: run pending searches first, then check newly
+     * appended rows against the current query, then extend the index.
+     * Exit when there is nothing left to do.
+     */
+    private void work() {
+        for (;;) {
+            String workQuery = null;
+            int workGeneration;
+            boolean search = false;
+            int rows = source.size();
+
+            synchronized (this) {
+                if (indexReset) {
+                    indexReset = false;
+                    trigrams = new HashMap<Long, IntList>();
+                    indexedRows = 0;
+                }
+                workGeneration = generation;
+                if (searchPending) {
+                    searchPending = false;
+                    search = true;
+                    workQuery = query;
+                } else if ((query.length() > 0) && (scannedRows < rows)) {
+                    workQuery = query;
+                } else if (indexedRows >= rows) {
+                    worker = null;
+                    return;
+                }
+            }
+
+            if (search) {
+                search(workQuery, workGeneration);
+            } else if (workQuery != null) {
+                scan(workQuery, workGeneration);
+            } else {
+                index(Math.min(rows, indexedRows + INDEX_BATCH));
+            }
+        }
+    }
+
+    /**
+     * Start a new search: pick the candidate rows, check them, and then
+     * scan any rows the candidates do not cover.
+     *
+     * @param text the query, in lower case
+     * @param searchGeneration the generation this search belongs to
+     */
+    private void search(final String text, final int searchGeneration) {
+        int [] candidates = null;
+        int candidateEnd = 0;
+
+        synchronized (this) {
+            if (searchGeneration != generation) {
+                return;
+            }
+            if ((completedQuery != null) && text.contains(completedQuery)) {
+                // Narrow the previous result instead of starting over.
+                candidates = matches.toArray();
+                candidateEnd = scannedRows;
+            }
+            matches = new IntList();
+            scannedRows = 0;
+            completedQuery = null;
+        }
+        fireRowsChanged();
+
+        if ((candidates == null) && (text.length() >= 3)
+            && (indexedRows > 0)
+        ) {
+            candidates = lookup(text);
+            candidateEnd = indexedRows;
+        }
+
+        if (candidates != null) {
+            IntList found = new IntList();
+            for (int i = 0; i < candidates.length; i++) {
+                if (generation != searchGeneration) {
+                    return;
+                }
+                if (containsIgnoreCase(source.get(candidates[i]), text)) {
+                    found.add(candidates[i]);
+                    if (found.size == PUBLISH_BATCH) {
+                        if (!publish(found, -1, searchGeneration)) {
+                            return;
+                        }
+                        found = new IntList();
+                    }
+                }
+            }
+            if (!publish(found, candidateEnd, searchGeneration)) {
+                return;
+            }
+        }
+
+        scan(text, searchGeneration);
+    }
+
+    /**
+     * Check the source rows from scannedRows to the end against the query.
+     *
+     * @param text the query, in lower case
+     * @param searchGeneration the generation this search belongs to
+     */
+    private void scan(final String text, final int searchGeneration) {
+        int row;
+        synchronized (this) {
+            if (searchGeneration != generation) {
+                return;
+            }
+            row = scannedRows;
+        }
+        int rows = source.size();
+        IntList found = new IntList();
+        for (; row < rows; row++) {
+            if (generation != searchGeneration) {
+                return;
+            }
+            if (containsIgnoreCase(source.get(row), text)) {
+                found.add(row);
+                if (found.size == PUBLISH_BATCH) {
+                    if (!publish(found, row + 1, searchGeneration)) {
+                        return;
+                    }
+                    found = new IntList();
+                }
+            }
+        }
+        if (publish(found, rows, searchGeneration)) {
+            synchronized (this) {
+                if (searchGeneration == generation) {
+                    completedQuery = text;
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a batch of matches to the visible result and tell the list.
+     *
+     * @param found the new matches
+     * @param newScannedRows the new value of scannedRows, or -1 to leave it
+     * @param searchGeneration the generation these matches belong to
+     * @return false if the search is stale and should stop
+     */
+    private boolean publish(final IntList found, final int newScannedRows,
+        final int searchGeneration) {
+
+        synchronized (this) {
+            if (searchGeneration != generation) {
+                return false;
+            }
+            for (int i = 0; i < found.size; i++) {
+                matches.add(found.data[i]);
+            }
+            if (newScannedRows >= 0) {
+                scannedRows = newScannedRows;
+            }
+        }
+        if (found.size > 0) {
+            fireRowsAppended();
+        }
+        return true;
+    }
+
+    /**
+     * Add source rows to the trigram index.
+     *
+     * @param end index rows from indexedRows up to (not including) end
+     */
+    private void index(final int end) {
+        for (int row = indexedRows; row < end; row++) {
+            String line = source.get(row);
+            for (int i = 0; i + 3 <= line.length(); i++) {
+                Long key = trigram(line, i);
+                IntList rows = trigrams.get(key);
+                if (rows == null) {
+                    rows = new IntList();
+                    trigrams.put(key, rows);
+                }
+                if (rows.last() != row) {
+                    rows.add(row);
+                }
+            }
+        }
+        indexedRows = end;
+    }
+
+    /**
+     * Find the indexed rows that might contain a query: the shortest
+     * posting list among the query's trigrams.
+     *
+     * @param text the query, in lower case, at least three characters
+     * @return ascending candidate rows, all below indexedRows
+     */
+    private int [] lookup(final String text) {
+        IntList best = null;
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            IntList rows = trigrams.get(trigram(text, i));
+            if (rows == null) {
+                return new int[0];
+            }
+            if ((best == null) || (rows.size < best.size)) {
+                best = rows;
+            }
+        }
+        return best.toArray();
+    }
+
+    /**
+     * Pack three lower-cased characters into an index key.
+     *
+     * @param text the string
+     * @param i index of the first character
+     * @return the key
+     */
+    private static Long trigram(final String text, final int i) {
+        return (((long) Character.toLowerCase(text.charAt(i))) << 32)
+            | (((long) Character.toLowerCase(text.charAt(i + 1))) << 16)
+            | Character.toLowerCase(text.charAt(i + 2));
+    }
+
+    /**
+     * Lower-case a string one character at a time, the same way the index
+     * and containsIgnoreCase() fold case.  String.toLowerCase() depends on
+     * the default locale (in Turkish "I" becomes a dotless "\u0131") and
+     * can change the length of the string.  Note package private access.
+     *
+     * @param text the string
+     * @return the string in lower case
+     */
+    static String toLowerCase(final String text) {
+        char [] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Case-insensitive substring test that does not allocate.  Note
+     * package private access.
+     *
+     * @param line the string to look in
+     * @param text the lower-case string to look for
+     * @return true if line contains text, ignoring case
+     */
+    static boolean containsIgnoreCase(final String line,
+        final String text) {
+
+        int last = line.length() - text.length();
+        for (int i = 0; i <= last; i++) {
+            if (line.regionMatches(true, i, text, 0, text.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
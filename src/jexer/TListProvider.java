@@ -0,0 +1,125 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import jexer.bits.CellAttributes;
+
+/**
+ * TListProvider supplies the rows of a TList on demand.  TList only asks
+ * for the rows that are visible, so a provider can front a very large or
+ * growing data set (log records, database rows) without copying it into a
+ * List of Strings.
+ *
+ * <p>
+ * The UI thread may call size(), get(), and getAttributes() at any time.
+ * A provider that is updated by another thread must make those methods
+ * safe to call concurrently, and then call fireRowsAppended() or
+ * fireRowsChanged() to let the list know.
+ */
+public abstract class TListProvider {
+
+    /**
+     * The list this provider is attached to, if any.
+     */
+    private volatile TList list = null;
+
+    /**
+     * Attach this provider to a list.  A provider can feed only one list at
+     * a time.  Note package private access.
+     *
+     * @param list the list, or null to detach
+     */
+    void setList(final TList list) {
+        this.list = list;
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of rows
+     */
+    public abstract int size();
+
+    /**
+     * Get the text for one row.
+     *
+     * @param index row index, between 0 and size() - 1
+     * @return the text to display.  It must not contain control characters.
+     */
+    public abstract String get(final int index);
+
+    /**
+     * Get the colors for one row.  The default uses the theme's list colors
+     * for every row.
+     *
+     * @param index row index, between 0 and size() - 1
+     * @return the attributes to draw the row with, or null to use the
+     * theme's "tlist" colors.  The selected row always uses
+     * "tlist.selected".
+     */
+    public CellAttributes getAttributes(final int index) {
+        return null;
+    }
+
+    /**
+     * Get the width of the widest row, if it is known cheaply.  The default
+     * returns -1, in which case TList sizes the horizontal scrollbar from
+     * the rows it has actually drawn.
+     *
+     * @return the widest row length, or -1 if unknown
+     */
+    public int getMaxWidth() {
+        return -1;
+    }
+
+    /**
+     * Tell the list that rows were added to the end.  If the list is
+     * scrolled to the bottom, it will follow the new rows.
+     */
+    public final void fireRowsAppended() {
+        TList target = list;
+        if (target != null) {
+            target.onRowsAppended(this);
+        }
+    }
+
+    /**
+     * Tell the list that any row may have changed, been inserted, or been
+     * removed.
+     */
+    public final void fireRowsChanged() {
+        TList target = list;
+        if (target != null) {
+            target.onRowsChanged(this);
+        }
+    }
+
+}
@@ -0,0 +1,694 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import jexer.bits.UTF8;
+
+/**
+ * TLogFile is a read-only view of a log file for TLogWindow.  The file is
+ * memory-mapped in 1GB segments, so files larger than 2GB work and nothing
+ * is copied onto the Java heap.  Positions are byte offsets.
+ *
+ * <p>
+ * Lines are found by scanning for '\n' from a known offset, so showing a
+ * screen of text anywhere in the file only touches the bytes of those
+ * lines.  Line numbers come from a sparse index that holds the offset of
+ * every 1024th line.  The index is built in bounded steps (indexStep()),
+ * which TLogWindow runs in idle time, and looking up a line number scans at
+ * most 1024 lines past a checkpoint.
+ *
+ * <p>
+ * Only the UI thread uses a TLogFile, so nothing is locked.
+ */
+final class TLogFile {
+
+    /**
+     * A CharSequence over a range of the mapped bytes, one char per byte,
+     * so that java.util.regex can search the file without copying it.
+     * Bytes 0x80 and up appear as chars U+0080 to U+00FF, so patterns must
+     * be compiled with compile() to match non-ASCII text.
+     */
+    private final class ByteSequence implements CharSequence {
+
+        /**
+         * Offset of the first byte.
+         */
+        private final long start;
+
+        /**
+         * Number of bytes.
+         */
+        private final int length;
+
+        /**
+         * The segment holding every byte, or null if the range crosses
+         * segments.
+         */
+        private final MappedByteBuffer segment;
+
+        /**
+         * Index of the first byte in segment.
+         */
+        private final int base;
+
+        /**
+         * Public constructor.
+         *
+         * @param start offset of the first byte
+         * @param length number of bytes
+         */
+        public ByteSequence(final long start, final int length) {
+            this.start = start;
+            this.length = length;
+            if ((start >>> SEGMENT_BITS)
+                == ((start + Math.max(length - 1, 0)) >>> SEGMENT_BITS)
+            ) {
+                segment = segments[(int) (start >>> SEGMENT_BITS)];
+                base = (int) (start & (SEGMENT_SIZE - 1));
+            } else {
+                segment = null;
+                base = 0;
+            }
+        }
+
+        /**
+         * Get the number of chars.
+         *
+         * @return the number of bytes
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Get one char.
+         *
+         * @param index index of the byte
+         * @return the byte as a char
+         */
+        public char charAt(final int index) {
+            if (segment != null) {
+                return (char) (segment.get(base + index) & 0xFF);
+            }
+            return (char) byteAt(start + index);
+        }
+
+        /**
+         * Get part of this sequence.  The bytes are not copied.
+         *
+         * @param from index of the first byte
+         * @param to index after the last byte
+         * @return the new sequence
+         */
+        public CharSequence subSequence(final int from, final int to) {
+            return new ByteSequence(start + from, to - from);
+        }
+
+        /**
+         * Copy the bytes into a String.
+         *
+         * @return the bytes as chars
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                sb.append(charAt(i));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Number of bits in a segment offset.
+     */
+    private static final int SEGMENT_BITS = 30;
+
+    /**
+     * Number of bytes in a full segment.
+     */
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+    /**
+     * Number of lines between index checkpoints.
+     */
+    private static final int INDEX_INTERVAL = 1024;
+
+    /**
+     * Number of bytes copied out of the map at a time when scanning for
+     * newlines.
+     */
+    private static final int SCAN_SIZE = 64 * 1024;
+
+    /**
+     * The character set of the file.
+     */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * The file.
+     */
+    private final File file;
+
+    /**
+     * Bytes copied out of the map for scanning.  Bulk copies are much
+     * faster than one get() per byte.
+     */
+    private final byte [] scratch = new byte[SCAN_SIZE];
+
+    /**
+     * The open file.
+     */
+    private RandomAccessFile raf;
+
+    /**
+     * The mapped segments.  Every segment but the last is SEGMENT_SIZE
+     * bytes.
+     */
+    private MappedByteBuffer [] segments = new MappedByteBuffer[0];
+
+    /**
+     * Number of bytes mapped.
+     */
+    private long size = 0;
+
+    /**
+     * checkpoints[i] is the offset of line i * INDEX_INTERVAL.
+     */
+    private long [] checkpoints = new long[64];
+
+    /**
+     * Number of checkpoints in use.
+     */
+    private int checkpointCount = 1;
+
+    /**
+     * Bytes below this offset have been indexed.
+     */
+    private long indexedOffset = 0;
+
+    /**
+     * Number of newlines below indexedOffset.
+     */
+    private long indexedLines = 0;
+
+    /**
+     * Package private constructor.
+     *
+     * @param file the file to view
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    TLogFile(final File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "r");
+        refresh();
+    }
+
+    /**
+     * Get the file.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the number of bytes that can be viewed.
+     *
+     * @return the size of the file when it was last refreshed
+     */
+    public long length() {
+        return size;
+    }
+
+    /**
+     * Check the file size and map any new bytes.
+     *
+     * @return 1 if the file grew, -1 if it shrank (and so was mapped again
+     * from scratch), or 0 if it did not change
+     * @throws IOException if the file cannot be mapped
+     */
+    public int refresh() throws IOException {
+        FileChannel channel = raf.getChannel();
+        long newSize = channel.size();
+        if (newSize == size) {
+            return 0;
+        }
+        int result = 1;
+        if (newSize < size) {
+            // Truncated: start over.
+            segments = new MappedByteBuffer[0];
+            size = 0;
+            checkpointCount = 1;
+            indexedOffset = 0;
+            indexedLines = 0;
+            result = -1;
+        }
+
+        // Map the partial last segment again, and any new segments.
+        int first = (int) (size >>> SEGMENT_BITS);
+        int count = (int) ((newSize + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+        segments = Arrays.copyOf(segments, count);
+        for (int i = first; i < count; i++) {
+            long start = (long) i << SEGMENT_BITS;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(SEGMENT_SIZE, newSize - start));
+        }
+        size = newSize;
+        return result;
+    }
+
+    /**
+     * Get one byte.
+     *
+     * @param offset the byte offset, less than length()
+     * @return the byte, 0 to 255
+     */
+    public int byteAt(final long offset) {
+        return segments[(int) (offset >>> SEGMENT_BITS)].get(
+            (int) (offset & (SEGMENT_SIZE - 1))) & 0xFF;
+    }
+
+    /**
+     * Find the end of the line containing an offset.
+     *
+     * @param offset the byte offset
+     * @return the offset of the line's '\n', or length() if the last line
+     * has none
+     */
+    public long getLineEnd(final long offset) {
+        long i = offset;
+        int chunk = 256;
+        while (i < size) {
+            int n = read(i, chunk);
+            for (int j = 0; j < n; j++) {
+                if (scratch[j] == '\n') {
+                    return i + j;
+                }
+            }
+            i += n;
+            chunk = Math.min(chunk * 2, SCAN_SIZE);
+        }
+        return size;
+    }
+
+    /**
+     * Copy bytes out of one segment into scratch.
+     *
+     * @param offset the offset of the first byte, less than length()
+     * @param max the most bytes to copy, at most SCAN_SIZE
+     * @return the number of bytes copied, at least 1
+     */
+    private int read(final long offset, final int max) {
+        MappedByteBuffer segment = segments[(int) (offset >>> SEGMENT_BITS)];
+        int index = (int) (offset & (SEGMENT_SIZE - 1));
+        int n = (int) Math.min(Math.min(max, segment.limit() - index),
+            size - offset);
+        ByteBuffer view = segment.duplicate();
+        view.position(index);
+        view.get(scratch, 0, n);
+        return n;
+    }
+
+    /**
+     * Find the start of the line containing an offset.
+     *
+     * @param offset the byte offset
+     * @return the offset of the first byte of the line
+     */
+    public long getLineStart(final long offset) {
+        long i = Math.min(offset, size) - 1;
+        while ((i >= 0) && (byteAt(i) != '\n')) {
+            i--;
+        }
+        return i + 1;
+    }
+
+    /**
+     * Find the start of the next line.
+     *
+     * @param offset an offset in the current line
+     * @return the offset of the next line, or -1 if this is the last line
+     */
+    public long getNextLine(final long offset) {
+        long end = getLineEnd(offset);
+        if (end + 1 >= size) {
+            return -1;
+        }
+        return end + 1;
+    }
+
+    /**
+     * Find the start of the previous line.
+     *
+     * @param lineStart the start of the current line
+     * @return the offset of the previous line, or -1 if this is the first
+     * line
+     */
+    public long getPreviousLine(final long lineStart) {
+        if (lineStart == 0) {
+            return -1;
+        }
+        return getLineStart(lineStart - 1);
+    }
+
+    /**
+     * See if the line index covers the whole file.
+     *
+     * @return true if every line has been counted
+     */
+    public boolean isIndexed() {
+        return indexedOffset == size;
+    }
+
+    /**
+     * Extend the line index.
+     *
+     * @param maxBytes the most bytes to scan
+     * @return true if there is more to index
+     */
+    public boolean indexStep(final long maxBytes) {
+        long end = Math.min(size, indexedOffset + maxBytes);
+        long i = indexedOffset;
+        while (i < end) {
+            int n = read(i, (int) Math.min(SCAN_SIZE, end - i));
+            for (int j = 0; j < n; j++) {
+                if (scratch[j] == '\n') {
+                    indexedLines++;
+                    if ((indexedLines % INDEX_INTERVAL) == 0) {
+                        addCheckpoint(i + j + 1);
+                    }
+                }
+            }
+            i += n;
+        }
+        indexedOffset = end;
+        return (indexedOffset < size);
+    }
+
+    /**
+     * Append a checkpoint.
+     *
+     * @param offset the offset of the next multiple of INDEX_INTERVAL lines
+     */
+    private void addCheckpoint(final long offset) {
+        if (checkpointCount == checkpoints.length) {
+            checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+        }
+        checkpoints[checkpointCount] = offset;
+        checkpointCount++;
+    }
+
+    /**
+     * Get the line number of an offset, if the index reaches that far.
+     *
+     * @param offset the byte offset
+     * @return the line number, counting from 0, or -1 if the index has not
+     * reached offset yet
+     */
+    public long getLineNumber(final long offset) {
+        if (offset > indexedOffset) {
+            return -1;
+        }
+        int k = Arrays.binarySearch(checkpoints, 0, checkpointCount, offset);
+        if (k < 0) {
+            k = -k - 2;
+        }
+        long line = (long) k * INDEX_INTERVAL;
+        for (long i = checkpoints[k]; i < offset; i++) {
+            if (byteAt(i) == '\n') {
+                line++;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Get the offset of a line.  The index is extended as far as needed
+     * first, so this can scan the whole file the first time.
+     *
+     * @param line the line number, counting from 0
+     * @return the offset of the line's first byte, or -1 if the file has
+     * fewer lines
+     */
+    public long getLineOffset(final long line) {
+        while ((line / INDEX_INTERVAL >= checkpointCount)
+            && indexStep(SEGMENT_SIZE)
+        ) {
+            // Keep indexing
+        }
+        long k = line / INDEX_INTERVAL;
+        if (k >= checkpointCount) {
+            return -1;
+        }
+        long offset = checkpoints[(int) k];
+        for (long i = k * INDEX_INTERVAL; (i < line) && (offset >= 0); i++) {
+            offset = getNextLine(offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Compile a regular expression to search the file with.  The file is
+     * searched one byte per char (see ByteSequence), so each non-ASCII
+     * character is turned into a group matching its UTF-8 bytes, and a
+     * quantifier after it applies to the whole character.  Lines are
+     * matched with Pattern.MULTILINE.
+     *
+     * @param regex the regular expression
+     * @return the pattern
+     * @throws PatternSyntaxException if regex is not valid, or has a
+     * non-ASCII character inside a character class
+     */
+    public static Pattern compile(final String regex) {
+        StringBuilder sb = new StringBuilder(regex.length());
+        boolean quoted = false;
+        boolean escaped = false;
+        int classDepth = 0;
+        for (int i = 0; i < regex.length();) {
+            int ch = regex.codePointAt(i);
+            int n = Character.charCount(ch);
+            if (ch >= 0x80) {
+                if ((classDepth > 0) && !quoted) {
+                    throw new PatternSyntaxException("Non-ASCII characters "
+                        + "are not supported in a character class", regex, i);
+                }
+                if (escaped) {
+                    // The backslash was already copied.  A backslash
+                    // before a non-letter is just a literal, so drop it.
+                    sb.setLength(sb.length() - 1);
+                    escaped = false;
+                }
+                if (quoted) {
+                    sb.append("\\E");
+                }
+                sb.append("(?:");
+                byte [] bytes = regex.substring(i, i + n).getBytes(CHARSET);
+                for (int j = 0; j < bytes.length; j++) {
+                    sb.append(String.format("\\x%02X", bytes[j] & 0xFF));
+                }
+                sb.append(')');
+                if (quoted) {
+                    sb.append("\\Q");
+                }
+                i += n;
+                continue;
+            }
+
+            sb.append((char) ch);
+            if (quoted) {
+                if ((ch == '\\') && regex.startsWith("E", i + 1)) {
+                    quoted = false;
+                    sb.append('E');
+                    i++;
+                }
+            } else if (escaped) {
+                if (ch == 'Q') {
+                    quoted = true;
+                }
+                escaped = false;
+            } else if (ch == '\\') {
+                escaped = true;
+            } else if (ch == '[') {
+                classDepth++;
+            } else if ((ch == ']') && (classDepth > 0)) {
+                classDepth--;
+            }
+            i += n;
+        }
+        return Pattern.compile(sb.toString(), Pattern.MULTILINE);
+    }
+
+    /**
+     * Search for a regular expression.  The matcher runs directly over the
+     * mapped bytes, from the line at one offset to the end of the line at
+     * another, so a pass over a large file can be split into bounded
+     * steps.  Compile the pattern with Pattern.MULTILINE for ^ and $ to
+     * match at line boundaries.
+     *
+     * @param pattern the pattern
+     * @param from the offset of the first line to search
+     * @param limit search up to the end of the line containing the byte
+     * before this offset
+     * @return the offsets of the match start and end, or null if there is
+     * no match
+     */
+    public long [] find(final Pattern pattern, final long from,
+        final long limit) {
+
+        Matcher matcher = matcher(pattern, from, limit);
+        if ((matcher != null) && matcher.find()) {
+            return new long [] {
+                from + matcher.start(), from + matcher.end()
+            };
+        }
+        return null;
+    }
+
+    /**
+     * Search for the last match of a regular expression that starts
+     * before an offset.  See find().
+     *
+     * @param pattern the pattern
+     * @param from the offset of the first line to search
+     * @param limit the offset that the match must start before.  The
+     * match may run on to the end of that line.
+     * @return the offsets of the match start and end, or null if there is
+     * no match
+     */
+    public long [] findLast(final Pattern pattern, final long from,
+        final long limit) {
+
+        long [] match = null;
+        Matcher matcher = matcher(pattern, from, limit);
+        while ((matcher != null) && matcher.find()
+            && (from + matcher.start() < limit)
+        ) {
+            match = new long [] {
+                from + matcher.start(), from + matcher.end()
+            };
+        }
+        return match;
+    }
+
+    /**
+     * Make a matcher over the bytes from the line at one offset to the end
+     * of the line at another.
+     *
+     * @param pattern the pattern
+     * @param from the offset of the first line to search
+     * @param limit search up to the end of the line containing the byte
+     * before this offset
+     * @return the matcher, or null if there is nothing to search
+     */
+    private Matcher matcher(final Pattern pattern, final long from,
+        final long limit) {
+
+        long end = Math.min(limit, size);
+        if (from >= end) {
+            return null;
+        }
+        end = Math.min(getLineEnd(end - 1) + 1, size);
+        end = Math.min(end, from + Integer.MAX_VALUE);
+        return pattern.matcher(new ByteSequence(from, (int) (end - from)));
+    }
+
+    /**
+     * Get the number of bytes in the UTF-8 character at an offset.
+     * Malformed bytes, and a character cut off at end, count as one
+     * character each (see UTF8.charLength()).
+     *
+     * @param offset the offset of the first byte
+     * @param end the offset after the last byte that may be used
+     * @return the number of bytes, 1 to 4
+     */
+    public int charLength(final long offset, final long end) {
+        int lead = byteAt(offset);
+        if (lead < 0x80) {
+            return 1;
+        }
+        byte [] bytes = new byte[4];
+        int n = (int) Math.min(bytes.length, end - offset);
+        for (int i = 0; i < n; i++) {
+            bytes[i] = (byte) byteAt(offset + i);
+        }
+        int length = UTF8.charLength(bytes, 0, n);
+        return (length > n ? 1 : length);
+    }
+
+    /**
+     * Decode one UTF-8 character.  Malformed bytes and characters outside
+     * the Basic Multilingual Plane decode to U+FFFD.
+     *
+     * @param offset the offset of the first byte
+     * @param length the number of bytes from charLength()
+     * @return the character
+     */
+    public char decodeChar(final long offset, final int length) {
+        int lead = byteAt(offset);
+        if (lead < 0x80) {
+            return (char) lead;
+        }
+        byte [] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) byteAt(offset + i);
+        }
+        return UTF8.decodeChar(bytes, 0, length);
+    }
+
+    /**
+     * Close the file.  The mapped segments are released when they are
+     * garbage collected.
+     */
+    public void close() {
+        segments = new MappedByteBuffer[0];
+        size = 0;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+
+}
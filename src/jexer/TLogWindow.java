@@ -0,0 +1,907 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import jexer.bits.CellAttributes;
+import jexer.event.TKeypressEvent;
+import jexer.event.TMouseEvent;
+import jexer.event.TResizeEvent;
+import static jexer.TKeypress.*;
+
+/**
+ * TLogWindow shows a log file that may be many gigabytes long, and follows
+ * new lines as they are appended, like "tail -f".
+ *
+ * <p>
+ * The file is memory-mapped (see TLogFile) and only the visible lines are
+ * decoded.  The view is anchored at the byte offset of its top line, so
+ * opening a file at its end does not read the rest of it.  In idle time
+ * the window checks the file size for appends and builds a sparse line
+ * index for the line number shown in the status line.  Searches also run
+ * in idle time, a few megabytes per step, so the window stays responsive.
+ *
+ * <p>
+ * Keys: arrows, PgUp, PgDn, Home, and End scroll; End also turns on
+ * follow mode, which any upward scroll turns off.  '/' searches forward
+ * for a regular expression from the top line and '?' searches backward
+ * from the bottom line, wrapping around the end of the file.  'n' finds
+ * the next match in the same direction and 'N' in the other direction.
+ * 'g' jumps to a line number and 'o' jumps to a byte offset.
+ */
+public class TLogWindow extends TWindow {
+
+    /**
+     * Number of steps in the vertical scrollbar.  The scrollbar position is
+     * the top line's byte offset as a fraction of the file size.
+     */
+    private static final int SCROLL_STEPS = 1000;
+
+    /**
+     * Number of bytes to index per idle call.
+     */
+    private static final long INDEX_STEP = 16 * 1024 * 1024;
+
+    /**
+     * Number of bytes to search per idle call.
+     */
+    private static final long SEARCH_STEP = 16 * 1024 * 1024;
+
+    /**
+     * Number of columns between tab stops.
+     */
+    private static final int TAB_SIZE = 8;
+
+    /**
+     * The file being shown.
+     */
+    private TLogFile log;
+
+    /**
+     * Byte offset of the first line on screen.
+     */
+    private long topOffset = 0;
+
+    /**
+     * If true, keep the last line of the file at the bottom of the window.
+     */
+    private boolean follow = true;
+
+    /**
+     * The search pattern, or null if nothing has been searched for.
+     */
+    private Pattern pattern = null;
+
+    /**
+     * The search pattern as it was typed, or null.
+     */
+    private String searchText = null;
+
+    /**
+     * Offset of the next line to search, or -1 if no search is running.  A
+     * backward search looks for matches that start before this offset.
+     */
+    private long searchOffset = -1;
+
+    /**
+     * If true, the running search goes toward the start of the file.
+     */
+    private boolean searchingBackward = false;
+
+    /**
+     * If true, the last search typed in went backward, so 'n' searches
+     * backward and 'N' forward.
+     */
+    private boolean lastSearchBackward = false;
+
+    /**
+     * Offset of the line where the running search started.  After it
+     * wraps around the end of the file, it stops here.
+     */
+    private long searchOrigin = 0;
+
+    /**
+     * If true, the running search has wrapped around the end of the file.
+     */
+    private boolean searchWrapped = false;
+
+    /**
+     * Offset of the first byte of the last match, or -1.
+     */
+    private long matchStart = -1;
+
+    /**
+     * Offset after the last byte of the last match.
+     */
+    private long matchEnd = -1;
+
+    /**
+     * A message for the status line, or null to show the position.
+     */
+    private String message = null;
+
+    /**
+     * Widest line seen so far.
+     */
+    private int maxLineWidth = 0;
+
+    /**
+     * Vertical scrollbar.
+     */
+    private TVScroller vScroller;
+
+    /**
+     * Horizontal scrollbar.
+     */
+    private THScroller hScroller;
+
+    /**
+     * The vertical scrollbar value last set by this window.  A different
+     * value means the user moved the scrollbar.
+     */
+    private int scrollValue = 0;
+
+    /**
+     * Public constructor.  The window opens at the end of the file in
+     * follow mode.
+     *
+     * @param application TApplication that manages this window
+     * @param file the log file to show
+     * @throws IOException if the file cannot be opened
+     */
+    public TLogWindow(final TApplication application,
+        final File file) throws IOException {
+
+        this(application, file, 0, 0, 80 + 2, 24 + 2, RESIZABLE);
+    }
+
+    /**
+     * Public constructor.  The window opens at the end of the file in
+     * follow mode.
+     *
+     * @param application TApplication that manages this window
+     * @param file the log file to show
+     * @param x column relative to parent
+     * @param y row relative to parent
+     * @param width width of window
+     * @param height height of window
+     * @param flags mask of RESIZABLE, CENTERED, or MODAL
+     * @throws IOException if the file cannot be opened
+     */
+    public TLogWindow(final TApplication application, final File file,
+        final int x, final int y, final int width, final int height,
+        final int flags) throws IOException {
+
+        super(application, file.getName(), x, y, width, height, flags);
+        log = new TLogFile(file);
+
+        // Setup the scroll bars
+        onResize(new TResizeEvent(TResizeEvent.Type.WIDGET, getWidth(),
+                getHeight()));
+    }
+
+    /**
+     * See if the window is following appended lines.
+     *
+     * @return true if the last line is kept at the bottom
+     */
+    public final boolean isFollowing() {
+        return follow;
+    }
+
+    /**
+     * Turn follow mode on or off.
+     *
+     * @param follow if true, keep the last line at the bottom
+     */
+    public final void setFollowing(final boolean follow) {
+        this.follow = follow;
+    }
+
+    /**
+     * Show the line containing a byte offset at the top of the window.
+     *
+     * @param offset the byte offset
+     */
+    public final void jumpToOffset(final long offset) {
+        follow = false;
+        topOffset = log.getLineStart(Math.max(0,
+                Math.min(offset, log.length())));
+        clampTop();
+    }
+
+    /**
+     * Show a line at the top of the window.  The line index is built up to
+     * that line first, which can take a moment on a large file that has
+     * not been indexed in idle time yet.
+     *
+     * @param line the line number, counting from 1
+     */
+    public final void jumpToLine(final long line) {
+        long offset = log.getLineOffset(Math.max(line - 1, 0));
+        if (offset < 0) {
+            follow = true;
+        } else {
+            jumpToOffset(offset);
+        }
+    }
+
+    /**
+     * Start searching forward for a regular expression from the top line.
+     * The search runs in idle time, wraps around to the start of the file,
+     * and the window scrolls to the first match.
+     *
+     * @param regex the regular expression
+     * @throws PatternSyntaxException if regex is not valid
+     */
+    public final void search(final String regex) {
+        pattern = TLogFile.compile(regex);
+        searchText = regex;
+        matchStart = -1;
+        matchEnd = -1;
+        lastSearchBackward = false;
+        if (follow) {
+            topOffset = getBottomTop();
+        }
+        startSearch(topOffset, false);
+    }
+
+    /**
+     * Start searching backward for a regular expression from the bottom
+     * line.  The search runs in idle time, wraps around to the end of the
+     * file, and the window scrolls to the first match.
+     *
+     * @param regex the regular expression
+     * @throws PatternSyntaxException if regex is not valid
+     */
+    public final void searchBackward(final String regex) {
+        pattern = TLogFile.compile(regex);
+        searchText = regex;
+        matchStart = -1;
+        matchEnd = -1;
+        lastSearchBackward = true;
+        if (follow) {
+            topOffset = getBottomTop();
+        }
+        startSearch(belowVisibleLine(), true);
+    }
+
+    /**
+     * Continue the last search forward from the line after the last match.
+     */
+    public final void searchNext() {
+        if (pattern == null) {
+            return;
+        }
+        long from;
+        if (matchStart >= 0) {
+            from = log.getNextLine(matchStart);
+        } else {
+            from = log.getNextLine(topOffset);
+        }
+        if (from < 0) {
+            from = log.length();
+        }
+        startSearch(from, false);
+    }
+
+    /**
+     * Continue the last search backward from the last match.
+     */
+    public final void searchPrevious() {
+        if (pattern == null) {
+            return;
+        }
+        if (matchStart >= 0) {
+            startSearch(matchStart, true);
+            // After wrapping, search back down to the match's line.
+            searchOrigin = log.getLineStart(matchStart);
+        } else {
+            startSearch(belowVisibleLine(), true);
+        }
+    }
+
+    /**
+     * Start a search in idle time.
+     *
+     * @param offset for a forward search the offset of the first line to
+     * search, for a backward search the offset that matches must start
+     * before.  In either case the search stops here after wrapping around.
+     * @param backward if true, search toward the start of the file
+     */
+    private void startSearch(final long offset, final boolean backward) {
+        searchOffset = offset;
+        searchOrigin = offset;
+        searchingBackward = backward;
+        searchWrapped = false;
+        message = null;
+    }
+
+    /**
+     * Search the next step of the file for the running search.
+     */
+    private void searchStep() {
+        long [] match;
+        if (searchingBackward) {
+            long floor = (searchWrapped ? searchOrigin : 0);
+            long from = floor;
+            if (searchOffset - SEARCH_STEP > floor) {
+                from = Math.max(floor,
+                    log.getLineStart(searchOffset - SEARCH_STEP));
+            }
+            match = log.findLast(pattern, from, searchOffset);
+            if ((match == null) && (from > floor)) {
+                searchOffset = from;
+                return;
+            }
+        } else {
+            long end = (searchWrapped ? searchOrigin : log.length());
+            long limit = Math.min(searchOffset + SEARCH_STEP, end);
+            match = log.find(pattern, searchOffset, limit);
+            if ((match == null) && (limit < end)) {
+                searchOffset = log.getLineEnd(limit - 1) + 1;
+                return;
+            }
+        }
+
+        if (match != null) {
+            matchStart = match[0];
+            matchEnd = match[1];
+            searchOffset = -1;
+            if (searchWrapped) {
+                message = (searchingBackward ? "Search wrapped to the bottom"
+                    : "Search wrapped to the top");
+            }
+            showMatch();
+            return;
+        }
+
+        // This end of the file has been reached: wrap around, unless the
+        // search started at the other end.
+        if (!searchWrapped
+            && (searchingBackward ? (searchOrigin < log.length())
+                : (searchOrigin > 0))
+        ) {
+            searchWrapped = true;
+            searchOffset = (searchingBackward ? log.length() : 0);
+        } else {
+            searchOffset = -1;
+            message = "Pattern not found: " + searchText;
+        }
+    }
+
+    /**
+     * Get the number of text rows.
+     *
+     * @return the window height less the border and status line
+     */
+    private int getTextHeight() {
+        return Math.max(getHeight() - 3, 1);
+    }
+
+    /**
+     * Get the number of text columns.
+     *
+     * @return the window width less the border
+     */
+    private int getTextWidth() {
+        return getWidth() - 2;
+    }
+
+    /**
+     * Find the top line that shows the end of the file on the last row.
+     *
+     * @return the offset of that line
+     */
+    private long getBottomTop() {
+        long size = log.length();
+        if (size == 0) {
+            return 0;
+        }
+        long last = log.getLineStart(size - 1);
+        for (int i = 1; i < getTextHeight(); i++) {
+            long previous = log.getPreviousLine(last);
+            if (previous < 0) {
+                break;
+            }
+            last = previous;
+        }
+        return last;
+    }
+
+    /**
+     * Keep the top line from going past the last page, and turn follow
+     * mode on when it reaches it.
+     */
+    private void clampTop() {
+        long bottomTop = getBottomTop();
+        if (topOffset >= bottomTop) {
+            topOffset = bottomTop;
+            follow = true;
+        }
+    }
+
+    /**
+     * Scroll by some lines.
+     *
+     * @param lines number of lines, negative to scroll up
+     */
+    private void scrollLines(final int lines) {
+        if (lines < 0) {
+            follow = false;
+            for (int i = 0; i < -lines; i++) {
+                long previous = log.getPreviousLine(topOffset);
+                if (previous < 0) {
+                    break;
+                }
+                topOffset = previous;
+            }
+        } else if (!follow) {
+            for (int i = 0; i < lines; i++) {
+                long next = log.getNextLine(topOffset);
+                if (next < 0) {
+                    break;
+                }
+                topOffset = next;
+            }
+            clampTop();
+        }
+    }
+
+    /**
+     * Handle the user moving the vertical scrollbar: one step is one line,
+     * and anything else jumps to that fraction of the file.
+     */
+    private void syncScroller() {
+        int value = vScroller.getValue();
+        if (value == scrollValue) {
+            return;
+        }
+        if (value == scrollValue + 1) {
+            scrollLines(1);
+        } else if (value == scrollValue - 1) {
+            scrollLines(-1);
+        } else if (value >= SCROLL_STEPS) {
+            follow = true;
+        } else {
+            jumpToOffset(log.length() * value / SCROLL_STEPS);
+        }
+        updateScroller();
+    }
+
+    /**
+     * Set the vertical scrollbar from the top line's offset.
+     */
+    private void updateScroller() {
+        if (follow || (log.length() == 0)) {
+            scrollValue = SCROLL_STEPS;
+        } else {
+            scrollValue = (int) (topOffset * SCROLL_STEPS / log.length());
+        }
+        vScroller.setValue(scrollValue);
+
+        hScroller.setRightValue(maxLineWidth - getTextWidth() + 1);
+        if (hScroller.getRightValue() < 0) {
+            hScroller.setRightValue(0);
+        }
+        if (hScroller.getValue() > hScroller.getRightValue()) {
+            hScroller.setValue(hScroller.getRightValue());
+        }
+    }
+
+    /**
+     * Check for appended lines, extend the line index, and run any pending
+     * search.
+     */
+    @Override
+    public void onIdle() {
+        try {
+            if (log.refresh() < 0) {
+                // Truncated, probably rotated in place.
+                topOffset = 0;
+                matchStart = -1;
+                matchEnd = -1;
+                if (searchOffset >= 0) {
+                    startSearch((searchingBackward ? log.length() : 0),
+                        searchingBackward);
+                }
+            }
+        } catch (IOException e) {
+            message = e.getMessage();
+        }
+
+        if (searchOffset >= 0) {
+            searchStep();
+        } else if (!log.isIndexed()) {
+            log.indexStep(INDEX_STEP);
+        }
+
+        super.onIdle();
+    }
+
+    /**
+     * Scroll to show the last match.
+     */
+    private void showMatch() {
+        long lineStart = log.getLineStart(matchStart);
+        if (follow || (lineStart < topOffset)
+            || (lineStart > lastVisibleLine())
+        ) {
+            jumpToOffset(matchStart);
+        }
+
+        // Count the columns before the match
+        int column = 0;
+        long end = log.getLineEnd(lineStart);
+        for (long i = lineStart; i < matchStart;) {
+            int length = log.charLength(i, end);
+            if (log.byteAt(i) == '\t') {
+                column = (column / TAB_SIZE + 1) * TAB_SIZE;
+            } else {
+                column++;
+            }
+            i += length;
+        }
+        if ((column < hScroller.getValue())
+            || (column >= hScroller.getValue() + getTextWidth())
+        ) {
+            maxLineWidth = Math.max(maxLineWidth, column + 1);
+            updateScroller();
+            hScroller.setValue(Math.max(column - getTextWidth() / 2, 0));
+        }
+    }
+
+    /**
+     * Get the offset of the last line on screen.
+     *
+     * @return the offset of the bottom line's first byte
+     */
+    private long lastVisibleLine() {
+        long line = topOffset;
+        for (int i = 1; i < getTextHeight(); i++) {
+            long next = log.getNextLine(line);
+            if (next < 0) {
+                break;
+            }
+            line = next;
+        }
+        return line;
+    }
+
+    /**
+     * Get the offset after the last line on screen.
+     *
+     * @return the offset of the line below the window, or the file size
+     */
+    private long belowVisibleLine() {
+        long next = log.getNextLine(lastVisibleLine());
+        return (next < 0 ? log.length() : next);
+    }
+
+    /**
+     * Draw the visible lines and the status line.
+     */
+    @Override
+    public void draw() {
+        syncScroller();
+        if (follow) {
+            topOffset = getBottomTop();
+        }
+        updateScroller();
+
+        // Draw the box using my superclass
+        super.draw();
+
+        CellAttributes color = getTheme().getColor("tlogwindow");
+        CellAttributes matchColor = getTheme().getColor("tlogwindow.match");
+        long line = topOffset;
+        for (int row = 1; row <= getTextHeight(); row++) {
+            if ((line < 0) || (log.length() == 0)) {
+                getScreen().hLineXY(1, row, getTextWidth(), ' ', color);
+                continue;
+            }
+            drawLine(row, line, color, matchColor);
+            line = log.getNextLine(line);
+        }
+        updateScroller();
+
+        drawStatus();
+    }
+
+    /**
+     * Draw one line, expanding tabs and showing control characters as
+     * '.'.
+     *
+     * @param row the screen row relative to the window
+     * @param lineStart the offset of the line's first byte
+     * @param color the text color
+     * @param matchColor the color of the search match
+     */
+    private void drawLine(final int row, final long lineStart,
+        final CellAttributes color, final CellAttributes matchColor) {
+
+        int left = hScroller.getValue();
+        int right = left + getTextWidth();
+        long end = log.getLineEnd(lineStart);
+        long i = lineStart;
+        int column = 0;
+        while ((i < end) && (column < right)) {
+            int length = log.charLength(i, end);
+            char ch = log.decodeChar(i, length);
+            CellAttributes attr = color;
+            if ((i >= matchStart) && (i < matchEnd)) {
+                attr = matchColor;
+            }
+            if (ch == '\t') {
+                int stop = (column / TAB_SIZE + 1) * TAB_SIZE;
+                for (; column < stop; column++) {
+                    if ((column >= left) && (column < right)) {
+                        getScreen().putCharXY(column - left + 1, row, ' ',
+                            attr);
+                    }
+                }
+            } else if ((ch == '\r') && (i + 1 == end)) {
+                // CRLF line ending
+            } else {
+                if ((ch < 0x20) || (ch == 0x7F)) {
+                    ch = '.';
+                }
+                if (column >= left) {
+                    getScreen().putCharXY(column - left + 1, row, ch, attr);
+                }
+                column++;
+            }
+            i += length;
+        }
+        if (column < right) {
+            int x = Math.max(column - left, 0);
+            getScreen().hLineXY(x + 1, row, getTextWidth() - x, ' ', color);
+        }
+
+        // Learn the width from the lines that are actually seen.  Lines
+        // cut off on the right count one column per remaining byte.
+        int width = (int) Math.min(column + (end - i), 1 << 20);
+        if (width > maxLineWidth) {
+            maxLineWidth = width;
+        }
+    }
+
+    /**
+     * Draw the status line: a message, or the position in the file.
+     */
+    private void drawStatus() {
+        String status;
+        if (message != null) {
+            status = message;
+        } else if (searchOffset >= 0) {
+            status = String.format("Searching for %s... %d%%",
+                searchText, percent(searchOffset));
+        } else {
+            long line = log.getLineNumber(topOffset);
+            status = String.format("Line %s  Byte %d of %d  %d%%%s",
+                (line < 0 ? "?" : Long.toString(line + 1)), topOffset,
+                log.length(), percent(topOffset),
+                (follow ? "  [Follow]" : ""));
+        }
+        getScreen().putPaddedStringXY(1, getHeight() - 2, " " + status, 0,
+            getTextWidth(), getTheme().getColor("tlogwindow.status"));
+    }
+
+    /**
+     * Express an offset as a percentage of the file size.
+     *
+     * @param offset the byte offset
+     * @return 0 to 100
+     */
+    private int percent(final long offset) {
+        if (log.length() == 0) {
+            return 100;
+        }
+        return (int) (offset * 100 / log.length());
+    }
+
+    /**
+     * Handle window/screen resize events.
+     *
+     * @param resize resize event
+     */
+    @Override
+    public void onResize(final TResizeEvent resize) {
+        if (resize.getType() == TResizeEvent.Type.WIDGET) {
+            if (vScroller == null) {
+                vScroller = new TVScroller(this, getWidth() - 2, 0,
+                    getHeight() - 2);
+                hScroller = new THScroller(this, 0, getHeight() - 2,
+                    getWidth() - 3);
+            } else {
+                vScroller.setX(getWidth() - 2);
+                vScroller.setHeight(getHeight() - 2);
+                hScroller.setY(getHeight() - 2);
+                hScroller.setWidth(getWidth() - 3);
+            }
+            vScroller.setTopValue(0);
+            vScroller.setBottomValue(SCROLL_STEPS);
+            vScroller.setBigChange(SCROLL_STEPS / 10);
+            hScroller.setLeftValue(0);
+            hScroller.setBigChange(getTextWidth());
+            clampTop();
+            updateScroller();
+            return;
+        }
+
+        // Pass to children instead
+        for (TWidget widget: getChildren()) {
+            widget.onResize(resize);
+        }
+    }
+
+    /**
+     * Handle mouse press events.
+     *
+     * @param mouse mouse button press event
+     */
+    @Override
+    public void onMouseDown(final TMouseEvent mouse) {
+        if (inWindowMove || inWindowResize) {
+            // TWindow needs to deal with this.
+            super.onMouseDown(mouse);
+            return;
+        }
+
+        if (mouse.isMouseWheelUp()) {
+            scrollLines(-1);
+            updateScroller();
+            return;
+        }
+        if (mouse.isMouseWheelDown()) {
+            scrollLines(1);
+            updateScroller();
+            return;
+        }
+
+        super.onMouseDown(mouse);
+    }
+
+    /**
+     * Handle keystrokes.
+     *
+     * @param keypress keystroke event
+     */
+    @Override
+    public void onKeypress(final TKeypressEvent keypress) {
+        String oldMessage = message;
+        if (searchOffset < 0) {
+            message = null;
+        }
+
+        char ch = 0;
+        if (!keypress.getKey().isFnKey()
+            && !keypress.getKey().isAlt()
+            && !keypress.getKey().isCtrl()
+        ) {
+            ch = keypress.getKey().getChar();
+        }
+
+        if (keypress.equals(kbUp)) {
+            scrollLines(-1);
+        } else if (keypress.equals(kbDown)) {
+            scrollLines(1);
+        } else if (keypress.equals(kbPgUp)) {
+            scrollLines(-getTextHeight());
+        } else if (keypress.equals(kbPgDn)) {
+            scrollLines(getTextHeight());
+        } else if (keypress.equals(kbHome) || keypress.equals(kbCtrlHome)) {
+            jumpToOffset(0);
+        } else if (keypress.equals(kbEnd) || keypress.equals(kbCtrlEnd)) {
+            follow = true;
+        } else if (keypress.equals(kbLeft)) {
+            hScroller.decrement();
+        } else if (keypress.equals(kbRight)) {
+            hScroller.increment();
+        } else if (ch == '/') {
+            String regex = inputBox("Search", "Regular expression:",
+                (searchText == null ? "" : searchText)).getText();
+            if (regex.length() > 0) {
+                try {
+                    search(regex);
+                } catch (PatternSyntaxException e) {
+                    message = e.getDescription();
+                }
+            }
+        } else if (ch == '?') {
+            String regex = inputBox("Search Backward", "Regular expression:",
+                (searchText == null ? "" : searchText)).getText();
+            if (regex.length() > 0) {
+                try {
+                    searchBackward(regex);
+                } catch (PatternSyntaxException e) {
+                    message = e.getDescription();
+                }
+            }
+        } else if (ch == 'n') {
+            if (lastSearchBackward) {
+                searchPrevious();
+            } else {
+                searchNext();
+            }
+        } else if (ch == 'N') {
+            if (lastSearchBackward) {
+                searchNext();
+            } else {
+                searchPrevious();
+            }
+        } else if (ch == 'g') {
+            Long line = parseNumber(inputBox("Go To Line",
+                    "Line number:").getText());
+            if (line != null) {
+                jumpToLine(line);
+            }
+        } else if (ch == 'o') {
+            Long offset = parseNumber(inputBox("Go To Offset",
+                    "Byte offset:").getText());
+            if (offset != null) {
+                jumpToOffset(offset);
+            }
+        } else {
+            message = oldMessage;
+            super.onKeypress(keypress);
+            return;
+        }
+        updateScroller();
+    }
+
+    /**
+     * Parse a number typed into an input box.
+     *
+     * @param text the text
+     * @return the number, or null if text is not a number
+     */
+    private Long parseNumber(final String text) {
+        try {
+            return Long.valueOf(text.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Close the file when the window closes.
+     */
+    @Override
+    public void onClose() {
+        log.close();
+    }
+
+}
@@ -104,6 +104,7 @@ public final class TPasswordField extends TField {
             showStars = true;
         }
 
+        String text = getText();
         int end = windowStart + getWidth();
         if (end > text.length()) {
             end = text.length();
@@ -114,8 +115,10 @@ public final class TPasswordField extends TField {
             getScreen().hLineXY(0, 0, getWidth() - 2, '*',
                 fieldColor);
         } else {
-            getScreen().putStringXY(0, 0, text.substring(windowStart, end),
-                fieldColor);
+            for (int i = windowStart; i < end; i++) {
+                getScreen().putCharXY(i - windowStart, 0, text.charAt(i),
+                    fieldColor);
+            }
         }
 
         // Fix the cursor, it will be rendered by TApplication.drawAll().
@@ -0,0 +1,845 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jexer.bits.CellAttributes;
+import jexer.bits.GraphicsChars;
+import jexer.event.TKeypressEvent;
+import jexer.event.TMouseEvent;
+import static jexer.TKeypress.*;
+
+/**
+ * TTable shows rows of cells under a header, and lets the user select a
+ * row.  The cells come from a TTableProvider, and only the cells that are
+ * visible are requested when drawing, so the table stays fast with
+ * millions of rows.
+ *
+ * <p>
+ * Sorting (click a header), filtering, and measuring column widths run on
+ * a background thread (see TTableIndex).  The table keeps showing the old
+ * order until a new one is complete, and then picks it up on the next
+ * draw.
+ */
+public class TTable extends TWidget {
+
+    /**
+     * The columns to display.
+     */
+    private List<TTableColumn> columns = new ArrayList<TTableColumn>();
+
+    /**
+     * The cells to display.
+     */
+    private TTableProvider provider;
+
+    /**
+     * The background sort, filter, and measure worker for provider.
+     */
+    private TTableIndex index;
+
+    /**
+     * The provider row shown on each table row, or null for provider
+     * order.  This is the array from index that is being shown.
+     */
+    private int [] rows = null;
+
+    /**
+     * Number of table rows being shown.
+     */
+    private int rowCount = 0;
+
+    /**
+     * The value of index.getWidthsVersion() that the columns reflect.
+     */
+    private int widthsVersion = -1;
+
+    /**
+     * Set when the provider reports that the whole table changed.  Checked
+     * by the UI thread in syncRows().
+     */
+    private volatile boolean widthsReset = false;
+
+    /**
+     * Selected table row, or -1.
+     */
+    private int selectedRow = -1;
+
+    /**
+     * The column rows are sorted by, or -1 for provider order.
+     */
+    private int sortColumn = -1;
+
+    /**
+     * If true, rows are sorted smallest first.
+     */
+    private boolean sortAscending = true;
+
+    /**
+     * The current filter text.
+     */
+    private String filterText = "";
+
+    /**
+     * Total width of all the columns and their separators.
+     */
+    private int totalWidth = 0;
+
+    /**
+     * Vertical scrollbar.
+     */
+    private TVScroller vScroller;
+
+    /**
+     * Horizontal scrollbar.
+     */
+    private THScroller hScroller;
+
+    /**
+     * The action to perform when the user selects a row (clicks or enter).
+     */
+    private TAction enterAction = null;
+
+    /**
+     * The action to perform when the user navigates with keyboard.
+     */
+    private TAction moveAction = null;
+
+    /**
+     * Public constructor.
+     *
+     * @param parent parent widget
+     * @param provider the cells to show
+     * @param x column relative to parent
+     * @param y row relative to parent
+     * @param width width of table
+     * @param height height of table
+     */
+    public TTable(final TWidget parent, final TTableProvider provider,
+        final int x, final int y, final int width, final int height) {
+
+        this(parent, provider, x, y, width, height, null, null);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param parent parent widget
+     * @param provider the cells to show
+     * @param x column relative to parent
+     * @param y row relative to parent
+     * @param width width of table
+     * @param height height of table
+     * @param enterAction action to perform when a row is selected
+     * @param moveAction action to perform when the user navigates to a new
+     * row with arrow/page keys
+     */
+    public TTable(final TWidget parent, final TTableProvider provider,
+        final int x, final int y, final int width, final int height,
+        final TAction enterAction, final TAction moveAction) {
+
+        super(parent, x, y, width, height);
+        this.enterAction = enterAction;
+        this.moveAction = moveAction;
+        setProvider(provider);
+    }
+
+    /**
+     * Add a column that sizes itself to its cells.  Columns are numbered
+     * from 0 in the order they are added, and that number is what the
+     * provider is asked for.
+     *
+     * @param header the header text
+     * @return the new column
+     */
+    public final TTableColumn addColumn(final String header) {
+        return addColumn(new TTableColumn(header));
+    }
+
+    /**
+     * Add a column.
+     *
+     * @param column the column
+     * @return column
+     */
+    public final TTableColumn addColumn(final TTableColumn column) {
+        columns.add(column);
+        index.setColumnCount(columns.size());
+        widthsVersion = -1;
+        updateScrollerRanges();
+        return column;
+    }
+
+    /**
+     * Get the number of columns.
+     *
+     * @return the number of columns
+     */
+    public final int getColumnCount() {
+        return columns.size();
+    }
+
+    /**
+     * Get one column.
+     *
+     * @param column column index
+     * @return the column
+     */
+    public final TTableColumn getColumn(final int column) {
+        return columns.get(column);
+    }
+
+    /**
+     * Get the provider of the cells being displayed.
+     *
+     * @return the provider
+     */
+    public final TTableProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Display cells from a new provider.  The columns, sort column, and
+     * filter are kept.
+     *
+     * @param provider the new cell provider
+     */
+    public final void setProvider(final TTableProvider provider) {
+        if (this.provider != null) {
+            this.provider.setTable(null);
+            index.cancel();
+        }
+        this.provider = provider;
+        index = new TTableIndex(provider, columns.size());
+        index.setSort(sortColumn, sortAscending);
+        index.setFilter(filterText);
+        rows = index.getRows();
+        rowCount = countRows();
+        widthsVersion = -1;
+        widthsReset = true;
+        provider.setTable(this);
+        reflow();
+    }
+
+    /**
+     * Get the provider row that is selected.
+     *
+     * @return -1 if nothing is selected, otherwise the provider row number
+     */
+    public final int getSelectedRow() {
+        return getProviderRow(selectedRow);
+    }
+
+    /**
+     * Select a provider row.
+     *
+     * @param row -1 to unselect, otherwise the provider row number.  If
+     * that row is filtered out, nothing is selected.
+     */
+    public final void setSelectedRow(final int row) {
+        selectedRow = findTableRow(rows, row);
+    }
+
+    /**
+     * Get the column the rows are sorted by.
+     *
+     * @return the column index, or -1 if the rows are in provider order
+     */
+    public final int getSortColumn() {
+        return sortColumn;
+    }
+
+    /**
+     * See if the rows are sorted smallest first.
+     *
+     * @return true if the sort is ascending
+     */
+    public final boolean isSortAscending() {
+        return sortAscending;
+    }
+
+    /**
+     * Sort the rows by one column.  The sort runs on a background thread,
+     * and the rows are shown in the old order until it completes.
+     *
+     * @param column the column index, or -1 for provider order
+     * @param ascending if true, sort smallest first
+     */
+    public final void setSort(final int column, final boolean ascending) {
+        sortColumn = column;
+        sortAscending = ascending;
+        index.setSort(column, ascending);
+    }
+
+    /**
+     * Get the filter text.
+     *
+     * @return the text that shown rows must contain, or an empty string if
+     * the table is not filtered
+     */
+    public final String getFilter() {
+        return filterText;
+    }
+
+    /**
+     * Show only the rows with a cell that contains some text, ignoring
+     * case.  The filter runs on a background thread, and the rows are
+     * shown unfiltered until it completes.
+     *
+     * @param text the text to look for, or an empty string to show every
+     * row
+     */
+    public final void setFilter(final String text) {
+        if (text.equals(filterText)) {
+            return;
+        }
+        filterText = text;
+        index.setFilter(text);
+    }
+
+    /**
+     * Get the vertical scrollbar.  This is used by subclasses.
+     *
+     * @return the vertical scrollbar
+     */
+    public final TVScroller getVScroller() {
+        return vScroller;
+    }
+
+    /**
+     * Get the horizontal scrollbar.  This is used by subclasses.
+     *
+     * @return the horizontal scrollbar
+     */
+    public final THScroller getHScroller() {
+        return hScroller;
+    }
+
+    /**
+     * Called by a provider (on any thread) when rows were appended.  Note
+     * package private access.
+     *
+     * @param from the provider that changed
+     */
+    void onRowsAppended(final TTableProvider from) {
+        if (from == provider) {
+            index.rowsAppended();
+        }
+    }
+
+    /**
+     * Called by a provider (on any thread) when some rows changed.  Note
+     * package private access.
+     *
+     * @param from the provider that changed
+     * @param firstRow the first changed row
+     * @param lastRow the last changed row, inclusive
+     */
+    void onRowsUpdated(final TTableProvider from, final int firstRow,
+        final int lastRow) {
+
+        if (from == provider) {
+            index.rowsUpdated(firstRow, lastRow);
+        }
+    }
+
+    /**
+     * Called by a provider (on any thread) when any row may have changed.
+     * Note package private access.
+     *
+     * @param from the provider that changed
+     */
+    void onTableChanged(final TTableProvider from) {
+        if (from == provider) {
+            widthsReset = true;
+            index.tableChanged();
+        }
+    }
+
+    /**
+     * Pick up the latest row index, row count, and column widths.  The row
+     * index swap keeps the same provider row selected.
+     */
+    private void syncRows() {
+        boolean changed = false;
+
+        int [] newRows = index.getRows();
+        if (newRows != rows) {
+            int row = getProviderRow(selectedRow);
+            rows = newRows;
+            selectedRow = findTableRow(rows, row);
+            changed = true;
+        }
+        int newRowCount = countRows();
+        if (newRowCount != rowCount) {
+            rowCount = newRowCount;
+            if (selectedRow > rowCount - 1) {
+                selectedRow = rowCount - 1;
+            }
+            changed = true;
+        }
+
+        if (widthsReset) {
+            widthsReset = false;
+            for (TTableColumn column: columns) {
+                column.measuredWidth = 0;
+            }
+            widthsVersion = -1;
+            changed = true;
+        }
+        if (index.getWidthsVersion() != widthsVersion) {
+            widthsVersion = index.getWidthsVersion();
+            int [] widths = index.getWidths();
+            for (int i = 0; (i < widths.length) && (i < columns.size());
+                 i++) {
+
+                TTableColumn column = columns.get(i);
+                if (widths[i] > column.measuredWidth) {
+                    column.measuredWidth = widths[i];
+                }
+            }
+            changed = true;
+        }
+
+        if (changed) {
+            updateScrollerRanges();
+        }
+    }
+
+    /**
+     * Get the number of table rows in the current index.
+     *
+     * @return the number of rows to show
+     */
+    private int countRows() {
+        if (rows == null) {
+            return provider.getRowCount();
+        }
+        return rows.length;
+    }
+
+    /**
+     * Map a table row to a provider row.
+     *
+     * @param row the table row
+     * @return the provider row, or -1 if row is out of range or the
+     * provider no longer has that row
+     */
+    private int getProviderRow(final int row) {
+        if ((row < 0) || (row >= rowCount)) {
+            return -1;
+        }
+        int providerRow = (rows == null ? row : rows[row]);
+        if (providerRow >= provider.getRowCount()) {
+            return -1;
+        }
+        return providerRow;
+    }
+
+    /**
+     * Find the table row that shows a provider row.
+     *
+     * @param rowIndex the row index to search, or null for provider order
+     * @param row the provider row
+     * @return the table row, or -1 if it is not shown
+     */
+    private int findTableRow(final int [] rowIndex, final int row) {
+        if (row < 0) {
+            return -1;
+        }
+        if (rowIndex == null) {
+            return (row < provider.getRowCount() ? row : -1);
+        }
+        for (int i = 0; i < rowIndex.length; i++) {
+            if (rowIndex[i] == row) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Set the scrollbar bottom and right values from the number of rows and
+     * the column widths, keeping the current scroll position where
+     * possible.
+     */
+    private void updateScrollerRanges() {
+        if (vScroller == null) {
+            return;
+        }
+        totalWidth = 0;
+        for (TTableColumn column: columns) {
+            totalWidth += column.getDisplayWidth() + 1;
+        }
+
+        vScroller.setBottomValue(rowCount - getHeight() + 2);
+        if (vScroller.getBottomValue() < 0) {
+            vScroller.setBottomValue(0);
+        }
+        if (vScroller.getValue() > vScroller.getBottomValue()) {
+            vScroller.setValue(vScroller.getBottomValue());
+        }
+        hScroller.setRightValue(totalWidth - getWidth() + 1);
+        if (hScroller.getRightValue() < 0) {
+            hScroller.setRightValue(0);
+        }
+        if (hScroller.getValue() > hScroller.getRightValue()) {
+            hScroller.setValue(hScroller.getRightValue());
+        }
+    }
+
+    /**
+     * Scroll so that the selected row is visible.
+     */
+    private void scrollToSelected() {
+        if (selectedRow < 0) {
+            return;
+        }
+        if (selectedRow < vScroller.getValue()) {
+            vScroller.setValue(selectedRow);
+        } else if (selectedRow > vScroller.getValue() + getHeight() - 3) {
+            vScroller.setValue(selectedRow - getHeight() + 3);
+        }
+    }
+
+    /**
+     * Perform user selection action.
+     */
+    public void dispatchEnter() {
+        assert (selectedRow >= 0);
+        assert (selectedRow < rowCount);
+        if (enterAction != null) {
+            enterAction.DO();
+        }
+    }
+
+    /**
+     * Perform table movement action.
+     */
+    public void dispatchMove() {
+        assert (selectedRow >= 0);
+        assert (selectedRow < rowCount);
+        if (moveAction != null) {
+            moveAction.DO();
+        }
+    }
+
+    /**
+     * Resize for a new width/height.
+     */
+    public void reflow() {
+        selectedRow = -1;
+
+        // Start at the top, below the header
+        if (vScroller == null) {
+            vScroller = new TVScroller(this, getWidth() - 1, 1,
+                getHeight() - 2);
+        } else {
+            vScroller.setX(getWidth() - 1);
+            vScroller.setHeight(getHeight() - 2);
+        }
+        vScroller.setTopValue(0);
+        vScroller.setValue(0);
+        vScroller.setBigChange(getHeight() - 2);
+
+        // Start at the left
+        if (hScroller == null) {
+            hScroller = new THScroller(this, 0, getHeight() - 1,
+                getWidth() - 1);
+        } else {
+            hScroller.setY(getHeight() - 1);
+            hScroller.setWidth(getWidth() - 1);
+        }
+        hScroller.setLeftValue(0);
+        hScroller.setValue(0);
+        hScroller.setBigChange(getWidth() - 1);
+
+        updateScrollerRanges();
+    }
+
+    /**
+     * Draw the header and the visible rows.
+     */
+    @Override
+    public void draw() {
+        syncRows();
+
+        boolean wider = false;
+        CellAttributes color = getTheme().getColor("ttable.header");
+        wider |= drawRow(0, -1, color);
+        getScreen().putCharXY(getWidth() - 1, 0, ' ', color);
+
+        int begin = vScroller.getValue();
+        int topY = 1;
+        for (int i = begin; (i < rowCount) && (topY < getHeight() - 1);
+             i++) {
+
+            if (i == selectedRow) {
+                color = getTheme().getColor("tlist.selected");
+            } else if (isAbsoluteActive()) {
+                color = getTheme().getColor("tlist");
+            } else {
+                color = getTheme().getColor("tlist.inactive");
+            }
+            int row = getProviderRow(i);
+            wider |= drawRow(topY, (row < 0 ? -2 : row), color);
+            topY++;
+        }
+
+        if (isAbsoluteActive()) {
+            color = getTheme().getColor("tlist");
+        } else {
+            color = getTheme().getColor("tlist.inactive");
+        }
+
+        // Pad the rest with blank lines
+        for (int i = topY; i < getHeight() - 1; i++) {
+            getScreen().hLineXY(0, i, getWidth() - 1, ' ', color);
+        }
+
+        if (wider) {
+            updateScrollerRanges();
+        }
+    }
+
+    /**
+     * Draw the cells of one row that fall inside the horizontal scroll
+     * window.
+     *
+     * @param y row relative to this widget
+     * @param row the provider row, or -1 for the header, or -2 for a row
+     * that no longer exists
+     * @param color the attributes to draw with
+     * @return true if a cell was wider than its column's measured width
+     */
+    private boolean drawRow(final int y, final int row,
+        final CellAttributes color) {
+
+        boolean wider = false;
+        int left = hScroller.getValue();
+        int right = getWidth() - 1;
+        int columnX = -left;
+        for (int i = 0; (i < columns.size()) && (columnX < right); i++) {
+            TTableColumn column = columns.get(i);
+            int width = column.getDisplayWidth();
+            if (columnX + width + 1 <= 0) {
+                columnX += width + 1;
+                continue;
+            }
+
+            String text;
+            if (row == -1) {
+                text = getHeaderText(i);
+            } else if (row < 0) {
+                text = "";
+            } else {
+                text = provider.getValue(row, i);
+                if (text.length() > column.measuredWidth) {
+                    // Learn the width from the cells that are actually
+                    // seen.
+                    column.measuredWidth = text.length();
+                    wider = true;
+                }
+            }
+
+            int x = Math.max(columnX, 0);
+            int n = Math.min(columnX + width, right) - x;
+            if (n > 0) {
+                getScreen().putPaddedStringXY(x, y, text, x - columnX, n,
+                    color);
+            }
+            if ((columnX + width >= 0) && (columnX + width < right)) {
+                getScreen().putCharXY(columnX + width, y,
+                    GraphicsChars.WINDOW_SIDE, color);
+            }
+            columnX += width + 1;
+        }
+        if (columnX < right) {
+            int x = Math.max(columnX, 0);
+            getScreen().hLineXY(x, y, right - x, ' ', color);
+        }
+        return wider;
+    }
+
+    /**
+     * Get the header text for a column, with an arrow on the sort column.
+     *
+     * @param column column index
+     * @return the text to draw
+     */
+    private String getHeaderText(final int column) {
+        String header = columns.get(column).getHeader();
+        if (column == sortColumn) {
+            return header + " " + (sortAscending ? GraphicsChars.UPARROW
+                : GraphicsChars.DOWNARROW);
+        }
+        return header;
+    }
+
+    /**
+     * Find the column under a screen column.
+     *
+     * @param x column relative to this widget
+     * @return the column index, or -1 if x is past the last column
+     */
+    private int getColumnAt(final int x) {
+        int columnX = -hScroller.getValue();
+        for (int i = 0; i < columns.size(); i++) {
+            columnX += columns.get(i).getDisplayWidth() + 1;
+            if (x < columnX) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Handle mouse press events.  Clicking a header sorts by that column,
+     * or reverses the sort if it is already the sort column.
+     *
+     * @param mouse mouse button press event
+     */
+    @Override
+    public void onMouseDown(final TMouseEvent mouse) {
+        syncRows();
+
+        if (mouse.isMouseWheelUp()) {
+            vScroller.decrement();
+            return;
+        }
+        if (mouse.isMouseWheelDown()) {
+            vScroller.increment();
+            return;
+        }
+
+        if ((mouse.getY() == 0) && (mouse.getX() < getWidth() - 1)) {
+            int column = getColumnAt(mouse.getX());
+            if (column >= 0) {
+                if (column == sortColumn) {
+                    setSort(column, !sortAscending);
+                } else {
+                    setSort(column, true);
+                }
+            }
+            return;
+        }
+
+        if ((mouse.getX() < getWidth() - 1)
+            && (mouse.getY() > 0)
+            && (mouse.getY() < getHeight() - 1)
+        ) {
+            int row = vScroller.getValue() + mouse.getY() - 1;
+            if (row < rowCount) {
+                selectedRow = row;
+                dispatchEnter();
+            }
+            return;
+        }
+
+        // Pass to children
+        super.onMouseDown(mouse);
+    }
+
+    /**
+     * Handle keystrokes.
+     *
+     * @param keypress keystroke event
+     */
+    @Override
+    public void onKeypress(final TKeypressEvent keypress) {
+        syncRows();
+
+        int oldRow = selectedRow;
+        if (keypress.equals(kbLeft)) {
+            hScroller.decrement();
+        } else if (keypress.equals(kbRight)) {
+            hScroller.increment();
+        } else if (keypress.equals(kbUp)) {
+            if (selectedRow > 0) {
+                selectedRow--;
+            } else if ((selectedRow < 0) && (rowCount > 0)) {
+                selectedRow = vScroller.getValue();
+            }
+        } else if (keypress.equals(kbDown)) {
+            if (selectedRow < 0) {
+                if (rowCount > 0) {
+                    selectedRow = vScroller.getValue();
+                }
+            } else if (selectedRow < rowCount - 1) {
+                selectedRow++;
+            }
+        } else if (keypress.equals(kbPgUp)) {
+            vScroller.bigDecrement();
+            if (selectedRow >= 0) {
+                selectedRow = Math.max(selectedRow - (getHeight() - 2), 0);
+            }
+        } else if (keypress.equals(kbPgDn)) {
+            vScroller.bigIncrement();
+            if (selectedRow >= 0) {
+                selectedRow = Math.min(selectedRow + (getHeight() - 2),
+                    rowCount - 1);
+            }
+        } else if (keypress.equals(kbHome)) {
+            vScroller.toTop();
+            if (rowCount > 0) {
+                selectedRow = 0;
+            }
+        } else if (keypress.equals(kbEnd)) {
+            vScroller.toBottom();
+            if (rowCount > 0) {
+                selectedRow = rowCount - 1;
+            }
+        } else if (keypress.equals(kbTab)) {
+            getParent().switchWidget(true);
+            return;
+        } else if (keypress.equals(kbShiftTab) || keypress.equals(kbBackTab)) {
+            getParent().switchWidget(false);
+            return;
+        } else if (keypress.equals(kbEnter)) {
+            if (selectedRow >= 0) {
+                dispatchEnter();
+            }
+            return;
+        } else {
+            // Pass other keys on
+            super.onKeypress(keypress);
+            return;
+        }
+
+        scrollToSelected();
+        if ((selectedRow >= 0) && (selectedRow != oldRow)) {
+            dispatchMove();
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+/**
+ * TTableColumn describes one column of a TTable: its header text and its
+ * width.  A column either has a fixed width, or sizes itself to its widest
+ * cell seen so far, up to a limit.
+ */
+public final class TTableColumn {
+
+    /**
+     * Widest an automatically sized column will grow.
+     */
+    public static final int MAX_AUTO_WIDTH = 40;
+
+    /**
+     * The header text.
+     */
+    private String header;
+
+    /**
+     * The fixed width, or -1 to size to the cells.
+     */
+    private int width = -1;
+
+    /**
+     * Length of the widest cell measured so far.  Only touched by the UI
+     * thread.  Note package private access.
+     */
+    int measuredWidth = 0;
+
+    /**
+     * Public constructor.  The column sizes itself to its cells.
+     *
+     * @param header the header text
+     */
+    public TTableColumn(final String header) {
+        this(header, -1);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param header the header text
+     * @param width the number of columns to show, or -1 to size to the
+     * cells
+     */
+    public TTableColumn(final String header, final int width) {
+        this.header = header;
+        this.width = width;
+    }
+
+    /**
+     * Get the header text.
+     *
+     * @return the header text
+     */
+    public String getHeader() {
+        return header;
+    }
+
+    /**
+     * Set the header text.
+     *
+     * @param header the new header text
+     */
+    public void setHeader(final String header) {
+        this.header = header;
+    }
+
+    /**
+     * Get the fixed width.
+     *
+     * @return the fixed width, or -1 if the column sizes to its cells
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Set the fixed width.
+     *
+     * @param width the number of columns to show, or -1 to size to the
+     * cells
+     */
+    public void setWidth(final int width) {
+        this.width = width;
+    }
+
+    /**
+     * Get the number of screen columns this column uses, not counting the
+     * separator.
+     *
+     * @return the fixed width, or the larger of the header and the widest
+     * cell measured so far, up to MAX_AUTO_WIDTH
+     */
+    public int getDisplayWidth() {
+        if (width >= 0) {
+            return width;
+        }
+        return Math.min(Math.max(header.length(), measuredWidth),
+            MAX_AUTO_WIDTH);
+    }
+
+}
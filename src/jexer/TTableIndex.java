@@ -0,0 +1,560 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import java.util.Arrays;
+
+/**
+ * TTableIndex does the slow work for a TTable on a background thread:
+ * sorting and filtering the rows, and measuring column widths.  The thread
+ * exits when it runs out of things to do.
+ *
+ * <p>
+ * A sort or filter builds a complete new array of provider row numbers and
+ * then replaces the old one with a single volatile write.  The UI thread
+ * keeps drawing from the old array until then, so it never sees a
+ * half-sorted view and never waits on the worker:
+ * <ul>
+ * <li>Changing the sort column or filter bumps a generation counter, and a
+ * pass that sees a newer generation abandons its work.</li>
+ * <li>Row updates and appends do not cancel a pass that is running.  They
+ * only ask for another pass after it, so a steady stream of small updates
+ * cannot starve the sort.</li>
+ * <li>Column widths are measured in batches in idle time.  Updated rows are
+ * measured again, and widths only grow until the whole table changes.</li>
+ * </ul>
+ */
+final class TTableIndex {
+
+    /**
+     * Number of rows to filter or measure before checking for other work.
+     */
+    private static final int BATCH = 4096;
+
+    /**
+     * The rows to index.
+     */
+    private final TTableProvider provider;
+
+    /**
+     * Number of columns.  Guarded by this.
+     */
+    private int columnCount = 0;
+
+    /**
+     * The column to sort by, or -1 for provider order.  Guarded by this.
+     */
+    private int sortColumn = -1;
+
+    /**
+     * If true, sort smallest first.  Guarded by this.
+     */
+    private boolean ascending = true;
+
+    /**
+     * The filter text in lower case, or an empty string.  Guarded by this.
+     */
+    private String filter = "";
+
+    /**
+     * Bumped on every sort, filter, or table change.  Passes compare
+     * against this to see if they are stale.
+     */
+    private volatile int generation = 0;
+
+    /**
+     * If true, the row index must be built again.  Guarded by this.
+     */
+    private boolean rebuildPending = false;
+
+    /**
+     * The provider row shown on each table row, or null to show the
+     * provider rows in order.
+     */
+    private volatile int [] rows = null;
+
+    /**
+     * Widest cell measured in each column.  Guarded by this.
+     */
+    private int [] widths = new int[0];
+
+    /**
+     * Bumped every time widths grow.
+     */
+    private volatile int widthsVersion = 0;
+
+    /**
+     * Provider rows below this number have been measured.  Guarded by
+     * this.
+     */
+    private int measuredRows = 0;
+
+    /**
+     * The first updated row that has not been measured again, or -1.
+     * Guarded by this.
+     */
+    private int dirtyFirst = -1;
+
+    /**
+     * The last updated row that has not been measured again.  Guarded by
+     * this.
+     */
+    private int dirtyLast = -1;
+
+    /**
+     * If true, the table has moved on to another provider.  Guarded by
+     * this.
+     */
+    private boolean cancelled = false;
+
+    /**
+     * The worker thread, or null if it is not running.  Guarded by this.
+     */
+    private Thread worker = null;
+
+    /**
+     * Package private constructor.
+     *
+     * @param provider the rows to index
+     * @param columnCount the number of columns
+     */
+    TTableIndex(final TTableProvider provider, final int columnCount) {
+        this.provider = provider;
+        setColumnCount(columnCount);
+    }
+
+    /**
+     * Get the current row index.
+     *
+     * @return the provider row shown on each table row, or null to show
+     * the provider rows in order
+     */
+    public int [] getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the number of times the column widths have grown.
+     *
+     * @return a number that changes when getWidths() would return
+     * something new
+     */
+    public int getWidthsVersion() {
+        return widthsVersion;
+    }
+
+    /**
+     * Get the widest cell measured in each column.
+     *
+     * @return a copy of the widths
+     */
+    public synchronized int [] getWidths() {
+        return widths.clone();
+    }
+
+    /**
+     * Change the number of columns.  All columns are measured again.
+     *
+     * @param columnCount the number of columns
+     */
+    public void setColumnCount(final int columnCount) {
+        synchronized (this) {
+            this.columnCount = columnCount;
+            widths = new int[columnCount];
+            measuredRows = 0;
+            dirtyFirst = -1;
+            if (sortColumn >= columnCount) {
+                sortColumn = -1;
+            }
+            restart();
+        }
+    }
+
+    /**
+     * Change the sort order.
+     *
+     * @param column the column to sort by, or -1 for provider order
+     * @param ascending if true, sort smallest first
+     */
+    public void setSort(final int column, final boolean ascending) {
+        synchronized (this) {
+            sortColumn = column;
+            this.ascending = ascending;
+            restart();
+        }
+    }
+
+    /**
+     * Change the filter.
+     *
+     * @param text the text that a row must contain in at least one cell,
+     * ignoring case, or an empty string to show every row
+     */
+    public void setFilter(final String text) {
+        synchronized (this) {
+            filter = TListFilter.toLowerCase(text);
+            restart();
+        }
+    }
+
+    /**
+     * Called when rows were added to the end of the provider.
+     */
+    public void rowsAppended() {
+        synchronized (this) {
+            if (isIndexed()) {
+                rebuildPending = true;
+            }
+            schedule();
+        }
+    }
+
+    /**
+     * Called when the cells of some rows changed.
+     *
+     * @param firstRow the first changed row
+     * @param lastRow the last changed row, inclusive
+     */
+    public void rowsUpdated(final int firstRow, final int lastRow) {
+        synchronized (this) {
+            if (dirtyFirst < 0) {
+                dirtyFirst = firstRow;
+                dirtyLast = lastRow;
+            } else {
+                dirtyFirst = Math.min(dirtyFirst, firstRow);
+                dirtyLast = Math.max(dirtyLast, lastRow);
+            }
+            if (isIndexed()) {
+                rebuildPending = true;
+            }
+            schedule();
+        }
+    }
+
+    /**
+     * Called when the provider rows may have changed arbitrarily.
+     */
+    public void tableChanged() {
+        setColumnCount(columnCount);
+    }
+
+    /**
+     * Stop all work.  The index is not used again after this.
+     */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            generation++;
+        }
+    }
+
+    /**
+     * See if rows are sorted or filtered.  Must be called with this locked.
+     *
+     * @return true if the row index is not just the provider order
+     */
+    private boolean isIndexed() {
+        return (sortColumn >= 0) || (filter.length() > 0);
+    }
+
+    /**
+     * Abandon any pass that is running and build the row index again.
+     * Must be called with this locked.
+     */
+    private void restart() {
+        generation++;
+        rebuildPending = isIndexed();
+        if (!rebuildPending) {
+            rows = null;
+        }
+        schedule();
+    }
+
+    /**
+     * Start the worker thread if it is not already running.  Must be called
+     * with this locked.
+     */
+    private void schedule() {
+        if (worker == null) {
+            worker = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "TTableIndex");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * The worker loop: build the row index first, then measure updated
+     * rows, then measure rows that have never been measured.  Exit when
+     * there is nothing left to do.
+     */
+    private void work() {
+        for (;;) {
+            int rowCount = provider.getRowCount();
+            int workGeneration;
+            int workColumn;
+            int workColumns;
+            boolean workAscending;
+            String workFilter = null;
+            int first = -1;
+            int last = -1;
+
+            synchronized (this) {
+                if (cancelled) {
+                    worker = null;
+                    return;
+                }
+                workGeneration = generation;
+                workColumn = sortColumn;
+                workColumns = columnCount;
+                workAscending = ascending;
+                if (rebuildPending) {
+                    rebuildPending = false;
+                    workFilter = filter;
+                } else if (dirtyFirst >= 0) {
+                    first = dirtyFirst;
+                    last = Math.min(dirtyLast, first + BATCH - 1);
+                    if (last >= dirtyLast) {
+                        dirtyFirst = -1;
+                    } else {
+                        dirtyFirst = last + 1;
+                    }
+                } else if (measuredRows < rowCount) {
+                    first = measuredRows;
+                    last = Math.min(rowCount, first + BATCH) - 1;
+                } else {
+                    worker = null;
+                    return;
+                }
+            }
+
+            if (workFilter != null) {
+                build(rowCount, workColumns, workFilter, workColumn,
+                    workAscending, workGeneration);
+            } else {
+                measure(first, Math.min(last, rowCount - 1), workGeneration);
+            }
+        }
+    }
+
+    /**
+     * Build a new row index and publish it.
+     *
+     * @param rowCount the number of provider rows
+     * @param cells the number of columns
+     * @param text the filter text in lower case, or an empty string
+     * @param column the column to sort by, or -1
+     * @param sortAscending if true, sort smallest first
+     * @param workGeneration the generation this pass belongs to
+     */
+    private void build(final int rowCount, final int cells,
+        final String text, final int column, final boolean sortAscending,
+        final int workGeneration) {
+
+        int [] found = new int[rowCount];
+        int foundCount = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (((row % BATCH) == 0) && (generation != workGeneration)) {
+                return;
+            }
+            if ((text.length() == 0) || matches(row, cells, text)) {
+                found[foundCount++] = row;
+            }
+        }
+        int [] newRows = Arrays.copyOf(found, foundCount);
+
+        if (column >= 0) {
+            newRows = sort(newRows, column, sortAscending, workGeneration);
+            if (newRows == null) {
+                return;
+            }
+        }
+
+        synchronized (this) {
+            if (workGeneration == generation) {
+                rows = newRows;
+            }
+        }
+    }
+
+    /**
+     * See if any cell of a row contains the filter text.
+     *
+     * @param row the provider row
+     * @param cells the number of columns
+     * @param text the filter text in lower case
+     * @return true if the row should be shown
+     */
+    private boolean matches(final int row, final int cells,
+        final String text) {
+
+        for (int i = 0; i < cells; i++) {
+            if (TListFilter.containsIgnoreCase(provider.getValue(row, i),
+                    text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sort rows by one column.  The sort keys are fetched once per row, and
+     * a bottom-up merge sort orders positions into the key array, so no
+     * Integers are boxed.  The sort is stable: equal keys stay in provider
+     * order.
+     *
+     * @param unsorted provider rows in ascending order
+     * @param column the column to sort by
+     * @param sortAscending if true, sort smallest first
+     * @param workGeneration the generation this pass belongs to
+     * @return the sorted rows, or null if the pass is stale
+     */
+    private int [] sort(final int [] unsorted, final int column,
+        final boolean sortAscending, final int workGeneration) {
+
+        int n = unsorted.length;
+        Comparable<?> [] keys = new Comparable<?>[n];
+        for (int i = 0; i < n; i++) {
+            if (((i % BATCH) == 0) && (generation != workGeneration)) {
+                return null;
+            }
+            keys[i] = provider.getSortKey(unsorted[i], column);
+        }
+
+        int [] from = new int[n];
+        int [] to = new int[n];
+        for (int i = 0; i < n; i++) {
+            from[i] = i;
+        }
+        for (int run = 1; run < n; run *= 2) {
+            if (generation != workGeneration) {
+                return null;
+            }
+            for (int lo = 0; lo < n; lo += 2 * run) {
+                int mid = Math.min(lo + run, n);
+                int hi = Math.min(lo + 2 * run, n);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    if ((j >= hi) || ((i < mid)
+                            && (compare(keys[from[i]], keys[from[j]],
+                                    sortAscending) <= 0))
+                    ) {
+                        to[k] = from[i++];
+                    } else {
+                        to[k] = from[j++];
+                    }
+                }
+            }
+            int [] swap = from;
+            from = to;
+            to = swap;
+        }
+
+        int [] sorted = new int[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = unsorted[from[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Compare two sort keys.
+     *
+     * @param a the first key, may be null
+     * @param b the second key, may be null
+     * @param sortAscending if true, sort smallest first
+     * @return negative if a sorts first, positive if b sorts first, or 0
+     */
+    @SuppressWarnings("unchecked")
+    private static int compare(final Comparable<?> a, final Comparable<?> b,
+        final boolean sortAscending) {
+
+        int result;
+        if (a == null) {
+            result = (b == null ? 0 : -1);
+        } else if (b == null) {
+            result = 1;
+        } else {
+            result = ((Comparable<Object>) a).compareTo(b);
+        }
+        return (sortAscending ? result : -result);
+    }
+
+    /**
+     * Measure the cells in a range of rows and publish any wider columns.
+     *
+     * @param first the first provider row
+     * @param last the last provider row, inclusive
+     * @param workGeneration the generation this pass belongs to
+     */
+    private void measure(final int first, final int last,
+        final int workGeneration) {
+
+        int [] found;
+        synchronized (this) {
+            found = new int[widths.length];
+        }
+        for (int row = first; row <= last; row++) {
+            for (int i = 0; i < found.length; i++) {
+                int length = provider.getValue(row, i).length();
+                if (length > found[i]) {
+                    found[i] = length;
+                }
+            }
+        }
+
+        synchronized (this) {
+            if ((workGeneration != generation)
+                || (found.length != widths.length)
+            ) {
+                return;
+            }
+            if (first == measuredRows) {
+                measuredRows = last + 1;
+            }
+            boolean wider = false;
+            for (int i = 0; i < found.length; i++) {
+                if (found[i] > widths[i]) {
+                    widths[i] = found[i];
+                    wider = true;
+                }
+            }
+            if (wider) {
+                widthsVersion++;
+            }
+        }
+    }
+
+}
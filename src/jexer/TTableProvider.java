@@ -0,0 +1,129 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+/**
+ * TTableProvider supplies the cells of a TTable on demand.  TTable only
+ * asks for the cells that are visible, plus background passes to sort,
+ * filter, and measure column widths, so a provider can front millions of
+ * rows without copying them into Strings up front.
+ *
+ * <p>
+ * Cells are requested both by the UI thread and by the table's background
+ * thread.  A provider that is updated by another thread must make
+ * getRowCount(), getValue(), and getSortKey() safe to call concurrently,
+ * and then call one of the fire methods to let the table know.  The fire
+ * methods must not be called while holding a lock that those methods also
+ * take.
+ */
+public abstract class TTableProvider {
+
+    /**
+     * The table this provider is attached to, if any.
+     */
+    private volatile TTable table = null;
+
+    /**
+     * Attach this provider to a table.  A provider can feed only one table
+     * at a time.  Note package private access.
+     *
+     * @param table the table, or null to detach
+     */
+    void setTable(final TTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of rows
+     */
+    public abstract int getRowCount();
+
+    /**
+     * Get the text for one cell.
+     *
+     * @param row row index, between 0 and getRowCount() - 1
+     * @param column column index, the position of the column in the table
+     * @return the text to display.  It must not contain control characters.
+     */
+    public abstract String getValue(final int row, final int column);
+
+    /**
+     * Get the value to sort one cell by.  The default sorts by the cell
+     * text.  Override this to sort numbers or dates by value, or text
+     * without regard to case.
+     *
+     * @param row row index, between 0 and getRowCount() - 1
+     * @param column column index
+     * @return a value that is comparable to the other values in the same
+     * column, or null to sort before everything else
+     */
+    public Comparable<?> getSortKey(final int row, final int column) {
+        return getValue(row, column);
+    }
+
+    /**
+     * Tell the table that rows were added to the end.
+     */
+    public final void fireRowsAppended() {
+        TTable target = table;
+        if (target != null) {
+            target.onRowsAppended(this);
+        }
+    }
+
+    /**
+     * Tell the table that the cells of some existing rows changed.  This is
+     * cheaper than fireTableChanged(): only these rows are measured again.
+     *
+     * @param firstRow the first changed row
+     * @param lastRow the last changed row, inclusive
+     */
+    public final void fireRowsUpdated(final int firstRow, final int lastRow) {
+        TTable target = table;
+        if (target != null) {
+            target.onRowsUpdated(this, firstRow, lastRow);
+        }
+    }
+
+    /**
+     * Tell the table that any row may have changed, been inserted, or been
+     * removed.
+     */
+    public final void fireTableChanged() {
+        TTable target = table;
+        if (target != null) {
+            target.onTableChanged(this);
+        }
+    }
+
+}
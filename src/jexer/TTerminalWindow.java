@@ -34,21 +34,30 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import jexer.bits.Cell;
 import jexer.bits.CellAttributes;
+import jexer.bits.Color;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMouseEvent;
 import jexer.event.TResizeEvent;
-import jexer.tterminal.DisplayLine;
 import jexer.tterminal.ECMA48;
+import jexer.tterminal.ScreenSnapshot;
+import jexer.tterminal.SearchMatch;
+import jexer.tterminal.SnapshotLine;
 import static jexer.TKeypress.*;
 
 /**
  * TTerminalWindow exposes a ECMA-48 / ANSI X3.64 style terminal in a window.
+ *
+ * <p>
+ * Shift-PgUp and Shift-PgDn scroll back through the output.  Shift-F3
+ * searches the scrollback for a regular expression, Ctrl-F3 finds the
+ * previous (older) match, and Alt-F3 the next one.
  */
 public class TTerminalWindow extends TWindow {
 
@@ -67,6 +76,60 @@ public class TTerminalWindow extends TWindow {
      */
     private TVScroller vScroller;
 
+    /**
+     * The emulator lines on screen as of the last draw, by window row.  A
+     * line that is still visible in the next draw is not rendered again.
+     */
+    private SnapshotLine [] drawnLines = new SnapshotLine[0];
+
+    /**
+     * The rendered cells of drawnLines.
+     */
+    private Cell [][] drawnCells = new Cell[0][];
+
+    /**
+     * Storage for the next draw's drawnLines.
+     */
+    private SnapshotLine [] spareLines = new SnapshotLine[0];
+
+    /**
+     * Storage for the next draw's drawnCells.
+     */
+    private Cell [][] spareCells = new Cell[0][];
+
+    /**
+     * The absolute line number of the top window row as of the last draw,
+     * counting lines scrolled off the emulator screen.
+     */
+    private long drawnTop = 0;
+
+    /**
+     * The version of the emulator snapshot as of the last draw, or -1 to
+     * render every row again.
+     */
+    private long drawnVersion = -1;
+
+    /**
+     * The window width as of the last draw.
+     */
+    private int drawnWidth = 0;
+
+    /**
+     * The search pattern, or null if nothing has been searched for.
+     */
+    private Pattern searchPattern = null;
+
+    /**
+     * The last search match, or null.
+     */
+    private SearchMatch match = null;
+
+    /**
+     * The line holding the last search match, which is highlighted while
+     * it is on screen and unchanged.
+     */
+    private SnapshotLine matchLine = null;
+
     /**
      * Public constructor spawns a shell.
      *
@@ -153,89 +216,301 @@ public class TTerminalWindow extends TWindow {
      */
     @Override
     public void draw() {
-        // Synchronize against the emulator so we don't stomp on its reader
-        // thread.
-        synchronized (emulator) {
+        // Draw from the emulator's latest snapshot, so its reader thread can
+        // keep going while we draw.
+        ScreenSnapshot snapshot = emulator.getSnapshot();
+
+        // Update the scroll bars
+        reflow(snapshot);
+
+        // Draw the box using my superclass
+        super.draw();
+
+        // Figure out the visible rows.  Line indexes count the scrollback
+        // first, then the display.
+        int visibleHeight = getHeight() - 2;
+        int scrollbackSize = snapshot.getScrollbackSize();
+        int visibleBottom = scrollbackSize + snapshot.getHeight()
+            + vScroller.getValue();
+        assert (visibleBottom >= 0);
+        int visibleTop = visibleBottom - visibleHeight;
+        long top = snapshot.getScrollCount() - scrollbackSize + visibleTop;
+
+        // If the emulator has not published anything new and the window
+        // did not scroll or change size, the rows drawn last time are still
+        // right: put them back without fetching or comparing any lines.
+        if ((snapshot.getVersion() == drawnVersion)
+            && (top == drawnTop)
+            && (getWidth() == drawnWidth)
+            && (drawnLines.length == visibleHeight)
+        ) {
+            CellAttributes background = new CellAttributes();
+            for (int i = 0; i < visibleHeight; i++) {
+                if (drawnCells[i] == null) {
+                    getScreen().hLineXY(1, i + 1, getWidth() - 2, ' ',
+                        background);
+                    continue;
+                }
+                for (int x = 0; x < drawnCells[i].length; x++) {
+                    getScreen().putCharXY(x + 1, i + 1, drawnCells[i][x]);
+                }
+            }
+            return;
+        }
+        drawnVersion = snapshot.getVersion();
+        drawnWidth = getWidth();
+
+        if (drawnLines.length != visibleHeight) {
+            drawnLines = new SnapshotLine[visibleHeight];
+            drawnCells = new Cell[visibleHeight][];
+            spareLines = new SnapshotLine[visibleHeight];
+            spareCells = new Cell[visibleHeight][];
+        }
 
-            // Update the scroll bars
-            reflow();
+        // Work out how far the rows moved since the last frame, from the
+        // emulator's scrolling and ours.  The line now on window row i was
+        // on row i + shift, and if it is the same line it need not be
+        // rendered again.
+        long shift = top - drawnTop;
+        drawnTop = top;
+
+        // Fetch only the visible rows.  Display rows come from the
+        // snapshot, scrollback rows from the emulator, numbered as they
+        // were when the snapshot was taken.
+        SnapshotLine [] lines = spareLines;
+        Cell [][] cells = spareCells;
+        for (int i = 0; i < visibleHeight; i++) {
+            int index = visibleTop + i;
+            SnapshotLine line = null;
+            if ((index >= 0)
+                && (index < scrollbackSize + snapshot.getHeight())
+            ) {
+                line = emulator.lineAt(snapshot, index);
+            }
+            lines[i] = line;
+            cells[i] = null;
+
+            long j = i + shift;
+            if ((line != null) && (j >= 0) && (j < visibleHeight)
+                && (drawnLines[(int) j] == line)
+                && (drawnCells[(int) j].length == getCellCount(line))
+            ) {
+                cells[i] = drawnCells[(int) j];
+                drawnCells[(int) j] = null;
+            }
+        }
 
-            // Draw the box using my superclass
-            super.draw();
+        // Render the rows that changed, reusing the cells of rows that went
+        // away, then put everything on the screen.
+        CellAttributes background = new CellAttributes();
+        int unused = 0;
+        for (int i = 0; i < visibleHeight; i++) {
+            if (lines[i] == null) {
+                // Above the top of the scrollback or below the display
+                getScreen().hLineXY(1, i + 1, getWidth() - 2, ' ',
+                    background);
+                continue;
+            }
+            if (cells[i] == null) {
+                while ((unused < visibleHeight)
+                    && (drawnCells[unused] == null)
+                ) {
+                    unused++;
+                }
+                Cell [] reuse = null;
+                if (unused < visibleHeight) {
+                    reuse = drawnCells[unused];
+                    drawnCells[unused] = null;
+                }
+                cells[i] = renderLine(lines[i], reuse);
+            }
+            for (int x = 0; x < cells[i].length; x++) {
+                getScreen().putCharXY(x + 1, i + 1, cells[i][x]);
+            }
+        }
 
-            List<DisplayLine> scrollback = emulator.getScrollbackBuffer();
-            List<DisplayLine> display = emulator.getDisplayBuffer();
+        spareLines = drawnLines;
+        spareCells = drawnCells;
+        drawnLines = lines;
+        drawnCells = cells;
+    }
 
-            // Put together the visible rows
-            int visibleHeight = getHeight() - 2;
-            int visibleBottom = scrollback.size() + display.size()
-                + vScroller.getValue();
-            assert (visibleBottom >= 0);
+    /**
+     * Get the number of window columns an emulator line covers.
+     *
+     * @param line the line
+     * @return the number of columns to draw
+     */
+    private int getCellCount(final SnapshotLine line) {
+        int widthMax = line.length();
+        if (line.isDoubleWidth()) {
+            widthMax /= 2;
+        }
+        if (widthMax > getWidth() - 2) {
+            widthMax = getWidth() - 2;
+        }
+        if (line.isDoubleWidth()) {
+            return Math.min(widthMax * 2, getWidth() - 2);
+        }
+        return widthMax;
+    }
 
-            List<DisplayLine> preceedingBlankLines = new LinkedList<DisplayLine>();
-            int visibleTop = visibleBottom - visibleHeight;
-            if (visibleTop < 0) {
-                for (int i = visibleTop; i < 0; i++) {
-                    preceedingBlankLines.add(emulator.getBlankDisplayLine());
-                }
-                visibleTop = 0;
+    /**
+     * Render an emulator line into the cells to put on the screen.
+     * Reverse video is applied here, the screen has no use for it.
+     *
+     * @param line the line
+     * @param reuse cells to reuse if they are the right length, or null
+     * @return the cells
+     */
+    private Cell [] renderLine(final SnapshotLine line, final Cell [] reuse) {
+        int n = getCellCount(line);
+        Cell [] cells = reuse;
+        if ((cells == null) || (cells.length != n)) {
+            cells = new Cell[n];
+            for (int x = 0; x < n; x++) {
+                cells[x] = new Cell();
             }
-            assert (visibleTop >= 0);
-
-            List<DisplayLine> displayLines = new LinkedList<DisplayLine>();
-            displayLines.addAll(scrollback);
-            displayLines.addAll(display);
-
-            List<DisplayLine> visibleLines = new LinkedList<DisplayLine>();
-            visibleLines.addAll(preceedingBlankLines);
-            visibleLines.addAll(displayLines.subList(visibleTop,
-                    visibleBottom));
-
-            visibleHeight -= visibleLines.size();
-            assert (visibleHeight >= 0);
-
-            // Now draw the emulator screen
-            int row = 1;
-            for (DisplayLine line: visibleLines) {
-                int widthMax = emulator.getWidth();
-                if (line.isDoubleWidth()) {
-                    widthMax /= 2;
-                }
-                if (widthMax > getWidth() - 2) {
-                    widthMax = getWidth() - 2;
-                }
-                for (int i = 0; i < widthMax; i++) {
-                    Cell ch = line.charAt(i);
-                    Cell newCell = new Cell();
-                    newCell.setTo(ch);
-                    boolean reverse = line.isReverseColor() ^ ch.isReverse();
-                    newCell.setReverse(false);
-                    if (reverse) {
-                        newCell.setBackColor(ch.getForeColor());
-                        newCell.setForeColor(ch.getBackColor());
-                    }
-                    if (line.isDoubleWidth()) {
-                        getScreen().putCharXY((i * 2) + 1, row, newCell);
-                        getScreen().putCharXY((i * 2) + 2, row, ' ', newCell);
-                    } else {
-                        getScreen().putCharXY(i + 1, row, newCell);
-                    }
-                }
-                row++;
-                if (row == getHeight() - 1) {
-                    // Don't overwrite the box edge
-                    break;
-                }
+        }
+        for (int x = 0; x < n; x++) {
+            Cell cell = cells[x];
+            int i = x;
+            if (line.isDoubleWidth()) {
+                i = x / 2;
             }
-            CellAttributes background = new CellAttributes();
-            // Fill in the blank lines on bottom
-            for (int i = 0; i < visibleHeight; i++) {
-                getScreen().hLineXY(1, i + row, getWidth() - 2, ' ',
-                    background);
+            line.getAttr(i, cell);
+            if (line.isReverseColor() ^ cell.isReverse()) {
+                Color foreColor = cell.getForeColor();
+                cell.setForeColor(cell.getBackColor());
+                cell.setBackColor(foreColor);
+            }
+            cell.setReverse(false);
+            if ((line == matchLine)
+                && (i >= match.getColumn())
+                && (i < match.getColumn() + match.getLength())
+            ) {
+                // Show the search match inverted
+                Color foreColor = cell.getForeColor();
+                cell.setForeColor(cell.getBackColor());
+                cell.setBackColor(foreColor);
+            }
+            if (line.isDoubleWidth() && ((x % 2) == 1)) {
+                cell.setChar(' ');
+            } else {
+                cell.setChar(line.getChar(i));
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Find the next search match and scroll to it.  With no match yet, the
+     * search starts from the bottom of the view going up, or the top of
+     * the view going down.
+     *
+     * @param backward if true, search toward older lines
+     */
+    private void findMatch(final boolean backward) {
+        if (searchPattern == null) {
+            return;
+        }
+        int visibleHeight = getHeight() - 2;
+        int lineCount = emulator.getScrollbackSize() + emulator.getHeight();
+        int visibleBottom = lineCount + vScroller.getValue();
+
+        SearchMatch found;
+        if (backward) {
+            if (match != null) {
+                found = emulator.findPrevious(searchPattern, match.getLine(),
+                    match.getColumn());
+            } else {
+                found = emulator.findPrevious(searchPattern, visibleBottom,
+                    0);
+            }
+        } else {
+            if (match != null) {
+                found = emulator.findNext(searchPattern, match.getLine(),
+                    match.getColumn() + 1);
+            } else {
+                found = emulator.findNext(searchPattern,
+                    visibleBottom - visibleHeight, 0);
             }
+        }
+        if (found == null) {
+            messageBox("Search", "No more matches for "
+                + searchPattern.pattern());
+            return;
+        }
+        match = found;
+        try {
+            matchLine = emulator.lineAt(match.getLine());
+        } catch (IndexOutOfBoundsException e) {
+            // The line scrolled out of the scrollback already.
+            matchLine = null;
+        }
+
+        // Redraw every row, so the old match loses its highlight
+        Arrays.fill(drawnLines, null);
+        drawnVersion = -1;
+
+        // Scroll so that the match is a third of the way down
+        int top = match.getLine() - (visibleHeight / 3);
+        int value = top + visibleHeight - lineCount;
+        vScroller.setValue(Math.max(vScroller.getTopValue(),
+                Math.min(value, 0)));
+    }
+
+    /**
+     * Get the maximum number of lines kept in the scrollback.
+     *
+     * @return the line limit
+     */
+    public int getScrollbackLimit() {
+        return emulator.getScrollbackLimit();
+    }
+
+    /**
+     * Set the maximum number of lines kept in the scrollback.  If there are
+     * more lines than that now, the oldest ones are dropped.
+     *
+     * @param limit the line limit.  0 disables scrollback.
+     */
+    public void setScrollbackLimit(final int limit) {
+        emulator.setScrollbackLimit(limit);
+    }
 
-        } // synchronized (emulator)
+    /**
+     * Get the number of scrollback lines kept in memory when older lines
+     * are spilled to disk.
+     *
+     * @return the number of lines, or -1 if scrollback is not spilled
+     */
+    public int getScrollbackSpill() {
+        return emulator.getScrollbackSpill();
+    }
 
+    /**
+     * Keep only the newest scrollback lines in memory, and write older ones
+     * to temp files until the scrollback limit is reached.  Together with a
+     * high setScrollbackLimit() this keeps long build or CI output without
+     * holding it all in memory.  The temp files are deleted when the window
+     * is closed.
+     *
+     * @param memoryLines number of lines to keep in memory, or -1 to stop
+     * spilling and drop the lines on disk
+     */
+    public void setScrollbackSpill(final int memoryLines) {
+        emulator.setScrollbackSpill(memoryLines);
+    }
+
+    /**
+     * Send the key presses and mouse reports from this pass of the event
+     * loop to the shell in one write.
+     */
+    @Override
+    public void onIdle() {
+        emulator.flushRemote();
+        super.onIdle();
     }
 
     /**
@@ -245,69 +520,68 @@ public class TTerminalWindow extends TWindow {
         if (shell != null) {
             shell.destroy();
             shell = null;
-        } else {
-            emulator.close();
         }
+        // Always close the emulator, so it deletes any scrollback it has
+        // spilled to disk.  When the shell exits on its own the emulator is
+        // only disconnected, so its scrollback can still be read until the
+        // window is closed.
+        emulator.close();
     }
 
     /**
      * Copy out variables from the emulator that TTerminal has to expose on
      * screen.
+     *
+     * @param snapshot the emulator's latest snapshot
      */
-    private void readEmulatorState() {
-        // Synchronize against the emulator so we don't stomp on its reader
-        // thread.
-        synchronized (emulator) {
-
-            setCursorX(emulator.getCursorX() + 1);
-            setCursorY(emulator.getCursorY() + 1
-                + (getHeight() - 2 - emulator.getHeight()));
-            if (vScroller != null) {
-                setCursorY(getCursorY() - vScroller.getValue());
-            }
-            setCursorVisible(emulator.isCursorVisible());
-            if (getCursorX() > getWidth() - 2) {
-                setCursorVisible(false);
-            }
-            if ((getCursorY() > getHeight() - 2) || (getCursorY() < 0)) {
-                setCursorVisible(false);
-            }
-            if (emulator.getScreenTitle().length() > 0) {
-                // Only update the title if the shell is still alive
-                if (shell != null) {
-                    setTitle(emulator.getScreenTitle());
-                }
+    private void readEmulatorState(final ScreenSnapshot snapshot) {
+        setCursorX(snapshot.getCursorX() + 1);
+        setCursorY(snapshot.getCursorY() + 1
+            + (getHeight() - 2 - snapshot.getHeight()));
+        if (vScroller != null) {
+            setCursorY(getCursorY() - vScroller.getValue());
+        }
+        setCursorVisible(snapshot.isCursorVisible());
+        if (getCursorX() > getWidth() - 2) {
+            setCursorVisible(false);
+        }
+        if ((getCursorY() > getHeight() - 2) || (getCursorY() < 0)) {
+            setCursorVisible(false);
+        }
+        if (snapshot.getScreenTitle().length() > 0) {
+            // Only update the title if the shell is still alive
+            if (shell != null) {
+                setTitle(snapshot.getScreenTitle());
             }
+        }
 
-            // Check to see if the shell has died.
-            if (!emulator.isReading() && (shell != null)) {
-                try {
-                    int rc = shell.exitValue();
-                    // The emulator exited on its own, all is fine
-                    setTitle(String.format("%s [Completed - %d]",
-                            getTitle(), rc));
-                    shell = null;
-                    emulator.close();
-                } catch (IllegalThreadStateException e) {
-                    // The emulator thread has exited, but the shell Process
-                    // hasn't figured that out yet.  Do nothing, we will see
-                    // this in a future tick.
-                }
-            } else if (emulator.isReading() && (shell != null)) {
-                // The shell might be dead, let's check
-                try {
-                    int rc = shell.exitValue();
-                    // If we got here, the shell died.
-                    setTitle(String.format("%s [Completed - %d]",
-                            getTitle(), rc));
-                    shell = null;
-                    emulator.close();
-                } catch (IllegalThreadStateException e) {
-                    // The shell is still running, do nothing.
-                }
+        // Check to see if the shell has died.
+        if (!emulator.isReading() && (shell != null)) {
+            try {
+                int rc = shell.exitValue();
+                // The emulator exited on its own, all is fine
+                setTitle(String.format("%s [Completed - %d]",
+                        getTitle(), rc));
+                shell = null;
+                emulator.disconnect();
+            } catch (IllegalThreadStateException e) {
+                // The emulator thread has exited, but the shell Process
+                // hasn't figured that out yet.  Do nothing, we will see
+                // this in a future tick.
             }
-
-        } // synchronized (emulator)
+        } else if (emulator.isReading() && (shell != null)) {
+            // The shell might be dead, let's check
+            try {
+                int rc = shell.exitValue();
+                // If we got here, the shell died.
+                setTitle(String.format("%s [Completed - %d]",
+                        getTitle(), rc));
+                shell = null;
+                emulator.disconnect();
+            } catch (IllegalThreadStateException e) {
+                // The shell is still running, do nothing.
+            }
+        }
     }
 
     /**
@@ -317,51 +591,38 @@ public class TTerminalWindow extends TWindow {
      */
     @Override
     public void onResize(final TResizeEvent resize) {
+        if (resize.getType() == TResizeEvent.Type.WIDGET) {
+            // Resize the scroll bars
+            reflow(emulator.getSnapshot());
 
-        // Synchronize against the emulator so we don't stomp on its reader
-        // thread.
-        synchronized (emulator) {
-
-            if (resize.getType() == TResizeEvent.Type.WIDGET) {
-                // Resize the scroll bars
-                reflow();
-
-                // Get out of scrollback
-                vScroller.setValue(0);
-            }
-            return;
-
-        } // synchronized (emulator)
+            // Get out of scrollback
+            vScroller.setValue(0);
+        }
     }
 
     /**
      * Resize scrollbars for a new width/height.
+     *
+     * @param snapshot the emulator's latest snapshot
      */
-    private void reflow() {
-
-        // Synchronize against the emulator so we don't stomp on its reader
-        // thread.
-        synchronized (emulator) {
+    private void reflow(final ScreenSnapshot snapshot) {
 
-            // Pull cursor information
-            readEmulatorState();
+        // Pull cursor information
+        readEmulatorState(snapshot);
 
-            // Vertical scrollbar
-            if (vScroller == null) {
-                vScroller = new TVScroller(this, getWidth() - 2, 0,
-                    getHeight() - 2);
-                vScroller.setBottomValue(0);
-                vScroller.setValue(0);
-            } else {
-                vScroller.setX(getWidth() - 2);
-                vScroller.setHeight(getHeight() - 2);
-            }
-            vScroller.setTopValue(getHeight() - 2
-                - (emulator.getScrollbackBuffer().size()
-                    + emulator.getDisplayBuffer().size()));
-            vScroller.setBigChange(getHeight() - 2);
-
-        } // synchronized (emulator)
+        // Vertical scrollbar
+        if (vScroller == null) {
+            vScroller = new TVScroller(this, getWidth() - 2, 0,
+                getHeight() - 2);
+            vScroller.setBottomValue(0);
+            vScroller.setValue(0);
+        } else {
+            vScroller.setX(getWidth() - 2);
+            vScroller.setHeight(getHeight() - 2);
+        }
+        vScroller.setTopValue(getHeight() - 2
+            - (snapshot.getScrollbackSize() + snapshot.getHeight()));
+        vScroller.setBigChange(getHeight() - 2);
     }
 
     /**
@@ -397,6 +658,32 @@ public class TTerminalWindow extends TWindow {
     @Override
     public void onKeypress(final TKeypressEvent keypress) {
 
+        // Scrollback search
+        if (keypress.equals(kbShiftF3)) {
+            String regex = inputBox("Search Scrollback",
+                "Regular expression:",
+                (searchPattern == null ? "" : searchPattern.pattern()))
+                .getText();
+            if (regex.length() > 0) {
+                try {
+                    searchPattern = Pattern.compile(regex, Pattern.MULTILINE);
+                    match = null;
+                    findMatch(true);
+                } catch (PatternSyntaxException e) {
+                    messageBox("Search Scrollback", e.getDescription());
+                }
+            }
+            return;
+        }
+        if (keypress.equals(kbCtrlF3)) {
+            findMatch(true);
+            return;
+        }
+        if (keypress.equals(kbAltF3)) {
+            findMatch(false);
+            return;
+        }
+
         // Scrollback up/down
         if (keypress.equals(kbShiftPgUp)
             || keypress.equals(kbCtrlPgUp)
@@ -429,7 +716,7 @@ public class TTerminalWindow extends TWindow {
                     }
                 }
 
-                readEmulatorState();
+                readEmulatorState(emulator.getSnapshot());
                 return;
             }
         }
@@ -464,7 +751,7 @@ public class TTerminalWindow extends TWindow {
                 mouse.setX(mouse.getX() - 1);
                 mouse.setY(mouse.getY() - 1);
                 emulator.mouse(mouse);
-                readEmulatorState();
+                readEmulatorState(emulator.getSnapshot());
                 return;
             }
         }
@@ -491,7 +778,7 @@ public class TTerminalWindow extends TWindow {
                 mouse.setX(mouse.getX() - 1);
                 mouse.setY(mouse.getY() - 1);
                 emulator.mouse(mouse);
-                readEmulatorState();
+                readEmulatorState(emulator.getSnapshot());
                 return;
             }
         }
@@ -518,7 +805,7 @@ public class TTerminalWindow extends TWindow {
                 mouse.setX(mouse.getX() - 1);
                 mouse.setY(mouse.getY() - 1);
                 emulator.mouse(mouse);
-                readEmulatorState();
+                readEmulatorState(emulator.getSnapshot());
                 return;
             }
         }
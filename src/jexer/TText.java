@@ -39,28 +39,21 @@ import static jexer.TKeypress.kbPgUp;
 import static jexer.TKeypress.kbRight;
 import static jexer.TKeypress.kbUp;
 
-import java.util.LinkedList;
-import java.util.List;
-
 import jexer.bits.CellAttributes;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMouseEvent;
 
 /**
  * TText implements a simple scrollable text area. It reflows automatically on
- * resize.
+ * resize.  Only the paragraphs that are drawn are word-wrapped, so very
+ * large texts can be displayed and resized quickly.
  */
 public final class TText extends TWidget {
 
     /**
-     * Text to display.
-     */
-    private String text;
-
-    /**
-     * Text converted to lines.
+     * Text to display, and its paragraph and line break index.
      */
-    private List<String> lines;
+    private TTextDocument document;
 
     /**
      * Text color.
@@ -94,27 +87,18 @@ public final class TText extends TWidget {
      *            new line to add
      */
     public void addLine(final String line) {
-        if (text.length() == 0) {
-            text = line;
-        } else {
-            text += "\n\n";
-            text += line;
-        }
+        document.addLine(line);
         reflow();
     }
 
     /**
-     * Recompute the bounds for the scrollbars.
+     * Recompute the bounds for the scrollbars.  Paragraphs that have not been
+     * wrapped yet contribute an estimated number of lines and no width.
      */
     private void computeBounds() {
-        maxLineWidth = 0;
-        for (String line : lines) {
-            if (line.length() > maxLineWidth) {
-                maxLineWidth = line.length();
-            }
-        }
+        maxLineWidth = document.getMaxLineWidth();
 
-        vScroller.setBottomValue((lines.size() - getHeight()) + 1);
+        vScroller.setBottomValue((document.getLineCount() - getHeight()) + 1);
         if (vScroller.getBottomValue() < 0) {
             vScroller.setBottomValue(0);
         }
@@ -131,69 +115,13 @@ public final class TText extends TWidget {
         }
     }
 
-    /**
-     * Insert newlines into a string to wrap it to a maximum column. Terminate
-     * the final string with a newline. Note that interior newlines are
-     * converted to spaces.
-     *
-     * @param str
-     *            the string
-     * @param n
-     *            the maximum number of characters in a line
-     * @return the wrapped string
-     */
-    private String wrap(final String str, final int n) {
-        assert (n > 0);
-
-        StringBuilder sb = new StringBuilder();
-        StringBuilder word = new StringBuilder();
-        int col = 0;
-        for (int i = 0; i < str.length(); i++) {
-            char ch = str.charAt(i);
-            if (ch == '\n') {
-                ch = ' ';
-            }
-            if (ch == ' ') {
-                sb.append(word.toString());
-                sb.append(ch);
-                if (word.length() >= (n - 1)) {
-                    sb.append('\n');
-                    col = 0;
-                }
-                word = new StringBuilder();
-            } else {
-                word.append(ch);
-            }
-
-            col++;
-            if (col >= (n - 1)) {
-                sb.append('\n');
-                col = 0;
-            }
-        }
-        sb.append(word.toString());
-        sb.append('\n');
-        return sb.toString();
-    }
-
     /**
      * Resize text and scrollbars for a new width/height.
      */
     public void reflow() {
-        // Reset the lines
-        lines.clear();
-
-        // Break up text into paragraphs
-        String[] paragraphs = text.split("\n\n");
-        for (String p : paragraphs) {
-            String paragraph = wrap(p, getWidth() - 1);
-            for (String line : paragraph.split("\n")) {
-                lines.add(line);
-            }
-            for (int i = 0; i < lineSpacing; i++) {
-                lines.add("");
-            }
-        }
+        // Throw away the line breaks only if the width changed.  The
+        // visible paragraphs are wrapped again by draw().
+        document.setWidth(getWidth() - 1);
 
         // Start at the top
         if (vScroller == null) {
@@ -268,10 +196,9 @@ public final class TText extends TWidget {
         // Set parent and window
         super(parent, x, y, width, height);
 
-        this.text = text;
         this.colorKey = colorKey;
 
-        lines = new LinkedList<String>();
+        document = new TTextDocument(text, lineSpacing);
 
         reflow();
     }
@@ -284,18 +211,26 @@ public final class TText extends TWidget {
         // Setup my color
         CellAttributes color = getTheme().getColor(colorKey);
 
+        // Wrap whatever is about to be seen, which may change the line
+        // count and maximum width.
+        document.prepare(vScroller.getValue(), getHeight() - 1);
+        computeBounds();
+        document.prepare(vScroller.getValue(), getHeight() - 1);
+
         int begin = vScroller.getValue();
         int topY = 0;
-        for (int i = begin; i < lines.size(); i++) {
-            String line = lines.get(i);
-            if (hScroller.getValue() < line.length()) {
-                line = line.substring(hScroller.getValue());
-            } else {
-                line = "";
+        int left = hScroller.getValue();
+        for (int i = begin; i < document.getLineCount(); i++) {
+            int start = document.getLineStart(i) + left;
+            int end = document.getLineEnd(i);
+            for (int x = 0; x < getWidth() - 1; x++) {
+                if (start + x < end) {
+                    getScreen().putCharXY(x, topY,
+                            document.charAt(start + x), color);
+                } else {
+                    getScreen().putCharXY(x, topY, ' ', color);
+                }
             }
-            String formatString = "%-" + Integer.toString(getWidth() - 1) + "s";
-            getScreen().putStringXY(0, topY, String.format(formatString, line),
-                    color);
             topY++;
 
             if (topY >= (getHeight() - 1)) {
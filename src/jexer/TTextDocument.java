@@ -0,0 +1,449 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import java.util.Arrays;
+
+/**
+ * TTextDocument holds the text of a TText and its word-wrapped layout.
+ *
+ * <p>
+ * The text is kept in one StringBuilder and divided into paragraphs (runs
+ * separated by a blank line) by offset, without copying.  Each paragraph
+ * caches the offsets of its line breaks for the width it was last wrapped
+ * at.  Paragraphs are only wrapped when they are about to be drawn; until
+ * then their line count is estimated from their length.  The line counts
+ * are summed in a Fenwick tree, so finding the paragraph for a screen line
+ * and updating a count after wrapping are both O(log paragraphs).
+ */
+final class TTextDocument {
+
+    /**
+     * The text.
+     */
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Number of blank lines after each paragraph.
+     */
+    private final int lineSpacing;
+
+    /**
+     * Wrap column passed to wrap(), or 0 if not set yet.
+     */
+    private int width = 0;
+
+    /**
+     * Number of paragraphs.
+     */
+    private int paragraphCount = 0;
+
+    /**
+     * Offset of the first character of each paragraph.
+     */
+    private int [] paragraphStart = new int[16];
+
+    /**
+     * Offset just past the last character of each paragraph.
+     */
+    private int [] paragraphEnd = new int[16];
+
+    /**
+     * For each paragraph, the end offset of every wrapped line, or null if
+     * the paragraph has not been wrapped at the current width.
+     */
+    private int [][] paragraphBreaks = new int[16][];
+
+    /**
+     * For each paragraph, the number of screen lines (wrapped or estimated)
+     * including the lineSpacing blank lines.
+     */
+    private int [] paragraphLines = new int[16];
+
+    /**
+     * Fenwick tree over paragraphLines, 1-based.
+     */
+    private int [] tree = new int[17];
+
+    /**
+     * Total number of screen lines.
+     */
+    private int lineCount = 0;
+
+    /**
+     * Longest wrapped line seen so far at the current width.
+     */
+    private int maxLineWidth = 0;
+
+    /**
+     * Package private constructor.
+     *
+     * @param text the initial text
+     * @param lineSpacing number of blank lines after each paragraph
+     */
+    TTextDocument(final String text, final int lineSpacing) {
+        this.lineSpacing = lineSpacing;
+        this.text.append(text);
+        split(0);
+    }
+
+    /**
+     * Append a paragraph.  This is the same as text += "\n\n" + line,
+     * except that only the end of the document is looked at again.
+     *
+     * @param line new paragraph to add
+     */
+    void addLine(final String line) {
+        int from = 0;
+        if (paragraphCount > 0) {
+            // The last paragraph (and any empty ones that were trimmed
+            // after it) may change.
+            paragraphCount--;
+            lineCount -= paragraphLines[paragraphCount];
+            from = paragraphStart[paragraphCount];
+        }
+        if (text.length() > 0) {
+            text.append("\n\n");
+        }
+        text.append(line);
+        split(from);
+    }
+
+    /**
+     * Set the wrap width.  Changing it discards every paragraph's cached
+     * line breaks; they are recomputed lazily by prepare().
+     *
+     * @param width the maximum number of characters in a line, plus one
+     */
+    void setWidth(final int width) {
+        if (width == this.width) {
+            return;
+        }
+        this.width = width;
+        maxLineWidth = 0;
+        for (int i = 0; i < paragraphCount; i++) {
+            paragraphBreaks[i] = null;
+            paragraphLines[i] = estimateLines(i);
+        }
+        rebuildTree();
+    }
+
+    /**
+     * Get the total number of screen lines.  Lines in paragraphs that have
+     * not been wrapped yet are estimated.
+     *
+     * @return the number of lines
+     */
+    int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Get the longest line that has been wrapped at the current width.
+     *
+     * @return the line width
+     */
+    int getMaxLineWidth() {
+        return maxLineWidth;
+    }
+
+    /**
+     * Make sure every paragraph that covers a range of screen lines is
+     * wrapped at the current width.
+     *
+     * @param firstLine first screen line
+     * @param count number of screen lines
+     */
+    void prepare(final int firstLine, final int count) {
+        int line = firstLine;
+        while ((line < firstLine + count) && (line < lineCount)) {
+            int p = findParagraph(line);
+            if (paragraphBreaks[p] == null) {
+                wrap(p);
+            }
+            // Wrapping only changes p's own line count, so the paragraphs
+            // before it keep their positions.
+            line = Math.max(line, prefixSum(p) + paragraphLines[p]);
+        }
+    }
+
+    /**
+     * Get the offset of the first character of a screen line.  The
+     * paragraph must already be prepared.
+     *
+     * @param line screen line number
+     * @return offset into the text
+     */
+    int getLineStart(final int line) {
+        int p = findParagraph(line);
+        int i = line - prefixSum(p);
+        int [] breaks = paragraphBreaks[p];
+        if ((breaks == null) || (i >= breaks.length)) {
+            // Unwrapped, or one of the blank lines after the paragraph.
+            return 0;
+        }
+        return (i == 0 ? paragraphStart[p] : breaks[i - 1]);
+    }
+
+    /**
+     * Get the offset just past the last character of a screen line.  The
+     * paragraph must already be prepared.
+     *
+     * @param line screen line number
+     * @return offset into the text
+     */
+    int getLineEnd(final int line) {
+        int p = findParagraph(line);
+        int i = line - prefixSum(p);
+        int [] breaks = paragraphBreaks[p];
+        if ((breaks == null) || (i >= breaks.length)) {
+            return 0;
+        }
+        return breaks[i];
+    }
+
+    /**
+     * Get one character of the text.  Newlines inside a paragraph are
+     * returned as spaces.
+     *
+     * @param offset offset into the text
+     * @return the character
+     */
+    char charAt(final int offset) {
+        char ch = text.charAt(offset);
+        if (ch == '\n') {
+            return ' ';
+        }
+        return ch;
+    }
+
+    /**
+     * Divide text[from, length) into paragraphs the same way
+     * text.split("\n\n") would, and append them.
+     *
+     * @param from offset to start at; must be 0 or the start of a
+     * paragraph that was removed
+     */
+    private void split(final int from) {
+        boolean matched = (paragraphCount > 0);
+        int length = text.length();
+        int start = from;
+        int i = from;
+        while (i + 1 < length) {
+            if ((text.charAt(i) == '\n') && (text.charAt(i + 1) == '\n')) {
+                appendParagraph(start, i);
+                matched = true;
+                i += 2;
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        appendParagraph(start, length);
+
+        if (matched) {
+            // split() discards trailing empty strings.
+            while ((paragraphCount > 0)
+                && (paragraphStart[paragraphCount - 1]
+                    == paragraphEnd[paragraphCount - 1])
+            ) {
+                paragraphCount--;
+                lineCount -= paragraphLines[paragraphCount];
+            }
+        }
+    }
+
+    /**
+     * Add one paragraph to the end of the arrays and the tree.
+     *
+     * @param start offset of the first character
+     * @param end offset just past the last character
+     */
+    private void appendParagraph(final int start, final int end) {
+        int p = paragraphCount;
+        if (p == paragraphStart.length) {
+            int size = p * 2;
+            paragraphStart = Arrays.copyOf(paragraphStart, size);
+            paragraphEnd = Arrays.copyOf(paragraphEnd, size);
+            paragraphBreaks = Arrays.copyOf(paragraphBreaks, size);
+            paragraphLines = Arrays.copyOf(paragraphLines, size);
+            tree = Arrays.copyOf(tree, size + 1);
+        }
+        paragraphStart[p] = start;
+        paragraphEnd[p] = end;
+        paragraphBreaks[p] = null;
+        paragraphLines[p] = estimateLines(p);
+        paragraphCount++;
+
+        // The new tree node covers (p + 1 - lowbit, p + 1]: its own count
+        // plus the sum of the earlier paragraphs in that range.
+        int node = p + 1;
+        tree[node] = paragraphLines[p] + prefixSum(p)
+            - prefixSum(node - (node & -node));
+        lineCount += paragraphLines[p];
+    }
+
+    /**
+     * Guess how many screen lines a paragraph will wrap into.
+     *
+     * @param p paragraph index
+     * @return estimated line count including blank lines
+     */
+    private int estimateLines(final int p) {
+        int length = paragraphEnd[p] - paragraphStart[p];
+        int column = Math.max(1, width - 1);
+        return ((length + column - 1) / column) + lineSpacing;
+    }
+
+    /**
+     * Wrap one paragraph at the current width and record its line breaks.
+     * This produces exactly the lines of the original TText.wrap(): a
+     * line break is inserted before the current word when the column
+     * reaches width - 1, and after a space that ends a word of width - 1
+     * or more characters.
+     *
+     * @param p paragraph index
+     */
+    private void wrap(final int p) {
+        int start = paragraphStart[p];
+        int end = paragraphEnd[p];
+        int [] breaks = new int[4];
+        int n = 0;
+        int flushed = start;
+        int wordLength = 0;
+        int col = 0;
+
+        for (int i = start; i < end; i++) {
+            char ch = text.charAt(i);
+            if ((ch == ' ') || (ch == '\n')) {
+                flushed = i + 1;
+                if (wordLength >= (width - 1)) {
+                    if (n == breaks.length) {
+                        breaks = Arrays.copyOf(breaks, n * 2);
+                    }
+                    breaks[n++] = flushed;
+                    col = 0;
+                }
+                wordLength = 0;
+            } else {
+                wordLength++;
+            }
+
+            col++;
+            if (col >= (width - 1)) {
+                if (n == breaks.length) {
+                    breaks = Arrays.copyOf(breaks, n * 2);
+                }
+                breaks[n++] = flushed;
+                col = 0;
+            }
+        }
+        if (n == breaks.length) {
+            breaks = Arrays.copyOf(breaks, n + 1);
+        }
+        breaks[n++] = end;
+
+        // Like String.split("\n"), drop trailing empty lines.
+        while ((n > 0) && (breaks[n - 1] == (n == 1 ? start : breaks[n - 2]))) {
+            n--;
+        }
+        breaks = Arrays.copyOf(breaks, n);
+
+        for (int i = 0; i < n; i++) {
+            int lineWidth = breaks[i] - (i == 0 ? start : breaks[i - 1]);
+            if (lineWidth > maxLineWidth) {
+                maxLineWidth = lineWidth;
+            }
+        }
+
+        paragraphBreaks[p] = breaks;
+        int lines = n + lineSpacing;
+        int delta = lines - paragraphLines[p];
+        if (delta != 0) {
+            paragraphLines[p] = lines;
+            lineCount += delta;
+            for (int node = p + 1; node <= paragraphCount; node += node & -node) {
+                tree[node] += delta;
+            }
+        }
+    }
+
+    /**
+     * Rebuild the Fenwick tree from paragraphLines in O(paragraphs).
+     */
+    private void rebuildTree() {
+        lineCount = 0;
+        Arrays.fill(tree, 0);
+        for (int node = 1; node <= paragraphCount; node++) {
+            tree[node] += paragraphLines[node - 1];
+            lineCount += paragraphLines[node - 1];
+            int parent = node + (node & -node);
+            if (parent <= paragraphCount) {
+                tree[parent] += tree[node];
+            }
+        }
+    }
+
+    /**
+     * Sum the line counts of the paragraphs before p.
+     *
+     * @param p paragraph index
+     * @return the first screen line of paragraph p
+     */
+    private int prefixSum(final int p) {
+        int sum = 0;
+        for (int node = p; node > 0; node -= node & -node) {
+            sum += tree[node];
+        }
+        return sum;
+    }
+
+    /**
+     * Find the paragraph that contains a screen line.
+     *
+     * @param line screen line number, 0 to lineCount - 1
+     * @return paragraph index
+     */
+    private int findParagraph(final int line) {
+        int p = 0;
+        int remaining = line;
+        int step = Integer.highestOneBit(Math.max(1, paragraphCount));
+        for (; step > 0; step >>= 1) {
+            int node = p + step;
+            if ((node <= paragraphCount) && (tree[node] <= remaining)) {
+                p = node;
+                remaining -= tree[node];
+            }
+        }
+        return p;
+    }
+
+}
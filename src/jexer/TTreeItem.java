@@ -30,7 +30,7 @@
  */
 package jexer;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import jexer.bits.CellAttributes;
@@ -129,23 +129,46 @@ public class TTreeItem extends TWidget {
     }
 
     /**
-     * The vertical bars and such along the left side.
+     * The item whose children list holds this item, or null for the tree
+     * root.  This is set by the TTreeView when the item is flattened into
+     * its list of rows.  Note package private access.
      */
-    private String prefix = "";
+    TTreeItem parentItem = null;
 
     /**
-     * Get the vertical bars and such along the left side.
+     * Get the vertical bars and such along the left side.  These are
+     * computed from the item's ancestors, one column pair per level.
      *
      * @return the vertical bars and such along the left side
      */
     public final String getPrefix() {
-        return prefix;
+        if (level <= 1) {
+            return "";
+        }
+        char [] prefix = new char[(level - 1) * 2];
+        Arrays.fill(prefix, ' ');
+        for (TTreeItem item = parentItem; (item != null) && (item.level > 0);
+             item = item.parentItem) {
+
+            if (!item.isLast()) {
+                prefix[(item.level - 1) * 2] = GraphicsChars.CP437[0xB3];
+            }
+        }
+        return new String(prefix);
     }
 
     /**
      * Whether or not this item is last in its parent's list of children.
+     *
+     * @return true if this is the last child of its parent, or the root
      */
-    private boolean last = false;
+    private boolean isLast() {
+        if (parentItem == null) {
+            return true;
+        }
+        List<TWidget> siblings = parentItem.getChildren();
+        return (siblings.get(siblings.size() - 1) == this);
+    }
 
     /**
      * Tree level.  Note package private access.
@@ -203,18 +226,6 @@ public class TTreeItem extends TWidget {
         this.selectable = selectable;
     }
 
-    /**
-     * Pointer to the previous keyboard-navigable item (kbUp).  Note package
-     * private access.
-     */
-    TTreeItem keyboardPrevious = null;
-
-    /**
-     * Pointer to the next keyboard-navigable item (kbDown).  Note package
-     * private access.
-     */
-    TTreeItem keyboardNext = null;
-
     /**
      * Public constructor.
      *
@@ -230,11 +241,14 @@ public class TTreeItem extends TWidget {
         this.expanded = expanded;
         this.view = view;
 
+        // The view draws and dispatches to its rows itself, so items are
+        // not kept in its list of children.  Taking this item out also
+        // gives the view back the active child it had before.
+        view.removeChild(this);
+
         if (view.getTreeRoot() == null) {
             view.setTreeRoot(this, true);
         }
-
-        view.reflow();
     }
 
     /**
@@ -257,47 +271,29 @@ public class TTreeItem extends TWidget {
     public TTreeItem addChild(final String text, final boolean expanded) {
         TTreeItem item = new TTreeItem(view, text, expanded);
         item.level = this.level + 1;
+        item.parentItem = this;
         getChildren().add(item);
-        view.reflow();
+        view.invalidateRows();
         return item;
     }
 
     /**
-     * Recursively expand the tree into a linear array of items.
+     * Recursively expand the tree into a linear list of items, one per
+     * row.  Note package private access.
      *
-     * @param prefix vertical bar of parent levels and such that is set on
-     * each child
-     * @param last if true, this is the "last" leaf node of a tree
-     * @return additional items to add to the array
-     */
-    public List<TTreeItem> expandTree(final String prefix, final boolean last) {
-        List<TTreeItem> array = new ArrayList<TTreeItem>();
-        this.last = last;
-        this.prefix = prefix;
-        array.add(this);
-
-        if ((getChildren().size() == 0) || !expanded) {
-            return array;
-        }
-
-        String newPrefix = prefix;
-        if (level > 0) {
-            if (last) {
-                newPrefix += "  ";
-            } else {
-                newPrefix += GraphicsChars.CP437[0xB3];
-                newPrefix += ' ';
-            }
+     * @param rows list to append this item and its expanded children to
+     */
+    void expandTree(final List<TTreeItem> rows) {
+        rows.add(this);
+        if (!expanded) {
+            return;
         }
-        for (int i = 0; i < getChildren().size(); i++) {
-            TTreeItem item = (TTreeItem) getChildren().get(i);
-            if (i == getChildren().size() - 1) {
-                array.addAll(item.expandTree(newPrefix, true));
-            } else {
-                array.addAll(item.expandTree(newPrefix, false));
-            }
+        for (TWidget widget: getChildren()) {
+            TTreeItem item = (TTreeItem) widget;
+            item.parentItem = this;
+            item.level = level + 1;
+            item.expandTree(rows);
         }
-        return array;
     }
 
     /**
@@ -309,7 +305,7 @@ public class TTreeItem extends TWidget {
         if ((level == 0) || (!expandable)) {
             return 0;
         }
-        return prefix.length() + 3;
+        return (level - 1) * 2 + 3;
     }
 
     /**
@@ -348,6 +344,7 @@ public class TTreeItem extends TWidget {
             }
             // Let subclasses do something with this
             onExpand();
+            view.updateRows(this);
         } else if (mouse.getY() == 0) {
             view.setSelected(this);
             view.dispatch();
@@ -368,6 +365,14 @@ public class TTreeItem extends TWidget {
         }
     }
 
+    /**
+     * Called on the UI thread after another thread asked for it with
+     * TTreeView.postUpdate().  Note package private access.
+     */
+    void applyUpdate() {
+        // Default: do nothing.
+    }
+
     /**
      * Handle keystrokes.
      *
@@ -390,6 +395,7 @@ public class TTreeItem extends TWidget {
             }
             // Let subclasses do something with this
             onExpand();
+            view.updateRows(this);
         } else {
             // Pass other keys (tab etc.) on to TWidget's handler.
             super.onKeypress(keypress);
@@ -424,24 +430,34 @@ public class TTreeItem extends TWidget {
         // Blank out the background
         getScreen().hLineXY(0, 0, getWidth(), ' ', color);
 
-        String line = prefix;
+        // Vertical bars for each ancestor that has siblings below it
+        for (TTreeItem item = parentItem; (item != null) && (item.level > 0);
+             item = item.parentItem) {
+
+            if (!item.isLast()) {
+                getScreen().putCharXY(offset + (item.level - 1) * 2, 0,
+                    GraphicsChars.CP437[0xB3], color);
+            }
+        }
+        int textX = 0;
         if (level > 0) {
-            if (last) {
-                line += GraphicsChars.CP437[0xC0];
+            int x = offset + (level - 1) * 2;
+            if (isLast()) {
+                getScreen().putCharXY(x, 0, GraphicsChars.CP437[0xC0], color);
             } else {
-                line += GraphicsChars.CP437[0xC3];
+                getScreen().putCharXY(x, 0, GraphicsChars.CP437[0xC3], color);
             }
-            line += GraphicsChars.CP437[0xC4];
+            getScreen().putCharXY(x + 1, 0, GraphicsChars.CP437[0xC4], color);
+            textX = (level - 1) * 2 + 2;
             if (expandable) {
-                line += "[ ] ";
+                getScreen().putStringXY(x + 2, 0, "[ ] ", color);
+                textX += 4;
             }
         }
-        getScreen().putStringXY(offset, 0, line, color);
         if (selected) {
-            getScreen().putStringXY(offset + line.length(), 0, text,
-                selectedColor);
+            getScreen().putStringXY(offset + textX, 0, text, selectedColor);
         } else {
-            getScreen().putStringXY(offset + line.length(), 0, text, textColor);
+            getScreen().putStringXY(offset + textX, 0, text, textColor);
         }
         if ((level > 0) && (expandable)) {
             if (expanded) {
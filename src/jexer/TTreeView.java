@@ -30,6 +30,10 @@
  */
 package jexer;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import jexer.io.Screen;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMouseEvent;
 import static jexer.TKeypress.*;
@@ -80,6 +84,7 @@ public class TTreeView extends TWidget {
      */
     public final void setTreeRoot(final TTreeItem treeRoot) {
         this.treeRoot = treeRoot;
+        invalidateRows();
     }
 
     /**
@@ -87,6 +92,29 @@ public class TTreeView extends TWidget {
      */
     private int maxLineWidth;
 
+    /**
+     * The expanded items in display order, one per row.  This is rebuilt
+     * from treeRoot only when rowsValid is false, otherwise expanding or
+     * collapsing an item splices its subtree in or out.
+     */
+    private List<TTreeItem> rows = new ArrayList<TTreeItem>();
+
+    /**
+     * If false, rows must be rebuilt from treeRoot before it is used.
+     */
+    private boolean rowsValid = false;
+
+    /**
+     * The row most recently looked up, checked first by getRow().
+     */
+    private int lastRow = 0;
+
+    /**
+     * Items that asked from another thread to be updated on the next draw
+     * or input event.  Guarded by itself.
+     */
+    private List<TTreeItem> updates = new ArrayList<TTreeItem>();
+
     /**
      * Only one of my children can be selected.
      */
@@ -114,6 +142,7 @@ public class TTreeView extends TWidget {
 
         this.treeRoot = treeRoot;
         this.centerWindow = centerWindow;
+        invalidateRows();
     }
 
     /**
@@ -209,63 +238,159 @@ public class TTreeView extends TWidget {
     }
 
     /**
-     * Resize text and scrollbars for a new width/height.
+     * Discard the flattened rows, they will be rebuilt from treeRoot on the
+     * next reflow().  Note package private access.
      */
-    public void reflow() {
-        int selectedRow = 0;
-        boolean foundSelectedRow = false;
+    void invalidateRows() {
+        rowsValid = false;
+    }
 
-        updateScrollers();
-        if (treeRoot == null) {
+    /**
+     * Splice the rows below an item that was just expanded or collapsed, or
+     * whose children were replaced.  Nothing is done if the item is not
+     * shown.  Note package private access.
+     *
+     * @param item the item that changed
+     */
+    void updateRows(final TTreeItem item) {
+        if (!rowsValid) {
+            return;
+        }
+        int row = getRow(item);
+        if (row < 0) {
             return;
         }
 
-        // Make each child invisible/inactive to start, expandTree() will
-        // reactivate the visible ones.
-        for (TWidget widget: getChildren()) {
-            if (widget instanceof TTreeItem) {
-                TTreeItem item = (TTreeItem) widget;
-                item.setInvisible(true);
-                item.setEnabled(false);
-                item.keyboardPrevious = null;
-                item.keyboardNext = null;
+        // Drop the old subtree: every following row at a deeper level
+        int end = row + 1;
+        while ((end < rows.size()) && (rows.get(end).level > item.level)) {
+            end++;
+        }
+        rows.subList(row + 1, end).clear();
+
+        if (item.isExpanded()) {
+            List<TTreeItem> subtree = new ArrayList<TTreeItem>();
+            for (TWidget widget: item.getChildren()) {
+                TTreeItem child = (TTreeItem) widget;
+                child.parentItem = item;
+                child.level = item.level + 1;
+                child.expandTree(subtree);
+            }
+            for (TTreeItem child: subtree) {
+                updateMaxLineWidth(child);
             }
+            rows.addAll(row + 1, subtree);
         }
+    }
 
-        // Expand the tree into a linear list
-        getChildren().clear();
-        getChildren().addAll(treeRoot.expandTree("", true));
-
-        // Locate the selected row and maximum line width
-        for (TWidget widget: getChildren()) {
-            TTreeItem item = (TTreeItem) widget;
+    /**
+     * Ask for an item's applyUpdate() to be called from the UI thread.  This
+     * may be called from any thread.  Note package private access.
+     *
+     * @param item the item to update
+     */
+    void postUpdate(final TTreeItem item) {
+        synchronized (updates) {
+            if (!updates.contains(item)) {
+                updates.add(item);
+            }
+        }
+    }
 
-            if (item == selectedItem) {
-                foundSelectedRow = true;
+    /**
+     * Apply posted item updates and rebuild the rows if needed, before they
+     * are drawn or used for input.
+     */
+    private void syncRows() {
+        List<TTreeItem> items = null;
+        synchronized (updates) {
+            if (updates.size() > 0) {
+                items = new ArrayList<TTreeItem>(updates);
+                updates.clear();
             }
-            if (!foundSelectedRow) {
-                selectedRow++;
+        }
+        if (items != null) {
+            for (TTreeItem item: items) {
+                item.applyUpdate();
             }
+            reflow();
+        } else if (!rowsValid) {
+            reflow();
+        }
+    }
 
-            int lineWidth = item.getText().length()
-                + item.getPrefix().length() + 4;
-            if (lineWidth > maxLineWidth) {
-                maxLineWidth = lineWidth;
+    /**
+     * Find the row an item is shown on.
+     *
+     * @param item the item to look for
+     * @return the row number, or -1 if the item is not shown
+     */
+    private int getRow(final TTreeItem item) {
+        // Keyboard navigation and expand/collapse nearly always ask about
+        // the row just looked up or its neighbors.
+        for (int i = lastRow - 1; i <= lastRow + 1; i++) {
+            if ((i >= 0) && (i < rows.size()) && (rows.get(i) == item)) {
+                lastRow = i;
+                return i;
             }
         }
+        int row = rows.indexOf(item);
+        if (row >= 0) {
+            lastRow = row;
+        }
+        return row;
+    }
 
-        if ((centerWindow) && (foundSelectedRow)) {
-            if ((selectedRow < vScroller.getValue())
-                || (selectedRow > vScroller.getValue() + getHeight() - 2)
+    /**
+     * Widen maxLineWidth to fit an item.
+     *
+     * @param item the item that is shown
+     */
+    private void updateMaxLineWidth(final TTreeItem item) {
+        int lineWidth = item.getText().length() + 4;
+        if (item.level > 1) {
+            // Two columns of prefix for every level below the first
+            lineWidth += (item.level - 1) * 2;
+        }
+        if (lineWidth > maxLineWidth) {
+            maxLineWidth = lineWidth;
+        }
+    }
+
+    /**
+     * Resize text and scrollbars for a new width/height.
+     */
+    public void reflow() {
+        updateScrollers();
+        if (treeRoot == null) {
+            rows.clear();
+            return;
+        }
+
+        if (!rowsValid) {
+            // Expand the tree into a linear list
+            rows.clear();
+            treeRoot.expandTree(rows);
+            maxLineWidth = 0;
+            for (TTreeItem item: rows) {
+                updateMaxLineWidth(item);
+            }
+            rowsValid = true;
+        }
+
+        if ((centerWindow) && (selectedItem != null)) {
+            int selectedRow = getRow(selectedItem);
+            if ((selectedRow >= 0)
+                && ((selectedRow < vScroller.getValue())
+                    || (selectedRow > vScroller.getValue() + getHeight() - 2))
             ) {
                 vScroller.setValue(selectedRow);
                 centerWindow = false;
             }
         }
-        updatePositions();
 
         // Rescale the scroll bars
-        vScroller.setBottomValue(getChildren().size() - getHeight() + 1);
+        vScroller.setBottomValue(rows.size() - getHeight() + 1);
         if (vScroller.getBottomValue() < 0) {
             vScroller.setBottomValue(0);
         }
@@ -283,59 +408,61 @@ public class TTreeView extends TWidget {
             hScroller.setValue(hScroller.getRightValue());
         }
          */
-        getChildren().add(hScroller);
-        getChildren().add(vScroller);
     }
 
     /**
-     * Update the Y positions of all the children items.
+     * Draw the rows that are in view.  Items are not children of the tree
+     * view, so only the visible ones are ever positioned or drawn.
      */
-    private void updatePositions() {
-        if (treeRoot == null) {
-            return;
-        }
-
-        int begin = vScroller.getValue();
-        int topY = 0;
-
-        // As we walk the list we also adjust next/previous pointers,
-        // resulting in a doubly-linked list but only of the expanded items.
-        TTreeItem p = null;
-
-        for (int i = 0; i < getChildren().size(); i++) {
-            if (!(getChildren().get(i) instanceof TTreeItem)) {
-                // Skip the scrollbars
-                continue;
-            }
-            TTreeItem item = (TTreeItem) getChildren().get(i);
-
-            if (p != null) {
-                item.keyboardPrevious = p;
-                p.keyboardNext = item;
-            }
-            p = item;
+    @Override
+    public void draw() {
+        syncRows();
 
-            if (i < begin) {
-                // Render invisible
-                item.setEnabled(false);
-                item.setInvisible(true);
-                continue;
-            }
+        Screen screen = getScreen();
+        int clipRight = screen.getClipRight();
+        int clipBottom = screen.getClipBottom();
+        int begin = Math.max(0, vScroller.getValue());
 
-            if (topY >= getHeight() - 1) {
-                // Render invisible
-                item.setEnabled(false);
-                item.setInvisible(true);
-                continue;
+        for (int topY = 0; topY < getHeight() - 1; topY++) {
+            if (begin + topY >= rows.size()) {
+                break;
             }
-
+            TTreeItem item = rows.get(begin + topY);
             item.setY(topY);
-            item.setEnabled(true);
-            item.setInvisible(false);
             item.setWidth(getWidth() - 1);
-            topY++;
+
+            screen.setOffsetY(getAbsoluteY() + topY);
+            screen.setClipRight(Math.min(clipRight, getWidth() - 1));
+            screen.setClipBottom(Math.min(1, clipBottom - topY));
+            item.draw();
         }
 
+        screen.setOffsetY(getAbsoluteY());
+        screen.setClipRight(clipRight);
+        screen.setClipBottom(clipBottom);
+    }
+
+    /**
+     * Find the item under the mouse.
+     *
+     * @param mouse mouse event
+     * @return the item on that row, or null if the mouse is over the
+     * scrollbars or an empty row
+     */
+    private TTreeItem getItemAt(final TMouseEvent mouse) {
+        if ((mouse.getX() < 0)
+            || (mouse.getX() >= getWidth() - 1)
+            || (mouse.getY() < 0)
+            || (mouse.getY() >= getHeight() - 1)
+        ) {
+            return null;
+        }
+        int row = Math.max(0, vScroller.getValue()) + mouse.getY();
+        if (row >= rows.size()) {
+            return null;
+        }
+        lastRow = row;
+        return rows.get(row);
     }
 
     /**
@@ -345,12 +472,14 @@ public class TTreeView extends TWidget {
      */
     @Override
     public void onMouseDown(final TMouseEvent mouse) {
+        syncRows();
+
         if (mouse.isMouseWheelUp()) {
             vScroller.decrement();
         } else if (mouse.isMouseWheelDown()) {
             vScroller.increment();
-        } else {
-            // Pass to children
+        } else if (getItemAt(mouse) == null) {
+            // Pass to the scrollbars
             super.onMouseDown(mouse);
         }
 
@@ -365,8 +494,16 @@ public class TTreeView extends TWidget {
      */
     @Override
     public void onMouseUp(final TMouseEvent mouse) {
-        // Pass to children
-        super.onMouseDown(mouse);
+        syncRows();
+        TTreeItem item = getItemAt(mouse);
+        if (item != null) {
+            // Set y relative to the item's row
+            mouse.setY(0);
+            item.handleEvent(mouse);
+        } else {
+            // Pass to the scrollbars
+            super.onMouseUp(mouse);
+        }
 
         // Update the screen after any thing has expanded/contracted
         reflow();
@@ -379,6 +516,8 @@ public class TTreeView extends TWidget {
      */
     @Override
     public void onKeypress(final TKeypressEvent keypress) {
+        syncRows();
+
         if (keypress.equals(kbShiftLeft)
             || keypress.equals(kbCtrlLeft)
             || keypress.equals(kbAltLeft)
@@ -420,10 +559,10 @@ public class TTreeView extends TWidget {
         } else if (keypress.equals(kbUp)) {
             // Select the previous item
             if (selectedItem != null) {
-                TTreeItem oldItem = selectedItem;
-                if (selectedItem.keyboardPrevious != null) {
-                    setSelected(selectedItem.keyboardPrevious);
-                    if (oldItem.getY() == 0) {
+                int row = getRow(selectedItem);
+                if (row > 0) {
+                    setSelected(rows.get(row - 1));
+                    if (row == vScroller.getValue()) {
                         vScroller.decrement();
                     }
                 }
@@ -431,10 +570,10 @@ public class TTreeView extends TWidget {
         } else if (keypress.equals(kbDown)) {
             // Select the next item
             if (selectedItem != null) {
-                TTreeItem oldItem = selectedItem;
-                if (selectedItem.keyboardNext != null) {
-                    setSelected(selectedItem.keyboardNext);
-                    if (oldItem.getY() == getHeight() - 2) {
+                int row = getRow(selectedItem);
+                if ((row >= 0) && (row < rows.size() - 1)) {
+                    setSelected(rows.get(row + 1));
+                    if (row == vScroller.getValue() + getHeight() - 2) {
                         vScroller.increment();
                     }
                 }
@@ -124,6 +124,13 @@ public abstract class TWidget implements Comparable<TWidget> {
      */
     private TWidget activeChild = null;
 
+    /**
+     * The child widget that received the last mouse event.  It is sent the
+     * next motion event too, even if the mouse has left it, so that it can
+     * see the mouse leave or follow a drag.
+     */
+    private TWidget mouseChild = null;
+
     /**
      * If true, this widget will receive events.
      */
@@ -181,7 +188,10 @@ public abstract class TWidget implements Comparable<TWidget> {
      * @param x absolute X position of the top-left corner
      */
     public final void setX(final int x) {
-        this.x = x;
+        if (this.x != x) {
+            this.x = x;
+            invalidateLayout();
+        }
     }
 
     /**
@@ -204,7 +214,10 @@ public abstract class TWidget implements Comparable<TWidget> {
      * @param y absolute Y position of the top-left corner
      */
     public final void setY(final int y) {
-        this.y = y;
+        if (this.y != y) {
+            this.y = y;
+            invalidateLayout();
+        }
     }
 
     /**
@@ -227,7 +240,10 @@ public abstract class TWidget implements Comparable<TWidget> {
      * @param width new widget width
      */
     public final void setWidth(final int width) {
-        this.width = width;
+        if (this.width != width) {
+            this.width = width;
+            invalidateLayout();
+        }
     }
 
     /**
@@ -250,7 +266,10 @@ public abstract class TWidget implements Comparable<TWidget> {
      * @param height new widget height
      */
     public final void setHeight(final int height) {
-        this.height = height;
+        if (this.height != height) {
+            this.height = height;
+            invalidateLayout();
+        }
     }
 
     /**
@@ -278,6 +297,9 @@ public abstract class TWidget implements Comparable<TWidget> {
      * @param enabled if true, this widget can be tabbed to or receive events
      */
     public final void setEnabled(final boolean enabled) {
+        if (this.enabled != enabled) {
+            invalidateLayout();
+        }
         this.enabled = enabled;
         if (!enabled) {
             active = false;
@@ -468,6 +490,19 @@ public abstract class TWidget implements Comparable<TWidget> {
         return parent.getAbsoluteY() + y;
     }
 
+    /**
+     * Tell the application that my position, size, enabled state, or list
+     * of children has changed, so that the mouse hit-test map is rebuilt
+     * before the next mouse event.  Subclasses that rearrange their
+     * children directly through getChildren() must call this.
+     */
+    protected final void invalidateLayout() {
+        // TWindow calls setupForTWindow() before it knows its application.
+        if ((window != null) && (window.getApplication() != null)) {
+            window.getApplication().invalidateWidgetMap();
+        }
+    }
+
     /**
      * Get the global color theme.
      *
@@ -613,6 +648,7 @@ public abstract class TWidget implements Comparable<TWidget> {
      */
     private void addChild(final TWidget child) {
         children.add(child);
+        invalidateLayout();
 
         if ((child.enabled)
             && !(child instanceof THScroller)
@@ -629,6 +665,41 @@ public abstract class TWidget implements Comparable<TWidget> {
         }
     }
 
+    /**
+     * Remove a child widget from my list of children.  If it was the active
+     * child, the first other enabled child is activated instead, and the
+     * tabOrder of the remaining children is renumbered.  Note package
+     * private access.
+     *
+     * @param child TWidget to remove
+     */
+    void removeChild(final TWidget child) {
+        if (!children.remove(child)) {
+            return;
+        }
+        invalidateLayout();
+        child.active = false;
+        if (mouseChild == child) {
+            mouseChild = null;
+        }
+
+        if (activeChild == child) {
+            activeChild = null;
+            for (TWidget widget: children) {
+                if ((widget.enabled)
+                    && !(widget instanceof THScroller)
+                    && !(widget instanceof TVScroller)
+                ) {
+                    activate(widget);
+                    break;
+                }
+            }
+        }
+        for (int i = 0; i < children.size(); i++) {
+            children.get(i).tabOrder = i;
+        }
+    }
+
     /**
      * Switch the active child.
      *
@@ -821,17 +892,16 @@ public abstract class TWidget implements Comparable<TWidget> {
      */
     public void onMouseDown(final TMouseEvent mouse) {
         // Default: do nothing, pass to children instead
-        for (TWidget widget: children) {
-            if (widget.mouseWouldHit(mouse)) {
-                // Dispatch to this child, also activate it
-                activate(widget);
+        TWidget widget = getChildAt(mouse);
+        if (widget != null) {
+            // Dispatch to this child, also activate it
+            activate(widget);
+            mouseChild = widget;
 
-                // Set x and y relative to the child's coordinates
-                mouse.setX(mouse.getAbsoluteX() - widget.getAbsoluteX());
-                mouse.setY(mouse.getAbsoluteY() - widget.getAbsoluteY());
-                widget.handleEvent(mouse);
-                return;
-            }
+            // Set x and y relative to the child's coordinates
+            mouse.setX(mouse.getAbsoluteX() - widget.getAbsoluteX());
+            mouse.setY(mouse.getAbsoluteY() - widget.getAbsoluteY());
+            widget.handleEvent(mouse);
         }
     }
 
@@ -842,17 +912,16 @@ public abstract class TWidget implements Comparable<TWidget> {
      */
     public void onMouseUp(final TMouseEvent mouse) {
         // Default: do nothing, pass to children instead
-        for (TWidget widget: children) {
-            if (widget.mouseWouldHit(mouse)) {
-                // Dispatch to this child, also activate it
-                activate(widget);
+        TWidget widget = getChildAt(mouse);
+        if (widget != null) {
+            // Dispatch to this child, also activate it
+            activate(widget);
+            mouseChild = widget;
 
-                // Set x and y relative to the child's coordinates
-                mouse.setX(mouse.getAbsoluteX() - widget.getAbsoluteX());
-                mouse.setY(mouse.getAbsoluteY() - widget.getAbsoluteY());
-                widget.handleEvent(mouse);
-                return;
-            }
+            // Set x and y relative to the child's coordinates
+            mouse.setX(mouse.getAbsoluteX() - widget.getAbsoluteX());
+            mouse.setY(mouse.getAbsoluteY() - widget.getAbsoluteY());
+            widget.handleEvent(mouse);
         }
     }
 
@@ -862,14 +931,37 @@ public abstract class TWidget implements Comparable<TWidget> {
      * @param mouse mouse motion event
      */
     public void onMouseMotion(final TMouseEvent mouse) {
-        // Default: do nothing, pass it on to ALL of my children.  This way
-        // the children can see the mouse "leaving" their area.
-        for (TWidget widget: children) {
+        // Default: do nothing, pass to children instead.  The child under
+        // the mouse gets the event, and so does the child that got the
+        // previous mouse event, so that it can see the mouse "leaving" its
+        // area.  While a button is held the child that got the press keeps
+        // getting motion events wherever the mouse goes, so that drags
+        // (e.g. of a scroller box) can follow it.
+        TWidget widget = getChildAt(mouse);
+        TWidget previous = mouseChild;
+        if ((previous != null) && (previous != widget)
+            && children.contains(previous)
+        ) {
+            // Set x and y relative to the child's coordinates
+            mouse.setX(mouse.getAbsoluteX() - previous.getAbsoluteX());
+            mouse.setY(mouse.getAbsoluteY() - previous.getAbsoluteY());
+            previous.handleEvent(mouse);
+        } else {
+            previous = null;
+        }
+        if (widget != null) {
             // Set x and y relative to the child's coordinates
             mouse.setX(mouse.getAbsoluteX() - widget.getAbsoluteX());
             mouse.setY(mouse.getAbsoluteY() - widget.getAbsoluteY());
             widget.handleEvent(mouse);
         }
+        if ((previous != null)
+            && (mouse.isMouse1() || mouse.isMouse2() || mouse.isMouse3())
+        ) {
+            // Dragging: stay with the child that got the press
+            return;
+        }
+        mouseChild = widget;
     }
 
     /**
@@ -996,6 +1088,48 @@ public abstract class TWidget implements Comparable<TWidget> {
         return false;
     }
 
+    /**
+     * Find the child widget that a mouse press/release event would be
+     * dispatched to.  This is the first enabled child (in tab order) that
+     * contains the event coordinate.
+     *
+     * @param mouse a mouse-based event
+     * @return the child widget, or null if no child would be hit
+     */
+    private TWidget getChildAt(final TMouseEvent mouse) {
+        if (children.size() == 0) {
+            return null;
+        }
+
+        // Ask the application's widget map first.  If the deepest widget at
+        // this cell is me or one of my descendants, then walking up from
+        // it finds my child without a hit test on every sibling.
+        TApplication application = getApplication();
+        if (application != null) {
+            TWidget hit = application.getWidgetAt(mouse.getAbsoluteX(),
+                mouse.getAbsoluteY());
+            if ((hit != null) && (hit.window == window)) {
+                if (hit == this) {
+                    return null;
+                }
+                for (TWidget w = hit; w.parent != w; w = w.parent) {
+                    if (w.parent == this) {
+                        return w;
+                    }
+                }
+            }
+        }
+
+        // The cell is covered by another window, is off my window, or I am
+        // not on the desktop (e.g. a menu): check each child.
+        for (TWidget widget: children) {
+            if (widget.mouseWouldHit(mouse)) {
+                return widget;
+            }
+        }
+        return null;
+    }
+
     /**
      * Convenience function to add a label to this container/window.
      *
@@ -1170,6 +1304,39 @@ public abstract class TWidget implements Comparable<TWidget> {
         return new TText(this, text, x, y, width, height, "ttext");
     }
 
+    /**
+     * Convenience function to add a multi-line text editor to this
+     * container/window.
+     *
+     * @param text initial text
+     * @param x column relative to parent
+     * @param y row relative to parent
+     * @param width width of text area
+     * @param height height of text area
+     * @return the new editor
+     */
+    public final TEditor addEditor(final String text, final int x,
+        final int y, final int width, final int height) {
+
+        return new TEditor(this, text, x, y, width, height);
+    }
+
+    /**
+     * Convenience function to add a table to this container/window.
+     *
+     * @param provider the cells to show
+     * @param x column relative to parent
+     * @param y row relative to parent
+     * @param width width of table
+     * @param height height of table
+     * @return the new table
+     */
+    public final TTable addTable(final TTableProvider provider, final int x,
+        final int y, final int width, final int height) {
+
+        return new TTable(this, provider, x, y, width, height);
+    }
+
     /**
      * Convenience function to spawn a message box.
      *
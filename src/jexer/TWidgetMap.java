@@ -0,0 +1,178 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * TWidgetMap is a screen-sized index that maps every cell to the widget
+ * that a mouse click on that cell would be dispatched to.  It is rebuilt
+ * lazily by TApplication after the layout changes (widget moved, resized,
+ * enabled/disabled, added, or a change in window Z order), so that the
+ * common case of a mouse event on an unchanged screen is a single array
+ * lookup instead of a walk over every window and widget.
+ */
+final class TWidgetMap {
+
+    /**
+     * The deepest enabled widget covering each cell, in row-major order.
+     * null means the desktop background.
+     */
+    private TWidget [] cells = new TWidget[0];
+
+    /**
+     * Width of the map, same as the screen width when it was built.
+     */
+    private int width = 0;
+
+    /**
+     * Height of the map, same as the screen height when it was built.
+     */
+    private int height = 0;
+
+    /**
+     * If true, the layout has changed since the last rebuild.
+     */
+    private volatile boolean dirty = true;
+
+    /**
+     * Package private constructor.
+     */
+    TWidgetMap() {
+    }
+
+    /**
+     * Mark the map as stale.  It will be rebuilt on the next lookup.
+     */
+    void invalidate() {
+        dirty = true;
+    }
+
+    /**
+     * See if the map needs to be rebuilt.
+     *
+     * @return true if the layout has changed since the last rebuild
+     */
+    boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Rebuild the map from the windows, painting them from back to front
+     * exactly the way TApplication.drawAll() does.
+     *
+     * @param windows the top-level windows
+     * @param width the screen width
+     * @param height the screen height
+     */
+    void rebuild(final List<TWindow> windows, final int width,
+        final int height) {
+
+        // Clear dirty first, so that a concurrent invalidate() is not lost.
+        dirty = false;
+
+        if ((this.width != width) || (this.height != height)) {
+            this.width = width;
+            this.height = height;
+            cells = new TWidget[width * height];
+        } else {
+            Arrays.fill(cells, null);
+        }
+
+        List<TWindow> sorted = new ArrayList<TWindow>(windows);
+        Collections.sort(sorted);
+        Collections.reverse(sorted);
+        for (TWindow window: sorted) {
+            paint(window, 0, 0, width, height);
+        }
+    }
+
+    /**
+     * Mark the cells of a widget, and then its children, clipped to a
+     * rectangle.  Children are painted in reverse order because
+     * TWidget.onMouseDown() dispatches to the first child that would be
+     * hit.
+     *
+     * @param widget the widget to paint
+     * @param left left edge of the clipping rectangle, inclusive
+     * @param top top edge of the clipping rectangle, inclusive
+     * @param right right edge of the clipping rectangle, exclusive
+     * @param bottom bottom edge of the clipping rectangle, exclusive
+     */
+    private void paint(final TWidget widget, final int left, final int top,
+        final int right, final int bottom) {
+
+        if (!widget.isEnabled()) {
+            return;
+        }
+
+        int absoluteX = widget.getAbsoluteX();
+        int absoluteY = widget.getAbsoluteY();
+        int x0 = Math.max(left, absoluteX);
+        int y0 = Math.max(top, absoluteY);
+        int x1 = Math.min(right, absoluteX + widget.getWidth());
+        int y1 = Math.min(bottom, absoluteY + widget.getHeight());
+        if ((x0 >= x1) || (y0 >= y1)) {
+            return;
+        }
+
+        for (int y = y0; y < y1; y++) {
+            Arrays.fill(cells, (y * width) + x0, (y * width) + x1, widget);
+        }
+
+        List<TWidget> children = widget.getChildren();
+        ListIterator<TWidget> i = children.listIterator(children.size());
+        while (i.hasPrevious()) {
+            paint(i.previous(), x0, y0, x1, y1);
+        }
+    }
+
+    /**
+     * Get the deepest widget that a mouse event at this screen cell would be
+     * dispatched to.
+     *
+     * @param x absolute screen column
+     * @param y absolute screen row
+     * @return the widget, or null if the cell is on the desktop background
+     * or off screen
+     */
+    TWidget getWidgetAt(final int x, final int y) {
+        if ((x < 0) || (y < 0) || (x >= width) || (y >= height)) {
+            return null;
+        }
+        return cells[(y * width) + x];
+    }
+
+}
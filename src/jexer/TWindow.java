@@ -136,7 +136,10 @@ public class TWindow extends TWidget {
      * @param z the new Z value.  Lower number means more in-front.
      */
     public final void setZ(final int z) {
-        this.z = z;
+        if (this.z != z) {
+            this.z = z;
+            invalidateLayout();
+        }
     }
 
     /**
@@ -439,6 +439,30 @@ public final class ColorTheme {
         color.setBold(true);
         colors.put("tlist.inactive", color);
 
+        // TTable
+        color = new CellAttributes();
+        color.setForeColor(Color.YELLOW);
+        color.setBackColor(Color.BLUE);
+        color.setBold(true);
+        colors.put("ttable.header", color);
+
+        // TLogWindow
+        color = new CellAttributes();
+        color.setForeColor(Color.WHITE);
+        color.setBackColor(Color.BLACK);
+        color.setBold(false);
+        colors.put("tlogwindow", color);
+        color = new CellAttributes();
+        color.setForeColor(Color.BLACK);
+        color.setBackColor(Color.CYAN);
+        color.setBold(false);
+        colors.put("tlogwindow.status", color);
+        color = new CellAttributes();
+        color.setForeColor(Color.BLACK);
+        color.setBackColor(Color.YELLOW);
+        color.setBold(false);
+        colors.put("tlogwindow.match", color);
+
         // TEditor
         color = new CellAttributes();
         color.setForeColor(Color.WHITE);
@@ -0,0 +1,269 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.bits;
+
+/**
+ * GapBuffer is an editable sequence of characters for text that is edited
+ * at a cursor.  The characters are kept in one array with a gap at the
+ * last edit position, so inserting or deleting at (or near) the same place
+ * again only moves the edge of the gap.  Moving the gap costs time
+ * proportional to the distance moved, and the array doubles when the gap
+ * is used up.
+ */
+public final class GapBuffer implements CharSequence {
+
+    /**
+     * The characters, with the gap from gapStart up to gapEnd.
+     */
+    private char [] buffer;
+
+    /**
+     * Index of the first unused character in buffer.
+     */
+    private int gapStart;
+
+    /**
+     * Index of the first used character after the gap.
+     */
+    private int gapEnd;
+
+    /**
+     * The contents as a String, or null if it was changed since the last
+     * call to toString().
+     */
+    private String string = null;
+
+    /**
+     * Public constructor.
+     */
+    public GapBuffer() {
+        this("");
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param text initial contents
+     */
+    public GapBuffer(final CharSequence text) {
+        buffer = new char[Math.max(16, text.length() * 2)];
+        gapStart = 0;
+        gapEnd = buffer.length;
+        insert(0, text);
+    }
+
+    /**
+     * Get the number of characters.
+     *
+     * @return the length
+     */
+    public int length() {
+        return buffer.length - (gapEnd - gapStart);
+    }
+
+    /**
+     * Get one character.
+     *
+     * @param index position of the character, 0 to length() - 1
+     * @return the character
+     */
+    public char charAt(final int index) {
+        if ((index < 0) || (index >= length())) {
+            throw new IndexOutOfBoundsException("index " + index
+                + " length " + length());
+        }
+        if (index < gapStart) {
+            return buffer[index];
+        }
+        return buffer[index + (gapEnd - gapStart)];
+    }
+
+    /**
+     * Get part of the contents.
+     *
+     * @param start position of the first character
+     * @param end position after the last character
+     * @return the characters from start up to end
+     */
+    public CharSequence subSequence(final int start, final int end) {
+        if ((start < 0) || (end > length()) || (start > end)) {
+            throw new IndexOutOfBoundsException("start " + start + " end "
+                + end + " length " + length());
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            sb.append(charAt(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the contents as a String.  The String is kept until the next
+     * change, so calling this repeatedly does not copy the characters.
+     *
+     * @return the contents
+     */
+    @Override
+    public String toString() {
+        if (string == null) {
+            StringBuilder sb = new StringBuilder(length());
+            sb.append(buffer, 0, gapStart);
+            sb.append(buffer, gapEnd, buffer.length - gapEnd);
+            string = sb.toString();
+        }
+        return string;
+    }
+
+    /**
+     * Replace the contents.
+     *
+     * @param text the new contents
+     */
+    public void setText(final CharSequence text) {
+        gapStart = 0;
+        gapEnd = buffer.length;
+        insert(0, text);
+    }
+
+    /**
+     * Insert one character.
+     *
+     * @param index position to insert at, 0 to length()
+     * @param ch the character
+     */
+    public void insert(final int index, final char ch) {
+        moveGap(index, 1);
+        buffer[gapStart] = ch;
+        gapStart++;
+        string = null;
+    }
+
+    /**
+     * Insert several characters.
+     *
+     * @param index position to insert at, 0 to length()
+     * @param text the characters
+     */
+    public void insert(final int index, final CharSequence text) {
+        int n = text.length();
+        moveGap(index, n);
+        for (int i = 0; i < n; i++) {
+            buffer[gapStart + i] = text.charAt(i);
+        }
+        gapStart += n;
+        string = null;
+    }
+
+    /**
+     * Append one character.
+     *
+     * @param ch the character
+     */
+    public void append(final char ch) {
+        insert(length(), ch);
+    }
+
+    /**
+     * Replace one character.
+     *
+     * @param index position of the character, 0 to length() - 1
+     * @param ch the new character
+     */
+    public void setCharAt(final int index, final char ch) {
+        if ((index < 0) || (index >= length())) {
+            throw new IndexOutOfBoundsException("index " + index
+                + " length " + length());
+        }
+        if (index < gapStart) {
+            buffer[index] = ch;
+        } else {
+            buffer[index + (gapEnd - gapStart)] = ch;
+        }
+        string = null;
+    }
+
+    /**
+     * Delete characters.
+     *
+     * @param start position of the first character to delete
+     * @param end position after the last character to delete
+     */
+    public void delete(final int start, final int end) {
+        if ((start < 0) || (end > length()) || (start > end)) {
+            throw new IndexOutOfBoundsException("start " + start + " end "
+                + end + " length " + length());
+        }
+        moveGap(start, 0);
+        gapEnd += end - start;
+        string = null;
+    }
+
+    /**
+     * Move the gap to a position and make sure it can hold some
+     * characters.
+     *
+     * @param index position for the start of the gap, 0 to length()
+     * @param room number of characters the gap must hold
+     */
+    private void moveGap(final int index, final int room) {
+        if ((index < 0) || (index > length())) {
+            throw new IndexOutOfBoundsException("index " + index
+                + " length " + length());
+        }
+
+        if (gapEnd - gapStart < room) {
+            int length = length();
+            char [] newBuffer = new char[Math.max(buffer.length * 2,
+                    length + room + 16)];
+            int newGapEnd = newBuffer.length - (buffer.length - gapEnd);
+            System.arraycopy(buffer, 0, newBuffer, 0, gapStart);
+            System.arraycopy(buffer, gapEnd, newBuffer, newGapEnd,
+                buffer.length - gapEnd);
+            buffer = newBuffer;
+            gapEnd = newGapEnd;
+        }
+
+        if (index < gapStart) {
+            // Slide the characters between index and the gap to after it
+            int n = gapStart - index;
+            System.arraycopy(buffer, index, buffer, gapEnd - n, n);
+            gapStart -= n;
+            gapEnd -= n;
+        } else if (index > gapStart) {
+            // Slide the characters between the gap and index to before it
+            int n = index - gapStart;
+            System.arraycopy(buffer, gapEnd, buffer, gapStart, n);
+            gapStart += n;
+            gapEnd += n;
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.bits;
+
+/**
+ * This class decodes UTF-8 one character at a time, for code that reads
+ * bytes in place (memory-mapped files, piece tables) rather than through a
+ * Reader.  Malformed input is split up the same way as by the JDK's
+ * decoder: overlong forms and values past U+10FFFF are rejected at their
+ * first bad byte, and an encoded surrogate is one bad character.  Each
+ * piece decodes to one U+FFFD.
+ */
+public final class UTF8 {
+
+    /**
+     * Private constructor prevents accidental creation of this class.
+     */
+    private UTF8() {
+    }
+
+    /**
+     * Get the number of bytes in the UTF-8 character at a position.  Each
+     * piece of malformed input counts as one character.
+     *
+     * @param bytes the bytes
+     * @param i index of the character's first byte
+     * @param n number of valid bytes
+     * @return the number of bytes, 1 to 4.  If the character is cut off
+     * at n this is its full length, which is more than n - i, so that a
+     * caller reading in blocks can tell it needs more bytes.
+     */
+    public static int charLength(final byte [] bytes, final int i,
+        final int n) {
+
+        int lead = bytes[i] & 0xFF;
+        int length;
+        if (lead < 0x80) {
+            return 1;
+        } else if ((lead >= 0xC2) && (lead <= 0xDF)) {
+            length = 2;
+        } else if ((lead >= 0xE0) && (lead <= 0xEF)) {
+            length = 3;
+        } else if ((lead >= 0xF0) && (lead <= 0xF4)) {
+            length = 4;
+        } else {
+            return 1;
+        }
+
+        // The second byte has a narrower range after some lead bytes: E0
+        // and F0 would be overlong, and F4 past U+10FFFF.  A bad byte ends
+        // the character before it, so what came before is one malformed
+        // character.
+        int low = 0x80;
+        int high = 0xBF;
+        switch (lead) {
+        case 0xE0:
+            low = 0xA0;
+            break;
+        case 0xF0:
+            low = 0x90;
+            break;
+        case 0xF4:
+            high = 0x8F;
+            break;
+        default:
+            break;
+        }
+
+        for (int j = 1; (j < length) && (i + j < n); j++) {
+            int ch = bytes[i + j] & 0xFF;
+            if ((ch < low) || (ch > high)) {
+                return j;
+            }
+            low = 0x80;
+            high = 0xBF;
+        }
+        return length;
+    }
+
+    /**
+     * Decode one UTF-8 character.  Malformed bytes and characters outside
+     * the Basic Multilingual Plane decode to U+FFFD, so every character is
+     * one char.
+     *
+     * @param bytes the bytes
+     * @param i index of the character's first byte
+     * @param length the number of bytes from charLength()
+     * @return the character
+     */
+    public static char decodeChar(final byte [] bytes, final int i,
+        final int length) {
+
+        int lead = bytes[i] & 0xFF;
+        if (length == 1) {
+            return (lead < 0x80 ? (char) lead : '\uFFFD');
+        }
+        if ((length == 4) || (i + length > bytes.length)) {
+            return '\uFFFD';
+        }
+        if (length != (lead < 0xE0 ? 2 : (lead < 0xF0 ? 3 : 4))) {
+            // The start of a longer character that was cut short
+            return '\uFFFD';
+        }
+        int ch = lead & (length == 2 ? 0x1F : 0x0F);
+        for (int j = 1; j < length; j++) {
+            ch = (ch << 6) | (bytes[i + j] & 0x3F);
+        }
+        if ((ch >= 0xD800) && (ch <= 0xDFFF)) {
+            // Encoded surrogate
+            return '\uFFFD';
+        }
+        return (char) ch;
+    }
+
+}
@@ -61,6 +61,7 @@ public class DemoApplication extends TApplication {
         TSubMenu subMenu = demoMenu.addSubMenu("Sub-&Menu");
         item = demoMenu.addItem(2010, "N&ormal A&&D");
         item = demoMenu.addItem(2050, "Co&lors...");
+        item = demoMenu.addItem(2060, "Lo&g File...");
 
         item = subMenu.addItem(2000, "&Checkable (sub)");
         item.setCheckable(true);
@@ -112,6 +113,18 @@ public class DemoApplication extends TApplication {
             return true;
         }
 
+        if (menu.getId() == 2060) {
+            try {
+                String filename = fileOpenBox(".");
+                if (filename != null) {
+                    new TLogWindow(this, new File(filename));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return true;
+        }
+
         if (menu.getId() == TMenu.MID_OPEN_FILE) {
             try {
                 String filename = fileOpenBox(".");
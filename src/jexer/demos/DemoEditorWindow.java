@@ -0,0 +1,83 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.demos;
+
+import jexer.*;
+import jexer.event.*;
+
+/**
+ * This window demonstates the TEditor widget.
+ */
+public class DemoEditorWindow extends TWindow {
+
+    /**
+     * Hang onto my TEditor so I can resize it with the window.
+     */
+    private TEditor editField;
+
+    /**
+     * Public constructor.
+     *
+     * @param parent the main application
+     */
+    public DemoEditorWindow(final TApplication parent) {
+        super(parent, "Editor", 0, 0, 60, 20, RESIZABLE);
+        editField = addEditor(
+"This is an example of a multi-line text editor.\n" +
+"\n" +
+"Use the arrow keys, Home, End, PgUp and PgDn to move around.  Ins\n" +
+"switches between insert and overwrite.  Ctrl-Z undoes the last change\n" +
+"and Ctrl-Y redoes it.\n",
+            1, 1, 56, 16);
+    }
+
+    /**
+     * Handle window/screen resize events.
+     *
+     * @param event resize event
+     */
+    @Override
+    public void onResize(final TResizeEvent event) {
+        if (event.getType() == TResizeEvent.Type.WIDGET) {
+            // Resize the editor
+            editField.setWidth(event.getWidth() - 4);
+            editField.setHeight(event.getHeight() - 4);
+            editField.reflow();
+            return;
+        }
+
+        // Pass to children instead
+        for (TWidget widget: getChildren()) {
+            widget.onResize(event);
+        }
+    }
+
+}
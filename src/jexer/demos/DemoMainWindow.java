@@ -127,20 +127,8 @@ public class DemoMainWindow extends TWindow {
         }
         row += 2;
 
-        /*
         if (!isModal()) {
-            addLabel("Editor window", 1, row);
-            addButton("Edito&r", 35, row,
-                {
-                    new TEditor(application, 0, 0, 60, 15);
-                }
-            );
-        }
-        row += 2;
-         */
-
-        if (!isModal()) {
-            addLabel("Text areas", 1, row);
+            addLabel("Text areas and editor", 1, row);
             addButton("&Text", 35, row,
                 new TAction() {
                     public void DO() {
@@ -148,11 +136,18 @@ public class DemoMainWindow extends TWindow {
                     }
                 }
             );
+            addButton("Edito&r", 44, row,
+                new TAction() {
+                    public void DO() {
+                        new DemoEditorWindow(getApplication());
+                    }
+                }
+            );
         }
         row += 2;
 
         if (!isModal()) {
-            addLabel("Tree views", 1, row);
+            addLabel("Tree views and tables", 1, row);
             addButton("Tree&View", 35, row,
                 new TAction() {
                     public void DO() {
@@ -164,6 +159,13 @@ public class DemoMainWindow extends TWindow {
                     }
                 }
             );
+            addButton("T&able", 47, row,
+                new TAction() {
+                    public void DO() {
+                        new DemoTableWindow(getApplication());
+                    }
+                }
+            );
         }
         row += 2;
 
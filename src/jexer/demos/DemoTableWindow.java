@@ -0,0 +1,204 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.demos;
+
+import java.util.Random;
+
+import jexer.*;
+import jexer.event.*;
+
+/**
+ * This window demonstates the TTable widget with a million rows, some of
+ * which change four times a second.
+ */
+public class DemoTableWindow extends TWindow {
+
+    /**
+     * A million generated rows.  The Value column changes over time.
+     */
+    private static class DemoRows extends TTableProvider {
+
+        /**
+         * The Value column.
+         */
+        private int [] values = new int[1000000];
+
+        /**
+         * Source of new values.
+         */
+        private Random random = new Random(1);
+
+        /**
+         * Public constructor.
+         */
+        public DemoRows() {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextInt(100000);
+            }
+        }
+
+        /**
+         * Get the number of rows.
+         *
+         * @return the number of rows
+         */
+        @Override
+        public int getRowCount() {
+            return values.length;
+        }
+
+        /**
+         * Get the text for one cell.
+         *
+         * @param row row index
+         * @param column column index
+         * @return the text to display
+         */
+        @Override
+        public String getValue(final int row, final int column) {
+            switch (column) {
+            case 0:
+                return Integer.toString(row);
+            case 1:
+                return "Item " + Integer.toString(row * 7919 % 1000003, 36);
+            default:
+                return Integer.toString(values[row]);
+            }
+        }
+
+        /**
+         * Sort the number columns by value.
+         *
+         * @param row row index
+         * @param column column index
+         * @return the value to sort by
+         */
+        @Override
+        public Comparable<?> getSortKey(final int row, final int column) {
+            switch (column) {
+            case 0:
+                return row;
+            case 1:
+                return getValue(row, column);
+            default:
+                return values[row];
+            }
+        }
+
+        /**
+         * Change a few values at random.
+         */
+        public void update() {
+            int first = random.nextInt(values.length - 100);
+            for (int i = first; i < first + 100; i++) {
+                values[i] = random.nextInt(100000);
+            }
+            fireRowsUpdated(first, first + 99);
+        }
+    }
+
+    /**
+     * Timer that changes rows.
+     */
+    private TTimer timer;
+
+    /**
+     * Hang onto my TTable so I can resize it with the window.
+     */
+    private TTable table;
+
+    /**
+     * Rows must contain the text in this field.
+     */
+    private TField filter;
+
+    /**
+     * Public constructor.
+     *
+     * @param parent the main application
+     */
+    public DemoTableWindow(final TApplication parent) {
+        super(parent, "Table", 0, 0, 60, 20, RESIZABLE);
+
+        final DemoRows rows = new DemoRows();
+        table = addTable(rows, 1, 3, 56, 14);
+        table.addColumn("Row");
+        table.addColumn("Name");
+        table.addColumn(new TTableColumn("Value", 8));
+
+        addLabel("Filter:", 1, 1);
+        filter = addField(9, 1, 20, false, "", null,
+            new TAction() {
+                public void DO() {
+                    table.setFilter(filter.getText());
+                }
+            }
+        );
+
+        timer = getApplication().addTimer(250, true,
+            new TAction() {
+                public void DO() {
+                    rows.update();
+                }
+            }
+        );
+    }
+
+    /**
+     * Stop changing rows after the window closes.
+     */
+    @Override
+    public void onClose() {
+        getApplication().removeTimer(timer);
+    }
+
+    /**
+     * Handle window/screen resize events.
+     *
+     * @param event resize event
+     */
+    @Override
+    public void onResize(final TResizeEvent event) {
+        if (event.getType() == TResizeEvent.Type.WIDGET) {
+            // Resize the table
+            table.setWidth(event.getWidth() - 4);
+            table.setHeight(event.getHeight() - 6);
+            table.reflow();
+            return;
+        }
+
+        // Pass to children instead
+        for (TWidget widget: getChildren()) {
+            widget.onResize(event);
+        }
+    }
+
+}
@@ -0,0 +1,654 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.demos;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import jexer.bits.CellAttributes;
+import jexer.tterminal.ECMA48;
+import jexer.tterminal.SnapshotLine;
+
+/**
+ * ECMA48Benchmark replays byte streams through a headless ECMA48 and
+ * reports throughput, allocation, and a checksum of the final screen and
+ * scrollback.  The checksum lets a change to the parser be checked for
+ * correctness as well as speed: the same input must still leave the same
+ * screen.
+ *
+ * <p>
+ * With no file arguments it runs a built-in corpus of generated streams
+ * that look like common terminal traffic: a long ls -lR, colored compiler
+ * output, full-screen vim and top sessions, vttest fragments, and
+ * non-ASCII text.  Otherwise each file is replayed as is, for example a
+ * session recorded with script(1).
+ *
+ * <pre>
+ * java -cp jexer.jar jexer.demos.ECMA48Benchmark [-type XTERM]
+ *     [-mb 4] [-runs 3] [file ...]
+ * </pre>
+ */
+public class ECMA48Benchmark {
+
+    /**
+     * Bytes passed to each ECMA48.feed(), about what one read() returns.
+     */
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * The device type to emulate.
+     */
+    private ECMA48.DeviceType type = ECMA48.DeviceType.XTERM;
+
+    /**
+     * Approximate size of each generated stream, in megabytes.
+     */
+    private int megabytes = 4;
+
+    /**
+     * Number of timed runs of each stream, after one warmup run.
+     */
+    private int runs = 3;
+
+    /**
+     * Main entry point.
+     *
+     * @param args Command line arguments
+     */
+    public static void main(final String [] args) {
+        ECMA48Benchmark benchmark = new ECMA48Benchmark();
+        int i = 0;
+        try {
+            for (; i < args.length; i++) {
+                if (args[i].equals("-type")) {
+                    benchmark.type = ECMA48.DeviceType.valueOf(args[++i]);
+                } else if (args[i].equals("-mb")) {
+                    benchmark.megabytes = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-runs")) {
+                    benchmark.runs = Integer.parseInt(args[++i]);
+                } else {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Usage: ECMA48Benchmark [-type XTERM|VT220|"
+                + "VT102|VT100] [-mb megabytes] [-runs n] [file ...]");
+            return;
+        }
+
+        try {
+            System.out.printf("%-10s %8s %10s %12s  %s\n", "stream", "MB",
+                "MB/s", "alloc KB/MB", "checksum");
+            if (i == args.length) {
+                int size = benchmark.megabytes << 20;
+                benchmark.run("ls-lR", lsLR(size));
+                benchmark.run("compiler", compiler(size));
+                benchmark.run("vim", vim(size));
+                benchmark.run("top", top(size));
+                benchmark.run("vttest", vttest(size));
+                benchmark.run("unicode", unicode(size));
+            }
+            for (; i < args.length; i++) {
+                File file = new File(args[i]);
+                benchmark.run(file.getName(), readFile(file));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Replay one stream: a warmup run, then the timed runs.  Prints the
+     * best throughput, the lowest allocation, and the checksum, flagged if
+     * the runs did not all end in the same state.
+     *
+     * @param name the name to report
+     * @param data the bytes to replay
+     * @throws IOException if the emulator cannot be created
+     */
+    private void run(final String name, final byte [] data)
+        throws IOException {
+
+        double megabytesIn = data.length / 1048576.0;
+        double bestRate = 0;
+        long bestAllocated = Long.MAX_VALUE;
+        long checksum = -1;
+        boolean stable = true;
+
+        for (int run = 0; run <= runs; run++) {
+            ByteArrayOutputStream replies = new ByteArrayOutputStream();
+            ECMA48 emulator = new ECMA48(type, replies);
+
+            long allocated = getAllocatedBytes();
+            long start = System.nanoTime();
+            for (int offset = 0; offset < data.length;
+                 offset += CHUNK_SIZE) {
+
+                emulator.feed(data, offset,
+                    Math.min(CHUNK_SIZE, data.length - offset));
+            }
+            long end = System.nanoTime();
+            allocated = getAllocatedBytes() - allocated;
+
+            long sum = checksum(emulator, replies.toByteArray());
+            emulator.close();
+            if (run == 0) {
+                // Warmup
+                checksum = sum;
+                continue;
+            }
+            if (sum != checksum) {
+                stable = false;
+            }
+            bestRate = Math.max(bestRate, megabytesIn / ((end - start) / 1e9));
+            bestAllocated = Math.min(bestAllocated, allocated);
+        }
+
+        String allocation = "n/a";
+        if (bestAllocated >= 0) {
+            allocation = String.format("%.1f",
+                bestAllocated / 1024.0 / megabytesIn);
+        }
+        System.out.printf("%-10s %8.1f %10.1f %12s  %08x%s\n", name,
+            megabytesIn, bestRate, allocation, checksum,
+            (stable ? "" : " UNSTABLE"));
+    }
+
+    /**
+     * Get the number of bytes allocated by this thread so far.  The counter
+     * is an extension of HotSpot and OpenJ9, so it is looked up by
+     * reflection.
+     *
+     * @return bytes, or -1 if the JVM cannot tell
+     */
+    private static long getAllocatedBytes() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            Class<?> extension = Class.forName(
+                "com.sun.management.ThreadMXBean");
+            if (!extension.isInstance(bean)) {
+                return -1;
+            }
+            Method method = extension.getMethod("getThreadAllocatedBytes",
+                long.class);
+            return ((Long) method.invoke(bean,
+                    Thread.currentThread().getId())).longValue();
+        } catch (Exception e) {
+            // No such extension on this JVM
+            return -1;
+        }
+    }
+
+    /**
+     * Compute a CRC32 of every scrollback and display line (characters,
+     * attributes, and line flags), the cursor, and the replies sent to the
+     * remote side.
+     *
+     * @param emulator the emulator
+     * @param replies the bytes the emulator wrote back
+     * @return the checksum
+     */
+    private static long checksum(final ECMA48 emulator,
+        final byte [] replies) {
+
+        CRC32 crc = new CRC32();
+        CellAttributes attr = new CellAttributes();
+        int lines = emulator.getScrollbackSize() + emulator.getHeight();
+        for (int i = 0; i < lines; i++) {
+            SnapshotLine line = emulator.lineAt(i);
+            update(crc, (line.isDoubleWidth() ? 1 : 0)
+                | (line.getDoubleHeight() << 1)
+                | (line.isReverseColor() ? 8 : 0));
+            for (int x = 0; x < line.length(); x++) {
+                line.getAttr(x, attr);
+                update(crc, line.getChar(x)
+                    | (attr.getForeColor().getValue() << 16)
+                    | (attr.getBackColor().getValue() << 19)
+                    | (attr.isBold() ? 1 << 22 : 0)
+                    | (attr.isBlink() ? 1 << 23 : 0)
+                    | (attr.isReverse() ? 1 << 24 : 0)
+                    | (attr.isUnderline() ? 1 << 25 : 0)
+                    | (attr.isProtect() ? 1 << 26 : 0));
+            }
+        }
+        update(crc, emulator.getCursorX());
+        update(crc, emulator.getCursorY());
+        crc.update(replies, 0, replies.length);
+        return crc.getValue();
+    }
+
+    /**
+     * Add an int to a checksum.
+     *
+     * @param crc the checksum
+     * @param value the value
+     */
+    private static void update(final CRC32 crc, final int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    /**
+     * Read a whole file.
+     *
+     * @param file the file
+     * @return its contents
+     * @throws IOException if the file cannot be read
+     */
+    private static byte [] readFile(final File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream input = new FileInputStream(file);
+        try {
+            byte [] buffer = new byte[65536];
+            int rc;
+            while ((rc = input.read(buffer)) > 0) {
+                bytes.write(buffer, 0, rc);
+            }
+        } finally {
+            input.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode a generated stream as UTF-8.
+     *
+     * @param text the stream
+     * @return the bytes
+     */
+    private static byte [] toBytes(final StringBuilder text) {
+        try {
+            return text.toString().getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Generate the output of a long ls -lR: mostly plain text, scrolling
+     * one line at a time.
+     *
+     * @param size approximate size in bytes
+     * @return the stream
+     */
+    private static byte [] lsLR(final int size) {
+        Random random = new Random(1);
+        String [] months = {"Jan", "Feb", "Mar", "Apr", "May", "Jun"};
+        String [] suffixes = {".java", ".class", ".txt", ".md", "", ".xml"};
+        StringBuilder text = new StringBuilder(size + 1024);
+        int directory = 0;
+        while (text.length() < size) {
+            text.append("./src/jexer/module" + directory++ + ":\r\n");
+            int files = 5 + random.nextInt(40);
+            text.append("total " + (files * 8) + "\r\n");
+            for (int i = 0; i < files; i++) {
+                boolean isDirectory = (random.nextInt(6) == 0);
+                text.append(isDirectory ? "drwxr-xr-x" : "-rw-r--r--");
+                text.append(String.format(
+                        " %2d user staff %8d %s %2d %02d:%02d ",
+                        1 + random.nextInt(3), random.nextInt(200000),
+                        months[random.nextInt(months.length)],
+                        1 + random.nextInt(28), random.nextInt(24),
+                        random.nextInt(60)));
+                text.append("File" + random.nextInt(100000));
+                if (!isDirectory) {
+                    text.append(suffixes[random.nextInt(suffixes.length)]);
+                }
+                text.append("\r\n");
+            }
+            text.append("\r\n");
+        }
+        return toBytes(text);
+    }
+
+    /**
+     * Generate colored compiler diagnostics in the style of gcc, with
+     * UTF-8 quotes and caret lines.
+     *
+     * @param size approximate size in bytes
+     * @return the stream
+     */
+    private static byte [] compiler(final int size) {
+        Random random = new Random(2);
+        String [] kinds = {
+            "\033[01;31m\033[Kerror: ",
+            "\033[01;35m\033[Kwarning: ",
+            "\033[01;36m\033[Knote: "
+        };
+        StringBuilder text = new StringBuilder(size + 1024);
+        while (text.length() < size) {
+            int line = 1 + random.nextInt(2000);
+            int column = 1 + random.nextInt(40);
+            text.append("\033[01m\033[Ksrc/module" + random.nextInt(50)
+                + ".c:" + line + ":" + column + ":\033[m\033[K ");
+            text.append(kinds[random.nextInt(kinds.length)]);
+            text.append("\033[m\033[K\u2018\033[01m\033[Kvalue"
+                + random.nextInt(100) + "\033[m\033[K\u2019 undeclared"
+                + " (first use in this function)\r\n");
+            text.append(String.format("%5d | ", line));
+            for (int i = 0; i < column; i++) {
+                text.append(' ');
+            }
+            text.append("value" + random.nextInt(100) + " = compute(x, y);"
+                + "\r\n      | ");
+            for (int i = 0; i < column; i++) {
+                text.append(' ');
+            }
+            text.append("\033[01;31m\033[K^~~~~~\033[m\033[K\r\n");
+        }
+        return toBytes(text);
+    }
+
+    /**
+     * Generate a full-screen editor session: alternate screen, scrolling
+     * regions, reverse index, insert and delete line, syntax colors, and a
+     * status line.
+     *
+     * @param size approximate size in bytes
+     * @return the stream
+     */
+    private static byte [] vim(final int size) {
+        Random random = new Random(3);
+        String [] colors = {"\033[33m", "\033[32m", "\033[36m", "\033[35m",
+                            "\033[1;34m"};
+        StringBuilder text = new StringBuilder(size + 1024);
+        text.append("\033[?1049h\033[22;0;0t\033[1;24r\033[?12h\033[?12l"
+            + "\033[27m\033[23m\033[29m\033[m\033[H\033[2J");
+        int top = 1;
+        while (text.length() < size) {
+            switch (random.nextInt(6)) {
+            case 0:
+                // Redraw the whole window
+                text.append("\033[?25l\033[H\033[2J");
+                for (int row = 1; row <= 23; row++) {
+                    vimLine(text, random, colors, top + row - 1);
+                }
+                break;
+            case 1:
+                // Scroll down a line
+                top++;
+                text.append("\033[?25l\033[1;23r\033[23;1H\n\033[r\033[23;1H");
+                vimLine(text, random, colors, top + 22);
+                break;
+            case 2:
+                // Scroll up a line
+                top = Math.max(1, top - 1);
+                text.append("\033[?25l\033[1;23r\033[1;1H\033M\033[r\033[1;1H");
+                vimLine(text, random, colors, top);
+                break;
+            case 3:
+                // Open a line
+                text.append("\033[?25l\033[" + (1 + random.nextInt(22))
+                    + ";1H\033[L");
+                vimLine(text, random, colors, top);
+                break;
+            case 4:
+                // Delete a line
+                text.append("\033[?25l\033[" + (1 + random.nextInt(22))
+                    + ";1H\033[M\033[23;1H");
+                vimLine(text, random, colors, top + 22);
+                break;
+            default:
+                // Type a few characters
+                text.append("\033[" + (1 + random.nextInt(23)) + ";"
+                    + (6 + random.nextInt(60)) + "H\033[4h");
+                for (int i = random.nextInt(8); i >= 0; i--) {
+                    text.append((char) ('a' + random.nextInt(26)));
+                }
+                text.append("\033[4l");
+                break;
+            }
+            // Status line
+            text.append("\033[24;1H\033[7msrc/main.c [+]"
+                + "                                      "
+                + String.format("%5d,%-3d %3d%%", top, random.nextInt(80),
+                    random.nextInt(100))
+                + "\033[m\033[K\033[" + (1 + random.nextInt(23)) + ";"
+                + (5 + random.nextInt(70)) + "H\033[?12l\033[?25h");
+        }
+        text.append("\033[?1049l");
+        return toBytes(text);
+    }
+
+    /**
+     * Draw one line of the editor window at the cursor.
+     *
+     * @param text the stream
+     * @param random the random source
+     * @param colors syntax colors to choose from
+     * @param number the line number
+     */
+    private static void vimLine(final StringBuilder text, final Random random,
+        final String [] colors, final int number) {
+
+        text.append(String.format("\033[33m%4d \033[m", number));
+        int words = random.nextInt(10);
+        for (int i = 0; i < words; i++) {
+            if (random.nextInt(3) == 0) {
+                text.append(colors[random.nextInt(colors.length)]);
+                text.append("word" + random.nextInt(1000));
+                text.append("\033[m ");
+            } else {
+                text.append("text" + random.nextInt(1000) + " ");
+            }
+        }
+        text.append("\033[K\r\n");
+    }
+
+    /**
+     * Generate a top session: the whole screen rewritten in place every
+     * frame, row by row with erase to end of line.
+     *
+     * @param size approximate size in bytes
+     * @return the stream
+     */
+    private static byte [] top(final int size) {
+        Random random = new Random(4);
+        String [] commands = {"java", "bash", "sshd", "systemd", "top",
+                              "postgres", "nginx", "kworker/0:1"};
+        StringBuilder text = new StringBuilder(size + 1024);
+        text.append("\033[?1h\033=\033[?25l\033[H\033[2J");
+        while (text.length() < size) {
+            text.append("\033[H");
+            text.append(String.format("top - %02d:%02d:%02d up 12 days,  "
+                    + "3 users,  load average: %.2f, %.2f, %.2f\033[K\r\n",
+                    random.nextInt(24), random.nextInt(60),
+                    random.nextInt(60), random.nextDouble() * 4,
+                    random.nextDouble() * 4, random.nextDouble() * 4));
+            text.append("Tasks:\033[1m 213 \033[mtotal,\033[1m   "
+                + (1 + random.nextInt(4)) + " \033[mrunning\033[K\r\n");
+            text.append(String.format("%%Cpu(s):\033[1m %4.1f \033[mus,"
+                    + "\033[1m %4.1f \033[msy\033[K\r\n",
+                    random.nextDouble() * 50, random.nextDouble() * 20));
+            text.append("\033[K\r\n");
+            text.append("\033[7m    PID USER      PR  NI    VIRT    RES"
+                + "  %CPU  %MEM     TIME+ COMMAND            \033[m\r\n");
+            for (int row = 0; row < 18; row++) {
+                boolean running = (random.nextInt(6) == 0);
+                if (running) {
+                    text.append("\033[1m");
+                }
+                text.append(String.format("%7d user      20   0 %7d %6d"
+                        + " %5.1f %5.1f %3d:%02d.%02d %s",
+                        1 + random.nextInt(30000), random.nextInt(9000000),
+                        random.nextInt(900000), random.nextDouble() * 100,
+                        random.nextDouble() * 10, random.nextInt(100),
+                        random.nextInt(60), random.nextInt(100),
+                        commands[random.nextInt(commands.length)]));
+                if (running) {
+                    text.append("\033[m");
+                }
+                text.append("\033[K\r\n");
+            }
+            text.append("\033[J");
+        }
+        text.append("\033[?1l\033>\033[?25h");
+        return toBytes(text);
+    }
+
+    /**
+     * Generate fragments in the style of vttest: screen alignment,
+     * double-size lines, margins and origin mode, autowrap, tab stops,
+     * character insert and delete, line drawing, saved cursors, and
+     * device status and attribute queries.
+     *
+     * @param size approximate size in bytes
+     * @return the stream
+     */
+    private static byte [] vttest(final int size) {
+        Random random = new Random(5);
+        StringBuilder text = new StringBuilder(size + 1024);
+        while (text.length() < size) {
+            switch (random.nextInt(10)) {
+            case 0:
+                // Screen alignment, then a box inside it
+                text.append("\033#8\033[9;10H\033[1J\033[18;60H\033[0J"
+                    + "\033[1K\033[9;71H\033[0K");
+                for (int row = 10; row <= 16; row++) {
+                    text.append("\033[" + row + ";10H\033[1K\033[" + row
+                        + ";71H\033[0K");
+                }
+                break;
+            case 1:
+                // Double-size lines
+                text.append("\033[H\033[2J\033#6Double width line\r\n"
+                    + "\033#3Double height top\r\n"
+                    + "\033#4Double height bottom\r\n"
+                    + "\033#5Back to single width\r\n");
+                break;
+            case 2:
+                // Scrolling margins and origin mode
+                text.append("\033[?6h\033[5;15r\033[H");
+                for (int i = 0; i < 20; i++) {
+                    text.append("Origin mode line " + i + "\r\n");
+                }
+                text.append("\033[?6l\033[r\033[24;1H");
+                break;
+            case 3:
+                // Autowrap on and off
+                text.append("\033[?7l\033[10;70H");
+                for (int i = 0; i < 20; i++) {
+                    text.append((char) ('A' + i));
+                }
+                text.append("\033[?7h\033[11;70H");
+                for (int i = 0; i < 20; i++) {
+                    text.append((char) ('a' + i));
+                }
+                break;
+            case 4:
+                // Tab stops
+                text.append("\033[3g\033[1;1H");
+                for (int i = 0; i < 10; i++) {
+                    text.append("\033[" + (1 + i * 7) + "G\033H");
+                }
+                text.append("\033[2;1H");
+                for (int i = 0; i < 10; i++) {
+                    text.append("\t*");
+                }
+                text.append("\033[3;40H\033[2Z+\033[I+\033[g\r\n");
+                text.append("\033c");
+                break;
+            case 5:
+                // Insert and delete characters
+                text.append("\033[12;1H" + "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+                    + "\033[12;5H\033[3@" + "***" + "\033[12;20H\033[4P"
+                    + "\033[12;30H\033[5X\033[4h" + "inserted" + "\033[4l");
+                break;
+            case 6:
+                // Line drawing characters
+                text.append("\033[15;10H\033(0lqqqqqqqqqk\033[16;10Hx"
+                    + "\033[16;20Hx\033[17;10Hmqqqqqqqqqj\033(B"
+                    + "\033)0\016 lqk \017\033)B");
+                break;
+            case 7:
+                // Save and restore the cursor and attributes
+                text.append("\033[5;5H\033[1;4;7m\0337\033[20;20H\033[m"
+                    + "plain\0338saved attributes\033[m");
+                break;
+            case 8:
+                // Device attributes and status reports
+                text.append("\033[c\033[>c\033[5n\033[6n\033[?6n"
+                    + "\033[1x");
+                break;
+            default:
+                // Plain text with SGR changes
+                text.append("\033[" + (1 + random.nextInt(24)) + ";"
+                    + (1 + random.nextInt(70)) + "H\033[" + random.nextInt(8)
+                    + ";3" + random.nextInt(8) + ";4" + random.nextInt(8)
+                    + "m" + "vttest fragment " + random.nextInt(1000)
+                    + "\033[m");
+                break;
+            }
+        }
+        return toBytes(text);
+    }
+
+    /**
+     * Generate non-ASCII text: accented Latin, Greek, Cyrillic, CJK, box
+     * drawing, and characters outside the BMP, with some colors.
+     *
+     * @param size approximate size in bytes
+     * @return the stream
+     */
+    private static byte [] unicode(final int size) {
+        Random random = new Random(6);
+        String [] words = {
+            "caf\u00e9", "na\u00efve", "\u00fcber", "\u03b1\u03b2\u03b3",
+            "\u043f\u0440\u0438\u0432\u0435\u0442", "\u65e5\u672c\u8a9e",
+            "\u4e2d\u6587", "\u2500\u2500\u252c\u2500\u2500",
+            "\u2502 \u2502", "\ud83d\ude00", "plain", "ascii"
+        };
+        StringBuilder text = new StringBuilder(size + 1024);
+        while (text.length() < size) {
+            int count = 1 + random.nextInt(12);
+            for (int i = 0; i < count; i++) {
+                if (random.nextInt(8) == 0) {
+                    text.append("\033[3" + random.nextInt(8) + "m");
+                }
+                text.append(words[random.nextInt(words.length)]);
+                text.append(' ');
+            }
+            text.append("\033[m\r\n");
+        }
+        return toBytes(text);
+    }
+
+}
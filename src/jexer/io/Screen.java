@@ -422,6 +422,35 @@ public abstract class Screen {
         }
     }
 
+    /**
+     * Render part of a string, padded with blanks out to a fixed width.
+     * Characters before start are skipped, and anything past n columns is
+     * not drawn.  Unlike putStringXY(String.format("%-ns",
+     * str.substring(start))), this does not allocate any intermediate
+     * strings.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param str string to draw
+     * @param start index of the first character of str to draw
+     * @param n number of columns to fill
+     * @param attr attributes to use (bold, foreColor, backColor)
+     */
+    public final void putPaddedStringXY(final int x, final int y,
+        final CharSequence str, final int start, final int n,
+        final CellAttributes attr) {
+
+        int length = str.length();
+        for (int i = 0; i < n; i++) {
+            int j = start + i;
+            if ((j >= 0) && (j < length)) {
+                putCharXY(x + i, y, str.charAt(j), attr);
+            } else {
+                putCharXY(x + i, y, ' ', attr);
+            }
+        }
+    }
+
     /**
      * Draw a vertical line from (x, y) to (x, y + n).
      *
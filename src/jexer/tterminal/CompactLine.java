@@ -0,0 +1,304 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+import java.nio.ByteBuffer;
+
+import jexer.bits.CellAttributes;
+
+/**
+ * CompactLine is the form a DisplayLine takes once it has scrolled into
+ * the scrollback buffer.  Trailing blank cells are dropped, the glyphs are
+ * kept as bytes when they all fit (chars otherwise), and the attributes are
+ * kept as runs of packed ints.  A line of 20 default-colored characters
+ * takes around a hundred bytes.
+ *
+ * <p>
+ * The full DisplayLine is rebuilt only when it is asked for, and is kept
+ * until ScrollbackBuffer needs its storage for another line.  A
+ * CompactLine can also be encoded to bytes, which is how SpilledScrollback
+ * keeps lines on disk.
+ */
+final class CompactLine {
+
+    /**
+     * Line flag bits.
+     */
+    private static final byte DOUBLE_WIDTH      = 0x01;
+    private static final byte DOUBLE_TOP        = 0x02;
+    private static final byte DOUBLE_BOTTOM     = 0x04;
+    private static final byte REVERSE_COLOR     = 0x08;
+
+    /**
+     * The glyphs if they are all below 0x100, else null.
+     */
+    private byte [] narrow;
+
+    /**
+     * The glyphs if any is 0x100 or above, else null.
+     */
+    private char [] wide;
+
+    /**
+     * Attribute runs: pairs of (end column exclusive, packed attributes).
+     */
+    private int [] runs;
+
+    /**
+     * Packed attributes of the blank cells past the end of the glyphs.
+     */
+    private int fill;
+
+    /**
+     * Double width/height and reverse color flags.
+     */
+    private byte flags;
+
+    /**
+     * The rebuilt DisplayLine, or null if it has not been asked for or its
+     * storage was taken back.
+     */
+    private DisplayLine inflated;
+
+    /**
+     * Private constructor used by decode().
+     */
+    private CompactLine() {
+        // NOP
+    }
+
+    /**
+     * Package private constructor.
+     *
+     * @param line the line to compact.  It is not kept.
+     */
+    CompactLine(final DisplayLine line) {
+        if (line.isDoubleWidth()) {
+            flags |= DOUBLE_WIDTH;
+        }
+        if (line.getDoubleHeight() == 1) {
+            flags |= DOUBLE_TOP;
+        } else if (line.getDoubleHeight() == 2) {
+            flags |= DOUBLE_BOTTOM;
+        }
+        if (line.isReverseColor()) {
+            flags |= REVERSE_COLOR;
+        }
+
+        // Trim the trailing blanks that share the line's fill attributes.
+        fill = line.getFill();
+        int n = line.getCapacity();
+        while ((n > 0)
+            && (line.getGlyph(n - 1) == ' ')
+            && (line.getPackedAttr(n - 1) == fill)
+        ) {
+            n--;
+        }
+
+        boolean isWide = false;
+        int runCount = 0;
+        int lastAttr = -1;
+        for (int i = 0; i < n; i++) {
+            if (line.getGlyph(i) >= 0x100) {
+                isWide = true;
+            }
+            int attr = line.getPackedAttr(i);
+            if (attr != lastAttr) {
+                runCount++;
+                lastAttr = attr;
+            }
+        }
+
+        if (isWide) {
+            wide = new char[n];
+        } else {
+            narrow = new byte[n];
+        }
+        runs = new int[runCount * 2];
+        int run = -1;
+        lastAttr = -1;
+        for (int i = 0; i < n; i++) {
+            char ch = line.getGlyph(i);
+            if (isWide) {
+                wide[i] = ch;
+            } else {
+                narrow[i] = (byte) ch;
+            }
+            int attr = line.getPackedAttr(i);
+            if (attr != lastAttr) {
+                run++;
+                runs[run * 2 + 1] = attr;
+                lastAttr = attr;
+            }
+            runs[run * 2] = i + 1;
+        }
+    }
+
+    /**
+     * Get the number of bytes encode() will write.
+     *
+     * @return the encoded length
+     */
+    int getEncodedLength() {
+        int n;
+        if (narrow != null) {
+            n = narrow.length;
+        } else {
+            n = wide.length * 2;
+        }
+        return 1 + 4 + 1 + 2 + n + 2 + (runs.length * 4);
+    }
+
+    /**
+     * Write this line to a buffer.
+     *
+     * @param buffer the buffer, with at least getEncodedLength() bytes
+     * remaining
+     */
+    void encode(final ByteBuffer buffer) {
+        buffer.put(flags);
+        buffer.putInt(fill);
+        if (narrow != null) {
+            buffer.put((byte) 0);
+            buffer.putShort((short) narrow.length);
+            buffer.put(narrow);
+        } else {
+            buffer.put((byte) 1);
+            buffer.putShort((short) wide.length);
+            for (int i = 0; i < wide.length; i++) {
+                buffer.putChar(wide[i]);
+            }
+        }
+        buffer.putShort((short) runs.length);
+        for (int i = 0; i < runs.length; i++) {
+            buffer.putInt(runs[i]);
+        }
+    }
+
+    /**
+     * Read a line written by encode().
+     *
+     * @param buffer the buffer, positioned at the start of the line
+     * @return the line
+     */
+    static CompactLine decode(final ByteBuffer buffer) {
+        CompactLine line = new CompactLine();
+        line.flags = buffer.get();
+        line.fill = buffer.getInt();
+        boolean isWide = (buffer.get() != 0);
+        int n = buffer.getShort();
+        if (isWide) {
+            line.wide = new char[n];
+            for (int i = 0; i < n; i++) {
+                line.wide[i] = buffer.getChar();
+            }
+        } else {
+            line.narrow = new byte[n];
+            buffer.get(line.narrow);
+        }
+        line.runs = new int[buffer.getShort()];
+        for (int i = 0; i < line.runs.length; i++) {
+            line.runs[i] = buffer.getInt();
+        }
+        return line;
+    }
+
+    /**
+     * Make a blank line, used in place of a line that could not be read
+     * back from disk.
+     *
+     * @return a blank line in the default colors
+     */
+    static CompactLine blank() {
+        CompactLine line = new CompactLine();
+        line.fill = DisplayLine.packAttr(new CellAttributes());
+        line.narrow = new byte[0];
+        line.runs = new int[0];
+        return line;
+    }
+
+    /**
+     * Get the full line, if it has been rebuilt and not taken back.
+     *
+     * @return the line, or null
+     */
+    DisplayLine getInflated() {
+        return inflated;
+    }
+
+    /**
+     * Rebuild the full line.
+     *
+     * @param spare a line whose storage may be reused, or null to allocate
+     * one
+     * @return the rebuilt line
+     */
+    DisplayLine inflate(final DisplayLine spare) {
+        int n = (narrow != null ? narrow.length : wide.length);
+        DisplayLine line = spare;
+        if (line == null) {
+            line = new DisplayLine(new CellAttributes(), n);
+        }
+        line.reset(fill);
+        int run = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == runs[run * 2]) {
+                run++;
+            }
+            if (narrow != null) {
+                line.setCell(i, (char) (narrow[i] & 0xFF), runs[run * 2 + 1]);
+            } else {
+                line.setCell(i, wide[i], runs[run * 2 + 1]);
+            }
+        }
+        line.setDoubleWidth((flags & DOUBLE_WIDTH) != 0);
+        if ((flags & DOUBLE_TOP) != 0) {
+            line.setDoubleHeight(1);
+        } else if ((flags & DOUBLE_BOTTOM) != 0) {
+            line.setDoubleHeight(2);
+        }
+        line.setReverseColor((flags & REVERSE_COLOR) != 0);
+        inflated = line;
+        return line;
+    }
+
+    /**
+     * Drop the rebuilt line so that its storage can be used elsewhere.
+     *
+     * @return the rebuilt line, or null if there was none
+     */
+    DisplayLine release() {
+        DisplayLine line = inflated;
+        inflated = null;
+        return line;
+    }
+
+}
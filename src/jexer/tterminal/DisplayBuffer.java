@@ -0,0 +1,196 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+import java.util.AbstractList;
+
+/**
+ * DisplayBuffer holds the rows of the ECMA48 display in a circular array.
+ * Row access is O(1), a full-screen scroll only moves the origin, and a
+ * scroll inside a region moves just that region's row references.  Rows
+ * that scroll off one end of the region reappear at the other end, where
+ * the caller blanks them for reuse.
+ */
+final class DisplayBuffer extends AbstractList<DisplayLine> {
+
+    /**
+     * The rows.  Row 0 is at rows[origin].
+     */
+    private DisplayLine [] rows;
+
+    /**
+     * Index into rows of row 0.
+     */
+    private int origin = 0;
+
+    /**
+     * Scratch space for rotating a region.
+     */
+    private DisplayLine [] scratch;
+
+    /**
+     * Net number of rows the whole screen has scrolled up.
+     */
+    private long scrollCount = 0;
+
+    /**
+     * Package private constructor.
+     *
+     * @param lines the initial rows, top first
+     */
+    DisplayBuffer(final DisplayLine [] lines) {
+        rows = lines.clone();
+        scratch = new DisplayLine[rows.length];
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of rows
+     */
+    @Override
+    public int size() {
+        return rows.length;
+    }
+
+    /**
+     * Get the net number of rows the whole screen has scrolled up since it
+     * was created: full-screen rotateUp() adds, rotateDown() subtracts.
+     * Note package private access.
+     *
+     * @return the scroll count
+     */
+    long getScrollCount() {
+        return scrollCount;
+    }
+
+    /**
+     * Get a row.
+     *
+     * @param index row number, 0 is the top row
+     * @return the row
+     */
+    @Override
+    public DisplayLine get(final int index) {
+        if ((index < 0) || (index >= rows.length)) {
+            throw new IndexOutOfBoundsException("index " + index + " size "
+                + rows.length);
+        }
+        int i = origin + index;
+        if (i >= rows.length) {
+            i -= rows.length;
+        }
+        return rows[i];
+    }
+
+    /**
+     * Replace a row.
+     *
+     * @param index row number, 0 is the top row
+     * @param line the new row
+     * @return the old row
+     */
+    @Override
+    public DisplayLine set(final int index, final DisplayLine line) {
+        DisplayLine old = get(index);
+        int i = origin + index;
+        if (i >= rows.length) {
+            i -= rows.length;
+        }
+        rows[i] = line;
+        return old;
+    }
+
+    /**
+     * Rotate rows top through bottom up by n: row top + n becomes row top,
+     * and the n rows that were at the top of the region become the bottom
+     * n rows of the region.
+     *
+     * @param top top row of the region
+     * @param bottom bottom row of the region, inclusive
+     * @param n number of rows, less than the region height
+     */
+    void rotateUp(final int top, final int bottom, final int n) {
+        assert ((top >= 0) && (bottom < rows.length) && (top <= bottom));
+        assert ((n > 0) && (n <= bottom - top));
+
+        modCount++;
+        if ((top == 0) && (bottom == rows.length - 1)) {
+            // Full screen: just move the origin.
+            origin = (origin + n) % rows.length;
+            scrollCount += n;
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            scratch[i] = get(top + i);
+        }
+        for (int i = top; i + n <= bottom; i++) {
+            set(i, get(i + n));
+        }
+        for (int i = 0; i < n; i++) {
+            set(bottom - n + 1 + i, scratch[i]);
+            scratch[i] = null;
+        }
+    }
+
+    /**
+     * Rotate rows top through bottom down by n: row top becomes row top +
+     * n, and the n rows that were at the bottom of the region become the
+     * top n rows of the region.
+     *
+     * @param top top row of the region
+     * @param bottom bottom row of the region, inclusive
+     * @param n number of rows, less than the region height
+     */
+    void rotateDown(final int top, final int bottom, final int n) {
+        assert ((top >= 0) && (bottom < rows.length) && (top <= bottom));
+        assert ((n > 0) && (n <= bottom - top));
+
+        modCount++;
+        if ((top == 0) && (bottom == rows.length - 1)) {
+            // Full screen: just move the origin.
+            origin = (origin + rows.length - n) % rows.length;
+            scrollCount -= n;
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            scratch[i] = get(bottom - n + 1 + i);
+        }
+        for (int i = bottom; i - n >= top; i--) {
+            set(i, get(i - n));
+        }
+        for (int i = 0; i < n; i++) {
+            set(top + i, scratch[i]);
+            scratch[i] = null;
+        }
+    }
+
+}
@@ -30,11 +30,20 @@
  */
 package jexer.tterminal;
 
+import java.util.Arrays;
+
 import jexer.bits.Cell;
 import jexer.bits.CellAttributes;
+import jexer.bits.Color;
 
 /**
  * This represents a single line of the display buffer.
+ *
+ * <p>
+ * The glyphs and attributes are kept in primitive arrays, with the
+ * attributes packed into an int per column.  The arrays start out as wide
+ * as the emulator and grow on demand up to MAX_LINE_LENGTH; columns past
+ * the end of the arrays read as blanks in the line's fill attributes.
  */
 public final class DisplayLine {
     /**
@@ -43,18 +52,77 @@ public final class DisplayLine {
     private static final int MAX_LINE_LENGTH = 256;
 
     /**
-     * The characters/attributes of the line.
+     * Number of columns allocated when no width is given.
+     */
+    private static final int DEFAULT_LENGTH = 80;
+
+    /**
+     * Colors indexed by Color.getValue().
      */
-    private Cell [] chars;
+    private static final Color [] COLORS = {
+        Color.BLACK, Color.RED, Color.GREEN, Color.YELLOW,
+        Color.BLUE, Color.MAGENTA, Color.CYAN, Color.WHITE,
+    };
 
     /**
-     * Get the Cell at a specific column.
+     * Packed attribute bits.  Colors are in bits 0-2 (foreground) and 3-5
+     * (background).
+     */
+    private static final int BOLD       = 0x040;
+    private static final int BLINK      = 0x080;
+    private static final int REVERSE    = 0x100;
+    private static final int UNDERLINE  = 0x200;
+    private static final int PROTECT    = 0x400;
+
+    /**
+     * The packed attributes of a default Cell: white on black.
+     */
+    private static final int BLANK_ATTR = 0x07;
+
+    /**
+     * The characters of the line.
+     */
+    private char [] glyphs;
+
+    /**
+     * The packed attributes of the line.
+     */
+    private int [] attrs;
+
+    /**
+     * The packed attributes of the columns past the end of the arrays.
+     */
+    private int fill;
+
+    /**
+     * The Cell handed out by charAt().
+     */
+    private Cell view = new Cell();
+
+    /**
+     * The copy of this line in the last ScreenSnapshot, or null if the
+     * line has changed since.
+     */
+    private SnapshotLine snapshot;
+
+    /**
+     * Get the Cell at a specific column.  The Cell is a copy, and is
+     * overwritten by the next call to charAt() on this line.  Use replace()
+     * or setChar()/setAttr() to change the line.
      *
      * @param idx the character index
      * @return the Cell
      */
     public Cell charAt(final int idx) {
-        return chars[idx];
+        if (idx < glyphs.length) {
+            view.setChar(glyphs[idx]);
+            unpackAttr(attrs[idx], view);
+        } else {
+            checkIndex(idx);
+            view.setChar(' ');
+            unpackAttr(fill, view);
+        }
+        return view;
     }
 
     /**
@@ -63,7 +131,101 @@ public final class DisplayLine {
      * @return line length
      */
     public int length() {
-        return chars.length;
+        return MAX_LINE_LENGTH;
+    }
+
+    /**
+     * Get the number of columns actually allocated.  Note package private
+     * access.
+     *
+     * @return the allocated length
+     */
+    int getCapacity() {
+        return glyphs.length;
+    }
+
+    /**
+     * Get the character at a column.  Note package private access.
+     *
+     * @param idx the character index
+     * @return the character
+     */
+    char getGlyph(final int idx) {
+        if (idx < glyphs.length) {
+            return glyphs[idx];
+        }
+        return ' ';
+    }
+
+    /**
+     * Get the packed attributes at a column.  Note package private access.
+     *
+     * @param idx the character index
+     * @return the packed attributes
+     */
+    int getPackedAttr(final int idx) {
+        if (idx < attrs.length) {
+            return attrs[idx];
+        }
+        return fill;
+    }
+
+    /**
+     * Copy the characters and packed attributes of the first columns.
+     * Note package private access.
+     *
+     * @param dstGlyphs the characters, as many columns as this is long
+     * @param dstAttrs the packed attributes, the same length as dstGlyphs
+     */
+    void copyTo(final char [] dstGlyphs, final int [] dstAttrs) {
+        int n = Math.min(dstGlyphs.length, glyphs.length);
+        System.arraycopy(glyphs, 0, dstGlyphs, 0, n);
+        System.arraycopy(attrs, 0, dstAttrs, 0, n);
+        Arrays.fill(dstGlyphs, n, dstGlyphs.length, ' ');
+        Arrays.fill(dstAttrs, n, dstAttrs.length, fill);
+    }
+
+    /**
+     * Copy the characters of this line into a buffer, without the blanks
+     * at the end.  Note package private access.
+     *
+     * @param buffer the buffer, with room for getCapacity() characters
+     * from offset
+     * @param offset where to put the first character
+     * @return the number of characters copied
+     */
+    int getText(final char [] buffer, final int offset) {
+        int end = glyphs.length;
+        while ((end > 0) && (glyphs[end - 1] == ' ')) {
+            end--;
+        }
+        System.arraycopy(glyphs, 0, buffer, offset, end);
+        return end;
+    }
+
+    /**
+     * Get an immutable copy of the first columns.  The copy is kept and
+     * handed out again until the line changes.  Note package private
+     * access.
+     *
+     * @param width number of columns to copy
+     * @return the copy
+     */
+    SnapshotLine getSnapshot(final int width) {
+        if ((snapshot == null) || (snapshot.length() != width)) {
+            snapshot = new SnapshotLine(this, width);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Get the packed attributes of the columns past the allocated length.
+     * Note package private access.
+     *
+     * @return the packed attributes
+     */
+    int getFill() {
+        return fill;
     }
 
     /**
@@ -86,6 +248,7 @@ public final class DisplayLine {
      * @param doubleWidth new value for double width flag
      */
     public void setDoubleWidth(final boolean doubleWidth) {
+        snapshot = null;
         this.doubleWidth = doubleWidth;
     }
 
@@ -115,6 +278,7 @@ public final class DisplayLine {
      * @param doubleHeight new value for double height flag
      */
     public void setDoubleHeight(final int doubleHeight) {
+        snapshot = null;
         this.doubleHeight = doubleHeight;
     }
 
@@ -139,6 +303,7 @@ public final class DisplayLine {
      * @param reverseColor new value for reverse video flag
      */
     public void setReverseColor(final boolean reverseColor) {
+        snapshot = null;
         this.reverseColor = reverseColor;
     }
 
@@ -148,10 +313,82 @@ public final class DisplayLine {
      * @param attr current drawing attributes
      */
     public DisplayLine(final CellAttributes attr) {
-        chars = new Cell[MAX_LINE_LENGTH];
-        for (int i = 0; i < chars.length; i++) {
-            chars[i] = new Cell();
-            chars[i].setTo(attr);
+        this(attr, DEFAULT_LENGTH);
+    }
+
+    /**
+     * Public constructor sets everything to drawing attributes.
+     *
+     * @param attr current drawing attributes
+     * @param width number of columns to allocate up front, normally the
+     * emulator width
+     */
+    public DisplayLine(final CellAttributes attr, final int width) {
+        int n = Math.max(1, Math.min(width, MAX_LINE_LENGTH));
+        glyphs = new char[n];
+        attrs = new int[n];
+        reset(attr);
+    }
+
+    /**
+     * Blank the whole line to the drawing attributes and clear the double
+     * width/height and reverse flags, so that the line can be reused as a
+     * new one.
+     *
+     * @param attr current drawing attributes
+     */
+    public void reset(final CellAttributes attr) {
+        reset(packAttr(attr));
+    }
+
+    /**
+     * Blank the whole line to packed attributes and clear the double
+     * width/height and reverse flags.  Note package private access.
+     *
+     * @param packedAttr the packed attributes
+     */
+    void reset(final int packedAttr) {
+        snapshot = null;
+        fill = packedAttr;
+        Arrays.fill(glyphs, ' ');
+        Arrays.fill(attrs, packedAttr);
+        doubleWidth = false;
+        doubleHeight = 0;
+        reverseColor = false;
+    }
+
+    /**
+     * Make sure a column is allocated.
+     *
+     * @param idx the character index
+     */
+    private void ensureCapacity(final int idx) {
+        if (idx < glyphs.length) {
+            return;
+        }
+        checkIndex(idx);
+        int n = Math.min(MAX_LINE_LENGTH, Math.max(idx + 1,
+                glyphs.length * 2));
+        char [] newGlyphs = new char[n];
+        int [] newAttrs = new int[n];
+        System.arraycopy(glyphs, 0, newGlyphs, 0, glyphs.length);
+        System.arraycopy(attrs, 0, newAttrs, 0, attrs.length);
+        for (int i = glyphs.length; i < n; i++) {
+            newGlyphs[i] = ' ';
+            newAttrs[i] = fill;
+        }
+        glyphs = newGlyphs;
+        attrs = newAttrs;
+    }
+
+    /**
+     * Throw if a column is outside the line.
+     *
+     * @param idx the character index
+     */
+    private void checkIndex(final int idx) {
+        if ((idx < 0) || (idx >= MAX_LINE_LENGTH)) {
+            throw new ArrayIndexOutOfBoundsException(idx);
         }
     }
 
@@ -162,8 +399,26 @@ public final class DisplayLine {
      * @param newCell the new Cell
      */
     public void insert(final int idx, final Cell newCell) {
-        System.arraycopy(chars, idx, chars, idx + 1, chars.length - idx - 1);
-        chars[idx] = newCell;
+        insert(idx, newCell.getChar(), newCell);
+    }
+
+    /**
+     * Insert a character at the specified position.
+     *
+     * @param idx the character index
+     * @param ch the new character
+     * @param attr the new character's attributes
+     */
+    public void insert(final int idx, final char ch,
+        final CellAttributes attr) {
+
+        snapshot = null;
+        ensureCapacity(idx);
+        int n = glyphs.length - idx - 1;
+        System.arraycopy(glyphs, idx, glyphs, idx + 1, n);
+        System.arraycopy(attrs, idx, attrs, idx + 1, n);
+        glyphs[idx] = ch;
+        attrs[idx] = packAttr(attr);
     }
 
     /**
@@ -173,7 +428,61 @@ public final class DisplayLine {
      * @param newCell the new Cell
      */
     public void replace(final int idx, final Cell newCell) {
-        chars[idx].setTo(newCell);
+        replace(idx, newCell.getChar(), newCell);
+    }
+
+    /**
+     * Replace character at the specified position.
+     *
+     * @param idx the character index
+     * @param ch the new character
+     * @param attr the new character's attributes
+     */
+    public void replace(final int idx, final char ch,
+        final CellAttributes attr) {
+
+        snapshot = null;
+        ensureCapacity(idx);
+        glyphs[idx] = ch;
+        attrs[idx] = packAttr(attr);
+    }
+
+    /**
+     * Set the character and packed attributes at the specified position.
+     * Note package private access.
+     *
+     * @param idx the character index
+     * @param ch the new character
+     * @param packedAttr the new packed attributes
+     */
+    void setCell(final int idx, final char ch, final int packedAttr) {
+        snapshot = null;
+        ensureCapacity(idx);
+        glyphs[idx] = ch;
+        attrs[idx] = packedAttr;
+    }
+
+    /**
+     * Set a run of printable ASCII characters, each mapped through a lookup
+     * table, all with the same packed attributes.  Note package private
+     * access.
+     *
+     * @param idx the index of the first character
+     * @param bytes the characters, each 0x20-0x7E
+     * @param start the index in bytes of the first character
+     * @param n the number of characters
+     * @param table the character to store for each byte value
+     * @param packedAttr the packed attributes
+     */
+    void setRun(final int idx, final byte [] bytes, final int start,
+        final int n, final char [] table, final int packedAttr) {
+
+        snapshot = null;
+        ensureCapacity(idx + n - 1);
+        for (int i = 0; i < n; i++) {
+            glyphs[idx + i] = table[bytes[start + i]];
+        }
+        Arrays.fill(attrs, idx, idx + n, packedAttr);
     }
 
     /**
@@ -182,7 +491,10 @@ public final class DisplayLine {
      * @param idx the character index
      */
     public void setBlank(final int idx) {
-        chars[idx].reset();
+        snapshot = null;
+        ensureCapacity(idx);
+        glyphs[idx] = ' ';
+        attrs[idx] = BLANK_ATTR;
     }
 
     /**
@@ -193,7 +505,9 @@ public final class DisplayLine {
      * @param ch the new char
      */
     public void setChar(final int idx, final char ch) {
-        chars[idx].setChar(ch);
+        snapshot = null;
+        ensureCapacity(idx);
+        glyphs[idx] = ch;
     }
 
     /**
@@ -204,7 +518,9 @@ public final class DisplayLine {
      * @param attr the new attributes
      */
     public void setAttr(final int idx, final CellAttributes attr) {
-        chars[idx].setAttr(attr);
+        snapshot = null;
+        ensureCapacity(idx);
+        attrs[idx] = packAttr(attr);
     }
 
     /**
@@ -215,8 +531,63 @@ public final class DisplayLine {
      * @param newCell the new Cell
      */
     public void delete(final int idx, final Cell newCell) {
-        System.arraycopy(chars, idx + 1, chars, idx, chars.length - idx - 1);
-        chars[chars.length - 1] = newCell;
+        snapshot = null;
+        ensureCapacity(idx);
+        int n = glyphs.length - idx - 1;
+        System.arraycopy(glyphs, idx + 1, glyphs, idx, n);
+        System.arraycopy(attrs, idx + 1, attrs, idx, n);
+        if (glyphs.length == MAX_LINE_LENGTH) {
+            glyphs[glyphs.length - 1] = newCell.getChar();
+            attrs[attrs.length - 1] = packAttr(newCell);
+        } else {
+            // The columns past the arrays are blank, so a blank shifts in
+            // here, and newCell would land past the arrays too.
+            glyphs[glyphs.length - 1] = ' ';
+            attrs[attrs.length - 1] = fill;
+        }
+    }
+
+    /**
+     * Pack attributes into an int.  Note package private access.
+     *
+     * @param attr the attributes
+     * @return the packed attributes
+     */
+    static int packAttr(final CellAttributes attr) {
+        int packed = attr.getForeColor().getValue()
+            | (attr.getBackColor().getValue() << 3);
+        if (attr.isBold()) {
+            packed |= BOLD;
+        }
+        if (attr.isBlink()) {
+            packed |= BLINK;
+        }
+        if (attr.isReverse()) {
+            packed |= REVERSE;
+        }
+        if (attr.isUnderline()) {
+            packed |= UNDERLINE;
+        }
+        if (attr.isProtect()) {
+            packed |= PROTECT;
+        }
+        return packed;
+    }
+
+    /**
+     * Unpack attributes.  Note package private access.
+     *
+     * @param packed the packed attributes
+     * @param attr the attributes to set
+     */
+    static void unpackAttr(final int packed, final CellAttributes attr) {
+        attr.setForeColor(COLORS[packed & 0x07]);
+        attr.setBackColor(COLORS[(packed >> 3) & 0x07]);
+        attr.setBold((packed & BOLD) != 0);
+        attr.setBlink((packed & BLINK) != 0);
+        attr.setReverse((packed & REVERSE) != 0);
+        attr.setUnderline((packed & UNDERLINE) != 0);
+        attr.setProtect((packed & PROTECT) != 0);
     }
 
 }
@@ -31,17 +31,18 @@
 package jexer.tterminal;
 
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
 import java.io.UnsupportedEncodingException;
-import java.io.Writer;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.lang.reflect.Method;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 import jexer.TKeypress;
 import jexer.event.TMouseEvent;
@@ -201,127 +202,110 @@ public class ECMA48 implements Runnable {
     }
 
     /**
-     * Write a string directly to the remote side.
+     * Queue a string for the remote side.  It is sent by the next
+     * flushRemote(), or by the reader thread once it finishes the current
+     * read buffer.
      *
      * @param str string to send
      */
     private void writeRemote(final String str) {
         if (stopReaderThread) {
             // Reader hit EOF, bail out now.
-            close();
+            disconnect();
             return;
         }
 
         // System.err.printf("writeRemote() '%s'\n", str);
 
-        switch (type) {
-        case VT100:
-        case VT102:
-        case VT220:
-            if (outputStream == null) {
-                return;
-            }
-            try {
-                for (int i = 0; i < str.length(); i++) {
-                    outputStream.write(str.charAt(i));
-                }
-                outputStream.flush();
-            } catch (IOException e) {
-                // Assume EOF
-                close();
-            }
-            break;
-        case XTERM:
-            if (output == null) {
-                return;
-            }
-            try {
-                output.write(str);
-                output.flush();
-            } catch (IOException e) {
-                // Assume EOF
-                close();
-            }
-            break;
-        default:
-            throw new IllegalArgumentException("Invalid device type: " + type);
+        try {
+            output.write(str);
+        } catch (IOException e) {
+            // Assume EOF
+            disconnect();
+        }
+    }
+
+    /**
+     * Send everything queued for the remote side in one write.  Key presses
+     * and mouse reports are held until this is called, so that all of the
+     * input from one pass of the event loop reaches the remote side
+     * together.
+     */
+    public final void flushRemote() {
+        try {
+            output.flush();
+        } catch (IOException e) {
+            // Assume EOF
+            disconnect();
         }
     }
 
     /**
-     * Close the input and output streams and stop the reader thread.  Note
+     * Close the input and output streams and stop the reader thread, and
+     * drop any scrollback lines spilled to disk, deleting their temp files.
+     * The display and the scrollback lines in memory remain readable.  Note
      * that it is safe to call this multiple times.
      */
     public final void close() {
+        disconnect();
+
+        // Synchronize so we don't stomp on the reader thread.
+        synchronized (this) {
+            scrollback.setSpill(-1);
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Close the input and output streams and stop the reader thread, but
+     * keep the display and all of the scrollback, including lines spilled
+     * to disk.  This is for a session that has ended while its screen is
+     * still shown; close() must still be called when the emulator is no
+     * longer needed.  Note that it is safe to call this multiple times.
+     */
+    public final void disconnect() {
 
         // Synchronize so we don't stomp on the reader thread.
         synchronized (this) {
 
             // Close the input stream
-            switch (type) {
-            case VT100:
-            case VT102:
-            case VT220:
-                if (inputStream != null) {
-                    try {
-                        inputStream.close();
-                    } catch (IOException e) {
-                        // SQUASH
-                    }
-                    inputStream = null;
-                }
-                break;
-            case XTERM:
-                if (input != null) {
-                    try {
-                        input.close();
-                    } catch (IOException e) {
-                        // SQUASH
-                    }
-                    input = null;
-                    inputStream = null;
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    // SQUASH
                 }
-                break;
+                inputStream = null;
             }
 
             // Tell the reader thread to stop looking at input.
-            if (stopReaderThread == false) {
-                stopReaderThread = true;
-                try {
-                    readerThread.join();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+            stopReaderThread = true;
+        } // synchronized (this)
 
-            // Close the output stream.
-            switch (type) {
-            case VT100:
-            case VT102:
-            case VT220:
-                if (outputStream != null) {
-                    try {
-                        outputStream.close();
-                    } catch (IOException e) {
-                        // SQUASH
-                    }
-                    outputStream = null;
-                }
-                break;
-            case XTERM:
-                if (output != null) {
-                    try {
-                        output.close();
-                    } catch (IOException e) {
-                        // SQUASH
-                    }
-                    output = null;
-                }
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid device type: "
-                    + type);
+        // Wait for the reader thread to finish, without the lock so that it
+        // can get through readInput().  If run() has not started yet (the
+        // executor may not have gotten to it), it never will: there is
+        // nothing to wait for.  Nor can we wait on the reader thread itself,
+        // or while the caller holds the lock the reader needs.
+        if (readerStarted.compareAndSet(false, true)) {
+            readerDone.countDown();
+        } else if ((Thread.currentThread() != readerThread)
+            && !Thread.holdsLock(this)
+        ) {
+            try {
+                readerDone.await();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
+        }
+
+        // Synchronize so we don't stomp on the reader thread.
+        synchronized (this) {
+            // Send anything still queued, and close the output stream.
+            output.close();
+
+            // Show the final state of the screen.
+            publishSnapshot();
         } // synchronized (this)
     }
 
@@ -331,9 +315,95 @@ public class ECMA48 implements Runnable {
     private volatile boolean stopReaderThread = false;
 
     /**
-     * The reader thread.
+     * The thread running run(), once it has started.
+     */
+    private volatile Thread readerThread = null;
+
+    /**
+     * Set by whichever comes first: run() starting, or disconnect() finding
+     * that it has not.  In the latter case run() returns at once.
+     */
+    private final AtomicBoolean readerStarted = new AtomicBoolean(false);
+
+    /**
+     * Counted down when run() returns, or by disconnect() if run() never
+     * started.
+     */
+    private final CountDownLatch readerDone = new CountDownLatch(1);
+
+    /**
+     * The executor for readers of emulators constructed without one.  Null
+     * until first needed.
+     */
+    private static Executor defaultReaderExecutor = null;
+
+    /**
+     * The number of pooled reader threads created so far.
+     */
+    private static int readerThreadCount = 0;
+
+    /**
+     * Get the executor that runs the reader of each emulator constructed
+     * without one.  When virtual threads are available (Java 21 and up)
+     * each reader gets its own virtual thread.  Otherwise the readers share
+     * a pool of daemon threads: a reader still needs a platform thread
+     * while it runs, but threads are reused as emulators close and open.
+     * Either way the number of readers is not bounded.
+     *
+     * @return the executor
+     */
+    public static synchronized Executor getDefaultReaderExecutor() {
+        if (defaultReaderExecutor == null) {
+            defaultReaderExecutor = newVirtualThreadExecutor();
+        }
+        if (defaultReaderExecutor == null) {
+            defaultReaderExecutor = Executors.newCachedThreadPool(
+                new ThreadFactory() {
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread;
+                        synchronized (ECMA48.class) {
+                            readerThreadCount++;
+                            thread = new Thread(runnable, "ECMA48 reader "
+                                + readerThreadCount);
+                        }
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+        return defaultReaderExecutor;
+    }
+
+    /**
+     * Set the executor that runs the reader of each emulator constructed
+     * after this without one of its own.  The executor must not be bounded
+     * (a fixed size pool, or a queue that can fill): each reader holds its
+     * thread until its emulator is closed, so a reader that is left queued
+     * does not show any output until another emulator closes.
+     *
+     * @param executor the executor, or null to go back to the built-in one
+     */
+    public static synchronized void setDefaultReaderExecutor(
+        final Executor executor) {
+
+        defaultReaderExecutor = executor;
+    }
+
+    /**
+     * Create a virtual thread per task executor, if this JVM has one.
+     *
+     * @return the executor, or null if virtual threads are not available
      */
-    private Thread readerThread = null;
+    private static Executor newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod(
+                "newVirtualThreadPerTaskExecutor");
+            return (Executor) method.invoke(null);
+        } catch (Exception e) {
+            // Before Java 21, or a preview that is not enabled
+            return null;
+        }
+    }
 
     /**
      * See if the reader thread is still running.
@@ -357,13 +427,29 @@ public class ECMA48 implements Runnable {
      * @return new blank line
      */
     public final DisplayLine getBlankDisplayLine() {
-        return new DisplayLine(currentState.attr);
+        return new DisplayLine(currentState.attr, width);
     }
 
     /**
      * The scrollback buffer characters + attributes.
      */
-    private volatile List<DisplayLine> scrollback;
+    private volatile ScrollbackBuffer scrollback;
+
+    /**
+     * Reads back the text of scrollback lines on disk for a search, which
+     * runs without the lock.
+     */
+    private final ScrollbackIndex.TextSource scrollbackText =
+        new ScrollbackIndex.TextSource() {
+            public void getText(final long firstLine, final int [] starts,
+                final char [] text) {
+
+                // Synchronize so we don't stomp on the reader thread.
+                synchronized (ECMA48.this) {
+                    scrollback.getText(firstLine, starts, text);
+                }
+            }
+        };
 
     /**
      * Get the scrollback buffer.
@@ -374,10 +460,176 @@ public class ECMA48 implements Runnable {
         return scrollback;
     }
 
+    /**
+     * Get the number of lines in the scrollback buffer.
+     *
+     * @return the number of lines
+     */
+    public final int getScrollbackSize() {
+        // Synchronize so we don't stomp on the reader thread.
+        synchronized (this) {
+            return scrollback.size();
+        }
+    }
+
+    /**
+     * Get a line of the scrollback buffer or the display.  Indexes 0 to
+     * getScrollbackSize() - 1 are the scrollback, oldest first, and the
+     * display rows follow, top first.  Only the one line is looked at, so
+     * a viewport can fetch just its visible rows however large the
+     * scrollback is.
+     *
+     * @param index the line index
+     * @return an immutable copy of the line
+     * @throws IndexOutOfBoundsException if index is negative or past the
+     * bottom of the display
+     */
+    public final SnapshotLine lineAt(final int index) {
+        // Synchronize so we don't stomp on the reader thread.
+        synchronized (this) {
+            int scrollbackSize = scrollback.size();
+            if (index < scrollbackSize) {
+                return scrollback.get(index).getSnapshot(width);
+            }
+            return display.get(index - scrollbackSize).getSnapshot(width);
+        }
+    }
+
+    /**
+     * Get a line of the scrollback or display, numbered as in a snapshot.
+     * Indexes are as in lineAt(), but with the snapshot's scrollback size:
+     * lines scrolled off the display since the snapshot was taken, or old
+     * lines dropped since, do not shift them.  A viewport drawn from a
+     * snapshot uses this to get the rows that snapshot describes.
+     *
+     * @param snapshot a snapshot from getSnapshot()
+     * @param index the line index, 0 to snapshot.getScrollbackSize() +
+     * snapshot.getHeight() - 1
+     * @return an immutable copy of the line, or null if it has been dropped
+     * from the scrollback since the snapshot was taken
+     * @throws IndexOutOfBoundsException if index is negative or past the
+     * bottom of the snapshot's display
+     */
+    public final SnapshotLine lineAt(final ScreenSnapshot snapshot,
+        final int index) {
+
+        if (index >= snapshot.getScrollbackSize()) {
+            return snapshot.getLine(index - snapshot.getScrollbackSize());
+        }
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("index " + index);
+        }
+        // Synchronize so we don't stomp on the reader thread.
+        synchronized (this) {
+            long line = snapshot.getScrollbackFirst() + index
+                - scrollback.getFirstLine();
+            if ((line < 0) || (line >= scrollback.size())) {
+                return null;
+            }
+            return scrollback.get((int) line).getSnapshot(width);
+        }
+    }
+
+    /**
+     * Find the first match of a pattern in the scrollback and display that
+     * starts at or after a position.  Lines are searched as text without
+     * trailing blanks, each followed by '\n'; use Pattern.MULTILINE for '^'
+     * and '$' to match at line boundaries.  The emulator is only locked
+     * while the newest lines are copied and while lines spilled to disk are
+     * read back, not during the rest of the search.
+     *
+     * @param pattern the pattern to search for
+     * @param line the line index to start at, as in lineAt()
+     * @param column the column to start at
+     * @return the match, or null if there is none
+     */
+    public final SearchMatch findNext(final Pattern pattern, final int line,
+        final int column) {
+
+        ScrollbackIndex.View view;
+        // Synchronize so we don't stomp on the reader thread.
+        synchronized (this) {
+            view = scrollback.getIndex().getView(display,
+                scrollbackText);
+        }
+        return view.findNext(pattern, line, column);
+    }
+
+    /**
+     * Find the last match of a pattern in the scrollback and display that
+     * starts before a position.  See findNext().
+     *
+     * @param pattern the pattern to search for
+     * @param line the line index to search back from, as in lineAt()
+     * @param column the column to search back from
+     * @return the match, or null if there is none
+     */
+    public final SearchMatch findPrevious(final Pattern pattern,
+        final int line, final int column) {
+
+        ScrollbackIndex.View view;
+        // Synchronize so we don't stomp on the reader thread.
+        synchronized (this) {
+            view = scrollback.getIndex().getView(display,
+                scrollbackText);
+        }
+        return view.findPrevious(pattern, line, column);
+    }
+
+    /**
+     * Get the maximum number of lines kept in the scrollback buffer.
+     *
+     * @return the line limit
+     */
+    public final int getScrollbackLimit() {
+        return scrollback.getLimit();
+    }
+
+    /**
+     * Set the maximum number of lines kept in the scrollback buffer.  If the
+     * buffer has more lines than that now, the oldest ones are dropped.
+     *
+     * @param limit the line limit.  0 disables scrollback.
+     */
+    public final void setScrollbackLimit(final int limit) {
+        // Synchronize so we don't stomp on the reader thread.
+        synchronized (this) {
+            scrollback.setLimit(limit);
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Get the number of scrollback lines kept in memory when older lines
+     * are spilled to disk.
+     *
+     * @return the number of lines, or -1 if scrollback is not spilled
+     */
+    public final int getScrollbackSpill() {
+        return scrollback.getSpill();
+    }
+
+    /**
+     * Keep only the newest scrollback lines in memory, and write older ones
+     * to temp files until the scrollback limit is reached.  This makes a
+     * very high scrollback limit practical.  The temp files are deleted by
+     * close(), or by calling this with -1.
+     *
+     * @param memoryLines number of lines to keep in memory, or -1 to stop
+     * spilling and drop the lines on disk
+     */
+    public final void setScrollbackSpill(final int memoryLines) {
+        // Synchronize so we don't stomp on the reader thread.
+        synchronized (this) {
+            scrollback.setSpill(memoryLines);
+            publishSnapshot();
+        }
+    }
+
     /**
      * The raw display buffer characters + attributes.
      */
-    private volatile List<DisplayLine> display;
+    private volatile DisplayBuffer display;
 
     /**
      * Get the display buffer.
@@ -389,26 +641,81 @@ public class ECMA48 implements Runnable {
     }
 
     /**
-     * The terminal's input.  For type == XTERM, this is an InputStreamReader
-     * with UTF-8 encoding.
+     * How often the reader thread publishes a new snapshot while input
+     * keeps arriving, in milliseconds.
      */
-    private Reader input;
+    private static final long SNAPSHOT_INTERVAL = 20;
 
     /**
-     * The terminal's raw InputStream.  This is used for type != XTERM.
+     * The last published snapshot of the display.
      */
-    private volatile InputStream inputStream;
+    private volatile ScreenSnapshot snapshot;
+
+    /**
+     * When the last snapshot was published, from System.nanoTime().
+     */
+    private long snapshotTime;
+
+    /**
+     * Get the most recent snapshot of the display and cursor.  This does
+     * not lock the emulator, so it can be called while the reader thread is
+     * busy.  The snapshot is brought up to date whenever the reader thread
+     * runs out of input, and at least every few tens of milliseconds while
+     * input keeps arriving.
+     *
+     * @return the snapshot
+     */
+    public final ScreenSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Publish a new snapshot if anything visible changed since the last
+     * one.  Only the rows that changed are copied.  The caller must hold
+     * the lock on this.
+     */
+    private void publishSnapshot() {
+        snapshotTime = System.nanoTime();
+
+        SnapshotLine [] lines = new SnapshotLine[display.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = display.get(i).getSnapshot(width);
+        }
+        int cursorX = getCursorX();
+        int cursorY = currentState.cursorY;
+        int scrollbackSize = scrollback.size();
+        long scrollbackFirst = scrollback.getFirstLine();
+        long scrollCount = display.getScrollCount();
+
+        ScreenSnapshot last = snapshot;
+        if ((last != null) && last.sameAs(lines, width, cursorX, cursorY,
+                cursorVisible, screenTitle, scrollbackSize, scrollbackFirst,
+                scrollCount)
+        ) {
+            return;
+        }
+        long version = (last == null ? 0 : last.getVersion() + 1);
+        snapshot = new ScreenSnapshot(version, lines, width, cursorX,
+            cursorY, cursorVisible, screenTitle, scrollbackSize,
+            scrollbackFirst, scrollCount);
+    }
+
+    /**
+     * The size of the read buffer.  The reader thread allocates it once.
+     */
+    private static final int READ_BUFFER_SIZE = 8192;
 
     /**
-     * The terminal's output.  For type == XTERM, this wraps an
-     * OutputStreamWriter with UTF-8 encoding.
+     * The terminal's raw InputStream.  For type == XTERM, it is decoded as
+     * UTF-8 by consumeUTF8().
      */
-    private Writer output;
+    private volatile InputStream inputStream;
 
     /**
-     * The terminal's raw OutputStream.  This is used for type != XTERM.
+     * The terminal's output, buffered until flushRemote().  For type ==
+     * XTERM it is encoded as UTF-8.
      */
-    private OutputStream outputStream;
+    private RemoteOutput output;
 
     /**
      * Parser character scan states.
@@ -437,77 +744,408 @@ public class ECMA48 implements Runnable {
     private ScanState scanState;
 
     /**
-     * The selected number pad mode (DECKPAM, DECKPNM).  We record this, but
-     * can't really use it in keypress() because we do not see number pad
-     * events from TKeypress.
+     * The scan states by ordinal.
      */
-    private enum KeypadMode {
-        Application,
-        Numeric
-    }
+    private static final ScanState [] SCAN_STATES = ScanState.values();
 
     /**
-     * Arrow keys can emit three different sequences (DECCKM or VT52
-     * submode).
+     * Parser action: do nothing.
      */
-    private enum ArrowKeyMode {
-        VT52,
-        ANSI,
-        VT100
-    }
+    private static final int ACTION_IGNORE = 0;
 
     /**
-     * Available character sets for GL, GR, G0, G1, G2, G3.
+     * Parser action: clear the sequence and switch to GROUND.
      */
-    private enum CharacterSet {
-        US,
-        UK,
-        DRAWING,
-        ROM,
-        ROM_SPECIAL,
-        VT52_GRAPHICS,
-        DEC_SUPPLEMENTAL,
-        NRC_DUTCH,
-        NRC_FINNISH,
-        NRC_FRENCH,
-        NRC_FRENCH_CA,
-        NRC_GERMAN,
-        NRC_ITALIAN,
-        NRC_NORWEGIAN,
-        NRC_SPANISH,
-        NRC_SWEDISH,
-        NRC_SWISS
-    }
+    private static final int ACTION_CLEAR = 1;
 
     /**
-     * Single-shift states used by the C1 control characters SS2 (0x8E) and
-     * SS3 (0x8F).
+     * Parser action: execute a C0 or C1 control character.
      */
-    private enum Singleshift {
-        NONE,
-        SS2,
-        SS3
-    }
+    private static final int ACTION_EXECUTE = 2;
 
     /**
-     * VT220+ lockshift states.
+     * Parser action: print a character.
      */
-    private enum LockshiftMode {
-        NONE,
-        G1_GR,
-        G2_GR,
-        G2_GL,
-        G3_GR,
-        G3_GL
-    }
+    private static final int ACTION_PRINT = 3;
 
     /**
-     * XTERM mouse reporting protocols.
+     * Parser action: save an intermediate or private marker character.
      */
-    private enum MouseProtocol {
-        OFF,
-        X10,
-        NORMAL,
+    private static final int ACTION_COLLECT = 4;
+
+    /**
+     * Parser action: add a digit or separator to the CSI parameters.
+     */
+    private static final int ACTION_PARAM = 5;
+
+    /**
+     * Parser action: escDispatch().
+     */
+    private static final int ACTION_ESC_DISPATCH = 6;
+
+    /**
+     * Parser action: escIntermediateDispatch(), then switch to GROUND.
+     */
+    private static final int ACTION_ESC_INTERMEDIATE_DISPATCH = 7;
+
+    /**
+     * Parser action: csiDispatch(), then switch to GROUND.
+     */
+    private static final int ACTION_CSI_DISPATCH = 8;
+
+    /**
+     * Parser action: csiIntermediateDispatch(), then switch to GROUND.
+     */
+    private static final int ACTION_CSI_INTERMEDIATE_DISPATCH = 9;
+
+    /**
+     * Parser action: switch to GROUND if this '\' ends an ESC \ (ST) in a
+     * DCS string.
+     */
+    private static final int ACTION_DCS_TERMINATE = 10;
+
+    /**
+     * Parser action: oscPut().
+     */
+    private static final int ACTION_OSC_PUT = 11;
+
+    /**
+     * Parser action: oscPut(), then switch to GROUND.
+     */
+    private static final int ACTION_OSC_END = 12;
+
+    /**
+     * Parser action: collect the row and column of VT52 ESC Y.
+     */
+    private static final int ACTION_VT52_CURSOR_ADDRESS = 13;
+
+    /**
+     * The action is in the low bits of a TRANSITIONS entry.
+     */
+    private static final int ACTION_MASK = 0x0F;
+
+    /**
+     * The next state (ordinal + 1, or 0 to stay put) is in the high bits of
+     * a TRANSITIONS entry.
+     */
+    private static final int STATE_SHIFT = 4;
+
+    /**
+     * The parser state table, indexed by scan state ordinal and then by
+     * character.  Characters from A0 up all use the entry at A0.  See
+     * http://vt100.net/emu/dec_ansi_parser for the model.
+     */
+    private static final short [][] TRANSITIONS =
+        new short[SCAN_STATES.length][0xA1];
+
+    static {
+        // 00-17, 19, 1C-1F --> execute
+        // 80-8F, 91-9A, 9C --> execute
+        // 20-7F, A0-FF     --> print
+        addTransition(ScanState.GROUND, 0x00, 0x1F, ACTION_EXECUTE, null);
+        addTransition(ScanState.GROUND, 0x80, 0x9F, ACTION_EXECUTE, null);
+        addTransition(ScanState.GROUND, 0x20, 0x7F, ACTION_PRINT, null);
+        addTransition(ScanState.GROUND, 0xA0, 0xA0, ACTION_PRINT, null);
+
+        // 00-17, 19, 1C-1F --> execute
+        // 20-2F            --> collect, then switch to ESCAPE_INTERMEDIATE
+        // 30-7E            --> dispatch
+        addTransition(ScanState.ESCAPE, 0x00, 0x1F, ACTION_EXECUTE, null);
+        addTransition(ScanState.ESCAPE, 0x20, 0x2F, ACTION_COLLECT,
+            ScanState.ESCAPE_INTERMEDIATE);
+        addTransition(ScanState.ESCAPE, 0x30, 0xA0, ACTION_ESC_DISPATCH,
+            null);
+
+        // 00-17, 19, 1C-1F --> execute
+        // 20-2F            --> collect
+        // 30-7E            --> dispatch, then switch to GROUND
+        // 9C               --> switch to GROUND
+        addTransition(ScanState.ESCAPE_INTERMEDIATE, 0x00, 0x1F,
+            ACTION_EXECUTE, null);
+        addTransition(ScanState.ESCAPE_INTERMEDIATE, 0x20, 0x2F,
+            ACTION_COLLECT, null);
+        addTransition(ScanState.ESCAPE_INTERMEDIATE, 0x30, 0x7E,
+            ACTION_ESC_INTERMEDIATE_DISPATCH, null);
+        addTransition(ScanState.ESCAPE_INTERMEDIATE, 0x9C, 0x9C,
+            ACTION_CLEAR, null);
+
+        // 00-17, 19, 1C-1F --> execute
+        // 20-2F            --> collect, then switch to CSI_INTERMEDIATE
+        // 30-39, 3B        --> param, then switch to CSI_PARAM
+        // 3A               --> switch to CSI_IGNORE
+        // 3C-3F            --> collect, then switch to CSI_PARAM
+        // 40-7E            --> dispatch, then switch to GROUND
+        // 9C               --> switch to GROUND
+        addTransition(ScanState.CSI_ENTRY, 0x00, 0x1F, ACTION_EXECUTE, null);
+        addTransition(ScanState.CSI_ENTRY, 0x20, 0x2F, ACTION_COLLECT,
+            ScanState.CSI_INTERMEDIATE);
+        addTransition(ScanState.CSI_ENTRY, 0x30, 0x3B, ACTION_PARAM,
+            ScanState.CSI_PARAM);
+        addTransition(ScanState.CSI_ENTRY, 0x3A, 0x3A, ACTION_IGNORE,
+            ScanState.CSI_IGNORE);
+        addTransition(ScanState.CSI_ENTRY, 0x3C, 0x3F, ACTION_COLLECT,
+            ScanState.CSI_PARAM);
+        addTransition(ScanState.CSI_ENTRY, 0x40, 0x7E, ACTION_CSI_DISPATCH,
+            null);
+        addTransition(ScanState.CSI_ENTRY, 0x9C, 0x9C, ACTION_CLEAR, null);
+
+        // 00-17, 19, 1C-1F --> execute
+        // 20-2F            --> collect, then switch to CSI_INTERMEDIATE
+        // 30-39, 3B        --> param
+        // 3A, 3C-3F        --> switch to CSI_IGNORE
+        // 40-7E            --> dispatch, then switch to GROUND
+        addTransition(ScanState.CSI_PARAM, 0x00, 0x1F, ACTION_EXECUTE, null);
+        addTransition(ScanState.CSI_PARAM, 0x20, 0x2F, ACTION_COLLECT,
+            ScanState.CSI_INTERMEDIATE);
+        addTransition(ScanState.CSI_PARAM, 0x30, 0x3B, ACTION_PARAM, null);
+        addTransition(ScanState.CSI_PARAM, 0x3A, 0x3A, ACTION_IGNORE,
+            ScanState.CSI_IGNORE);
+        addTransition(ScanState.CSI_PARAM, 0x3C, 0x3F, ACTION_IGNORE,
+            ScanState.CSI_IGNORE);
+        addTransition(ScanState.CSI_PARAM, 0x40, 0x7E, ACTION_CSI_DISPATCH,
+            null);
+
+        // 00-17, 19, 1C-1F --> execute
+        // 20-2F            --> collect
+        // 30-3F            --> switch to CSI_IGNORE
+        // 40-7E            --> dispatch, then switch to GROUND
+        addTransition(ScanState.CSI_INTERMEDIATE, 0x00, 0x1F,
+            ACTION_EXECUTE, null);
+        addTransition(ScanState.CSI_INTERMEDIATE, 0x20, 0x2F,
+            ACTION_COLLECT, null);
+        addTransition(ScanState.CSI_INTERMEDIATE, 0x30, 0x3F,
+            ACTION_IGNORE, ScanState.CSI_IGNORE);
+        addTransition(ScanState.CSI_INTERMEDIATE, 0x40, 0x7E,
+            ACTION_CSI_INTERMEDIATE_DISPATCH, null);
+
+        // 00-17, 19, 1C-1F --> execute
+        // 20-2F            --> collect
+        // 40-7E            --> ignore, then switch to GROUND
+        addTransition(ScanState.CSI_IGNORE, 0x00, 0x1F, ACTION_EXECUTE,
+            null);
+        addTransition(ScanState.CSI_IGNORE, 0x20, 0x2F, ACTION_COLLECT,
+            null);
+        addTransition(ScanState.CSI_IGNORE, 0x40, 0x7E, ACTION_CLEAR, null);
+
+        // 1B               --> collect, for ESC \
+        // 20-2F            --> collect, then switch to DCS_INTERMEDIATE
+        // 30-39, 3B        --> param, then switch to DCS_PARAM
+        // 3C-3E            --> collect, then switch to DCS_PARAM
+        // 3F               --> collect, then switch to DCS_IGNORE
+        // 40-7E            --> switch to DCS_PASSTHROUGH
+        // 9C               --> switch to GROUND
+        addTransition(ScanState.DCS_ENTRY, 0x1B, 0x1B, ACTION_COLLECT, null);
+        addTransition(ScanState.DCS_ENTRY, 0x20, 0x2F, ACTION_COLLECT,
+            ScanState.DCS_INTERMEDIATE);
+        addTransition(ScanState.DCS_ENTRY, 0x30, 0x39, ACTION_PARAM,
+            ScanState.DCS_PARAM);
+        addTransition(ScanState.DCS_ENTRY, 0x3B, 0x3B, ACTION_PARAM,
+            ScanState.DCS_PARAM);
+        addTransition(ScanState.DCS_ENTRY, 0x3C, 0x3E, ACTION_COLLECT,
+            ScanState.DCS_PARAM);
+        addTransition(ScanState.DCS_ENTRY, 0x3F, 0x3F, ACTION_COLLECT,
+            ScanState.DCS_IGNORE);
+        addTransition(ScanState.DCS_ENTRY, 0x40, 0x7E, ACTION_IGNORE,
+            ScanState.DCS_PASSTHROUGH);
+        addTransition(ScanState.DCS_ENTRY, 0x9C, 0x9C, ACTION_CLEAR, null);
+
+        // 1B               --> collect, for ESC \
+        // 30-3F            --> switch to DCS_IGNORE
+        // 40-7E            --> switch to DCS_PASSTHROUGH
+        // 9C               --> switch to GROUND
+        addTransition(ScanState.DCS_INTERMEDIATE, 0x1B, 0x1B,
+            ACTION_COLLECT, null);
+        addTransition(ScanState.DCS_INTERMEDIATE, 0x30, 0x3F,
+            ACTION_IGNORE, ScanState.DCS_IGNORE);
+        addTransition(ScanState.DCS_INTERMEDIATE, 0x40, 0x7E,
+            ACTION_IGNORE, ScanState.DCS_PASSTHROUGH);
+        addTransition(ScanState.DCS_INTERMEDIATE, 0x9C, 0x9C,
+            ACTION_CLEAR, null);
+
+        // 1B               --> collect, for ESC \
+        // 20-2F            --> collect, then switch to DCS_INTERMEDIATE
+        // 30-39, 3B        --> param
+        // 3C-3F            --> switch to DCS_IGNORE
+        // 40-7E            --> switch to DCS_PASSTHROUGH
+        // 9C               --> switch to GROUND
+        addTransition(ScanState.DCS_PARAM, 0x1B, 0x1B, ACTION_COLLECT, null);
+        addTransition(ScanState.DCS_PARAM, 0x20, 0x2F, ACTION_COLLECT,
+            ScanState.DCS_INTERMEDIATE);
+        addTransition(ScanState.DCS_PARAM, 0x30, 0x39, ACTION_PARAM, null);
+        addTransition(ScanState.DCS_PARAM, 0x3B, 0x3B, ACTION_PARAM, null);
+        addTransition(ScanState.DCS_PARAM, 0x3C, 0x3F, ACTION_IGNORE,
+            ScanState.DCS_IGNORE);
+        addTransition(ScanState.DCS_PARAM, 0x40, 0x7E, ACTION_IGNORE,
+            ScanState.DCS_PASSTHROUGH);
+        addTransition(ScanState.DCS_PARAM, 0x9C, 0x9C, ACTION_CLEAR, null);
+
+        // 1B               --> collect, for ESC \
+        // 00-17, 19, 1C-1F, 20-7E   --> put
+        // 9C               --> switch to GROUND
+        addTransition(ScanState.DCS_PASSTHROUGH, 0x1B, 0x1B, ACTION_COLLECT,
+            null);
+        addTransition(ScanState.DCS_PASSTHROUGH, 0x9C, 0x9C, ACTION_CLEAR,
+            null);
+
+        // '\' after ESC ends the DCS string.  Note that from DCS_ENTRY,
+        // DCS_INTERMEDIATE, and DCS_PARAM the 5C still switches to
+        // DCS_PASSTHROUGH.
+        addTransition(ScanState.DCS_ENTRY, 0x5C, 0x5C, ACTION_DCS_TERMINATE,
+            ScanState.DCS_PASSTHROUGH);
+        addTransition(ScanState.DCS_INTERMEDIATE, 0x5C, 0x5C,
+            ACTION_DCS_TERMINATE, ScanState.DCS_PASSTHROUGH);
+        addTransition(ScanState.DCS_PARAM, 0x5C, 0x5C, ACTION_DCS_TERMINATE,
+            ScanState.DCS_PASSTHROUGH);
+        addTransition(ScanState.DCS_PASSTHROUGH, 0x5C, 0x5C,
+            ACTION_DCS_TERMINATE, null);
+
+        // 00-17, 19, 1C-1F, 20-7F --> ignore
+        // 9C               --> switch to GROUND
+        addTransition(ScanState.DCS_IGNORE, 0x9C, 0x9C, ACTION_CLEAR, null);
+        addTransition(ScanState.SOSPMAPC_STRING, 0x9C, 0x9C, ACTION_CLEAR,
+            null);
+
+        // Special case for Xterm: OSC can pass control characters
+        // 00-07            --> osc_put
+        // 20-7F            --> osc_put
+        // 9C               --> osc_put, then switch to GROUND
+        addTransition(ScanState.OSC_STRING, 0x00, 0x07, ACTION_OSC_PUT, null);
+        addTransition(ScanState.OSC_STRING, 0x20, 0x7F, ACTION_OSC_PUT, null);
+        addTransition(ScanState.OSC_STRING, 0x9C, 0x9C, ACTION_OSC_END, null);
+
+        // This is a special case for the VT52 sequence "ESC Y l c"
+        addTransition(ScanState.VT52_DIRECT_CURSOR_ADDRESS, 0x00, 0xA0,
+            ACTION_VT52_CURSOR_ADDRESS, null);
+
+        // Special "anywhere" states
+        for (ScanState state: SCAN_STATES) {
+            // 18, 1A           --> execute, then switch to SCAN_GROUND
+            addTransition(state, 0x18, 0x18, ACTION_CLEAR, null);
+            addTransition(state, 0x1A, 0x1A, ACTION_CLEAR, null);
+
+            // 1B               --> switch to ESCAPE, except in DCS
+            if ((state != ScanState.DCS_ENTRY)
+                && (state != ScanState.DCS_INTERMEDIATE)
+                && (state != ScanState.DCS_IGNORE)
+                && (state != ScanState.DCS_PARAM)
+                && (state != ScanState.DCS_PASSTHROUGH)
+            ) {
+                addTransition(state, 0x1B, 0x1B, ACTION_IGNORE,
+                    ScanState.ESCAPE);
+            }
+
+            // 9B               --> switch to CSI_ENTRY
+            // 9D               --> switch to OSC_STRING
+            // 90               --> switch to DCS_ENTRY
+            // 98, 9E, 9F       --> switch to SOSPMAPC_STRING
+            // 7F (DEL)         --> ignore
+            addTransition(state, 0x9B, 0x9B, ACTION_IGNORE,
+                ScanState.CSI_ENTRY);
+            addTransition(state, 0x9D, 0x9D, ACTION_IGNORE,
+                ScanState.OSC_STRING);
+            addTransition(state, 0x90, 0x90, ACTION_IGNORE,
+                ScanState.DCS_ENTRY);
+            addTransition(state, 0x98, 0x98, ACTION_IGNORE,
+                ScanState.SOSPMAPC_STRING);
+            addTransition(state, 0x9E, 0x9F, ACTION_IGNORE,
+                ScanState.SOSPMAPC_STRING);
+            addTransition(state, 0x7F, 0x7F, ACTION_IGNORE, null);
+        }
+    }
+
+    /**
+     * Set a range of entries in the parser state table.
+     *
+     * @param state the scan state
+     * @param first first character, inclusive
+     * @param last last character, inclusive.  A0 stands for A0-FFFF.
+     * @param action one of the ACTION_* values
+     * @param next the state to switch to afterwards, or null to stay put
+     */
+    private static void addTransition(final ScanState state, final int first,
+        final int last, final int action, final ScanState next) {
+
+        int transition = action;
+        if (next != null) {
+            transition |= (next.ordinal() + 1) << STATE_SHIFT;
+        }
+        for (int ch = first; ch <= last; ch++) {
+            TRANSITIONS[state.ordinal()][ch] = (short) transition;
+        }
+    }
+
+    /**
+     * The selected number pad mode (DECKPAM, DECKPNM).  We record this, but
+     * can't really use it in keypress() because we do not see number pad
+     * events from TKeypress.
+     */
+    private enum KeypadMode {
+        Application,
+        Numeric
+    }
+
+    /**
+     * Arrow keys can emit three different sequences (DECCKM or VT52
+     * submode).
+     */
+    private enum ArrowKeyMode {
+        VT52,
+        ANSI,
+        VT100
+    }
+
+    /**
+     * Available character sets for GL, GR, G0, G1, G2, G3.
+     */
+    private enum CharacterSet {
+        US,
+        UK,
+        DRAWING,
+        ROM,
+        ROM_SPECIAL,
+        VT52_GRAPHICS,
+        DEC_SUPPLEMENTAL,
+        NRC_DUTCH,
+        NRC_FINNISH,
+        NRC_FRENCH,
+        NRC_FRENCH_CA,
+        NRC_GERMAN,
+        NRC_ITALIAN,
+        NRC_NORWEGIAN,
+        NRC_SPANISH,
+        NRC_SWEDISH,
+        NRC_SWISS
+    }
+
+    /**
+     * Single-shift states used by the C1 control characters SS2 (0x8E) and
+     * SS3 (0x8F).
+     */
+    private enum Singleshift {
+        NONE,
+        SS2,
+        SS3
+    }
+
+    /**
+     * VT220+ lockshift states.
+     */
+    private enum LockshiftMode {
+        NONE,
+        G1_GR,
+        G2_GR,
+        G2_GL,
+        G3_GR,
+        G3_GL
+    }
+
+    /**
+     * XTERM mouse reporting protocols.
+     */
+    private enum MouseProtocol {
+        OFF,
+        X10,
+        NORMAL,
         BUTTONEVENT,
         ANYEVENT
     }
@@ -582,6 +1220,32 @@ public class ECMA48 implements Runnable {
      */
     private char repCh;
 
+    /**
+     * The GL lookup table used by the current printRun().
+     */
+    private char [] runTable;
+
+    /**
+     * The bits of the UTF-8 character being decoded so far.
+     */
+    private int utf8Char = 0;
+
+    /**
+     * The number of UTF-8 continuation bytes still to come, or 0 if not in
+     * the middle of a character.
+     */
+    private int utf8Remaining = 0;
+
+    /**
+     * The lowest value allowed for the next UTF-8 continuation byte.
+     */
+    private int utf8Lower = 0x80;
+
+    /**
+     * The highest value allowed for the next UTF-8 continuation byte.
+     */
+    private int utf8Upper = 0xBF;
+
     /**
      * VT100-style line wrapping: a character is placed in column 80 (or
      * 132), but the line does NOT wrap until another character is written to
@@ -637,14 +1301,25 @@ public class ECMA48 implements Runnable {
     }
 
     /**
-     * Parameter characters being collected.
+     * The most CSI parameters kept.  Any past this are ignored.
+     */
+    private static final int MAX_CSI_PARAMS = 32;
+
+    /**
+     * Parameters being collected.  Only the first csiParamsCount are valid.
+     */
+    private int [] csiParams = new int[MAX_CSI_PARAMS];
+
+    /**
+     * Number of parameters seen in the current sequence.  This may be more
+     * than MAX_CSI_PARAMS.
      */
-    private List<Integer> csiParams;
+    private int csiParamsCount = 0;
 
     /**
      * Non-csi collect buffer.
      */
-    private StringBuilder collectBuffer;
+    private StringBuilder collectBuffer = new StringBuilder(8);
 
     /**
      * When true, use the G1 character set.
@@ -652,9 +1327,9 @@ public class ECMA48 implements Runnable {
     private boolean shiftOut = false;
 
     /**
-     * Horizontal tab stop locations.
+     * Horizontal tab stop locations, one bit per column.
      */
-    private List<Integer> tabStops;
+    private BitSet tabStops = new BitSet();
 
     /**
      * S8C1T.  True means 8bit controls, false means 7bit controls.
@@ -837,8 +1512,13 @@ public class ECMA48 implements Runnable {
      * Clear the CSI parameters and flags.
      */
     private void toGround() {
-        csiParams.clear();
-        collectBuffer = new StringBuilder(8);
+        csiParamsCount = 0;
+        if (collectBuffer.capacity() > 256) {
+            // Don't hang on to the space used by a long OSC string.
+            collectBuffer = new StringBuilder(8);
+        } else {
+            collectBuffer.setLength(0);
+        }
         scanState = ScanState.GROUND;
     }
 
@@ -848,7 +1528,7 @@ public class ECMA48 implements Runnable {
     private void resetTabStops() {
         tabStops.clear();
         for (int i = 0; (i * 8) <= rightMargin; i++) {
-            tabStops.add(new Integer(i * 8));
+            tabStops.set(i * 8);
         }
     }
 
@@ -902,44 +1582,82 @@ public class ECMA48 implements Runnable {
      * @param type one of the DeviceType constants to select VT100, VT102,
      * VT220, or XTERM
      * @param inputStream an InputStream connected to the remote side.  For
-     * type == XTERM, inputStream is converted to a Reader with UTF-8
-     * encoding.
+     * type == XTERM, inputStream is decoded as UTF-8.
      * @param outputStream an OutputStream connected to the remote user.  For
-     * type == XTERM, outputStream is converted to a Writer with UTF-8
-     * encoding.
-     * @throws UnsupportedEncodingException if an exception is thrown when
-     * creating the InputStreamReader
+     * type == XTERM, outputStream is written as UTF-8.
+     * @throws UnsupportedEncodingException not thrown, UTF-8 is encoded
+     * directly
      */
     public ECMA48(final DeviceType type, final InputStream inputStream,
         final OutputStream outputStream) throws UnsupportedEncodingException {
 
-        assert (inputStream != null);
+        this(type, inputStream, outputStream, null);
+    }
+
+    /**
+     * Public constructor for a headless emulator.  There is no reader:
+     * input is passed to feed() on the caller's thread instead.
+     *
+     * @param type one of the DeviceType constants to select VT100, VT102,
+     * VT220, or XTERM
+     * @param outputStream an OutputStream connected to the remote user.  For
+     * type == XTERM, outputStream is written as UTF-8.
+     * @throws UnsupportedEncodingException not thrown, UTF-8 is encoded
+     * directly
+     */
+    public ECMA48(final DeviceType type,
+        final OutputStream outputStream) throws UnsupportedEncodingException {
+
+        this(type, null, outputStream, null);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param type one of the DeviceType constants to select VT100, VT102,
+     * VT220, or XTERM
+     * @param inputStream an InputStream connected to the remote side, or
+     * null for a headless emulator.  For type == XTERM, inputStream is
+     * decoded as UTF-8.
+     * @param outputStream an OutputStream connected to the remote user.  For
+     * type == XTERM, outputStream is written as UTF-8.
+     * @param readerExecutor the executor to run the reader on, which blocks
+     * on inputStream until close().  It must not be bounded; see
+     * setDefaultReaderExecutor().  If null, use getDefaultReaderExecutor().
+     * @throws UnsupportedEncodingException not thrown, UTF-8 is encoded
+     * directly
+     */
+    public ECMA48(final DeviceType type, final InputStream inputStream,
+        final OutputStream outputStream,
+        final Executor readerExecutor) throws UnsupportedEncodingException {
+
         assert (outputStream != null);
 
-        csiParams         = new ArrayList<Integer>();
-        tabStops          = new ArrayList<Integer>();
-        scrollback        = new LinkedList<DisplayLine>();
-        display           = new LinkedList<DisplayLine>();
+        scrollback        = new ScrollbackBuffer(
+            ScrollbackBuffer.DEFAULT_LIMIT);
 
         this.type         = type;
         this.inputStream  = inputStream;
-        if (type == DeviceType.XTERM) {
-            this.input    = new InputStreamReader(inputStream, "UTF-8");
-            this.output   = new OutputStreamWriter(outputStream, "UTF-8");
-            this.outputStream = null;
-        } else {
-            this.output       = null;
-            this.outputStream = outputStream;
-        }
+        this.output       = new RemoteOutput(outputStream,
+            type == DeviceType.XTERM);
 
         reset();
+        DisplayLine [] lines = new DisplayLine[height];
         for (int i = 0; i < height; i++) {
-            display.add(new DisplayLine(currentState.attr));
+            lines[i] = new DisplayLine(currentState.attr, width);
         }
+        display = new DisplayBuffer(lines);
+        publishSnapshot();
 
-        // Spin up the input reader
-        readerThread = new Thread(this);
-        readerThread.start();
+        // Spin up the input reader.  A headless emulator has none, and
+        // close() will find that run() never started.
+        if (inputStream != null) {
+            if (readerExecutor != null) {
+                readerExecutor.execute(this);
+            } else {
+                getDefaultReaderExecutor().execute(this);
+            }
+        }
     }
 
     /**
@@ -947,12 +1665,23 @@ public class ECMA48 implements Runnable {
      * top to the scrollback buffer.
      */
     private void newDisplayLine() {
-        // Scroll the top line off into the scrollback buffer
-        scrollback.add(display.get(0));
-        display.remove(0);
-        DisplayLine line = new DisplayLine(currentState.attr);
+        // Scroll the top line off into the scrollback buffer.  The buffer
+        // keeps a compact copy, so the line itself is rotated to the bottom
+        // and reused.
+        scrollback.append(display.get(0));
+        display.rotateUp(0, height - 1, 1);
+        blankLine(display.get(height - 1));
+    }
+
+    /**
+     * Blank a line that is being reused as a new line, in the current
+     * drawing attributes.
+     *
+     * @param line the line
+     */
+    private void blankLine(final DisplayLine line) {
+        line.reset(currentState.attr);
         line.setReverseColor(reverseVideo);
-        display.add(line);
     }
 
     /**
@@ -1078,16 +1807,13 @@ public class ECMA48 implements Runnable {
         }
 
         // "Print" the character
-        Cell newCell = new Cell(ch);
-        CellAttributes newCellAttributes = (CellAttributes) newCell;
-        newCellAttributes.setTo(currentState.attr);
         DisplayLine line = display.get(currentState.cursorY);
         // Insert mode special case
         if (insertMode == true) {
-            line.insert(currentState.cursorX, newCell);
+            line.insert(currentState.cursorX, ch, currentState.attr);
         } else {
             // Replace an existing character
-            line.replace(currentState.cursorX, newCell);
+            line.replace(currentState.cursorX, ch, currentState.attr);
         }
 
         // Increment horizontal
@@ -1101,7 +1827,7 @@ public class ECMA48 implements Runnable {
 
     /**
      * Translate the mouse event to a VT100, VT220, or XTERM sequence and
-     * send to the remote side.
+     * send to the remote side on the next flushRemote().
      *
      * @param mouse mouse event received from the local user
      */
@@ -1249,12 +1975,18 @@ public class ECMA48 implements Runnable {
 
     /**
      * Translate the keyboard press to a VT100, VT220, or XTERM sequence and
-     * send to the remote side.
+     * send to the remote side on the next flushRemote().
      *
      * @param keypress keypress received from the local user
      */
     public void keypress(final TKeypress keypress) {
         writeRemote(keypressToString(keypress));
+        if (!fullDuplex) {
+            // Local echo may have changed the screen.
+            synchronized (this) {
+                publishSnapshot();
+            }
+        }
     }
 
     /**
@@ -1723,62 +2455,72 @@ public class ECMA48 implements Runnable {
             lookupChar &= 0x7F;
         }
 
-        switch (lookupCharset) {
+        return getCharsetTable(lookupCharset)[lookupChar];
+    }
+
+    /**
+     * Get the lookup table for a character set.
+     *
+     * @param charset the character set
+     * @return a table of 128 characters
+     */
+    private char [] getCharsetTable(final CharacterSet charset) {
+        switch (charset) {
 
         case DRAWING:
-            return DECCharacterSets.SPECIAL_GRAPHICS[lookupChar];
+            return DECCharacterSets.SPECIAL_GRAPHICS;
 
         case UK:
-            return DECCharacterSets.UK[lookupChar];
+            return DECCharacterSets.UK;
 
         case US:
-            return DECCharacterSets.US_ASCII[lookupChar];
+            return DECCharacterSets.US_ASCII;
 
         case NRC_DUTCH:
-            return DECCharacterSets.NL[lookupChar];
+            return DECCharacterSets.NL;
 
         case NRC_FINNISH:
-            return DECCharacterSets.FI[lookupChar];
+            return DECCharacterSets.FI;
 
         case NRC_FRENCH:
-            return DECCharacterSets.FR[lookupChar];
+            return DECCharacterSets.FR;
 
         case NRC_FRENCH_CA:
-            return DECCharacterSets.FR_CA[lookupChar];
+            return DECCharacterSets.FR_CA;
 
         case NRC_GERMAN:
-            return DECCharacterSets.DE[lookupChar];
+            return DECCharacterSets.DE;
 
         case NRC_ITALIAN:
-            return DECCharacterSets.IT[lookupChar];
+            return DECCharacterSets.IT;
 
         case NRC_NORWEGIAN:
-            return DECCharacterSets.NO[lookupChar];
+            return DECCharacterSets.NO;
 
         case NRC_SPANISH:
-            return DECCharacterSets.ES[lookupChar];
+            return DECCharacterSets.ES;
 
         case NRC_SWEDISH:
-            return DECCharacterSets.SV[lookupChar];
+            return DECCharacterSets.SV;
 
         case NRC_SWISS:
-            return DECCharacterSets.SWISS[lookupChar];
+            return DECCharacterSets.SWISS;
 
         case DEC_SUPPLEMENTAL:
-            return DECCharacterSets.DEC_SUPPLEMENTAL[lookupChar];
+            return DECCharacterSets.DEC_SUPPLEMENTAL;
 
         case VT52_GRAPHICS:
-            return DECCharacterSets.VT52_SPECIAL_GRAPHICS[lookupChar];
+            return DECCharacterSets.VT52_SPECIAL_GRAPHICS;
 
         case ROM:
-            return DECCharacterSets.US_ASCII[lookupChar];
+            return DECCharacterSets.US_ASCII;
 
         case ROM_SPECIAL:
-            return DECCharacterSets.US_ASCII[lookupChar];
+            return DECCharacterSets.US_ASCII;
 
         default:
             throw new IllegalArgumentException("Invalid character set value: "
-                + lookupCharset);
+                + charset);
         }
     }
 
@@ -1908,6 +2650,169 @@ public class ECMA48 implements Runnable {
         return mapCharacterCharset(ch, charsetGl, charsetGr);
     }
 
+    /**
+     * Get the GL lookup table for printRun(), or null if printable
+     * characters cannot take the fast path right now.
+     *
+     * @return the table, or null
+     */
+    private char [] getGroundGlTable() {
+        if ((vt52Mode == true)
+            || (singleshift != Singleshift.NONE)
+            || (insertMode == true)
+            || (printerControllerMode == true)
+        ) {
+            return null;
+        }
+        if (shiftOut == true) {
+            return getCharsetTable(currentState.g1Charset);
+        }
+        if ((type == DeviceType.VT220) || (type == DeviceType.XTERM)) {
+            switch (currentState.glLockshift) {
+            case G2_GL:
+                return getCharsetTable(currentState.g2Charset);
+            case G3_GL:
+                return getCharsetTable(currentState.g3Charset);
+            case NONE:
+                break;
+            default:
+                return null;
+            }
+        }
+        return getCharsetTable(currentState.g0Charset);
+    }
+
+    /**
+     * Get the number of printable characters printRun() may place on the
+     * current line, and set up runTable.
+     *
+     * @param available number of characters left in the read buffer
+     * @return the number of characters, or 0 to use consume()
+     */
+    private int getRunLimit(final int available) {
+        if (scanState != ScanState.GROUND) {
+            return 0;
+        }
+        DisplayLine line = display.get(currentState.cursorY);
+        if (line.isDoubleWidth()) {
+            return 0;
+        }
+        // The character that lands on the right margin goes through
+        // printCharacter(), which handles wrapping.
+        int n = rightMargin - currentState.cursorX;
+        if (n <= 0) {
+            return 0;
+        }
+        runTable = getGroundGlTable();
+        if (runTable == null) {
+            return 0;
+        }
+        return Math.min(n, available);
+    }
+
+    /**
+     * Ground state fast path: print the run of printable ASCII bytes
+     * starting at buffer[start] in one operation, stopping before any other
+     * byte, the end of the buffer, or the right margin.  The bytes are
+     * mapped straight into the line, and the cursor advanced, as
+     * printCharacter() would one at a time.
+     *
+     * @param buffer the read buffer
+     * @param start index of the first byte
+     * @param end index past the last byte read
+     * @return number of characters printed.  0 means buffer[start] must go
+     * through consume().
+     */
+    private int printRun(final byte [] buffer, final int start,
+        final int end) {
+
+        int n = getRunLimit(end - start);
+        int i = 0;
+        while ((i < n)
+            && (buffer[start + i] >= 0x20)
+            && (buffer[start + i] <= 0x7E)
+        ) {
+            i++;
+        }
+        if (i == 0) {
+            return 0;
+        }
+        display.get(currentState.cursorY).setRun(currentState.cursorX,
+            buffer, start, i, runTable,
+            DisplayLine.packAttr(currentState.attr));
+        currentState.cursorX += i;
+        wrapLineFlag = false;
+        repCh = runTable[buffer[start + i - 1]];
+        return i;
+    }
+
+    /**
+     * Decode one byte of UTF-8 input, and run each complete character
+     * through consume().  Malformed input becomes U+FFFD, once for each
+     * maximal invalid subsequence, the same as InputStreamReader.
+     *
+     * @param b the byte, 0-255
+     */
+    private void consumeUTF8(final int b) {
+        if (utf8Remaining > 0) {
+            if ((b >= utf8Lower) && (b <= utf8Upper)) {
+                utf8Char = (utf8Char << 6) | (b & 0x3F);
+                utf8Lower = 0x80;
+                utf8Upper = 0xBF;
+                utf8Remaining--;
+                if (utf8Remaining == 0) {
+                    if (utf8Char >= 0x10000) {
+                        consume(Character.highSurrogate(utf8Char));
+                        consume(Character.lowSurrogate(utf8Char));
+                    } else if (Character.isSurrogate((char) utf8Char)) {
+                        // An encoded surrogate is one bad character.
+                        consume((char) 0xFFFD);
+                    } else {
+                        consume((char) utf8Char);
+                    }
+                }
+                return;
+            }
+
+            // The sequence was cut short.  b starts over.
+            utf8Remaining = 0;
+            consume((char) 0xFFFD);
+        }
+
+        if (b < 0x80) {
+            consume((char) b);
+            return;
+        }
+
+        // Table 3-7 of the Unicode standard: the second byte range depends
+        // on the first byte, to rule out overlong forms and code points
+        // past 10FFFF.  Surrogates are caught at the end instead, which is
+        // what InputStreamReader does.
+        utf8Lower = 0x80;
+        utf8Upper = 0xBF;
+        if ((b >= 0xC2) && (b <= 0xDF)) {
+            utf8Char = b & 0x1F;
+            utf8Remaining = 1;
+        } else if ((b >= 0xE0) && (b <= 0xEF)) {
+            utf8Char = b & 0x0F;
+            utf8Remaining = 2;
+            if (b == 0xE0) {
+                utf8Lower = 0xA0;
+            }
+        } else if ((b >= 0xF0) && (b <= 0xF4)) {
+            utf8Char = b & 0x07;
+            utf8Remaining = 3;
+            if (b == 0xF0) {
+                utf8Lower = 0x90;
+            } else if (b == 0xF4) {
+                utf8Upper = 0x8F;
+            }
+        } else {
+            // 80-C1 and F5-FF never start a character
+            consume((char) 0xFFFD);
+        }
+    }
+
     /**
      * Scroll the text within a scrolling region up n lines.
      *
@@ -1931,22 +2836,12 @@ public class ECMA48 implements Runnable {
             return;
         }
 
-        int remaining = regionBottom + 1 - regionTop - n;
-        List<DisplayLine> displayTop = display.subList(0, regionTop);
-        List<DisplayLine> displayBottom = display.subList(regionBottom + 1,
-            display.size());
-        List<DisplayLine> displayMiddle = display.subList(regionBottom + 1
-            - remaining, regionBottom + 1);
-        display = new LinkedList<DisplayLine>(displayTop);
-        display.addAll(displayMiddle);
-        for (int i = 0; i < n; i++) {
-            DisplayLine line = new DisplayLine(currentState.attr);
-            line.setReverseColor(reverseVideo);
-            display.add(line);
+        // Rotate the region, and blank the rows that came around to the
+        // bottom.
+        display.rotateUp(regionTop, regionBottom, n);
+        for (int i = regionBottom - n + 1; i <= regionBottom; i++) {
+            blankLine(display.get(i));
         }
-        display.addAll(displayBottom);
-
-        assert (display.size() == height);
     }
 
     /**
@@ -1972,22 +2867,12 @@ public class ECMA48 implements Runnable {
             return;
         }
 
-        int remaining = regionBottom + 1 - regionTop - n;
-        List<DisplayLine> displayTop = display.subList(0, regionTop);
-        List<DisplayLine> displayBottom = display.subList(regionBottom + 1,
-            display.size());
-        List<DisplayLine> displayMiddle = display.subList(regionTop,
-            regionTop + remaining);
-        display = new LinkedList<DisplayLine>(displayTop);
-        for (int i = 0; i < n; i++) {
-            DisplayLine line = new DisplayLine(currentState.attr);
-            line.setReverseColor(reverseVideo);
-            display.add(line);
+        // Rotate the region, and blank the rows that came around to the
+        // top.
+        display.rotateDown(regionTop, regionBottom, n);
+        for (int i = regionTop; i < regionTop + n; i++) {
+            blankLine(display.get(i));
         }
-        display.addAll(displayMiddle);
-        display.addAll(displayBottom);
-
-        assert (display.size() == height);
     }
 
     /**
@@ -2098,16 +2983,15 @@ public class ECMA48 implements Runnable {
      * Advance the cursor to the next tab stop.
      */
     private void advanceToNextTabStop() {
-        if (tabStops.size() == 0) {
+        if (tabStops.isEmpty()) {
             // Go to the rightmost column
             cursorRight(rightMargin - currentState.cursorX, false);
             return;
         }
-        for (Integer stop: tabStops) {
-            if (stop > currentState.cursorX) {
-                cursorRight(stop - currentState.cursorX, false);
-                return;
-            }
+        int stop = tabStops.nextSetBit(currentState.cursorX + 1);
+        if (stop >= 0) {
+            cursorRight(stop - currentState.cursorX, false);
+            return;
         }
         /*
          * We got here, meaning there isn't a tab stop beyond the current
@@ -2132,33 +3016,48 @@ public class ECMA48 implements Runnable {
      * @param ch byte to save
      */
     private void param(final byte ch) {
-        if (csiParams.size() == 0) {
-            csiParams.add(new Integer(0));
+        if (csiParamsCount == 0) {
+            csiParams[0] = 0;
+            csiParamsCount = 1;
         }
-        Integer x = csiParams.get(csiParams.size() - 1);
         if ((ch >= '0') && (ch <= '9')) {
-            x *= 10;
-            x += (ch - '0');
-            csiParams.set(csiParams.size() - 1, x);
+            if (csiParamsCount <= csiParams.length) {
+                int x = csiParams[csiParamsCount - 1];
+                x *= 10;
+                x += (ch - '0');
+                csiParams[csiParamsCount - 1] = x;
+            }
         }
 
         if (ch == ';') {
-            csiParams.add(new Integer(0));
+            if (csiParamsCount < csiParams.length) {
+                csiParams[csiParamsCount] = 0;
+            }
+            csiParamsCount++;
         }
     }
 
     /**
-     * Get a CSI parameter value, with a default.
+     * Get the number of CSI parameters kept.
      *
-     * @param position parameter index.  0 is the first parameter.
-     * @param defaultValue value to use if csiParams[position] doesn't exist
+     * @return the number of valid entries in csiParams
+     */
+    private int getCsiParamsCount() {
+        return Math.min(csiParamsCount, csiParams.length);
+    }
+
+    /**
+     * Get a CSI parameter value, with a default.
+     *
+     * @param position parameter index.  0 is the first parameter.
+     * @param defaultValue value to use if csiParams[position] doesn't exist
      * @return parameter value
      */
     private int getCsiParam(final int position, final int defaultValue) {
-        if (csiParams.size() < position + 1) {
+        if (getCsiParamsCount() < position + 1) {
             return defaultValue;
         }
-        return csiParams.get(position).intValue();
+        return csiParams[position];
     }
 
     /**
@@ -2198,7 +3097,8 @@ public class ECMA48 implements Runnable {
             }
         }
 
-        for (Integer i: csiParams) {
+        for (int n = 0; n < getCsiParamsCount(); n++) {
+            int i = csiParams[n];
 
             switch (i) {
 
@@ -2779,16 +3679,7 @@ public class ECMA48 implements Runnable {
      * HTS - Horizontal tabulation set.
      */
     private void hts() {
-        for (Integer stop: tabStops) {
-            if (stop == currentState.cursorX) {
-                // Already have a tab stop here
-                return;
-            }
-        }
-
-        // Append a tab stop to the end of the array and resort them
-        tabStops.add(currentState.cursorX);
-        Collections.sort(tabStops);
+        tabStops.set(currentState.cursorX);
     }
 
     /**
@@ -2829,7 +3720,7 @@ public class ECMA48 implements Runnable {
         Cell newCell = new Cell();
         newCell.setChar('E');
         for (DisplayLine line: display) {
-            for (int i = 0; i < line.length(); i++) {
+            for (int i = 0; i < width; i++) {
                 line.replace(i, newCell);
             }
         }
@@ -3108,16 +3999,12 @@ public class ECMA48 implements Runnable {
 
         for (int i = 0; i < tabsToMove; i++) {
             int j = currentState.cursorX;
-            for (tabI = 0; tabI < tabStops.size(); tabI++) {
-                if (tabStops.get(tabI) >= currentState.cursorX) {
-                    break;
-                }
-            }
-            tabI--;
-            if (tabI <= 0) {
+            // The first tab stop counts as column 0.
+            tabI = tabStops.previousSetBit(currentState.cursorX - 1);
+            if ((tabI < 0) || (tabI == tabStops.nextSetBit(0))) {
                 j = 0;
             } else {
-                j = tabStops.get(tabI);
+                j = tabI;
             }
             cursorPosition(currentState.cursorY, j);
         }
@@ -3138,12 +4025,13 @@ public class ECMA48 implements Runnable {
      */
     private void sgr() {
 
-        if (csiParams.size() == 0) {
+        if (csiParamsCount == 0) {
             currentState.attr.reset();
             return;
         }
 
-        for (Integer i: csiParams) {
+        for (int n = 0; n < getCsiParamsCount(); n++) {
+            int i = csiParams[n];
 
             switch (i) {
 
@@ -3580,14 +4468,7 @@ public class ECMA48 implements Runnable {
     private void tbc() {
         int i = getCsiParam(0, 0);
         if (i == 0) {
-            List<Integer> newStops = new ArrayList<Integer>();
-            for (Integer stop: tabStops) {
-                if (stop == currentState.cursorX) {
-                    continue;
-                }
-                newStops.add(stop);
-            }
-            tabStops = newStops;
+            tabStops.clear(currentState.cursorX);
         }
         if (i == 3) {
             tabStops.clear();
@@ -3787,1913 +4668,1364 @@ public class ECMA48 implements Runnable {
             ch = (char)(ch & 0x7F);
         }
 
-        // Special "anywhere" states
+        // Everything from A0 up behaves the same as A0.
+        int transition = TRANSITIONS[scanState.ordinal()][Math.min(ch, 0xA0)];
+
+        switch (transition & ACTION_MASK) {
 
-        // 18, 1A                     --> execute, then switch to SCAN_GROUND
-        if ((ch == 0x18) || (ch == 0x1A)) {
-            // CAN and SUB abort escape sequences
+        case ACTION_IGNORE:
+            break;
+
+        case ACTION_CLEAR:
             toGround();
-            return;
-        }
+            break;
 
-        // 80-8F, 91-97, 99, 9A, 9C   --> execute, then switch to SCAN_GROUND
+        case ACTION_EXECUTE:
+            handleControlChar(ch);
+            break;
 
-        // 0x1B == ESCAPE
-        if ((ch == 0x1B)
-            && (scanState != ScanState.DCS_ENTRY)
-            && (scanState != ScanState.DCS_INTERMEDIATE)
-            && (scanState != ScanState.DCS_IGNORE)
-            && (scanState != ScanState.DCS_PARAM)
-            && (scanState != ScanState.DCS_PASSTHROUGH)
-        ) {
+        case ACTION_PRINT:
+            // VT220 printer --> trash bin
+            if (((type == DeviceType.VT220)
+                    || (type == DeviceType.XTERM))
+                && (printerControllerMode == true)
+            ) {
+                break;
+            }
 
-            scanState = ScanState.ESCAPE;
-            return;
-        }
+            // Hang onto this character
+            repCh = mapCharacter(ch);
 
-        // 0x9B == CSI 8-bit sequence
-        if (ch == 0x9B) {
-            scanState = ScanState.CSI_ENTRY;
-            return;
-        }
+            // Print this character
+            printCharacter(repCh);
+            break;
 
-        // 0x9D goes to ScanState.OSC_STRING
-        if (ch == 0x9D) {
-            scanState = ScanState.OSC_STRING;
-            return;
-        }
+        case ACTION_COLLECT:
+            collect(ch);
+            break;
 
-        // 0x90 goes to DCS_ENTRY
-        if (ch == 0x90) {
-            scanState = ScanState.DCS_ENTRY;
-            return;
-        }
+        case ACTION_PARAM:
+            param((byte) ch);
+            break;
 
-        // 0x98, 0x9E, and 0x9F go to SOSPMAPC_STRING
-        if ((ch == 0x98) || (ch == 0x9E) || (ch == 0x9F)) {
-            scanState = ScanState.SOSPMAPC_STRING;
-            return;
-        }
+        case ACTION_ESC_DISPATCH:
+            escDispatch(ch);
+            break;
 
-        // 0x7F (DEL) is always discarded
-        if (ch == 0x7F) {
-            return;
-        }
+        case ACTION_ESC_INTERMEDIATE_DISPATCH:
+            escIntermediateDispatch(ch);
+            toGround();
+            break;
 
-        switch (scanState) {
+        case ACTION_CSI_DISPATCH:
+            csiDispatch(ch);
+            toGround();
+            break;
 
-        case GROUND:
-            // 00-17, 19, 1C-1F --> execute
-            // 80-8F, 91-9A, 9C --> execute
-            if ((ch <= 0x1F) || ((ch >= 0x80) && (ch <= 0x9F))) {
-                handleControlChar(ch);
-            }
+        case ACTION_CSI_INTERMEDIATE_DISPATCH:
+            csiIntermediateDispatch(ch);
+            toGround();
+            break;
 
-            // 20-7F            --> print
-            if (((ch >= 0x20) && (ch <= 0x7F))
-                || (ch >= 0xA0)
+        case ACTION_DCS_TERMINATE:
+            // 0x1B 0x5C goes to GROUND
+            if ((collectBuffer.length() > 0)
+                && (collectBuffer.charAt(collectBuffer.length() - 1) == 0x1B)
             ) {
+                toGround();
+            }
+            break;
 
-                // VT220 printer --> trash bin
-                if (((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM))
-                    && (printerControllerMode == true)
-                ) {
-                    return;
-                }
+        case ACTION_OSC_PUT:
+            oscPut(ch);
+            break;
 
-                // Hang onto this character
-                repCh = mapCharacter(ch);
+        case ACTION_OSC_END:
+            oscPut(ch);
+            toGround();
+            break;
 
-                // Print this character
-                printCharacter(repCh);
+        case ACTION_VT52_CURSOR_ADDRESS:
+            // This is a special case for the VT52 sequence "ESC Y l c"
+            if (collectBuffer.length() == 0) {
+                collect(ch);
+            } else if (collectBuffer.length() == 1) {
+                // We've got the two characters, one in the buffer and the
+                // other in ch.
+                cursorPosition(collectBuffer.charAt(0) - '\040', ch - '\040');
+                toGround();
             }
-            return;
+            break;
 
-        case ESCAPE:
-            // 00-17, 19, 1C-1F --> execute
-            if (ch <= 0x1F) {
-                handleControlChar(ch);
-                return;
-            }
+        default:
+            throw new IllegalStateException("unknown parser action");
+        }
 
-            // 20-2F            --> collect, then switch to ESCAPE_INTERMEDIATE
-            if ((ch >= 0x20) && (ch <= 0x2F)) {
-                collect(ch);
-                scanState = ScanState.ESCAPE_INTERMEDIATE;
-                return;
-            }
+        int next = transition >>> STATE_SHIFT;
+        if (next != 0) {
+            scanState = SCAN_STATES[next - 1];
+        }
+    }
 
-            // 30-4F, 51-57, 59, 5A, 5C, 60-7E --> dispatch, then switch to GROUND
-            if ((ch >= 0x30) && (ch <= 0x4F)) {
-                switch (ch) {
-                case '0':
-                case '1':
-                case '2':
-                case '3':
-                case '4':
-                case '5':
-                case '6':
-                    break;
-                case '7':
-                    // DECSC - Save cursor
-                    // Note this code overlaps both ANSI and VT52 mode
-                    decsc();
-                    break;
+    /**
+     * Dispatch a character 30-7E (or anything above) in the ESCAPE state:
+     * run the escape sequence, or move on to the CSI, OSC, DCS, or
+     * SOS/PM/APC string states.
+     *
+     * @param ch character from the remote side
+     */
+    private void escDispatch(final char ch) {
+        // 30-4F, 51-57, 59, 5A, 5C, 60-7E --> dispatch, then switch to GROUND
+        if ((ch >= 0x30) && (ch <= 0x4F)) {
+            switch (ch) {
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+                break;
+            case '7':
+                // DECSC - Save cursor
+                // Note this code overlaps both ANSI and VT52 mode
+                decsc();
+                break;
 
-                case '8':
-                    // DECRC - Restore cursor
-                    // Note this code overlaps both ANSI and VT52 mode
-                    decrc();
-                    break;
+            case '8':
+                // DECRC - Restore cursor
+                // Note this code overlaps both ANSI and VT52 mode
+                decrc();
+                break;
 
-                case '9':
-                case ':':
-                case ';':
-                    break;
-                case '<':
-                    if (vt52Mode == true) {
-                        // DECANM - Enter ANSI mode
-                        vt52Mode = false;
-                        arrowKeyMode = ArrowKeyMode.VT100;
+            case '9':
+            case ':':
+            case ';':
+                break;
+            case '<':
+                if (vt52Mode == true) {
+                    // DECANM - Enter ANSI mode
+                    vt52Mode = false;
+                    arrowKeyMode = ArrowKeyMode.VT100;
 
-                        /*
-                         * From the VT102 docs: "You use ANSI mode to select
-                         * most terminal features; the terminal uses the same
-                         * features when it switches to VT52 mode. You
-                         * cannot, however, change most of these features in
-                         * VT52 mode."
-                         *
-                         * In other words, do not reset any other attributes
-                         * when switching between VT52 submode and ANSI.
-                         */
+                    /*
+                     * From the VT102 docs: "You use ANSI mode to select
+                     * most terminal features; the terminal uses the same
+                     * features when it switches to VT52 mode. You
+                     * cannot, however, change most of these features in
+                     * VT52 mode."
+                     *
+                     * In other words, do not reset any other attributes
+                     * when switching between VT52 submode and ANSI.
+                     */
 
-                        // Reset fonts
-                        currentState.g0Charset = CharacterSet.US;
-                        currentState.g1Charset = CharacterSet.DRAWING;
-                        s8c1t = false;
-                        singleshift = Singleshift.NONE;
-                        currentState.glLockshift = LockshiftMode.NONE;
-                        currentState.grLockshift = LockshiftMode.NONE;
-                    }
-                    break;
-                case '=':
-                    // DECKPAM - Keypad application mode
-                    // Note this code overlaps both ANSI and VT52 mode
-                    deckpam();
-                    break;
-                case '>':
-                    // DECKPNM - Keypad numeric mode
-                    // Note this code overlaps both ANSI and VT52 mode
-                    deckpnm();
-                    break;
-                case '?':
-                case '@':
-                    break;
-                case 'A':
-                    if (vt52Mode == true) {
-                        // Cursor up, and stop at the top without scrolling
-                        cursorUp(1, false);
-                    }
-                    break;
-                case 'B':
-                    if (vt52Mode == true) {
-                        // Cursor down, and stop at the bottom without scrolling
-                        cursorDown(1, false);
-                    }
-                    break;
-                case 'C':
-                    if (vt52Mode == true) {
-                        // Cursor right, and stop at the right without scrolling
-                        cursorRight(1, false);
-                    }
-                    break;
-                case 'D':
-                    if (vt52Mode == true) {
-                        // Cursor left, and stop at the left without scrolling
-                        cursorLeft(1, false);
-                    } else {
-                        // IND - Index
-                        ind();
-                    }
-                    break;
-                case 'E':
-                    if (vt52Mode == true) {
-                        // Nothing
-                    } else {
-                        // NEL - Next line
-                        nel();
-                    }
-                    break;
-                case 'F':
-                    if (vt52Mode == true) {
-                        // G0 --> Special graphics
-                        currentState.g0Charset = CharacterSet.VT52_GRAPHICS;
-                    }
-                    break;
-                case 'G':
-                    if (vt52Mode == true) {
-                        // G0 --> ASCII set
-                        currentState.g0Charset = CharacterSet.US;
-                    }
-                    break;
-                case 'H':
-                    if (vt52Mode == true) {
-                        // Cursor to home
-                        cursorPosition(0, 0);
-                    } else {
-                        // HTS - Horizontal tabulation set
-                        hts();
-                    }
-                    break;
-                case 'I':
-                    if (vt52Mode == true) {
-                        // Reverse line feed.  Same as RI.
-                        ri();
-                    }
-                    break;
-                case 'J':
-                    if (vt52Mode == true) {
-                        // Erase to end of screen
-                        eraseLine(currentState.cursorX, width - 1, false);
-                        eraseScreen(currentState.cursorY + 1, 0, height - 1,
-                            width - 1, false);
-                    }
-                    break;
-                case 'K':
-                    if (vt52Mode == true) {
-                        // Erase to end of line
-                        eraseLine(currentState.cursorX, width - 1, false);
-                    }
-                    break;
-                case 'L':
-                    break;
-                case 'M':
-                    if (vt52Mode == true) {
-                        // Nothing
-                    } else {
-                        // RI - Reverse index
-                        ri();
-                    }
-                    break;
-                case 'N':
-                    if (vt52Mode == false) {
-                        // SS2
-                        singleshift = Singleshift.SS2;
-                    }
-                    break;
-                case 'O':
-                    if (vt52Mode == false) {
-                        // SS3
-                        singleshift = Singleshift.SS3;
-                    }
-                    break;
+                    // Reset fonts
+                    currentState.g0Charset = CharacterSet.US;
+                    currentState.g1Charset = CharacterSet.DRAWING;
+                    s8c1t = false;
+                    singleshift = Singleshift.NONE;
+                    currentState.glLockshift = LockshiftMode.NONE;
+                    currentState.grLockshift = LockshiftMode.NONE;
                 }
-                toGround();
-                return;
-            }
-            if ((ch >= 0x51) && (ch <= 0x57)) {
-                switch (ch) {
-                case 'Q':
-                case 'R':
-                case 'S':
-                case 'T':
-                case 'U':
-                case 'V':
-                case 'W':
-                    break;
+                break;
+            case '=':
+                // DECKPAM - Keypad application mode
+                // Note this code overlaps both ANSI and VT52 mode
+                deckpam();
+                break;
+            case '>':
+                // DECKPNM - Keypad numeric mode
+                // Note this code overlaps both ANSI and VT52 mode
+                deckpnm();
+                break;
+            case '?':
+            case '@':
+                break;
+            case 'A':
+                if (vt52Mode == true) {
+                    // Cursor up, and stop at the top without scrolling
+                    cursorUp(1, false);
                 }
-                toGround();
-                return;
-            }
-            if (ch == 0x59) {
-                // 'Y'
+                break;
+            case 'B':
+                if (vt52Mode == true) {
+                    // Cursor down, and stop at the bottom without scrolling
+                    cursorDown(1, false);
+                }
+                break;
+            case 'C':
                 if (vt52Mode == true) {
-                    scanState = ScanState.VT52_DIRECT_CURSOR_ADDRESS;
+                    // Cursor right, and stop at the right without scrolling
+                    cursorRight(1, false);
+                }
+                break;
+            case 'D':
+                if (vt52Mode == true) {
+                    // Cursor left, and stop at the left without scrolling
+                    cursorLeft(1, false);
                 } else {
-                    toGround();
+                    // IND - Index
+                    ind();
                 }
-                return;
-            }
-            if (ch == 0x5A) {
-                // 'Z'
+                break;
+            case 'E':
                 if (vt52Mode == true) {
-                    // Identify
-                    // Send string directly to remote side
-                    writeRemote("\033/Z");
+                    // Nothing
                 } else {
-                    // DECID
-                    // Send string directly to remote side
-                    writeRemote(deviceTypeResponse());
+                    // NEL - Next line
+                    nel();
                 }
-                toGround();
-                return;
+                break;
+            case 'F':
+                if (vt52Mode == true) {
+                    // G0 --> Special graphics
+                    currentState.g0Charset = CharacterSet.VT52_GRAPHICS;
+                }
+                break;
+            case 'G':
+                if (vt52Mode == true) {
+                    // G0 --> ASCII set
+                    currentState.g0Charset = CharacterSet.US;
+                }
+                break;
+            case 'H':
+                if (vt52Mode == true) {
+                    // Cursor to home
+                    cursorPosition(0, 0);
+                } else {
+                    // HTS - Horizontal tabulation set
+                    hts();
+                }
+                break;
+            case 'I':
+                if (vt52Mode == true) {
+                    // Reverse line feed.  Same as RI.
+                    ri();
+                }
+                break;
+            case 'J':
+                if (vt52Mode == true) {
+                    // Erase to end of screen
+                    eraseLine(currentState.cursorX, width - 1, false);
+                    eraseScreen(currentState.cursorY + 1, 0, height - 1,
+                        width - 1, false);
+                }
+                break;
+            case 'K':
+                if (vt52Mode == true) {
+                    // Erase to end of line
+                    eraseLine(currentState.cursorX, width - 1, false);
+                }
+                break;
+            case 'L':
+                break;
+            case 'M':
+                if (vt52Mode == true) {
+                    // Nothing
+                } else {
+                    // RI - Reverse index
+                    ri();
+                }
+                break;
+            case 'N':
+                if (vt52Mode == false) {
+                    // SS2
+                    singleshift = Singleshift.SS2;
+                }
+                break;
+            case 'O':
+                if (vt52Mode == false) {
+                    // SS3
+                    singleshift = Singleshift.SS3;
+                }
+                break;
             }
-            if (ch == 0x5C) {
-                // '\'
-                toGround();
-                return;
+            toGround();
+            return;
+        }
+        if ((ch >= 0x51) && (ch <= 0x57)) {
+            switch (ch) {
+            case 'Q':
+            case 'R':
+            case 'S':
+            case 'T':
+            case 'U':
+            case 'V':
+            case 'W':
+                break;
             }
-
-            // VT52 cannot get to any of these other states
+            toGround();
+            return;
+        }
+        if (ch == 0x59) {
+            // 'Y'
             if (vt52Mode == true) {
+                scanState = ScanState.VT52_DIRECT_CURSOR_ADDRESS;
+            } else {
                 toGround();
-                return;
             }
+            return;
+        }
+        if (ch == 0x5A) {
+            // 'Z'
+            if (vt52Mode == true) {
+                // Identify
+                // Send string directly to remote side
+                writeRemote("\033/Z");
+            } else {
+                // DECID
+                // Send string directly to remote side
+                writeRemote(deviceTypeResponse());
+            }
+            toGround();
+            return;
+        }
+        if (ch == 0x5C) {
+            // '\'
+            toGround();
+            return;
+        }
 
-            if ((ch >= 0x60) && (ch <= 0x7E)) {
-                switch (ch) {
-                case '`':
-                case 'a':
-                case 'b':
-                    break;
-                case 'c':
-                    // RIS - Reset to initial state
-                    reset();
-                    // Do I clear screen too? I think so...
-                    eraseScreen(0, 0, height - 1, width - 1, false);
-                    cursorPosition(0, 0);
-                    break;
-                case 'd':
-                case 'e':
-                case 'f':
-                case 'g':
-                case 'h':
-                case 'i':
-                case 'j':
-                case 'k':
-                case 'l':
-                case 'm':
-                    break;
-                case 'n':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
+        // VT52 cannot get to any of these other states
+        if (vt52Mode == true) {
+            toGround();
+            return;
+        }
 
-                        // VT220 lockshift G2 into GL
-                        currentState.glLockshift = LockshiftMode.G2_GL;
-                        shiftOut = false;
-                    }
-                    break;
-                case 'o':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
+        if ((ch >= 0x60) && (ch <= 0x7E)) {
+            switch (ch) {
+            case '`':
+            case 'a':
+            case 'b':
+                break;
+            case 'c':
+                // RIS - Reset to initial state
+                reset();
+                // Do I clear screen too? I think so...
+                eraseScreen(0, 0, height - 1, width - 1, false);
+                cursorPosition(0, 0);
+                break;
+            case 'd':
+            case 'e':
+            case 'f':
+            case 'g':
+            case 'h':
+            case 'i':
+            case 'j':
+            case 'k':
+            case 'l':
+            case 'm':
+                break;
+            case 'n':
+                if ((type == DeviceType.VT220)
+                    || (type == DeviceType.XTERM)) {
 
-                        // VT220 lockshift G3 into GL
-                        currentState.glLockshift = LockshiftMode.G3_GL;
-                        shiftOut = false;
-                    }
-                    break;
-                case 'p':
-                case 'q':
-                case 'r':
-                case 's':
-                case 't':
-                case 'u':
-                case 'v':
-                case 'w':
-                case 'x':
-                case 'y':
-                case 'z':
-                case '{':
-                    break;
-                case '|':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
+                    // VT220 lockshift G2 into GL
+                    currentState.glLockshift = LockshiftMode.G2_GL;
+                    shiftOut = false;
+                }
+                break;
+            case 'o':
+                if ((type == DeviceType.VT220)
+                    || (type == DeviceType.XTERM)) {
 
-                        // VT220 lockshift G3 into GR
-                        currentState.grLockshift = LockshiftMode.G3_GR;
-                        shiftOut = false;
-                    }
-                    break;
-                case '}':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        // VT220 lockshift G2 into GR
-                        currentState.grLockshift = LockshiftMode.G2_GR;
-                        shiftOut = false;
-                    }
-                    break;
+                    // VT220 lockshift G3 into GL
+                    currentState.glLockshift = LockshiftMode.G3_GL;
+                    shiftOut = false;
+                }
+                break;
+            case 'p':
+            case 'q':
+            case 'r':
+            case 's':
+            case 't':
+            case 'u':
+            case 'v':
+            case 'w':
+            case 'x':
+            case 'y':
+            case 'z':
+            case '{':
+                break;
+            case '|':
+                if ((type == DeviceType.VT220)
+                    || (type == DeviceType.XTERM)) {
 
-                case '~':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
+                    // VT220 lockshift G3 into GR
+                    currentState.grLockshift = LockshiftMode.G3_GR;
+                    shiftOut = false;
+                }
+                break;
+            case '}':
+                if ((type == DeviceType.VT220)
+                    || (type == DeviceType.XTERM)) {
 
-                        // VT220 lockshift G1 into GR
-                        currentState.grLockshift = LockshiftMode.G1_GR;
-                        shiftOut = false;
-                    }
-                    break;
+                    // VT220 lockshift G2 into GR
+                    currentState.grLockshift = LockshiftMode.G2_GR;
+                    shiftOut = false;
                 }
-                toGround();
-            }
+                break;
 
-            // 7F               --> ignore
+            case '~':
+                if ((type == DeviceType.VT220)
+                    || (type == DeviceType.XTERM)) {
 
-            // 0x5B goes to CSI_ENTRY
-            if (ch == 0x5B) {
-                scanState = ScanState.CSI_ENTRY;
+                    // VT220 lockshift G1 into GR
+                    currentState.grLockshift = LockshiftMode.G1_GR;
+                    shiftOut = false;
+                }
+                break;
             }
+            toGround();
+        }
 
-            // 0x5D goes to OSC_STRING
-            if (ch == 0x5D) {
-                scanState = ScanState.OSC_STRING;
-            }
+        // 7F               --> ignore
 
-            // 0x50 goes to DCS_ENTRY
-            if (ch == 0x50) {
-                scanState = ScanState.DCS_ENTRY;
-            }
+        // 0x5B goes to CSI_ENTRY
+        if (ch == 0x5B) {
+            scanState = ScanState.CSI_ENTRY;
+        }
 
-            // 0x58, 0x5E, and 0x5F go to SOSPMAPC_STRING
-            if ((ch == 0x58) || (ch == 0x5E) || (ch == 0x5F)) {
-                scanState = ScanState.SOSPMAPC_STRING;
-            }
+        // 0x5D goes to OSC_STRING
+        if (ch == 0x5D) {
+            scanState = ScanState.OSC_STRING;
+        }
 
-            return;
+        // 0x50 goes to DCS_ENTRY
+        if (ch == 0x50) {
+            scanState = ScanState.DCS_ENTRY;
+        }
 
-        case ESCAPE_INTERMEDIATE:
-            // 00-17, 19, 1C-1F    --> execute
-            if (ch <= 0x1F) {
-                handleControlChar(ch);
-            }
+        // 0x58, 0x5E, and 0x5F go to SOSPMAPC_STRING
+        if ((ch == 0x58) || (ch == 0x5E) || (ch == 0x5F)) {
+            scanState = ScanState.SOSPMAPC_STRING;
+        }
+    }
 
-            // 20-2F               --> collect
-            if ((ch >= 0x20) && (ch <= 0x2F)) {
-                collect(ch);
+    /**
+     * Dispatch the final character of an escape sequence with
+     * intermediate characters.  The caller switches to GROUND afterwards.
+     *
+     * @param ch final character, 30-7E
+     */
+    private void escIntermediateDispatch(final char ch) {
+        switch (ch) {
+        case '0':
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == '(')) {
+                // G0 --> Special graphics
+                currentState.g0Charset = CharacterSet.DRAWING;
             }
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == ')')) {
+                // G1 --> Special graphics
+                currentState.g1Charset = CharacterSet.DRAWING;
+            }
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 30-7E               --> dispatch, then switch to GROUND
-            if ((ch >= 0x30) && (ch <= 0x7E)) {
-                switch (ch) {
-                case '0':
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == '(')) {
-                        // G0 --> Special graphics
-                        currentState.g0Charset = CharacterSet.DRAWING;
-                    }
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == ')')) {
-                        // G1 --> Special graphics
-                        currentState.g1Charset = CharacterSet.DRAWING;
-                    }
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> Special graphics
-                            currentState.g2Charset = CharacterSet.DRAWING;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> Special graphics
-                            currentState.g3Charset = CharacterSet.DRAWING;
-                        }
-                    }
-                    break;
-                case '1':
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == '(')) {
-                        // G0 --> Alternate character ROM standard character set
-                        currentState.g0Charset = CharacterSet.ROM;
-                    }
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == ')')) {
-                        // G1 --> Alternate character ROM standard character set
-                        currentState.g1Charset = CharacterSet.ROM;
-                    }
-                    break;
-                case '2':
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == '(')) {
-                        // G0 --> Alternate character ROM special graphics
-                        currentState.g0Charset = CharacterSet.ROM_SPECIAL;
-                    }
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == ')')) {
-                        // G1 --> Alternate character ROM special graphics
-                        currentState.g1Charset = CharacterSet.ROM_SPECIAL;
-                    }
-                    break;
-                case '3':
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == '#')) {
-                        // DECDHL - Double-height line (top half)
-                        dechdl(true);
-                    }
-                    break;
-                case '4':
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == '#')) {
-                        // DECDHL - Double-height line (bottom half)
-                        dechdl(false);
-                    }
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> DUTCH
-                            currentState.g0Charset = CharacterSet.NRC_DUTCH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> DUTCH
-                            currentState.g1Charset = CharacterSet.NRC_DUTCH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> DUTCH
-                            currentState.g2Charset = CharacterSet.NRC_DUTCH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> DUTCH
-                            currentState.g3Charset = CharacterSet.NRC_DUTCH;
-                        }
-                    }
-                    break;
-                case '5':
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == '#')) {
-                        // DECSWL - Single-width line
-                        decswl();
-                    }
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> FINNISH
-                            currentState.g0Charset = CharacterSet.NRC_FINNISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> FINNISH
-                            currentState.g1Charset = CharacterSet.NRC_FINNISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> FINNISH
-                            currentState.g2Charset = CharacterSet.NRC_FINNISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> FINNISH
-                            currentState.g3Charset = CharacterSet.NRC_FINNISH;
-                        }
-                    }
-                    break;
-                case '6':
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == '#')) {
-                        // DECDWL - Double-width line
-                        decdwl();
-                    }
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> NORWEGIAN
-                            currentState.g0Charset = CharacterSet.NRC_NORWEGIAN;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> NORWEGIAN
-                            currentState.g1Charset = CharacterSet.NRC_NORWEGIAN;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> NORWEGIAN
-                            currentState.g2Charset = CharacterSet.NRC_NORWEGIAN;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> NORWEGIAN
-                            currentState.g3Charset = CharacterSet.NRC_NORWEGIAN;
-                        }
-                    }
-                    break;
-                case '7':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> SWEDISH
-                            currentState.g0Charset = CharacterSet.NRC_SWEDISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> SWEDISH
-                            currentState.g1Charset = CharacterSet.NRC_SWEDISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> SWEDISH
-                            currentState.g2Charset = CharacterSet.NRC_SWEDISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> SWEDISH
-                            currentState.g3Charset = CharacterSet.NRC_SWEDISH;
-                        }
-                    }
-                    break;
-                case '8':
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == '#')) {
-                        // DECALN - Screen alignment display
-                        decaln();
-                    }
-                    break;
-                case '9':
-                case ':':
-                case ';':
-                    break;
-                case '<':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> DEC_SUPPLEMENTAL
-                            currentState.g0Charset = CharacterSet.DEC_SUPPLEMENTAL;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> DEC_SUPPLEMENTAL
-                            currentState.g1Charset = CharacterSet.DEC_SUPPLEMENTAL;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> DEC_SUPPLEMENTAL
-                            currentState.g2Charset = CharacterSet.DEC_SUPPLEMENTAL;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> DEC_SUPPLEMENTAL
-                            currentState.g3Charset = CharacterSet.DEC_SUPPLEMENTAL;
-                        }
-                    }
-                    break;
-                case '=':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> SWISS
-                            currentState.g0Charset = CharacterSet.NRC_SWISS;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> SWISS
-                            currentState.g1Charset = CharacterSet.NRC_SWISS;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> SWISS
-                            currentState.g2Charset = CharacterSet.NRC_SWISS;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> SWISS
-                            currentState.g3Charset = CharacterSet.NRC_SWISS;
-                        }
-                    }
-                    break;
-                case '>':
-                case '?':
-                case '@':
-                    break;
-                case 'A':
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == '(')) {
-                        // G0 --> United Kingdom set
-                        currentState.g0Charset = CharacterSet.UK;
-                    }
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == ')')) {
-                        // G1 --> United Kingdom set
-                        currentState.g1Charset = CharacterSet.UK;
-                    }
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> United Kingdom set
-                            currentState.g2Charset = CharacterSet.UK;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> United Kingdom set
-                            currentState.g3Charset = CharacterSet.UK;
-                        }
-                    }
-                    break;
-                case 'B':
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == '(')) {
-                        // G0 --> ASCII set
-                        currentState.g0Charset = CharacterSet.US;
-                    }
-                    if ((collectBuffer.length() == 1)
-                        && (collectBuffer.charAt(0) == ')')) {
-                        // G1 --> ASCII set
-                        currentState.g1Charset = CharacterSet.US;
-                    }
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> ASCII
-                            currentState.g2Charset = CharacterSet.US;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> ASCII
-                            currentState.g3Charset = CharacterSet.US;
-                        }
-                    }
-                    break;
-                case 'C':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> FINNISH
-                            currentState.g0Charset = CharacterSet.NRC_FINNISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> FINNISH
-                            currentState.g1Charset = CharacterSet.NRC_FINNISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> FINNISH
-                            currentState.g2Charset = CharacterSet.NRC_FINNISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> FINNISH
-                            currentState.g3Charset = CharacterSet.NRC_FINNISH;
-                        }
-                    }
-                    break;
-                case 'D':
-                    break;
-                case 'E':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> NORWEGIAN
-                            currentState.g0Charset = CharacterSet.NRC_NORWEGIAN;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> NORWEGIAN
-                            currentState.g1Charset = CharacterSet.NRC_NORWEGIAN;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> NORWEGIAN
-                            currentState.g2Charset = CharacterSet.NRC_NORWEGIAN;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> NORWEGIAN
-                            currentState.g3Charset = CharacterSet.NRC_NORWEGIAN;
-                        }
-                    }
-                    break;
-                case 'F':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ' ')) {
-                            // S7C1T
-                            s8c1t = false;
-                        }
-                    }
-                    break;
-                case 'G':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ' ')) {
-                            // S8C1T
-                            s8c1t = true;
-                        }
-                    }
-                    break;
-                case 'H':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> SWEDISH
-                            currentState.g0Charset = CharacterSet.NRC_SWEDISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> SWEDISH
-                            currentState.g1Charset = CharacterSet.NRC_SWEDISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> SWEDISH
-                            currentState.g2Charset = CharacterSet.NRC_SWEDISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> SWEDISH
-                            currentState.g3Charset = CharacterSet.NRC_SWEDISH;
-                        }
-                    }
-                    break;
-                case 'I':
-                case 'J':
-                    break;
-                case 'K':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> GERMAN
-                            currentState.g0Charset = CharacterSet.NRC_GERMAN;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> GERMAN
-                            currentState.g1Charset = CharacterSet.NRC_GERMAN;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> GERMAN
-                            currentState.g2Charset = CharacterSet.NRC_GERMAN;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> GERMAN
-                            currentState.g3Charset = CharacterSet.NRC_GERMAN;
-                        }
-                    }
-                    break;
-                case 'L':
-                case 'M':
-                case 'N':
-                case 'O':
-                case 'P':
-                    break;
-                case 'Q':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> FRENCH_CA
-                            currentState.g0Charset = CharacterSet.NRC_FRENCH_CA;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> FRENCH_CA
-                            currentState.g1Charset = CharacterSet.NRC_FRENCH_CA;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> FRENCH_CA
-                            currentState.g2Charset = CharacterSet.NRC_FRENCH_CA;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> FRENCH_CA
-                            currentState.g3Charset = CharacterSet.NRC_FRENCH_CA;
-                        }
-                    }
-                    break;
-                case 'R':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> FRENCH
-                            currentState.g0Charset = CharacterSet.NRC_FRENCH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> FRENCH
-                            currentState.g1Charset = CharacterSet.NRC_FRENCH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> FRENCH
-                            currentState.g2Charset = CharacterSet.NRC_FRENCH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> FRENCH
-                            currentState.g3Charset = CharacterSet.NRC_FRENCH;
-                        }
-                    }
-                    break;
-                case 'S':
-                case 'T':
-                case 'U':
-                case 'V':
-                case 'W':
-                case 'X':
-                    break;
-                case 'Y':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> ITALIAN
-                            currentState.g0Charset = CharacterSet.NRC_ITALIAN;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> ITALIAN
-                            currentState.g1Charset = CharacterSet.NRC_ITALIAN;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> ITALIAN
-                            currentState.g2Charset = CharacterSet.NRC_ITALIAN;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> ITALIAN
-                            currentState.g3Charset = CharacterSet.NRC_ITALIAN;
-                        }
-                    }
-                    break;
-                case 'Z':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '(')) {
-                            // G0 --> SPANISH
-                            currentState.g0Charset = CharacterSet.NRC_SPANISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == ')')) {
-                            // G1 --> SPANISH
-                            currentState.g1Charset = CharacterSet.NRC_SPANISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '*')) {
-                            // G2 --> SPANISH
-                            currentState.g2Charset = CharacterSet.NRC_SPANISH;
-                        }
-                        if ((collectBuffer.length() == 1)
-                            && (collectBuffer.charAt(0) == '+')) {
-                            // G3 --> SPANISH
-                            currentState.g3Charset = CharacterSet.NRC_SPANISH;
-                        }
-                    }
-                    break;
-                case '[':
-                case '\\':
-                case ']':
-                case '^':
-                case '_':
-                case '`':
-                case 'a':
-                case 'b':
-                case 'c':
-                case 'd':
-                case 'e':
-                case 'f':
-                case 'g':
-                case 'h':
-                case 'i':
-                case 'j':
-                case 'k':
-                case 'l':
-                case 'm':
-                case 'n':
-                case 'o':
-                case 'p':
-                case 'q':
-                case 'r':
-                case 's':
-                case 't':
-                case 'u':
-                case 'v':
-                case 'w':
-                case 'x':
-                case 'y':
-                case 'z':
-                case '{':
-                case '|':
-                case '}':
-                case '~':
-                    break;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> Special graphics
+                    currentState.g2Charset = CharacterSet.DRAWING;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> Special graphics
+                    currentState.g3Charset = CharacterSet.DRAWING;
                 }
-                toGround();
             }
-
-            // 7F                  --> ignore
-
-            // 0x9C goes to GROUND
-            if (ch == 0x9C) {
-                toGround();
+            break;
+        case '1':
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == '(')) {
+                // G0 --> Alternate character ROM standard character set
+                currentState.g0Charset = CharacterSet.ROM;
             }
-
-            return;
-
-        case CSI_ENTRY:
-            // 00-17, 19, 1C-1F    --> execute
-            if (ch <= 0x1F) {
-                handleControlChar(ch);
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == ')')) {
+                // G1 --> Alternate character ROM standard character set
+                currentState.g1Charset = CharacterSet.ROM;
             }
-
-            // 20-2F               --> collect, then switch to CSI_INTERMEDIATE
-            if ((ch >= 0x20) && (ch <= 0x2F)) {
-                collect(ch);
-                scanState = ScanState.CSI_INTERMEDIATE;
+            break;
+        case '2':
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == '(')) {
+                // G0 --> Alternate character ROM special graphics
+                currentState.g0Charset = CharacterSet.ROM_SPECIAL;
             }
-
-            // 30-39, 3B           --> param, then switch to CSI_PARAM
-            if ((ch >= '0') && (ch <= '9')) {
-                param((byte) ch);
-                scanState = ScanState.CSI_PARAM;
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == ')')) {
+                // G1 --> Alternate character ROM special graphics
+                currentState.g1Charset = CharacterSet.ROM_SPECIAL;
             }
-            if (ch == ';') {
-                param((byte) ch);
-                scanState = ScanState.CSI_PARAM;
+            break;
+        case '3':
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == '#')) {
+                // DECDHL - Double-height line (top half)
+                dechdl(true);
             }
-
-            // 3C-3F               --> collect, then switch to CSI_PARAM
-            if ((ch >= 0x3C) && (ch <= 0x3F)) {
-                collect(ch);
-                scanState = ScanState.CSI_PARAM;
+            break;
+        case '4':
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == '#')) {
+                // DECDHL - Double-height line (bottom half)
+                dechdl(false);
             }
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 40-7E               --> dispatch, then switch to GROUND
-            if ((ch >= 0x40) && (ch <= 0x7E)) {
-                switch (ch) {
-                case '@':
-                    // ICH - Insert character
-                    ich();
-                    break;
-                case 'A':
-                    // CUU - Cursor up
-                    cuu();
-                    break;
-                case 'B':
-                    // CUD - Cursor down
-                    cud();
-                    break;
-                case 'C':
-                    // CUF - Cursor forward
-                    cuf();
-                    break;
-                case 'D':
-                    // CUB - Cursor backward
-                    cub();
-                    break;
-                case 'E':
-                    // CNL - Cursor down and to column 1
-                    if (type == DeviceType.XTERM) {
-                        cnl();
-                    }
-                    break;
-                case 'F':
-                    // CPL - Cursor up and to column 1
-                    if (type == DeviceType.XTERM) {
-                        cpl();
-                    }
-                    break;
-                case 'G':
-                    // CHA - Cursor to column # in current row
-                    if (type == DeviceType.XTERM) {
-                        cha();
-                    }
-                    break;
-                case 'H':
-                    // CUP - Cursor position
-                    cup();
-                    break;
-                case 'I':
-                    // CHT - Cursor forward X tab stops (default 1)
-                    if (type == DeviceType.XTERM) {
-                        cht();
-                    }
-                    break;
-                case 'J':
-                    // ED - Erase in display
-                    ed();
-                    break;
-                case 'K':
-                    // EL - Erase in line
-                    el();
-                    break;
-                case 'L':
-                    // IL - Insert line
-                    il();
-                    break;
-                case 'M':
-                    // DL - Delete line
-                    dl();
-                    break;
-                case 'N':
-                case 'O':
-                    break;
-                case 'P':
-                    // DCH - Delete character
-                    dch();
-                    break;
-                case 'Q':
-                case 'R':
-                    break;
-                case 'S':
-                    // Scroll up X lines (default 1)
-                    if (type == DeviceType.XTERM) {
-                        su();
-                    }
-                    break;
-                case 'T':
-                    // Scroll down X lines (default 1)
-                    if (type == DeviceType.XTERM) {
-                        sd();
-                    }
-                    break;
-                case 'U':
-                case 'V':
-                case 'W':
-                    break;
-                case 'X':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        // ECH - Erase character
-                        ech();
-                    }
-                    break;
-                case 'Y':
-                    break;
-                case 'Z':
-                    // CBT - Cursor backward X tab stops (default 1)
-                    if (type == DeviceType.XTERM) {
-                        cbt();
-                    }
-                    break;
-                case '[':
-                case '\\':
-                case ']':
-                case '^':
-                case '_':
-                    break;
-                case '`':
-                    // HPA - Cursor to column # in current row.  Same as CHA
-                    if (type == DeviceType.XTERM) {
-                        cha();
-                    }
-                    break;
-                case 'a':
-                    // HPR - Cursor right.  Same as CUF
-                    if (type == DeviceType.XTERM) {
-                        cuf();
-                    }
-                    break;
-                case 'b':
-                    // REP - Repeat last char X times
-                    if (type == DeviceType.XTERM) {
-                        rep();
-                    }
-                    break;
-                case 'c':
-                    // DA - Device attributes
-                    da();
-                    break;
-                case 'd':
-                    // VPA - Cursor to row, current column.
-                    if (type == DeviceType.XTERM) {
-                        vpa();
-                    }
-                    break;
-                case 'e':
-                    // VPR - Cursor down.  Same as CUD
-                    if (type == DeviceType.XTERM) {
-                        cud();
-                    }
-                    break;
-                case 'f':
-                    // HVP - Horizontal and vertical position
-                    hvp();
-                    break;
-                case 'g':
-                    // TBC - Tabulation clear
-                    tbc();
-                    break;
-                case 'h':
-                    // Sets an ANSI or DEC private toggle
-                    setToggle(true);
-                    break;
-                case 'i':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        // Printer functions
-                        printerFunctions();
-                    }
-                    break;
-                case 'j':
-                case 'k':
-                    break;
-                case 'l':
-                    // Sets an ANSI or DEC private toggle
-                    setToggle(false);
-                    break;
-                case 'm':
-                    // SGR - Select graphics rendition
-                    sgr();
-                    break;
-                case 'n':
-                    // DSR - Device status report
-                    dsr();
-                    break;
-                case 'o':
-                case 'p':
-                    break;
-                case 'q':
-                    // DECLL - Load leds
-                    // Not supported
-                    break;
-                case 'r':
-                    // DECSTBM - Set top and bottom margins
-                    decstbm();
-                    break;
-                case 's':
-                    // Save cursor (ANSI.SYS)
-                    if (type == DeviceType.XTERM) {
-                        savedState.cursorX = currentState.cursorX;
-                        savedState.cursorY = currentState.cursorY;
-                    }
-                    break;
-                case 't':
-                    break;
-                case 'u':
-                    // Restore cursor (ANSI.SYS)
-                    if (type == DeviceType.XTERM) {
-                        cursorPosition(savedState.cursorY, savedState.cursorX);
-                    }
-                    break;
-                case 'v':
-                case 'w':
-                    break;
-                case 'x':
-                    // DECREQTPARM - Request terminal parameters
-                    decreqtparm();
-                    break;
-                case 'y':
-                case 'z':
-                case '{':
-                case '|':
-                case '}':
-                case '~':
-                    break;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> DUTCH
+                    currentState.g0Charset = CharacterSet.NRC_DUTCH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> DUTCH
+                    currentState.g1Charset = CharacterSet.NRC_DUTCH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> DUTCH
+                    currentState.g2Charset = CharacterSet.NRC_DUTCH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> DUTCH
+                    currentState.g3Charset = CharacterSet.NRC_DUTCH;
                 }
-                toGround();
             }
-
-            // 7F                  --> ignore
-
-            // 0x9C goes to GROUND
-            if (ch == 0x9C) {
-                toGround();
+            break;
+        case '5':
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == '#')) {
+                // DECSWL - Single-width line
+                decswl();
             }
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 0x3A goes to CSI_IGNORE
-            if (ch == 0x3A) {
-                scanState = ScanState.CSI_IGNORE;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> FINNISH
+                    currentState.g0Charset = CharacterSet.NRC_FINNISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> FINNISH
+                    currentState.g1Charset = CharacterSet.NRC_FINNISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> FINNISH
+                    currentState.g2Charset = CharacterSet.NRC_FINNISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> FINNISH
+                    currentState.g3Charset = CharacterSet.NRC_FINNISH;
+                }
             }
-            return;
-
-        case CSI_PARAM:
-            // 00-17, 19, 1C-1F    --> execute
-            if (ch <= 0x1F) {
-                handleControlChar(ch);
+            break;
+        case '6':
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == '#')) {
+                // DECDWL - Double-width line
+                decdwl();
             }
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 20-2F               --> collect, then switch to CSI_INTERMEDIATE
-            if ((ch >= 0x20) && (ch <= 0x2F)) {
-                collect(ch);
-                scanState = ScanState.CSI_INTERMEDIATE;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> NORWEGIAN
+                    currentState.g0Charset = CharacterSet.NRC_NORWEGIAN;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> NORWEGIAN
+                    currentState.g1Charset = CharacterSet.NRC_NORWEGIAN;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> NORWEGIAN
+                    currentState.g2Charset = CharacterSet.NRC_NORWEGIAN;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> NORWEGIAN
+                    currentState.g3Charset = CharacterSet.NRC_NORWEGIAN;
+                }
             }
+            break;
+        case '7':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 30-39, 3B           --> param
-            if ((ch >= '0') && (ch <= '9')) {
-                param((byte) ch);
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> SWEDISH
+                    currentState.g0Charset = CharacterSet.NRC_SWEDISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> SWEDISH
+                    currentState.g1Charset = CharacterSet.NRC_SWEDISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> SWEDISH
+                    currentState.g2Charset = CharacterSet.NRC_SWEDISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> SWEDISH
+                    currentState.g3Charset = CharacterSet.NRC_SWEDISH;
+                }
             }
-            if (ch == ';') {
-                param((byte) ch);
+            break;
+        case '8':
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == '#')) {
+                // DECALN - Screen alignment display
+                decaln();
             }
+            break;
+        case '9':
+        case ':':
+        case ';':
+            break;
+        case '<':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 0x3A goes to CSI_IGNORE
-            if (ch == 0x3A) {
-                scanState = ScanState.CSI_IGNORE;
-            }
-            // 0x3C-3F goes to CSI_IGNORE
-            if ((ch >= 0x3C) && (ch <= 0x3F)) {
-                scanState = ScanState.CSI_IGNORE;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> DEC_SUPPLEMENTAL
+                    currentState.g0Charset = CharacterSet.DEC_SUPPLEMENTAL;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> DEC_SUPPLEMENTAL
+                    currentState.g1Charset = CharacterSet.DEC_SUPPLEMENTAL;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> DEC_SUPPLEMENTAL
+                    currentState.g2Charset = CharacterSet.DEC_SUPPLEMENTAL;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> DEC_SUPPLEMENTAL
+                    currentState.g3Charset = CharacterSet.DEC_SUPPLEMENTAL;
+                }
             }
+            break;
+        case '=':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 40-7E               --> dispatch, then switch to GROUND
-            if ((ch >= 0x40) && (ch <= 0x7E)) {
-                switch (ch) {
-                case '@':
-                    // ICH - Insert character
-                    ich();
-                    break;
-                case 'A':
-                    // CUU - Cursor up
-                    cuu();
-                    break;
-                case 'B':
-                    // CUD - Cursor down
-                    cud();
-                    break;
-                case 'C':
-                    // CUF - Cursor forward
-                    cuf();
-                    break;
-                case 'D':
-                    // CUB - Cursor backward
-                    cub();
-                    break;
-                case 'E':
-                    // CNL - Cursor down and to column 1
-                    if (type == DeviceType.XTERM) {
-                        cnl();
-                    }
-                    break;
-                case 'F':
-                    // CPL - Cursor up and to column 1
-                    if (type == DeviceType.XTERM) {
-                        cpl();
-                    }
-                    break;
-                case 'G':
-                    // CHA - Cursor to column # in current row
-                    if (type == DeviceType.XTERM) {
-                        cha();
-                    }
-                    break;
-                case 'H':
-                    // CUP - Cursor position
-                    cup();
-                    break;
-                case 'I':
-                    // CHT - Cursor forward X tab stops (default 1)
-                    if (type == DeviceType.XTERM) {
-                        cht();
-                    }
-                    break;
-                case 'J':
-                    // ED - Erase in display
-                    ed();
-                    break;
-                case 'K':
-                    // EL - Erase in line
-                    el();
-                    break;
-                case 'L':
-                    // IL - Insert line
-                    il();
-                    break;
-                case 'M':
-                    // DL - Delete line
-                    dl();
-                    break;
-                case 'N':
-                case 'O':
-                    break;
-                case 'P':
-                    // DCH - Delete character
-                    dch();
-                    break;
-                case 'Q':
-                case 'R':
-                    break;
-                case 'S':
-                    // Scroll up X lines (default 1)
-                    if (type == DeviceType.XTERM) {
-                        su();
-                    }
-                    break;
-                case 'T':
-                    // Scroll down X lines (default 1)
-                    if (type == DeviceType.XTERM) {
-                        sd();
-                    }
-                    break;
-                case 'U':
-                case 'V':
-                case 'W':
-                    break;
-                case 'X':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        // ECH - Erase character
-                        ech();
-                    }
-                    break;
-                case 'Y':
-                    break;
-                case 'Z':
-                    // CBT - Cursor backward X tab stops (default 1)
-                    if (type == DeviceType.XTERM) {
-                        cbt();
-                    }
-                    break;
-                case '[':
-                case '\\':
-                case ']':
-                case '^':
-                case '_':
-                    break;
-                case '`':
-                    // HPA - Cursor to column # in current row.  Same as CHA
-                    if (type == DeviceType.XTERM) {
-                        cha();
-                    }
-                    break;
-                case 'a':
-                    // HPR - Cursor right.  Same as CUF
-                    if (type == DeviceType.XTERM) {
-                        cuf();
-                    }
-                    break;
-                case 'b':
-                    // REP - Repeat last char X times
-                    if (type == DeviceType.XTERM) {
-                        rep();
-                    }
-                    break;
-                case 'c':
-                    // DA - Device attributes
-                    da();
-                    break;
-                case 'd':
-                    // VPA - Cursor to row, current column.
-                    if (type == DeviceType.XTERM) {
-                        vpa();
-                    }
-                    break;
-                case 'e':
-                    // VPR - Cursor down.  Same as CUD
-                    if (type == DeviceType.XTERM) {
-                        cud();
-                    }
-                    break;
-                case 'f':
-                    // HVP - Horizontal and vertical position
-                    hvp();
-                    break;
-                case 'g':
-                    // TBC - Tabulation clear
-                    tbc();
-                    break;
-                case 'h':
-                    // Sets an ANSI or DEC private toggle
-                    setToggle(true);
-                    break;
-                case 'i':
-                    if ((type == DeviceType.VT220)
-                        || (type == DeviceType.XTERM)) {
-
-                        // Printer functions
-                        printerFunctions();
-                    }
-                    break;
-                case 'j':
-                case 'k':
-                    break;
-                case 'l':
-                    // Sets an ANSI or DEC private toggle
-                    setToggle(false);
-                    break;
-                case 'm':
-                    // SGR - Select graphics rendition
-                    sgr();
-                    break;
-                case 'n':
-                    // DSR - Device status report
-                    dsr();
-                    break;
-                case 'o':
-                case 'p':
-                    break;
-                case 'q':
-                    // DECLL - Load leds
-                    // Not supported
-                    break;
-                case 'r':
-                    // DECSTBM - Set top and bottom margins
-                    decstbm();
-                    break;
-                case 's':
-                case 't':
-                case 'u':
-                case 'v':
-                case 'w':
-                    break;
-                case 'x':
-                    // DECREQTPARM - Request terminal parameters
-                    decreqtparm();
-                    break;
-                case 'y':
-                case 'z':
-                case '{':
-                case '|':
-                case '}':
-                case '~':
-                    break;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> SWISS
+                    currentState.g0Charset = CharacterSet.NRC_SWISS;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> SWISS
+                    currentState.g1Charset = CharacterSet.NRC_SWISS;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> SWISS
+                    currentState.g2Charset = CharacterSet.NRC_SWISS;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> SWISS
+                    currentState.g3Charset = CharacterSet.NRC_SWISS;
                 }
-                toGround();
             }
-
-            // 7F                  --> ignore
-            return;
-
-        case CSI_INTERMEDIATE:
-            // 00-17, 19, 1C-1F    --> execute
-            if (ch <= 0x1F) {
-                handleControlChar(ch);
+            break;
+        case '>':
+        case '?':
+        case '@':
+            break;
+        case 'A':
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == '(')) {
+                // G0 --> United Kingdom set
+                currentState.g0Charset = CharacterSet.UK;
             }
-
-            // 20-2F               --> collect
-            if ((ch >= 0x20) && (ch <= 0x2F)) {
-                collect(ch);
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == ')')) {
+                // G1 --> United Kingdom set
+                currentState.g1Charset = CharacterSet.UK;
             }
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 0x30-3F goes to CSI_IGNORE
-            if ((ch >= 0x30) && (ch <= 0x3F)) {
-                scanState = ScanState.CSI_IGNORE;
-            }
-
-            // 40-7E               --> dispatch, then switch to GROUND
-            if ((ch >= 0x40) && (ch <= 0x7E)) {
-                switch (ch) {
-                case '@':
-                case 'A':
-                case 'B':
-                case 'C':
-                case 'D':
-                case 'E':
-                case 'F':
-                case 'G':
-                case 'H':
-                case 'I':
-                case 'J':
-                case 'K':
-                case 'L':
-                case 'M':
-                case 'N':
-                case 'O':
-                case 'P':
-                case 'Q':
-                case 'R':
-                case 'S':
-                case 'T':
-                case 'U':
-                case 'V':
-                case 'W':
-                case 'X':
-                case 'Y':
-                case 'Z':
-                case '[':
-                case '\\':
-                case ']':
-                case '^':
-                case '_':
-                case '`':
-                case 'a':
-                case 'b':
-                case 'c':
-                case 'd':
-                case 'e':
-                case 'f':
-                case 'g':
-                case 'h':
-                case 'i':
-                case 'j':
-                case 'k':
-                case 'l':
-                case 'm':
-                case 'n':
-                case 'o':
-                    break;
-                case 'p':
-                    if (((type == DeviceType.VT220)
-                            || (type == DeviceType.XTERM))
-                        && (collectBuffer.charAt(collectBuffer.length() - 1) == '\"')
-                    ) {
-                        // DECSCL - compatibility level
-                        decscl();
-                    }
-                    if ((type == DeviceType.XTERM)
-                        && (collectBuffer.charAt(collectBuffer.length() - 1) == '!')
-                    ) {
-                        // DECSTR - Soft terminal reset
-                        decstr();
-                    }
-                    break;
-                case 'q':
-                    if (((type == DeviceType.VT220)
-                            || (type == DeviceType.XTERM))
-                        && (collectBuffer.charAt(collectBuffer.length() - 1) == '\"')
-                    ) {
-                        // DECSCA
-                        decsca();
-                    }
-                    break;
-                case 'r':
-                case 's':
-                case 't':
-                case 'u':
-                case 'v':
-                case 'w':
-                case 'x':
-                case 'y':
-                case 'z':
-                case '{':
-                case '|':
-                case '}':
-                case '~':
-                    break;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> United Kingdom set
+                    currentState.g2Charset = CharacterSet.UK;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> United Kingdom set
+                    currentState.g3Charset = CharacterSet.UK;
                 }
-                toGround();
-            }
-
-            // 7F                  --> ignore
-            return;
-
-        case CSI_IGNORE:
-            // 00-17, 19, 1C-1F    --> execute
-            if (ch <= 0x1F) {
-                handleControlChar(ch);
-            }
-
-            // 20-2F               --> collect
-            if ((ch >= 0x20) && (ch <= 0x2F)) {
-                collect(ch);
             }
-
-            // 40-7E               --> ignore, then switch to GROUND
-            if ((ch >= 0x40) && (ch <= 0x7E)) {
-                toGround();
+            break;
+        case 'B':
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == '(')) {
+                // G0 --> ASCII set
+                currentState.g0Charset = CharacterSet.US;
             }
-
-            // 20-3F, 7F           --> ignore
-
-            return;
-
-        case DCS_ENTRY:
-
-            // 0x9C goes to GROUND
-            if (ch == 0x9C) {
-                toGround();
+            if ((collectBuffer.length() == 1)
+                && (collectBuffer.charAt(0) == ')')) {
+                // G1 --> ASCII set
+                currentState.g1Charset = CharacterSet.US;
             }
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 0x1B 0x5C goes to GROUND
-            if (ch == 0x1B) {
-                collect(ch);
-            }
-            if (ch == 0x5C) {
-                if ((collectBuffer.length() > 0)
-                    && (collectBuffer.charAt(collectBuffer.length() - 1) == 0x1B)
-                ) {
-                    toGround();
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> ASCII
+                    currentState.g2Charset = CharacterSet.US;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> ASCII
+                    currentState.g3Charset = CharacterSet.US;
                 }
             }
+            break;
+        case 'C':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 20-2F               --> collect, then switch to DCS_INTERMEDIATE
-            if ((ch >= 0x20) && (ch <= 0x2F)) {
-                collect(ch);
-                scanState = ScanState.DCS_INTERMEDIATE;
-            }
-
-            // 30-39, 3B           --> param, then switch to DCS_PARAM
-            if ((ch >= '0') && (ch <= '9')) {
-                param((byte) ch);
-                scanState = ScanState.DCS_PARAM;
-            }
-            if (ch == ';') {
-                param((byte) ch);
-                scanState = ScanState.DCS_PARAM;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> FINNISH
+                    currentState.g0Charset = CharacterSet.NRC_FINNISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> FINNISH
+                    currentState.g1Charset = CharacterSet.NRC_FINNISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> FINNISH
+                    currentState.g2Charset = CharacterSet.NRC_FINNISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> FINNISH
+                    currentState.g3Charset = CharacterSet.NRC_FINNISH;
+                }
             }
+            break;
+        case 'D':
+            break;
+        case 'E':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 3C-3F               --> collect, then switch to DCS_PARAM
-            if ((ch >= 0x3C) && (ch <= 0x3F)) {
-                collect(ch);
-                scanState = ScanState.DCS_PARAM;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> NORWEGIAN
+                    currentState.g0Charset = CharacterSet.NRC_NORWEGIAN;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> NORWEGIAN
+                    currentState.g1Charset = CharacterSet.NRC_NORWEGIAN;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> NORWEGIAN
+                    currentState.g2Charset = CharacterSet.NRC_NORWEGIAN;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> NORWEGIAN
+                    currentState.g3Charset = CharacterSet.NRC_NORWEGIAN;
+                }
             }
+            break;
+        case 'F':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 00-17, 19, 1C-1F, 7F    --> ignore
-
-            // 0x3A goes to DCS_IGNORE
-            if (ch == 0x3F) {
-                scanState = ScanState.DCS_IGNORE;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ' ')) {
+                    // S7C1T
+                    s8c1t = false;
+                }
             }
+            break;
+        case 'G':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 0x40-7E goes to DCS_PASSTHROUGH
-            if ((ch >= 0x40) && (ch <= 0x7E)) {
-                scanState = ScanState.DCS_PASSTHROUGH;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ' ')) {
+                    // S8C1T
+                    s8c1t = true;
+                }
             }
-            return;
-
-        case DCS_INTERMEDIATE:
+            break;
+        case 'H':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 0x9C goes to GROUND
-            if (ch == 0x9C) {
-                toGround();
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> SWEDISH
+                    currentState.g0Charset = CharacterSet.NRC_SWEDISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> SWEDISH
+                    currentState.g1Charset = CharacterSet.NRC_SWEDISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> SWEDISH
+                    currentState.g2Charset = CharacterSet.NRC_SWEDISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> SWEDISH
+                    currentState.g3Charset = CharacterSet.NRC_SWEDISH;
+                }
             }
+            break;
+        case 'I':
+        case 'J':
+            break;
+        case 'K':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 0x1B 0x5C goes to GROUND
-            if (ch == 0x1B) {
-                collect(ch);
-            }
-            if (ch == 0x5C) {
-                if ((collectBuffer.length() > 0)
-                    && (collectBuffer.charAt(collectBuffer.length() - 1) == 0x1B)
-                ) {
-                    toGround();
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> GERMAN
+                    currentState.g0Charset = CharacterSet.NRC_GERMAN;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> GERMAN
+                    currentState.g1Charset = CharacterSet.NRC_GERMAN;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> GERMAN
+                    currentState.g2Charset = CharacterSet.NRC_GERMAN;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> GERMAN
+                    currentState.g3Charset = CharacterSet.NRC_GERMAN;
                 }
             }
+            break;
+        case 'L':
+        case 'M':
+        case 'N':
+        case 'O':
+        case 'P':
+            break;
+        case 'Q':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 0x30-3F goes to DCS_IGNORE
-            if ((ch >= 0x30) && (ch <= 0x3F)) {
-                scanState = ScanState.DCS_IGNORE;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> FRENCH_CA
+                    currentState.g0Charset = CharacterSet.NRC_FRENCH_CA;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> FRENCH_CA
+                    currentState.g1Charset = CharacterSet.NRC_FRENCH_CA;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> FRENCH_CA
+                    currentState.g2Charset = CharacterSet.NRC_FRENCH_CA;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> FRENCH_CA
+                    currentState.g3Charset = CharacterSet.NRC_FRENCH_CA;
+                }
             }
+            break;
+        case 'R':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 0x40-7E goes to DCS_PASSTHROUGH
-            if ((ch >= 0x40) && (ch <= 0x7E)) {
-                scanState = ScanState.DCS_PASSTHROUGH;
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> FRENCH
+                    currentState.g0Charset = CharacterSet.NRC_FRENCH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> FRENCH
+                    currentState.g1Charset = CharacterSet.NRC_FRENCH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> FRENCH
+                    currentState.g2Charset = CharacterSet.NRC_FRENCH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> FRENCH
+                    currentState.g3Charset = CharacterSet.NRC_FRENCH;
+                }
             }
+            break;
+        case 'S':
+        case 'T':
+        case 'U':
+        case 'V':
+        case 'W':
+        case 'X':
+            break;
+        case 'Y':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 00-17, 19, 1C-1F, 7F    --> ignore
-            return;
-
-        case DCS_PARAM:
-
-            // 0x9C goes to GROUND
-            if (ch == 0x9C) {
-                toGround();
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> ITALIAN
+                    currentState.g0Charset = CharacterSet.NRC_ITALIAN;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> ITALIAN
+                    currentState.g1Charset = CharacterSet.NRC_ITALIAN;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> ITALIAN
+                    currentState.g2Charset = CharacterSet.NRC_ITALIAN;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> ITALIAN
+                    currentState.g3Charset = CharacterSet.NRC_ITALIAN;
+                }
             }
+            break;
+        case 'Z':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 0x1B 0x5C goes to GROUND
-            if (ch == 0x1B) {
-                collect(ch);
-            }
-            if (ch == 0x5C) {
-                if ((collectBuffer.length() > 0)
-                    && (collectBuffer.charAt(collectBuffer.length() - 1) == 0x1B)
-                ) {
-                    toGround();
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '(')) {
+                    // G0 --> SPANISH
+                    currentState.g0Charset = CharacterSet.NRC_SPANISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == ')')) {
+                    // G1 --> SPANISH
+                    currentState.g1Charset = CharacterSet.NRC_SPANISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '*')) {
+                    // G2 --> SPANISH
+                    currentState.g2Charset = CharacterSet.NRC_SPANISH;
+                }
+                if ((collectBuffer.length() == 1)
+                    && (collectBuffer.charAt(0) == '+')) {
+                    // G3 --> SPANISH
+                    currentState.g3Charset = CharacterSet.NRC_SPANISH;
                 }
             }
+            break;
+        case '[':
+        case '\\':
+        case ']':
+        case '^':
+        case '_':
+        case '`':
+        case 'a':
+        case 'b':
+        case 'c':
+        case 'd':
+        case 'e':
+        case 'f':
+        case 'g':
+        case 'h':
+        case 'i':
+        case 'j':
+        case 'k':
+        case 'l':
+        case 'm':
+        case 'n':
+        case 'o':
+        case 'p':
+        case 'q':
+        case 'r':
+        case 's':
+        case 't':
+        case 'u':
+        case 'v':
+        case 'w':
+        case 'x':
+        case 'y':
+        case 'z':
+        case '{':
+        case '|':
+        case '}':
+        case '~':
+            break;
+        }
+    }
 
-            // 20-2F          --> collect, then switch to DCS_INTERMEDIATE
-            if ((ch >= 0x20) && (ch <= 0x2F)) {
-                collect(ch);
-                scanState = ScanState.DCS_INTERMEDIATE;
+    /**
+     * Dispatch the final character of a control sequence without
+     * intermediate characters, from either CSI_ENTRY or CSI_PARAM.  The
+     * caller switches to GROUND afterwards.
+     *
+     * @param ch final character, 40-7E
+     */
+    private void csiDispatch(final char ch) {
+        switch (ch) {
+        case '@':
+            // ICH - Insert character
+            ich();
+            break;
+        case 'A':
+            // CUU - Cursor up
+            cuu();
+            break;
+        case 'B':
+            // CUD - Cursor down
+            cud();
+            break;
+        case 'C':
+            // CUF - Cursor forward
+            cuf();
+            break;
+        case 'D':
+            // CUB - Cursor backward
+            cub();
+            break;
+        case 'E':
+            // CNL - Cursor down and to column 1
+            if (type == DeviceType.XTERM) {
+                cnl();
             }
-
-            // 30-39, 3B      --> param
-            if ((ch >= '0') && (ch <= '9')) {
-                param((byte) ch);
+            break;
+        case 'F':
+            // CPL - Cursor up and to column 1
+            if (type == DeviceType.XTERM) {
+                cpl();
             }
-            if (ch == ';') {
-                param((byte) ch);
+            break;
+        case 'G':
+            // CHA - Cursor to column # in current row
+            if (type == DeviceType.XTERM) {
+                cha();
             }
-
-            // 00-17, 19, 1C-1F, 7F    --> ignore
-
-            // 0x3A, 3C-3F goes to DCS_IGNORE
-            if (ch == 0x3F) {
-                scanState = ScanState.DCS_IGNORE;
+            break;
+        case 'H':
+            // CUP - Cursor position
+            cup();
+            break;
+        case 'I':
+            // CHT - Cursor forward X tab stops (default 1)
+            if (type == DeviceType.XTERM) {
+                cht();
             }
-            if ((ch >= 0x3C) && (ch <= 0x3F)) {
-                scanState = ScanState.DCS_IGNORE;
+            break;
+        case 'J':
+            // ED - Erase in display
+            ed();
+            break;
+        case 'K':
+            // EL - Erase in line
+            el();
+            break;
+        case 'L':
+            // IL - Insert line
+            il();
+            break;
+        case 'M':
+            // DL - Delete line
+            dl();
+            break;
+        case 'N':
+        case 'O':
+            break;
+        case 'P':
+            // DCH - Delete character
+            dch();
+            break;
+        case 'Q':
+        case 'R':
+            break;
+        case 'S':
+            // Scroll up X lines (default 1)
+            if (type == DeviceType.XTERM) {
+                su();
             }
-
-            // 0x40-7E goes to DCS_PASSTHROUGH
-            if ((ch >= 0x40) && (ch <= 0x7E)) {
-                scanState = ScanState.DCS_PASSTHROUGH;
+            break;
+        case 'T':
+            // Scroll down X lines (default 1)
+            if (type == DeviceType.XTERM) {
+                sd();
             }
-            return;
+            break;
+        case 'U':
+        case 'V':
+        case 'W':
+            break;
+        case 'X':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-        case DCS_PASSTHROUGH:
-            // 0x9C goes to GROUND
-            if (ch == 0x9C) {
-                toGround();
+                // ECH - Erase character
+                ech();
             }
-
-            // 0x1B 0x5C goes to GROUND
-            if (ch == 0x1B) {
-                collect(ch);
+            break;
+        case 'Y':
+            break;
+        case 'Z':
+            // CBT - Cursor backward X tab stops (default 1)
+            if (type == DeviceType.XTERM) {
+                cbt();
             }
-            if (ch == 0x5C) {
-                if ((collectBuffer.length() > 0)
-                    && (collectBuffer.charAt(collectBuffer.length() - 1) == 0x1B)
-                ) {
-                    toGround();
-                }
+            break;
+        case '[':
+        case '\\':
+        case ']':
+        case '^':
+        case '_':
+            break;
+        case '`':
+            // HPA - Cursor to column # in current row.  Same as CHA
+            if (type == DeviceType.XTERM) {
+                cha();
             }
-
-            // 00-17, 19, 1C-1F, 20-7E   --> put
-            // TODO
-            if (ch <= 0x17) {
-                return;
+            break;
+        case 'a':
+            // HPR - Cursor right.  Same as CUF
+            if (type == DeviceType.XTERM) {
+                cuf();
             }
-            if (ch == 0x19) {
-                return;
+            break;
+        case 'b':
+            // REP - Repeat last char X times
+            if (type == DeviceType.XTERM) {
+                rep();
             }
-            if ((ch >= 0x1C) && (ch <= 0x1F)) {
-                return;
+            break;
+        case 'c':
+            // DA - Device attributes
+            da();
+            break;
+        case 'd':
+            // VPA - Cursor to row, current column.
+            if (type == DeviceType.XTERM) {
+                vpa();
             }
-            if ((ch >= 0x20) && (ch <= 0x7E)) {
-                return;
+            break;
+        case 'e':
+            // VPR - Cursor down.  Same as CUD
+            if (type == DeviceType.XTERM) {
+                cud();
             }
+            break;
+        case 'f':
+            // HVP - Horizontal and vertical position
+            hvp();
+            break;
+        case 'g':
+            // TBC - Tabulation clear
+            tbc();
+            break;
+        case 'h':
+            // Sets an ANSI or DEC private toggle
+            setToggle(true);
+            break;
+        case 'i':
+            if ((type == DeviceType.VT220)
+                || (type == DeviceType.XTERM)) {
 
-            // 7F                        --> ignore
-
-            return;
-
-        case DCS_IGNORE:
-            // 00-17, 19, 1C-1F, 20-7F --> ignore
-
-            // 0x9C goes to GROUND
-            if (ch == 0x9C) {
-                toGround();
+                // Printer functions
+                printerFunctions();
             }
-
-            return;
-
-        case SOSPMAPC_STRING:
-            // 00-17, 19, 1C-1F, 20-7F --> ignore
-
-            // 0x9C goes to GROUND
-            if (ch == 0x9C) {
-                toGround();
+            break;
+        case 'j':
+        case 'k':
+            break;
+        case 'l':
+            // Sets an ANSI or DEC private toggle
+            setToggle(false);
+            break;
+        case 'm':
+            // SGR - Select graphics rendition
+            sgr();
+            break;
+        case 'n':
+            // DSR - Device status report
+            dsr();
+            break;
+        case 'o':
+        case 'p':
+            break;
+        case 'q':
+            // DECLL - Load leds
+            // Not supported
+            break;
+        case 'r':
+            // DECSTBM - Set top and bottom margins
+            decstbm();
+            break;
+        case 's':
+            // Save cursor (ANSI.SYS), only without parameters
+            if ((type == DeviceType.XTERM)
+                && (scanState == ScanState.CSI_ENTRY)
+            ) {
+                savedState.cursorX = currentState.cursorX;
+                savedState.cursorY = currentState.cursorY;
             }
-
-            return;
-
-        case OSC_STRING:
-            // Special case for Xterm: OSC can pass control characters
-            if ((ch == 0x9C) || (ch <= 0x07)) {
-                oscPut(ch);
+            break;
+        case 't':
+            break;
+        case 'u':
+            // Restore cursor (ANSI.SYS), only without parameters
+            if ((type == DeviceType.XTERM)
+                && (scanState == ScanState.CSI_ENTRY)
+            ) {
+                cursorPosition(savedState.cursorY, savedState.cursorX);
             }
+            break;
+        case 'v':
+        case 'w':
+            break;
+        case 'x':
+            // DECREQTPARM - Request terminal parameters
+            decreqtparm();
+            break;
+        case 'y':
+        case 'z':
+        case '{':
+        case '|':
+        case '}':
+        case '~':
+            break;
+        }
+    }
 
-            // 00-17, 19, 1C-1F        --> ignore
-
-            // 20-7F                   --> osc_put
-            if ((ch >= 0x20) && (ch <= 0x7F)) {
-                oscPut(ch);
+    /**
+     * Dispatch the final character of a control sequence with intermediate
+     * characters.  The caller switches to GROUND afterwards.
+     *
+     * @param ch final character, 40-7E
+     */
+    private void csiIntermediateDispatch(final char ch) {
+        switch (ch) {
+        case '@':
+        case 'A':
+        case 'B':
+        case 'C':
+        case 'D':
+        case 'E':
+        case 'F':
+        case 'G':
+        case 'H':
+        case 'I':
+        case 'J':
+        case 'K':
+        case 'L':
+        case 'M':
+        case 'N':
+        case 'O':
+        case 'P':
+        case 'Q':
+        case 'R':
+        case 'S':
+        case 'T':
+        case 'U':
+        case 'V':
+        case 'W':
+        case 'X':
+        case 'Y':
+        case 'Z':
+        case '[':
+        case '\\':
+        case ']':
+        case '^':
+        case '_':
+        case '`':
+        case 'a':
+        case 'b':
+        case 'c':
+        case 'd':
+        case 'e':
+        case 'f':
+        case 'g':
+        case 'h':
+        case 'i':
+        case 'j':
+        case 'k':
+        case 'l':
+        case 'm':
+        case 'n':
+        case 'o':
+            break;
+        case 'p':
+            if (((type == DeviceType.VT220)
+                    || (type == DeviceType.XTERM))
+                && (collectBuffer.charAt(collectBuffer.length() - 1) == '\"')
+            ) {
+                // DECSCL - compatibility level
+                decscl();
             }
-
-            // 0x9C goes to GROUND
-            if (ch == 0x9C) {
-                toGround();
+            if ((type == DeviceType.XTERM)
+                && (collectBuffer.charAt(collectBuffer.length() - 1) == '!')
+            ) {
+                // DECSTR - Soft terminal reset
+                decstr();
             }
-
-            return;
-
-        case VT52_DIRECT_CURSOR_ADDRESS:
-            // This is a special case for the VT52 sequence "ESC Y l c"
-            if (collectBuffer.length() == 0) {
-                collect(ch);
-            } else if (collectBuffer.length() == 1) {
-                // We've got the two characters, one in the buffer and the
-                // other in ch.
-                cursorPosition(collectBuffer.charAt(0) - '\040', ch - '\040');
-                toGround();
+            break;
+        case 'q':
+            if (((type == DeviceType.VT220)
+                    || (type == DeviceType.XTERM))
+                && (collectBuffer.charAt(collectBuffer.length() - 1) == '\"')
+            ) {
+                // DECSCA
+                decsca();
             }
-            return;
+            break;
+        case 'r':
+        case 's':
+        case 't':
+        case 'u':
+        case 'v':
+        case 'w':
+        case 'x':
+        case 'y':
+        case 'z':
+        case '{':
+        case '|':
+        case '}':
+        case '~':
+            break;
         }
-
     }
 
     /**
@@ -5718,70 +6050,135 @@ public class ECMA48 implements Runnable {
     }
 
     /**
-     * Read function runs on a separate thread.
+     * Read function runs on the reader executor.
      */
     public final void run() {
-        boolean utf8 = false;
-        boolean done = false;
+        if (!readerStarted.compareAndSet(false, true)) {
+            // disconnect() got here first, there is nothing to read.
+            return;
+        }
+        readerThread = Thread.currentThread();
+        try {
+            readInput();
+        } finally {
+            // Let close() know that I am done, even if I died on an
+            // exception.
+            stopReaderThread = true;
+            readerThread = null;
+            readerDone.countDown();
+        }
+    }
 
-        if (type == DeviceType.XTERM) {
-            utf8 = true;
+    /**
+     * Run bytes from the remote side through the parser.  Bytes go straight
+     * from the buffer to the parser: printable ASCII through printRun(),
+     * everything else through consumeUTF8() or consume().
+     *
+     * @param buffer the bytes
+     * @param start index of the first byte
+     * @param end index past the last byte
+     */
+    private void consumeBytes(final byte [] buffer, final int start,
+        final int end) {
+
+        boolean utf8 = (type == DeviceType.XTERM);
+        int i = start;
+        while (i < end) {
+            int ch = buffer[i];
+            if ((ch >= 0x20) && (ch < 0x7F)
+                && (scanState == ScanState.GROUND)
+                && (utf8Remaining == 0)
+            ) {
+                // Printable text: try the fast path
+                int printed = printRun(buffer, i, end);
+                if (printed > 0) {
+                    i += printed;
+                    continue;
+                }
+            }
+            if (utf8) {
+                consumeUTF8(ch & 0xFF);
+            } else {
+                consume((char) ch);
+            }
+            i++;
         }
+    }
 
-        // available() will often return > 1, so we need to read in chunks to
-        // stay caught up.
-        char [] readBufferUTF8 = null;
-        byte [] readBuffer = null;
-        if (utf8) {
-            readBufferUTF8 = new char[128];
-        } else {
-            readBuffer = new byte[128];
+    /**
+     * Run bytes through the emulator on the calling thread, as if the
+     * reader had just read them, and send any replies.  This is for
+     * headless emulators (see ECMA48(DeviceType, OutputStream)), for
+     * example to replay a recorded session.
+     *
+     * <p>
+     * lineAt(), getCursorX(), and so on see the result right away.
+     * getSnapshot() is refreshed at the same rate as for a reader under
+     * continuous input, at most every SNAPSHOT_INTERVAL milliseconds.
+     *
+     * @param buffer the bytes
+     * @param offset index of the first byte
+     * @param length number of bytes
+     */
+    public final void feed(final byte [] buffer, final int offset,
+        final int length) {
+
+        if ((offset < 0) || (length < 0) || (offset + length > buffer.length)) {
+            throw new IndexOutOfBoundsException("offset " + offset
+                + " length " + length);
+        }
+        synchronized (this) {
+            consumeBytes(buffer, offset, offset + length);
+            if (System.nanoTime() - snapshotTime
+                >= SNAPSHOT_INTERVAL * 1000000L
+            ) {
+                publishSnapshot();
+            }
         }
+        flushRemote();
+    }
+
+    /**
+     * Read from the remote side until EOF or close().
+     */
+    private void readInput() {
+        boolean done = false;
+
+        // The same buffer is used for every read.
+        byte [] readBuffer = new byte[READ_BUFFER_SIZE];
 
         while (!done && !stopReaderThread) {
             try {
-                int n = inputStream.available();
-                // System.err.printf("available() %d\n", n); System.err.flush();
-                if (utf8) {
-                    if (readBufferUTF8.length < n) {
-                        // The buffer wasn't big enough, make it huger
-                        int newSizeHalf = Math.max(readBufferUTF8.length, n);
-
-                        readBufferUTF8 = new char[newSizeHalf * 2];
-                    }
-                } else {
-                    if (readBuffer.length < n) {
-                        // The buffer wasn't big enough, make it huger
-                        int newSizeHalf = Math.max(readBuffer.length, n);
-                        readBuffer = new byte[newSizeHalf * 2];
-                    }
-                }
-
+                InputStream in = inputStream;
                 int rc = -1;
-                if (utf8) {
-                    rc = input.read(readBufferUTF8, 0,
-                        readBufferUTF8.length);
-                } else {
-                    rc = inputStream.read(readBuffer, 0,
-                        readBuffer.length);
+                if (in != null) {
+                    rc = in.read(readBuffer, 0, readBuffer.length);
                 }
                 // System.err.printf("read() %d\n", rc); System.err.flush();
                 if (rc == -1) {
                     // This is EOF
                     done = true;
                 } else {
-                    for (int i = 0; i < rc; i++) {
-                        int ch = 0;
-                        if (utf8) {
-                            ch = readBufferUTF8[i];
-                        } else {
-                            ch = readBuffer[i];
-                        }
-                        // Don't step on UI events
-                        synchronized (this) {
-                            consume((char)ch);
+                    // Don't step on UI events.  The lock is taken once for
+                    // the whole buffer.
+                    synchronized (this) {
+                        consumeBytes(readBuffer, 0, rc);
+
+                        // Publish the screen if we are about to wait for
+                        // more input, or if the last snapshot is getting
+                        // old.
+                        in = inputStream;
+                        if ((in == null)
+                            || (in.available() == 0)
+                            || (System.nanoTime() - snapshotTime
+                                >= SNAPSHOT_INTERVAL * 1000000L)
+                        ) {
+                            publishSnapshot();
                         }
                     }
+
+                    // Send any replies to the remote side.
+                    output.flush();
                 }
                 // System.err.println("end while loop"); System.err.flush();
             } catch (IOException e) {
@@ -0,0 +1,184 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * RemoteOutput buffers what an ECMA48 sends to the remote side: key
+ * presses, mouse reports, and replies to queries.  Strings are encoded
+ * once into a reusable byte array, and go out in a single write() and
+ * flush() when flush() is called.
+ *
+ * <p>
+ * All methods are synchronized on this object, not on the ECMA48, so the
+ * UI thread can queue key presses while the reader thread holds the
+ * emulator lock.
+ */
+final class RemoteOutput {
+
+    /**
+     * Write out early once this many bytes are waiting, so that a caller
+     * that never flushes cannot grow the buffer without bound.
+     */
+    private static final int FLUSH_SIZE = 4096;
+
+    /**
+     * The stream to the remote side, or null once closed.
+     */
+    private OutputStream output;
+
+    /**
+     * If true, encode as UTF-8.  Otherwise each char is sent as one byte,
+     * its low 8 bits.
+     */
+    private boolean utf8;
+
+    /**
+     * The bytes waiting to be written.
+     */
+    private byte [] buffer = new byte[256];
+
+    /**
+     * Number of bytes in buffer.
+     */
+    private int length = 0;
+
+    /**
+     * Package private constructor.
+     *
+     * @param output the stream to the remote side
+     * @param utf8 if true, encode as UTF-8, else as 8-bit characters
+     */
+    RemoteOutput(final OutputStream output, final boolean utf8) {
+        this.output = output;
+        this.utf8 = utf8;
+    }
+
+    /**
+     * Add a string to the buffer.  Note package private access.
+     *
+     * @param str the string to send
+     * @throws IOException if the buffer was full and writing it out failed
+     */
+    synchronized void write(final String str) throws IOException {
+        if (output == null) {
+            return;
+        }
+        // UTF-8 needs at most three bytes per char: a surrogate pair is
+        // two chars for four bytes.
+        ensureCapacity(length + (utf8 ? str.length() * 3 : str.length()));
+        for (int i = 0; i < str.length(); i++) {
+            char ch = str.charAt(i);
+            if (!utf8) {
+                buffer[length++] = (byte) ch;
+            } else if (ch < 0x80) {
+                buffer[length++] = (byte) ch;
+            } else if (ch < 0x800) {
+                buffer[length++] = (byte) (0xC0 | (ch >> 6));
+                buffer[length++] = (byte) (0x80 | (ch & 0x3F));
+            } else if (Character.isHighSurrogate(ch)
+                && (i + 1 < str.length())
+                && Character.isLowSurrogate(str.charAt(i + 1))
+            ) {
+                int cp = Character.toCodePoint(ch, str.charAt(i + 1));
+                i++;
+                buffer[length++] = (byte) (0xF0 | (cp >> 18));
+                buffer[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buffer[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(ch)) {
+                // Unpaired surrogate: OutputStreamWriter sends '?'
+                buffer[length++] = '?';
+            } else {
+                buffer[length++] = (byte) (0xE0 | (ch >> 12));
+                buffer[length++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (ch & 0x3F));
+            }
+        }
+        if (length >= FLUSH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Grow the buffer if needed.
+     *
+     * @param capacity the number of bytes needed
+     */
+    private void ensureCapacity(final int capacity) {
+        if (capacity > buffer.length) {
+            byte [] newBuffer = new byte[Math.max(capacity,
+                    buffer.length * 2)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Write out everything in the buffer with one write() and one flush().
+     * Does nothing if the buffer is empty.  Note package private access.
+     *
+     * @throws IOException if the write fails
+     */
+    synchronized void flush() throws IOException {
+        if ((output == null) || (length == 0)) {
+            return;
+        }
+        int n = length;
+        length = 0;
+        output.write(buffer, 0, n);
+        output.flush();
+    }
+
+    /**
+     * Write out anything left in the buffer, and close the stream.  Note
+     * package private access.
+     */
+    synchronized void close() {
+        if (output == null) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            // SQUASH
+        }
+        try {
+            output.close();
+        } catch (IOException e) {
+            // SQUASH
+        }
+        output = null;
+    }
+
+}
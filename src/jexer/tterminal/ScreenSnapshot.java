@@ -0,0 +1,290 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+/**
+ * ScreenSnapshot is an immutable view of the ECMA48 display and cursor at
+ * one point in time.  The emulator publishes a new snapshot from its
+ * reader thread whenever the screen changes, so a renderer can read it
+ * without locking the emulator, and the reader thread can keep parsing
+ * while the renderer draws.
+ *
+ * <p>
+ * Each snapshot carries a version number that goes up by one every time
+ * something visible changes.  A renderer that remembers the version it
+ * last drew can skip drawing when it has not changed.  Rows are copied on
+ * write: a row that did not change is the same SnapshotLine in both
+ * snapshots.
+ *
+ * <p>
+ * Each snapshot also records how far the whole screen has scrolled (see
+ * getScrollCount()).  A renderer that keeps the rows it last drew can
+ * compare scroll counts to see where those rows are now, and since an
+ * unchanged row is the same SnapshotLine, redraw just the rows that
+ * changed.  This works across any number of snapshots, so a renderer that
+ * skips some of them does not lose track.
+ */
+public final class ScreenSnapshot {
+
+    /**
+     * The version number.
+     */
+    private final long version;
+
+    /**
+     * The display rows, top first.
+     */
+    private final SnapshotLine [] lines;
+
+    /**
+     * The display width.
+     */
+    private final int width;
+
+    /**
+     * The cursor column, already doubled on a double-width row.
+     */
+    private final int cursorX;
+
+    /**
+     * The cursor row.
+     */
+    private final int cursorY;
+
+    /**
+     * Visible cursor (DECTCEM).
+     */
+    private final boolean cursorVisible;
+
+    /**
+     * The screen title.
+     */
+    private final String screenTitle;
+
+    /**
+     * The number of lines in the scrollback buffer.
+     */
+    private final int scrollbackSize;
+
+    /**
+     * The line number of the oldest scrollback line, see
+     * ScrollbackBuffer.getFirstLine().
+     */
+    private final long scrollbackFirst;
+
+    /**
+     * Net number of rows the whole screen has scrolled up since the
+     * emulator started.
+     */
+    private final long scrollCount;
+
+    /**
+     * Package private constructor.
+     *
+     * @param version the version number
+     * @param lines the display rows, top first.  This array is kept, not
+     * copied.
+     * @param width the display width
+     * @param cursorX the cursor column as seen on screen
+     * @param cursorY the cursor row
+     * @param cursorVisible if true, the cursor is visible
+     * @param screenTitle the screen title
+     * @param scrollbackSize the number of lines in the scrollback buffer
+     * @param scrollbackFirst the line number of the oldest scrollback line
+     * @param scrollCount net number of rows the whole screen has scrolled
+     * up
+     */
+    ScreenSnapshot(final long version, final SnapshotLine [] lines,
+        final int width, final int cursorX, final int cursorY,
+        final boolean cursorVisible, final String screenTitle,
+        final int scrollbackSize, final long scrollbackFirst,
+        final long scrollCount) {
+
+        this.version         = version;
+        this.lines           = lines;
+        this.width           = width;
+        this.cursorX         = cursorX;
+        this.cursorY         = cursorY;
+        this.cursorVisible   = cursorVisible;
+        this.screenTitle     = screenTitle;
+        this.scrollbackSize  = scrollbackSize;
+        this.scrollbackFirst = scrollbackFirst;
+        this.scrollCount     = scrollCount;
+    }
+
+    /**
+     * See if this snapshot shows the same thing as another one with these
+     * values.  Note package private access.
+     *
+     * @param lines the display rows
+     * @param width the display width
+     * @param cursorX the cursor column as seen on screen
+     * @param cursorY the cursor row
+     * @param cursorVisible if true, the cursor is visible
+     * @param screenTitle the screen title
+     * @param scrollbackSize the number of lines in the scrollback buffer
+     * @param scrollbackFirst the line number of the oldest scrollback line
+     * @param scrollCount net number of rows the whole screen has scrolled
+     * up
+     * @return true if all the values and rows are the same
+     */
+    boolean sameAs(final SnapshotLine [] lines, final int width,
+        final int cursorX, final int cursorY, final boolean cursorVisible,
+        final String screenTitle, final int scrollbackSize,
+        final long scrollbackFirst, final long scrollCount) {
+
+        if ((this.width != width)
+            || (this.cursorX != cursorX)
+            || (this.cursorY != cursorY)
+            || (this.cursorVisible != cursorVisible)
+            || (!this.screenTitle.equals(screenTitle))
+            || (this.scrollbackSize != scrollbackSize)
+            || (this.scrollbackFirst != scrollbackFirst)
+            || (this.scrollCount != scrollCount)
+            || (this.lines.length != lines.length)
+        ) {
+            return false;
+        }
+        for (int i = 0; i < lines.length; i++) {
+            if (this.lines[i] != lines[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the version number.  It goes up by one for every snapshot that
+     * differs from the one before.
+     *
+     * @return the version number
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get a display row.
+     *
+     * @param row the row, 0 is the top
+     * @return the row
+     */
+    public SnapshotLine getLine(final int row) {
+        return lines[row];
+    }
+
+    /**
+     * Get the display width.
+     *
+     * @return the width (usually 80 or 132)
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the display height.
+     *
+     * @return the height (usually 24)
+     */
+    public int getHeight() {
+        return lines.length;
+    }
+
+    /**
+     * Get the cursor column.  On a double-width row this is the screen
+     * column, i.e. twice the emulator's column.
+     *
+     * @return the cursor X
+     */
+    public int getCursorX() {
+        return cursorX;
+    }
+
+    /**
+     * Get the cursor row.
+     *
+     * @return the cursor Y
+     */
+    public int getCursorY() {
+        return cursorY;
+    }
+
+    /**
+     * Get visible cursor flag.
+     *
+     * @return if true, the cursor is visible
+     */
+    public boolean isCursorVisible() {
+        return cursorVisible;
+    }
+
+    /**
+     * Get the screen title as set by the xterm OSC sequence.
+     *
+     * @return screen title
+     */
+    public String getScreenTitle() {
+        return screenTitle;
+    }
+
+    /**
+     * Get the number of lines that were in the scrollback buffer.
+     *
+     * @return the number of lines
+     */
+    public int getScrollbackSize() {
+        return scrollbackSize;
+    }
+
+    /**
+     * Get the line number of the oldest scrollback line, counting every
+     * line ever added to the scrollback.  Note package private access.
+     *
+     * @return the line number
+     */
+    long getScrollbackFirst() {
+        return scrollbackFirst;
+    }
+
+    /**
+     * Get the net number of rows the whole screen has scrolled up since the
+     * emulator started.  Scrolling down (e.g. reverse index at the top of
+     * the screen) counts as negative.  The difference between two
+     * snapshots is how far the screen scrolled between them.
+     *
+     * @return the scroll count
+     */
+    public long getScrollCount() {
+        return scrollCount;
+    }
+
+}
@@ -0,0 +1,460 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * ScrollbackBuffer holds the lines that have scrolled off the top of an
+ * ECMA48 display.  It is a ring buffer with a fixed line limit: once full,
+ * appending a line evicts the oldest one.
+ *
+ * <p>
+ * Lines are stored as CompactLines, so the DisplayLine passed to append()
+ * is handed straight back to the caller to reuse for the next line on the
+ * display.  get(index) rebuilds a full DisplayLine on demand; the most
+ * recently fetched lines are kept, and the storage of older ones is
+ * recycled for the next line that is fetched.
+ *
+ * <p>
+ * Optionally only the newest lines are kept in memory, and older ones are
+ * spilled to temp files on disk (see setSpill()).  The line limit then
+ * applies to both together, so it can be set much higher.
+ *
+ * <p>
+ * A plain text copy of every line in memory is also kept for searching
+ * (see ScrollbackIndex), at roughly one byte per character of text.  For
+ * lines on disk only a few bytes per line are kept, and the text is read
+ * back from disk when a search needs it.
+ *
+ * <p>
+ * Appending, evicting, and get(index) are all O(1) for lines in memory.
+ * Index 0 is the oldest line.  The backing array grows on demand, so a
+ * large limit does not cost anything until the lines are actually there.
+ */
+public final class ScrollbackBuffer extends AbstractList<DisplayLine> {
+
+    /**
+     * The default maximum number of lines.
+     */
+    public static final int DEFAULT_LIMIT = 10000;
+
+    /**
+     * The number of rebuilt DisplayLines kept.  A line returned by get() is
+     * valid at least until this many other lines have been fetched.
+     */
+    private static final int INFLATED_LIMIT = 256;
+
+    /**
+     * The lines in memory.  The oldest is at lines[head].
+     */
+    private CompactLine [] lines;
+
+    /**
+     * Index into lines of the oldest line.
+     */
+    private int head = 0;
+
+    /**
+     * Number of lines in memory.
+     */
+    private int size = 0;
+
+    /**
+     * Number of lines ever appended.  Lines are only ever dropped from the
+     * oldest end, so the oldest line left is line number appended - size().
+     */
+    private long appended = 0;
+
+    /**
+     * Maximum number of lines stored, in memory and on disk.
+     */
+    private int limit;
+
+    /**
+     * Maximum number of lines kept in memory when spilling to disk, or -1
+     * if not spilling.
+     */
+    private int spillMemoryLimit = -1;
+
+    /**
+     * The lines on disk, older than all the lines in memory.  Null if not
+     * spilling.
+     */
+    private SpilledScrollback spilled;
+
+    /**
+     * The lines that currently have a rebuilt DisplayLine, in the order
+     * they were rebuilt.
+     */
+    private CompactLine [] inflated = new CompactLine[INFLATED_LIMIT];
+
+    /**
+     * Index into inflated of the slot to use next.
+     */
+    private int inflatedNext = 0;
+
+    /**
+     * The text of the lines, for searching.
+     */
+    private ScrollbackIndex index = new ScrollbackIndex();
+
+    /**
+     * Public constructor.
+     *
+     * @param limit maximum number of lines to keep.  0 disables scrollback.
+     */
+    public ScrollbackBuffer(final int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must be >= 0");
+        }
+        this.limit = limit;
+        lines = new CompactLine[Math.min(limit, 64)];
+    }
+
+    /**
+     * Get the maximum number of lines kept.
+     *
+     * @return the line limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Set the maximum number of lines kept.  If there are more lines than
+     * that now, the oldest ones are dropped.
+     *
+     * @param limit maximum number of lines to keep.  0 disables scrollback.
+     */
+    public void setLimit(final int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must be >= 0");
+        }
+        this.limit = limit;
+        rebalance();
+    }
+
+    /**
+     * Get the number of lines kept in memory when spilling to disk.
+     *
+     * @return the number of lines, or -1 if not spilling
+     */
+    public int getSpill() {
+        return spillMemoryLimit;
+    }
+
+    /**
+     * Keep only the newest lines in memory, and write older ones to temp
+     * files until the line limit is reached.  Turning spilling off deletes
+     * the temp files and the lines in them.
+     *
+     * @param memoryLimit number of lines to keep in memory, or -1 to turn
+     * spilling off
+     */
+    public void setSpill(final int memoryLimit) {
+        if (memoryLimit < -1) {
+            throw new IllegalArgumentException("memoryLimit must be >= -1");
+        }
+        spillMemoryLimit = memoryLimit;
+        if ((memoryLimit == -1) && (spilled != null)) {
+            spilled.close();
+            spilled = null;
+        } else if ((memoryLimit >= 0) && (spilled == null)) {
+            spilled = new SpilledScrollback();
+        }
+        rebalance();
+    }
+
+    /**
+     * Get the maximum number of lines kept in memory.
+     *
+     * @return the memory line limit
+     */
+    private int getMemoryLimit() {
+        if (spilled != null) {
+            return Math.min(limit, spillMemoryLimit);
+        }
+        return limit;
+    }
+
+    /**
+     * Move or drop lines after the limits change.
+     */
+    private void rebalance() {
+        int memoryLimit = getMemoryLimit();
+        while (size > memoryLimit) {
+            CompactLine oldest = lines[head];
+            lines[head] = null;
+            head = (head + 1) % lines.length;
+            size--;
+            if (spilled != null) {
+                spilled.append(oldest);
+            }
+        }
+        trim();
+        index.trim(size());
+        releaseText();
+        resize(Math.min(memoryLimit, Math.max(size, 64)));
+        modCount++;
+    }
+
+    /**
+     * Let the search index drop its text of the lines that are on disk.
+     */
+    private void releaseText() {
+        if (spilled != null) {
+            index.release(appended - size);
+        }
+    }
+
+    /**
+     * Drop the oldest lines until there are no more than limit.
+     */
+    private void trim() {
+        while (size() > limit) {
+            if ((spilled != null) && (spilled.size() > 0)) {
+                spilled.dropOldest();
+            } else {
+                lines[head] = null;
+                head = (head + 1) % lines.length;
+                size--;
+            }
+        }
+    }
+
+    /**
+     * Copy the lines into a new backing array of the given length, oldest
+     * line first.
+     *
+     * @param capacity new array length, at least size
+     */
+    private void resize(final int capacity) {
+        assert (capacity >= size);
+        if (capacity == lines.length) {
+            return;
+        }
+        CompactLine [] newLines = new CompactLine[capacity];
+        for (int i = 0; i < size; i++) {
+            newLines[i] = lines[(head + i) % lines.length];
+        }
+        lines = newLines;
+        head = 0;
+    }
+
+    /**
+     * Get the number of lines stored.
+     *
+     * @return the number of lines
+     */
+    @Override
+    public int size() {
+        if (spilled != null) {
+            return spilled.size() + size;
+        }
+        return size;
+    }
+
+    /**
+     * Get the line number of the oldest line, counting every line ever
+     * appended from 0.  Unlike an index, a line number stays with its line
+     * as newer lines are appended and older ones dropped.  Note package
+     * private access.
+     *
+     * @return the line number of index 0
+     */
+    long getFirstLine() {
+        return appended - size();
+    }
+
+    /**
+     * Get a line.  The line is rebuilt from its compact form if needed.  It
+     * must not be modified, and should not be held on to: its storage is
+     * reused after enough other lines have been fetched.
+     *
+     * @param index line index, 0 is the oldest line
+     * @return the line
+     */
+    @Override
+    public DisplayLine get(final int index) {
+        if ((index < 0) || (index >= size())) {
+            throw new IndexOutOfBoundsException("index " + index + " size "
+                + size());
+        }
+        CompactLine compact;
+        int spilledSize = (spilled != null ? spilled.size() : 0);
+        if (index < spilledSize) {
+            compact = spilled.get(index);
+        } else {
+            int i = head + index - spilledSize;
+            if (i >= lines.length) {
+                i -= lines.length;
+            }
+            compact = lines[i];
+        }
+        DisplayLine line = compact.getInflated();
+        if (line != null) {
+            return line;
+        }
+
+        // Take back the storage of the oldest rebuilt line.
+        DisplayLine spare = null;
+        if (inflated[inflatedNext] != null) {
+            spare = inflated[inflatedNext].release();
+        }
+        line = compact.inflate(spare);
+        inflated[inflatedNext] = compact;
+        inflatedNext++;
+        if (inflatedNext == inflated.length) {
+            inflatedNext = 0;
+        }
+        return line;
+    }
+
+    /**
+     * Append a line to the end, evicting the oldest line if the buffer is
+     * full.
+     *
+     * @param line the new line
+     * @return true
+     */
+    @Override
+    public boolean add(final DisplayLine line) {
+        append(line);
+        return true;
+    }
+
+    /**
+     * Append a line to the end, evicting the oldest line if the buffer is
+     * full.  The line is copied into compact form.
+     *
+     * @param line the new line
+     * @return line, which the caller may now reuse
+     */
+    public DisplayLine append(final DisplayLine line) {
+        if (limit == 0) {
+            return line;
+        }
+        modCount++;
+        appended++;
+        CompactLine compact = new CompactLine(line);
+        int memoryLimit = getMemoryLimit();
+        if (memoryLimit == 0) {
+            // Straight to disk
+            spilled.append(compact);
+        } else if (size < memoryLimit) {
+            if (size == lines.length) {
+                resize(Math.min(memoryLimit, lines.length * 2));
+            }
+            int i = head + size;
+            if (i >= lines.length) {
+                i -= lines.length;
+            }
+            lines[i] = compact;
+            size++;
+        } else {
+            // Memory is full: overwrite the oldest line and advance head,
+            // spilling the old line if we can.
+            CompactLine oldest = lines[head];
+            lines[head] = compact;
+            head++;
+            if (head == lines.length) {
+                head = 0;
+            }
+            if (spilled != null) {
+                spilled.append(oldest);
+            }
+        }
+        trim();
+        index.append(line);
+        index.trim(size());
+        releaseText();
+        return line;
+    }
+
+    /**
+     * Copy the text of some lines for the search index, laid out the way
+     * the index had it.  See ScrollbackIndex.TextSource.  Note package
+     * private access.
+     *
+     * @param first line number of the first line, as in getFirstLine()
+     * @param starts the offset of each line in text, followed by the
+     * length of the text
+     * @param text the buffer to fill
+     */
+    void getText(final long first, final int [] starts, final char [] text) {
+        char [] scratch = new char[0];
+        for (int i = 0; i + 1 < starts.length; i++) {
+            int start = starts[i];
+            int end = starts[i + 1] - 1;
+            int n = 0;
+            long index = first + i - getFirstLine();
+            if ((index >= 0) && (index < size())) {
+                DisplayLine line = get((int) index);
+                if (scratch.length < line.getCapacity()) {
+                    scratch = new char[line.getCapacity()];
+                }
+                n = Math.min(line.getText(scratch, 0), end - start);
+                System.arraycopy(scratch, 0, text, start, n);
+            }
+            Arrays.fill(text, start + n, end, ' ');
+            text[end] = '\n';
+        }
+    }
+
+    /**
+     * Get the search index of the lines.  Note package private access.
+     *
+     * @return the index
+     */
+    ScrollbackIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Remove all lines, and delete any temp files.
+     */
+    @Override
+    public void clear() {
+        modCount++;
+        lines = new CompactLine[Math.min(limit, 64)];
+        inflated = new CompactLine[INFLATED_LIMIT];
+        inflatedNext = 0;
+        head = 0;
+        size = 0;
+        index.clear();
+        if (spilled != null) {
+            spilled.close();
+        }
+    }
+
+}
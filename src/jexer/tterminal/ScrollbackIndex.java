@@ -0,0 +1,875 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ScrollbackIndex keeps a plain text copy of the scrollback for searching.
+ * It is extended as each line enters the scrollback, in segments of a few
+ * hundred lines.  Each full segment also gets a bitmap of the
+ * three-character sequences (trigrams) that appear in it, so that a search
+ * for text that must contain some literal string can skip the segments
+ * that do not have all of its trigrams.  The bitmap is built the first time
+ * the segment is searched rather than as lines arrive, which would cost the
+ * reader thread about a fifth of its throughput on a flood of output.
+ *
+ * <p>
+ * Once all of a segment's lines have been spilled to disk (see
+ * ScrollbackBuffer.setSpill()), its text is released and only the line
+ * offsets and the bitmap stay in memory.  A search that cannot skip such a
+ * segment reads its text back through a TextSource.
+ *
+ * <p>
+ * Full segments never change.  A search takes a View, which shares the
+ * full segments and copies only the newest one and the display, so the
+ * emulator lock is held just long enough to make the View and the search
+ * itself runs without it.
+ *
+ * <p>
+ * Lines are kept with trailing blanks removed and each followed by '\n',
+ * so patterns can use '^' and '$' with Pattern.MULTILINE.  A match cannot
+ * span two segments.
+ */
+final class ScrollbackIndex {
+
+    /**
+     * Number of lines per segment.
+     */
+    private static final int SEGMENT_LINES = 256;
+
+    /**
+     * Number of bits in each segment's trigram bitmap.  Must be a power of
+     * two.
+     */
+    private static final int FILTER_BITS = 16384;
+
+    /**
+     * Shift that takes a 32-bit hash down to a bitmap index.
+     */
+    private static final int FILTER_SHIFT = 32 - 14;
+
+    /**
+     * Minimum length of a literal worth checking against the bitmaps.
+     */
+    private static final int MIN_LITERAL = 3;
+
+    /**
+     * ASCII characters folded to lower case.
+     */
+    private static final char [] FOLD = new char[0x80];
+
+    static {
+        for (char ch = 0; ch < FOLD.length; ch++) {
+            FOLD[ch] = Character.toLowerCase(ch);
+        }
+    }
+
+    /**
+     * Reads back the text of lines whose segment text was released.
+     */
+    interface TextSource {
+
+        /**
+         * Copy the text of the lines of a segment into a buffer, laid out
+         * as the segment was when it was indexed.  Lines that are no longer
+         * kept are filled with blanks.
+         *
+         * @param firstLine absolute number of the first line
+         * @param starts the offset of each line in text, followed by the
+         * length of the text
+         * @param text the buffer to fill
+         */
+        void getText(long firstLine, int [] starts, char [] text);
+
+    }
+
+    /**
+     * A run of lines as text.
+     */
+    private static final class Segment {
+
+        /**
+         * Absolute number of the first line.
+         */
+        private final long firstLine;
+
+        /**
+         * The lines, each followed by '\n', or null if the text was
+         * released.
+         */
+        private volatile String text;
+
+        /**
+         * starts[i] is the offset in text of line i.  The last element is
+         * text.length().
+         */
+        private final int [] starts;
+
+        /**
+         * If true, this segment is worth a trigram bitmap.
+         */
+        private final boolean filtered;
+
+        /**
+         * The trigram bitmap, or null if it has not been built yet.
+         */
+        private volatile long [] filter;
+
+        /**
+         * Package private constructor.
+         *
+         * @param firstLine absolute number of the first line
+         * @param text the lines, each followed by '\n'
+         * @param starts the line offsets, followed by text.length()
+         * @param filtered if true, build a trigram bitmap the first time
+         * this segment is searched
+         */
+        Segment(final long firstLine, final String text, final int [] starts,
+            final boolean filtered) {
+
+            this.firstLine = firstLine;
+            this.text = text;
+            this.starts = starts;
+            this.filtered = filtered;
+        }
+
+        /**
+         * Get the number of lines.
+         *
+         * @return the number of lines
+         */
+        private int size() {
+            return starts.length - 1;
+        }
+
+        /**
+         * Get the length of the text.
+         *
+         * @return the number of characters
+         */
+        private int length() {
+            return starts[starts.length - 1];
+        }
+
+        /**
+         * Get the text, reading it back if it was released.  Text that is
+         * read back is not kept.
+         *
+         * @param source where to read released text from
+         * @return the text
+         */
+        private String getText(final TextSource source) {
+            String text = this.text;
+            if (text == null) {
+                char [] chars = new char[length()];
+                source.getText(firstLine, starts, chars);
+                text = new String(chars);
+            }
+            return text;
+        }
+
+        /**
+         * Release the text, keeping the line offsets and the trigram
+         * bitmap.
+         */
+        private void release() {
+            if (filtered && (filter == null)) {
+                filter = buildFilter(text);
+            }
+            text = null;
+        }
+
+        /**
+         * See if this segment might contain a literal string.
+         *
+         * @param literal the case-folded literal, or null
+         * @return false if it certainly does not
+         */
+        private boolean mayContain(final String literal) {
+            if (!filtered || (literal == null)) {
+                return true;
+            }
+            long [] filter = this.filter;
+            if (filter == null) {
+                String text = this.text;
+                if (text == null) {
+                    // release() built the bitmap before dropping the text.
+                    filter = this.filter;
+                } else {
+                    filter = buildFilter(text);
+                    this.filter = filter;
+                }
+            }
+            for (int i = 0; i + 2 < literal.length(); i++) {
+                int bit = trigram(literal.charAt(i), literal.charAt(i + 1),
+                    literal.charAt(i + 2));
+                if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Find the line that contains an offset.
+         *
+         * @param offset offset into text
+         * @return the line index within this segment
+         */
+        private int lineAt(final int offset) {
+            int i = Arrays.binarySearch(starts, 0, starts.length - 1, offset);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            return i;
+        }
+
+        /**
+         * Get the offset of a column, limited to the end of its line.
+         *
+         * @param line the line index within this segment
+         * @param column the column
+         * @return the offset into text
+         */
+        private int offsetOf(final int line, final int column) {
+            int lineEnd = starts[line + 1] - 1;
+            return (int) Math.min((long) starts[line] + column, lineEnd);
+        }
+
+    }
+
+    /**
+     * A searchable copy of the scrollback and display at one point in
+     * time.
+     */
+    static final class View {
+
+        /**
+         * The segments, oldest first.  The display is the last one.
+         */
+        private final Segment [] segments;
+
+        /**
+         * Absolute number of line index 0.
+         */
+        private final long firstLine;
+
+        /**
+         * Where to read released segment text from.
+         */
+        private final TextSource source;
+
+        /**
+         * Package private constructor.
+         *
+         * @param segments the segments, oldest first
+         * @param firstLine absolute number of the oldest line kept
+         * @param source where to read released segment text from
+         */
+        View(final Segment [] segments, final long firstLine,
+            final TextSource source) {
+
+            this.segments = segments;
+            this.firstLine = firstLine;
+            this.source = source;
+        }
+
+        /**
+         * Build the match for a found range.
+         *
+         * @param segment the segment searched
+         * @param start offset of the match in the segment text
+         * @param end offset just past the match
+         * @return the match
+         */
+        private SearchMatch newMatch(final Segment segment, final int start,
+            final int end) {
+
+            int line = segment.lineAt(start);
+            return new SearchMatch((int) (segment.firstLine + line
+                    - firstLine), start - segment.starts[line], end - start);
+        }
+
+        /**
+         * Get the offset of the oldest line still kept in a segment.
+         *
+         * @param segment the segment
+         * @return the offset
+         */
+        private int lowestOffset(final Segment segment) {
+            if (segment.firstLine >= firstLine) {
+                return 0;
+            }
+            long dropped = firstLine - segment.firstLine;
+            if (dropped >= segment.size()) {
+                return segment.length();
+            }
+            return segment.starts[(int) dropped];
+        }
+
+        /**
+         * Find the first match that starts at or after a position.
+         *
+         * @param pattern the pattern to search for
+         * @param line the line index, as in ECMA48.lineAt()
+         * @param column the column
+         * @return the match, or null if there is none
+         */
+        SearchMatch findNext(final Pattern pattern, final int line,
+            final int column) {
+
+            String literal = requiredLiteral(pattern);
+            long position = firstLine + Math.max(line, 0);
+            int fromColumn = (line < 0 ? 0 : column);
+            for (Segment segment: segments) {
+                if (segment.firstLine + segment.size() <= position) {
+                    continue;
+                }
+                if (!segment.mayContain(literal)) {
+                    continue;
+                }
+                int from = lowestOffset(segment);
+                if (position >= segment.firstLine) {
+                    from = Math.max(from, segment.offsetOf(
+                        (int) (position - segment.firstLine), fromColumn));
+                }
+                String text = segment.getText(source);
+                Matcher matcher = pattern.matcher(text);
+                matcher.useTransparentBounds(true);
+                matcher.useAnchoringBounds(false);
+                matcher.region(from, text.length());
+                if (matcher.find()) {
+                    return newMatch(segment, matcher.start(), matcher.end());
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Find the last match that starts before a position.
+         *
+         * @param pattern the pattern to search for
+         * @param line the line index, as in ECMA48.lineAt()
+         * @param column the column
+         * @return the match, or null if there is none
+         */
+        SearchMatch findPrevious(final Pattern pattern, final int line,
+            final int column) {
+
+            String literal = requiredLiteral(pattern);
+            long position = firstLine + line;
+            for (int i = segments.length - 1; i >= 0; i--) {
+                Segment segment = segments[i];
+                if (segment.firstLine > position) {
+                    continue;
+                }
+                if (!segment.mayContain(literal)) {
+                    continue;
+                }
+                int from = lowestOffset(segment);
+                int before = segment.length();
+                if (position < segment.firstLine + segment.size()) {
+                    before = segment.offsetOf(
+                        (int) (position - segment.firstLine), column);
+                }
+                String text = segment.getText(source);
+                Matcher matcher = pattern.matcher(text);
+                matcher.useTransparentBounds(true);
+                matcher.useAnchoringBounds(false);
+                matcher.region(from, text.length());
+                int start = -1;
+                int end = -1;
+                while (matcher.find() && (matcher.start() < before)) {
+                    start = matcher.start();
+                    end = matcher.end();
+                }
+                if (start >= 0) {
+                    return newMatch(segment, start, end);
+                }
+            }
+            return null;
+        }
+
+    }
+
+    /**
+     * The full segments, oldest first.
+     */
+    private List<Segment> segments = new ArrayList<Segment>();
+
+    /**
+     * Number of segments, from the oldest, whose text has been released.
+     */
+    private int released = 0;
+
+    /**
+     * The text of the lines in the newest segment.
+     */
+    private char [] text = new char[SEGMENT_LINES * 64];
+
+    /**
+     * Number of characters in text.
+     */
+    private int length = 0;
+
+    /**
+     * The line offsets in the newest segment.
+     */
+    private int [] starts = new int[SEGMENT_LINES + 1];
+
+    /**
+     * Number of lines in the newest segment.
+     */
+    private int count = 0;
+
+    /**
+     * Absolute number of the oldest line kept.
+     */
+    private long firstLine = 0;
+
+    /**
+     * Absolute number of the next line appended.
+     */
+    private long nextLine = 0;
+
+    /**
+     * Get the number of lines kept.
+     *
+     * @return the number of lines
+     */
+    int size() {
+        return (int) (nextLine - firstLine);
+    }
+
+    /**
+     * Append a line.
+     *
+     * @param line the line
+     */
+    void append(final DisplayLine line) {
+        if (length + line.getCapacity() + 1 > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2,
+                    length + line.getCapacity() + 1));
+        }
+        int start = length;
+        starts[count] = start;
+        int n = line.getText(text, start);
+        text[start + n] = '\n';
+        length = start + n + 1;
+        count++;
+        nextLine++;
+
+        if (count == SEGMENT_LINES) {
+            starts[count] = length;
+            segments.add(new Segment(nextLine - count,
+                    new String(text, 0, length), starts.clone(), true));
+            length = 0;
+            count = 0;
+        }
+    }
+
+    /**
+     * Drop the oldest lines until no more than size are left.
+     *
+     * @param size the number of lines to keep
+     */
+    void trim(final int size) {
+        if (nextLine - firstLine <= size) {
+            return;
+        }
+        firstLine = nextLine - size;
+        while ((segments.size() > 0)
+            && (segments.get(0).firstLine + SEGMENT_LINES <= firstLine)
+        ) {
+            segments.remove(0);
+            if (released > 0) {
+                released--;
+            }
+        }
+    }
+
+    /**
+     * Release the text of the full segments whose lines are all older than
+     * a line, because those lines are on disk now.  Their line offsets and
+     * trigram bitmaps are kept, and a search reads the text back when it
+     * cannot skip them.
+     *
+     * @param line absolute number of the oldest line still in memory
+     */
+    void release(final long line) {
+        while ((released < segments.size())
+            && (segments.get(released).firstLine + SEGMENT_LINES <= line)
+        ) {
+            segments.get(released).release();
+            released++;
+        }
+    }
+
+    /**
+     * Drop all lines.
+     */
+    void clear() {
+        segments.clear();
+        released = 0;
+        length = 0;
+        count = 0;
+        firstLine = nextLine;
+    }
+
+    /**
+     * Make a searchable copy of the lines and the display.  The caller
+     * must hold the emulator lock.
+     *
+     * @param display the display rows
+     * @param source where the copy reads released segment text from.  It
+     * is called without the emulator lock held.
+     * @return the copy
+     */
+    View getView(final List<DisplayLine> display, final TextSource source) {
+        Segment [] copy = new Segment[segments.size() + 2];
+        segments.toArray(copy);
+
+        // The newest segment, as it is now
+        int [] newestStarts = Arrays.copyOf(starts, count + 1);
+        newestStarts[count] = length;
+        copy[copy.length - 2] = new Segment(nextLine - count,
+            new String(text, 0, length), newestStarts, false);
+
+        // The display follows the scrollback
+        int displayLength = 0;
+        for (DisplayLine line: display) {
+            displayLength += line.getCapacity() + 1;
+        }
+        char [] displayText = new char[displayLength];
+        int [] displayStarts = new int[display.size() + 1];
+        displayLength = 0;
+        for (int i = 0; i < display.size(); i++) {
+            displayStarts[i] = displayLength;
+            displayLength += display.get(i).getText(displayText,
+                displayLength);
+            displayText[displayLength] = '\n';
+            displayLength++;
+        }
+        displayStarts[display.size()] = displayLength;
+        copy[copy.length - 1] = new Segment(nextLine,
+            new String(displayText, 0, displayLength), displayStarts,
+            false);
+
+        return new View(copy, firstLine, source);
+    }
+
+    /**
+     * Build the trigram bitmap of some text.
+     *
+     * @param text the text
+     * @return the bitmap
+     */
+    private static long [] buildFilter(final String text) {
+        long [] filter = new long[FILTER_BITS / 64];
+        if (text.length() < 3) {
+            return filter;
+        }
+        int a = fold(text.charAt(0));
+        int b = fold(text.charAt(1));
+        for (int i = 2; i < text.length(); i++) {
+            int c = fold(text.charAt(i));
+            int bit = hash(a, b, c);
+            filter[bit >>> 6] |= 1L << bit;
+            a = b;
+            b = c;
+        }
+        return filter;
+    }
+
+    /**
+     * Fold a character for the trigram bitmaps, so that a case-insensitive
+     * search can use them too.
+     *
+     * @param ch the character
+     * @return the folded character
+     */
+    private static int fold(final char ch) {
+        if (ch < 0x80) {
+            return FOLD[ch];
+        }
+        return Character.toLowerCase(ch);
+    }
+
+    /**
+     * Hash three characters to a bit in a trigram bitmap.
+     *
+     * @param a the first character
+     * @param b the second character
+     * @param c the third character
+     * @return the bit number
+     */
+    private static int trigram(final char a, final char b, final char c) {
+        return hash(fold(a), fold(b), fold(c));
+    }
+
+    /**
+     * Hash three folded characters to a bit in a trigram bitmap.
+     *
+     * @param a the first character
+     * @param b the second character
+     * @param c the third character
+     * @return the bit number
+     */
+    private static int hash(final int a, final int b, final int c) {
+        return (((a * 961) + (b * 31) + c) * 0x9E3779B1) >>> FILTER_SHIFT;
+    }
+
+    /**
+     * Find a literal string that every match of a pattern must contain.
+     * This only looks at the top level of the pattern: groups, character
+     * classes, and escapes other than quoted characters end a literal, a
+     * character followed by an optional quantifier is dropped, and any
+     * top-level alternation means there is no such literal.
+     *
+     * @param pattern the pattern
+     * @return the longest literal found, or null if there is none worth
+     * checking
+     */
+    static String requiredLiteral(final Pattern pattern) {
+        String regex = pattern.pattern();
+        int flags = pattern.flags();
+        if ((flags & Pattern.LITERAL) != 0) {
+            return checkLiteral(regex, flags);
+        }
+        if ((flags & (Pattern.COMMENTS | Pattern.CANON_EQ)) != 0) {
+            return null;
+        }
+
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        boolean lastLiteral = false;
+        int i = 0;
+        while (i < regex.length()) {
+            char ch = regex.charAt(i);
+            i++;
+            switch (ch) {
+            case '\\':
+                if (i == regex.length()) {
+                    return null;
+                }
+                ch = regex.charAt(i);
+                i++;
+                if (ch == 'Q') {
+                    int end = regex.indexOf("\\E", i);
+                    if (end < 0) {
+                        end = regex.length();
+                    }
+                    run.append(regex, i, end);
+                    // The last quoted character can still be quantified
+                    lastLiteral = (end > i);
+                    i = Math.min(end + 2, regex.length());
+                } else if (Character.isLetterOrDigit(ch)) {
+                    // A character class, boundary, or back reference
+                    best = longer(best, run);
+                    lastLiteral = false;
+                } else {
+                    run.append(ch);
+                    lastLiteral = true;
+                }
+                break;
+            case '[':
+                best = longer(best, run);
+                lastLiteral = false;
+                i = skipClass(regex, i);
+                break;
+            case '(':
+                best = longer(best, run);
+                lastLiteral = false;
+                if ((i < regex.length()) && (regex.charAt(i) == '?')) {
+                    // Inline flags might turn on case folding
+                    flags |= Pattern.CASE_INSENSITIVE;
+                }
+                i = skipGroup(regex, i);
+                break;
+            case '|':
+                return null;
+            case '*':
+            case '?':
+            case '{':
+                if (lastLiteral) {
+                    run.setLength(run.length() - 1);
+                }
+                best = longer(best, run);
+                lastLiteral = false;
+                if (ch == '{') {
+                    int end = regex.indexOf('}', i);
+                    i = (end < 0 ? regex.length() : end + 1);
+                }
+                i = skipQuantifierSuffix(regex, i);
+                break;
+            case '+':
+                best = longer(best, run);
+                lastLiteral = false;
+                i = skipQuantifierSuffix(regex, i);
+                break;
+            case '.':
+            case '^':
+            case '$':
+                best = longer(best, run);
+                lastLiteral = false;
+                break;
+            default:
+                run.append(ch);
+                lastLiteral = true;
+                break;
+            }
+        }
+        best = longer(best, run);
+        return checkLiteral(best, flags);
+    }
+
+    /**
+     * Take the longer of the best literal so far and the current run, and
+     * start a new run.
+     *
+     * @param best the best literal so far
+     * @param run the current run, emptied
+     * @return the longer one
+     */
+    private static String longer(final String best, final StringBuilder run) {
+        String result = best;
+        if (run.length() > best.length()) {
+            result = run.toString();
+        }
+        run.setLength(0);
+        return result;
+    }
+
+    /**
+     * Decide whether a literal is worth checking against the bitmaps.
+     *
+     * @param literal the literal
+     * @param flags the pattern flags
+     * @return the literal, or null
+     */
+    private static String checkLiteral(final String literal,
+        final int flags) {
+
+        if (literal.length() < MIN_LITERAL) {
+            return null;
+        }
+        if ((flags & Pattern.CASE_INSENSITIVE) != 0) {
+            // Only ASCII folds the same way here as in the pattern
+            for (int i = 0; i < literal.length(); i++) {
+                if (literal.charAt(i) >= 0x80) {
+                    return null;
+                }
+            }
+        }
+        return literal;
+    }
+
+    /**
+     * Skip a character class.
+     *
+     * @param regex the pattern
+     * @param start index just past the opening '['
+     * @return index just past the closing ']'
+     */
+    private static int skipClass(final String regex, final int start) {
+        int depth = 1;
+        int i = start;
+        if ((i < regex.length()) && (regex.charAt(i) == '^')) {
+            i++;
+        }
+        if ((i < regex.length()) && (regex.charAt(i) == ']')) {
+            // A leading ']' is a literal
+            i++;
+        }
+        while ((i < regex.length()) && (depth > 0)) {
+            char ch = regex.charAt(i);
+            if (ch == '\\') {
+                i++;
+            } else if (ch == '[') {
+                depth++;
+            } else if (ch == ']') {
+                depth--;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skip a group.
+     *
+     * @param regex the pattern
+     * @param start index just past the opening '('
+     * @return index just past the closing ')'
+     */
+    private static int skipGroup(final String regex, final int start) {
+        int depth = 1;
+        int i = start;
+        while ((i < regex.length()) && (depth > 0)) {
+            char ch = regex.charAt(i);
+            if (ch == '\\') {
+                i++;
+            } else if (ch == '[') {
+                i = skipClass(regex, i + 1) - 1;
+            } else if (ch == '(') {
+                depth++;
+            } else if (ch == ')') {
+                depth--;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skip the '?' or '+' that makes a quantifier lazy or possessive.
+     *
+     * @param regex the pattern
+     * @param start index just past the quantifier
+     * @return index past the suffix, if any
+     */
+    private static int skipQuantifierSuffix(final String regex,
+        final int start) {
+
+        if ((start < regex.length())
+            && ((regex.charAt(start) == '?') || (regex.charAt(start) == '+'))
+        ) {
+            return start + 1;
+        }
+        return start;
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+/**
+ * SearchMatch is where a search of the ECMA48 scrollback and display found
+ * a match.
+ */
+public final class SearchMatch {
+
+    /**
+     * The line index, as in ECMA48.lineAt().
+     */
+    private final int line;
+
+    /**
+     * The column of the first character.
+     */
+    private final int column;
+
+    /**
+     * The number of characters matched.
+     */
+    private final int length;
+
+    /**
+     * Package private constructor.
+     *
+     * @param line the line index
+     * @param column the column of the first character
+     * @param length the number of characters matched
+     */
+    SearchMatch(final int line, final int column, final int length) {
+        this.line = line;
+        this.column = column;
+        this.length = length;
+    }
+
+    /**
+     * Get the line index.  Indexes 0 to getScrollbackSize() - 1 are the
+     * scrollback, and the display rows follow.  The index is as of the
+     * search: once more lines are dropped off the top of the scrollback,
+     * the line is further up.
+     *
+     * @return the line index
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Get the column of the first character matched.
+     *
+     * @return the column
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * Get the number of characters matched.  A match can run on past the
+     * end of its line if the pattern matches line breaks.
+     *
+     * @return the length
+     */
+    public int getLength() {
+        return length;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+import jexer.bits.CellAttributes;
+
+/**
+ * SnapshotLine is an immutable copy of one row of the ECMA48 display, as
+ * published in a ScreenSnapshot.  A row that does not change between
+ * snapshots is shared by them, so a renderer can also compare rows by
+ * identity to see which ones changed.
+ */
+public final class SnapshotLine {
+
+    /**
+     * The characters of the row.
+     */
+    private final char [] glyphs;
+
+    /**
+     * The packed attributes of the row.
+     */
+    private final int [] attrs;
+
+    /**
+     * Double width line flag.
+     */
+    private final boolean doubleWidth;
+
+    /**
+     * Double height line flag: 0 = single height, 1 = top half, 2 = bottom
+     * half.
+     */
+    private final int doubleHeight;
+
+    /**
+     * DECSCNM - reverse video.
+     */
+    private final boolean reverseColor;
+
+    /**
+     * Package private constructor copies a DisplayLine.
+     *
+     * @param line the line to copy
+     * @param width number of columns to copy
+     */
+    SnapshotLine(final DisplayLine line, final int width) {
+        glyphs = new char[width];
+        attrs = new int[width];
+        line.copyTo(glyphs, attrs);
+        doubleWidth = line.isDoubleWidth();
+        doubleHeight = line.getDoubleHeight();
+        reverseColor = line.isReverseColor();
+    }
+
+    /**
+     * Get the number of columns in this row.
+     *
+     * @return the number of columns
+     */
+    public int length() {
+        return glyphs.length;
+    }
+
+    /**
+     * Get the character at a column.
+     *
+     * @param idx the column
+     * @return the character
+     */
+    public char getChar(final int idx) {
+        return glyphs[idx];
+    }
+
+    /**
+     * Copy the attributes at a column into attr.
+     *
+     * @param idx the column
+     * @param attr the attributes to set
+     */
+    public void getAttr(final int idx, final CellAttributes attr) {
+        DisplayLine.unpackAttr(attrs[idx], attr);
+    }
+
+    /**
+     * Get double width flag.
+     *
+     * @return double width
+     */
+    public boolean isDoubleWidth() {
+        return doubleWidth;
+    }
+
+    /**
+     * Get double height flag.
+     *
+     * @return double height
+     */
+    public int getDoubleHeight() {
+        return doubleHeight;
+    }
+
+    /**
+     * Get reverse video flag.
+     *
+     * @return reverse video
+     */
+    public boolean isReverseColor() {
+        return reverseColor;
+    }
+
+}
@@ -0,0 +1,384 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * License: LGPLv3 or later
+ *
+ * This module is licensed under the GNU Lesser General Public License
+ * Version 3.  Please see the file "COPYING" in this directory for more
+ * information about the GNU Lesser General Public License Version 3.
+ *
+ *     Copyright (C) 2015  Kevin Lamonte
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, see
+ * http://www.gnu.org/licenses/, or write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SpilledScrollback keeps the older part of a ScrollbackBuffer on disk.
+ * Lines are encoded as CompactLines and appended to segment files in the
+ * temp directory, each with an in-memory index of line offsets.  Lines are
+ * read back through a memory-mapped view of the segment.  Once every line
+ * of a segment has been dropped, its file is deleted; close() deletes the
+ * rest.
+ *
+ * <p>
+ * If a segment cannot be written or read, the affected lines come back as
+ * blank lines rather than failing the emulator.
+ */
+final class SpilledScrollback {
+
+    /**
+     * Size at which a segment file is finished and a new one started.
+     */
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Size of the write buffer in front of the newest segment.
+     */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of decoded lines kept so that repeated draws of the same rows
+     * return the same CompactLine.
+     */
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * One segment file.
+     */
+    private static final class Segment {
+
+        /**
+         * The file.
+         */
+        private File file;
+
+        /**
+         * The file, open for reading and writing.
+         */
+        private RandomAccessFile raf;
+
+        /**
+         * Absolute number of the first line in this segment.
+         */
+        private long firstLine;
+
+        /**
+         * Number of lines written.
+         */
+        private int count = 0;
+
+        /**
+         * offsets[i] is the file position of line i.  The line ends where
+         * the next one starts, or at length.
+         */
+        private int [] offsets = new int[1024];
+
+        /**
+         * Number of bytes written, including bytes still in the write
+         * buffer.
+         */
+        private int length = 0;
+
+        /**
+         * Number of bytes actually in the file.
+         */
+        private int flushed = 0;
+
+        /**
+         * Read-only view of the file, or null if it has not been mapped.
+         */
+        private MappedByteBuffer map;
+
+        /**
+         * Get the end position of a line.
+         *
+         * @param i line index within this segment
+         * @return the file position just past the line
+         */
+        private int getEnd(final int i) {
+            if (i + 1 < count) {
+                return offsets[i + 1];
+            }
+            return length;
+        }
+
+        /**
+         * Close and delete the file.
+         */
+        private void delete() {
+            map = null;
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // SQUASH
+            }
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * The segments, oldest first.
+     */
+    private List<Segment> segments = new ArrayList<Segment>();
+
+    /**
+     * Bytes not yet written to the newest segment.
+     */
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+    /**
+     * Absolute number of the oldest line kept.
+     */
+    private long firstLine = 0;
+
+    /**
+     * Absolute number of the next line to be appended.
+     */
+    private long nextLine = 0;
+
+    /**
+     * Recently decoded lines, indexed by absolute line number modulo
+     * CACHE_SIZE.
+     */
+    private CompactLine [] cache = new CompactLine[CACHE_SIZE];
+
+    /**
+     * The absolute line number of each cache entry.
+     */
+    private long [] cacheLine = new long[CACHE_SIZE];
+
+    /**
+     * Package private constructor.
+     */
+    SpilledScrollback() {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            cacheLine[i] = -1;
+        }
+    }
+
+    /**
+     * Get the number of lines kept.
+     *
+     * @return the number of lines
+     */
+    int size() {
+        return (int) (nextLine - firstLine);
+    }
+
+    /**
+     * Append a line.
+     *
+     * @param line the line
+     */
+    void append(final CompactLine line) {
+        int n = line.getEncodedLength();
+        Segment segment = null;
+        if (segments.size() > 0) {
+            segment = segments.get(segments.size() - 1);
+        }
+        if ((segment == null) || (segment.length + n > SEGMENT_SIZE)) {
+            flush();
+            segment = newSegment();
+        }
+        if (segment.count == segment.offsets.length) {
+            int [] newOffsets = new int[segment.offsets.length * 2];
+            System.arraycopy(segment.offsets, 0, newOffsets, 0,
+                segment.count);
+            segment.offsets = newOffsets;
+        }
+        segment.offsets[segment.count] = segment.length;
+        segment.count++;
+        nextLine++;
+
+        if (segment.raf == null) {
+            // The segment could not be created, this line will read back
+            // blank.
+            return;
+        }
+        if (writeBuffer.remaining() < n) {
+            flush();
+        }
+        if (writeBuffer.remaining() < n) {
+            // Bigger than the buffer, which a line never should be.
+            writeBuffer = ByteBuffer.allocate(n);
+        }
+        line.encode(writeBuffer);
+        segment.length += n;
+    }
+
+    /**
+     * Start a new segment file.
+     *
+     * @return the new segment
+     */
+    private Segment newSegment() {
+        Segment segment = new Segment();
+        segment.firstLine = nextLine;
+        try {
+            // Files.createTempFile() makes the file readable only by its
+            // owner, where the file system can say so: the scrollback may
+            // hold secrets that were echoed to the screen.
+            segment.file = Files.createTempFile("jexer",
+                ".scrollback").toFile();
+            segment.file.deleteOnExit();
+            segment.raf = new RandomAccessFile(segment.file, "rw");
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (segment.file != null) {
+                segment.file.delete();
+            }
+            segment.raf = null;
+        }
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Write the write buffer out to the newest segment.
+     */
+    private void flush() {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        Segment segment = segments.get(segments.size() - 1);
+        writeBuffer.flip();
+        try {
+            FileChannel channel = segment.raf.getChannel();
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer, segment.flushed
+                    + writeBuffer.position());
+            }
+            segment.flushed = segment.length;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Drop the oldest line.
+     */
+    void dropOldest() {
+        assert (nextLine > firstLine);
+        firstLine++;
+        Segment segment = segments.get(0);
+        if (firstLine == segment.firstLine + segment.count) {
+            if (segments.size() == 1) {
+                // The write buffer belongs to this segment.
+                writeBuffer.clear();
+            }
+            if (segment.raf != null) {
+                segment.delete();
+            }
+            segments.remove(0);
+        }
+    }
+
+    /**
+     * Get a line.
+     *
+     * @param index line index, 0 is the oldest line kept
+     * @return the line
+     */
+    CompactLine get(final int index) {
+        long abs = firstLine + index;
+        int slot = (int) (abs % CACHE_SIZE);
+        if (cacheLine[slot] == abs) {
+            return cache[slot];
+        }
+
+        // Find the segment: binary search on firstLine.
+        int lo = 0;
+        int hi = segments.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) / 2;
+            if (segments.get(mid).firstLine <= abs) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        Segment segment = segments.get(lo);
+        int i = (int) (abs - segment.firstLine);
+        int start = segment.offsets[i];
+        int end = segment.getEnd(i);
+
+        CompactLine line = null;
+        if ((segment.raf != null) && (end > start)) {
+            if ((end > segment.flushed)
+                && (segment == segments.get(segments.size() - 1))
+            ) {
+                flush();
+            }
+            try {
+                if ((segment.map == null) || (segment.map.capacity() < end)) {
+                    segment.map = segment.raf.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, 0, segment.flushed);
+                }
+                ByteBuffer buffer = segment.map.duplicate();
+                buffer.position(start);
+                line = CompactLine.decode(buffer);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (RuntimeException e) {
+                // Short or damaged file
+                e.printStackTrace();
+            }
+        }
+        if (line == null) {
+            line = CompactLine.blank();
+        }
+        cache[slot] = line;
+        cacheLine[slot] = abs;
+        return line;
+    }
+
+    /**
+     * Delete all the segment files.  No lines are kept after this.
+     */
+    void close() {
+        for (Segment segment: segments) {
+            if (segment.raf != null) {
+                segment.delete();
+            }
+        }
+        segments.clear();
+        writeBuffer.clear();
+        firstLine = nextLine;
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            cache[i] = null;
+            cacheLine[i] = -1;
+        }
+    }
+
+}